@@ -0,0 +1,72 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.model.Account;
+import com.roland.training.model.CheckingAccount;
+import com.roland.training.model.Money;
+import com.roland.training.model.SavingsAccount;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory balance arithmetic of the account entities, without persistence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountArithmeticBenchmark {
+    private static final Money START = Money.ofMinor(1_000_000_00);
+    private static final Money AMOUNT = Money.ofMinor(12_34);
+
+    private Account checking;
+    private Account savings;
+
+    // Reset every iteration so balances stay in a realistic range and fees never overdraw
+    @Setup(Level.Iteration)
+    public void setUp() {
+        checking = new CheckingAccount("CHK-BENCH", START);
+        savings = new SavingsAccount("SAV-BENCH", START);
+    }
+
+    @Benchmark
+    public Money checkingDepositWithdraw() {
+        checking.deposit(AMOUNT);
+        checking.withdraw(AMOUNT);
+        return checking.getBalance();
+    }
+
+    @Benchmark
+    public Money savingsDepositWithdraw() {
+        savings.deposit(AMOUNT);
+        savings.withdraw(AMOUNT);
+        return savings.getBalance();
+    }
+
+    // A fresh account per call, so every call charges the same fee on the same balance
+    @Benchmark
+    public Money checkingMonthlyFees() {
+        Account account = new CheckingAccount("CHK-BENCH", START);
+        account.processMonthlyFees();
+        return account.getBalance();
+    }
+
+    @Benchmark
+    public Money savingsMonthlyInterest() {
+        Account account = new SavingsAccount("SAV-BENCH", START);
+        account.processMonthlyFees();
+        return account.getBalance();
+    }
+}
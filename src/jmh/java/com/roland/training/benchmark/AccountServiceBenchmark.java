@@ -0,0 +1,80 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.model.AccountType;
+import com.roland.training.service.AccountService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposit, withdrawal and transfer through {@link AccountService} against H2, including the
+ * locking, optimistic retry, rollups and activity logging of each posting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountServiceBenchmark {
+    private static final int ACCOUNTS = 1_000;
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+    private ConfigurableApplicationContext context;
+    private AccountService accountService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        accountService = context.getBean(AccountService.class);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            // Large enough that withdrawals never run out during a trial
+            accountService.createAccount(AccountType.SAVINGS, accountId(i), new BigDecimal("100000000.00"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void deposit() {
+        accountService.deposit(randomAccount(), AMOUNT);
+    }
+
+    @Benchmark
+    public void withdraw() {
+        accountService.withdraw(randomAccount(), AMOUNT);
+    }
+
+    @Benchmark
+    public void transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(ACCOUNTS);
+        int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+        accountService.transfer(accountId(from), accountId(to), AMOUNT);
+    }
+
+    private static String randomAccount() {
+        return accountId(ThreadLocalRandom.current().nextInt(ACCOUNTS));
+    }
+
+    private static String accountId(int i) {
+        return "BENCH" + i;
+    }
+}
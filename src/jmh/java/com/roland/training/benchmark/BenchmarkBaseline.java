@@ -0,0 +1,146 @@
+package com.roland.training.benchmark;
+
+import org.openjdk.jmh.results.RunResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Benchmark scores stored as CSV ({@code benchmark,params,mode,score,error,unit}) and compared
+ * against a new run. Throughput scores regress when they drop; time-per-operation scores
+ * regress when they grow.
+ */
+final class BenchmarkBaseline {
+    private static final String HEADER = "benchmark,params,mode,score,error,unit";
+
+    private final Map<String, Score> scores;
+
+    private BenchmarkBaseline(Map<String, Score> scores) {
+        this.scores = scores;
+    }
+
+    static BenchmarkBaseline of(Collection<RunResult> results) {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (RunResult result : results) {
+            Map<String, String> params = new TreeMap<>();
+            for (String key : result.getParams().getParamsKeys()) {
+                params.put(key, result.getParams().getParam(key));
+            }
+            String paramList = params.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue())
+                    .reduce((a, b) -> a + ";" + b)
+                    .orElse("");
+            Score score = new Score(result.getParams().getBenchmark(), paramList,
+                    result.getParams().getMode().shortLabel(),
+                    result.getPrimaryResult().getScore(),
+                    result.getPrimaryResult().getScoreError(),
+                    result.getPrimaryResult().getScoreUnit());
+            scores.put(score.key(), score);
+        }
+        return new BenchmarkBaseline(scores);
+    }
+
+    static BenchmarkBaseline read(Path file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        if (!Files.exists(file)) {
+            return new BenchmarkBaseline(scores);
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#") || line.equals(HEADER)) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (fields.length != 6) {
+                throw new IOException("Malformed baseline line: " + line);
+            }
+            Score score = new Score(fields[0], fields[1], fields[2],
+                    Double.parseDouble(fields[3]), Double.parseDouble(fields[4]), fields[5]);
+            scores.put(score.key(), score);
+        }
+        return new BenchmarkBaseline(scores);
+    }
+
+    void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (Score score : scores.values()) {
+            lines.add(String.join(",", score.benchmark, score.params, score.mode,
+                    format(score.score), format(score.error), score.unit));
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares this run with a baseline
+     *
+     * @param baseline         The reference scores
+     * @param thresholdPercent Allowed slowdown in percent before a score counts as a regression
+     * @param report           Receives a table of every benchmark with its change
+     * @return One line per regression; benchmarks missing from the baseline are not regressions
+     */
+    List<String> regressionsAgainst(BenchmarkBaseline baseline, double thresholdPercent, StringBuilder report) {
+        List<String> regressions = new ArrayList<>();
+        report.append(String.format("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change"));
+        for (Score current : scores.values()) {
+            Score reference = baseline.scores.get(current.key());
+            if (reference == null || !reference.unit.equals(current.unit)) {
+                report.append(String.format("%-90s %14s %14s %9s%n", current.key(), "-", format(current.score), "new"));
+                continue;
+            }
+            // Positive change means slower, whatever the mode
+            double change = current.isThroughput()
+                    ? (reference.score - current.score) / reference.score * 100
+                    : (current.score - reference.score) / reference.score * 100;
+            boolean regressed = change > thresholdPercent;
+            report.append(String.format("%-90s %14s %14s %+8.1f%%%s%n", current.key(),
+                    format(reference.score), format(current.score), change, regressed ? "  REGRESSION" : ""));
+            if (regressed) {
+                regressions.add(String.format("%s: %s -> %s %s (%.1f%% slower)", current.key(),
+                        format(reference.score), format(current.score), current.unit, change));
+            }
+        }
+        return regressions;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.4f", value);
+    }
+
+    private static final class Score {
+        private final String benchmark;
+        private final String params;
+        private final String mode;
+        private final double score;
+        private final double error;
+        private final String unit;
+
+        Score(String benchmark, String params, String mode, double score, double error, String unit) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.mode = mode;
+            this.score = score;
+            this.error = Double.isNaN(error) ? 0 : error;
+            this.unit = unit;
+        }
+
+        String key() {
+            return benchmark + (params.isEmpty() ? "" : "[" + params + "]") + " " + mode;
+        }
+
+        boolean isThroughput() {
+            return "thrpt".equals(mode);
+        }
+    }
+}
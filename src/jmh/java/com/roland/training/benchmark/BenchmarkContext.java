@@ -0,0 +1,33 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Boots the application without the web server, on a private in-memory H2 database, for the
+ * benchmarks that go through Spring services.
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.datasource.url", "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("activity.log.dir", System.getProperty("java.io.tmpdir") + "/banking-bench-" + UUID.randomUUID());
+
+        SpringApplication application = new SpringApplication(BankingSystemSpringBootApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setDefaultProperties(properties);
+        return application.run();
+    }
+}
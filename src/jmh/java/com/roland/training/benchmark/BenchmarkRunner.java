@@ -0,0 +1,67 @@
+package com.roland.training.benchmark;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs the benchmarks and compares them with the committed baseline.
+ *
+ * System properties:
+ * <ul>
+ *     <li>{@code jmh.include}: regular expression selecting the benchmarks (default all)</li>
+ *     <li>{@code jmh.mode}: {@code compare} (default) fails on regressions, {@code baseline}
+ *     rewrites the baseline file with the new scores, {@code run} only prints them</li>
+ *     <li>{@code jmh.threshold}: allowed slowdown in percent (default 10)</li>
+ *     <li>{@code jmh.baseline}: baseline file (default {@code benchmarks/baseline.csv})</li>
+ * </ul>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String include = System.getProperty("jmh.include", BenchmarkRunner.class.getPackageName() + ".*Benchmark");
+        String mode = System.getProperty("jmh.mode", "compare");
+        double threshold = Double.parseDouble(System.getProperty("jmh.threshold", "10"));
+        Path baselineFile = Paths.get(System.getProperty("jmh.baseline", "benchmarks/baseline.csv"));
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-result.json")
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        BenchmarkBaseline current = BenchmarkBaseline.of(results);
+
+        switch (mode) {
+            case "baseline":
+                current.write(baselineFile);
+                System.out.println("Baseline written to " + baselineFile.toAbsolutePath());
+                break;
+            case "compare":
+                StringBuilder report = new StringBuilder();
+                List<String> regressions = current.regressionsAgainst(BenchmarkBaseline.read(baselineFile), threshold, report);
+                System.out.println(report);
+                if (!regressions.isEmpty()) {
+                    System.err.printf("%d benchmark(s) regressed by more than %.1f%%:%n", regressions.size(), threshold);
+                    regressions.forEach(regression -> System.err.println("  " + regression));
+                    System.exit(1);
+                }
+                System.out.println("No regressions beyond " + threshold + "%");
+                break;
+            case "run":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown jmh.mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.config.JwtTokenUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtTokenUtilBenchmark {
+    private JwtTokenUtil jwtTokenUtil;
+    private UserDetails userDetails;
+    private String token;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        jwtTokenUtil = new JwtTokenUtil();
+        Field secret = JwtTokenUtil.class.getDeclaredField("secret");
+        secret.setAccessible(true);
+        secret.set(jwtTokenUtil, "benchmark-secret-benchmark-secret-benchmark-secret-benchmark-secret");
+        userDetails = new User("09171234567", "pin", new ArrayList<>());
+        token = jwtTokenUtil.generateTokenForLogin(userDetails);
+    }
+
+    @Benchmark
+    public String generate() {
+        return jwtTokenUtil.generateTokenForLogin(userDetails);
+    }
+
+    @Benchmark
+    public String parse() {
+        return jwtTokenUtil.getUsernameFromToken(token);
+    }
+
+    @Benchmark
+    public Boolean validate() {
+        return jwtTokenUtil.validateToken(token, userDetails);
+    }
+}
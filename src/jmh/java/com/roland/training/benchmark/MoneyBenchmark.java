@@ -0,0 +1,111 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.model.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance arithmetic with {@link Money} against the BigDecimal code it replaced.
+ *
+ * The {@code bigDecimal*} methods reproduce the former account and service code line by line:
+ * the overdraft limit parsed per call, subtraction to compare against a floor, and interest
+ * without a rounding scale. Run with {@code -prof gc} to compare allocations per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyBenchmark {
+    private static final BigDecimal START = new BigDecimal("1000000.00");
+    private static final BigDecimal AMOUNT = new BigDecimal("12.34");
+    private static final BigDecimal MINIMUM_BALANCE = new BigDecimal("100.00");
+    private static final BigDecimal INTEREST_RATE = new BigDecimal("0.025");
+
+    private static final Money MONEY_START = Money.of(START);
+    private static final Money MONEY_AMOUNT = Money.of(AMOUNT);
+    private static final Money MONEY_MINIMUM_BALANCE = Money.of(MINIMUM_BALANCE);
+    private static final Money MONEY_OVERDRAFT_LIMIT = Money.ofMinor(-100_00);
+
+    private BigDecimal decimalBalance;
+    private Money moneyBalance;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        decimalBalance = START;
+        moneyBalance = MONEY_START;
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimalDepositWithdraw() {
+        decimalBalance = decimalBalance.add(AMOUNT);
+        if (decimalBalance.subtract(AMOUNT).compareTo(MINIMUM_BALANCE) >= 0) {
+            decimalBalance = decimalBalance.subtract(AMOUNT);
+        }
+        return decimalBalance;
+    }
+
+    @Benchmark
+    public Money moneyDepositWithdraw() {
+        moneyBalance = moneyBalance.plus(MONEY_AMOUNT);
+        if (moneyBalance.canSubtract(MONEY_AMOUNT, MONEY_MINIMUM_BALANCE)) {
+            moneyBalance = moneyBalance.minus(MONEY_AMOUNT);
+        }
+        return moneyBalance;
+    }
+
+    @Benchmark
+    public boolean bigDecimalOverdraftCheck() {
+        BigDecimal overdraftLimit = new BigDecimal("-100.00");
+        return decimalBalance.subtract(AMOUNT).compareTo(overdraftLimit) >= 0;
+    }
+
+    @Benchmark
+    public boolean moneyOverdraftCheck() {
+        return moneyBalance.canSubtract(MONEY_AMOUNT, MONEY_OVERDRAFT_LIMIT);
+    }
+
+    @Benchmark
+    public BigDecimal bigDecimalInterest() {
+        return START.add(START.multiply(INTEREST_RATE));
+    }
+
+    @Benchmark
+    public Money moneyInterest() {
+        return MONEY_START.plus(MONEY_START.times(INTEREST_RATE, RoundingMode.HALF_EVEN));
+    }
+
+    // Sum of a batch of postings, as applied to the ledger totals
+    @Benchmark
+    public BigDecimal bigDecimalNet() {
+        BigDecimal net = BigDecimal.ZERO;
+        for (int i = 0; i < 16; i++) {
+            net = net.add((i & 1) == 0 ? AMOUNT : AMOUNT.negate());
+        }
+        return net;
+    }
+
+    @Benchmark
+    public long moneyNet() {
+        long netMinor = 0;
+        for (int i = 0; i < 16; i++) {
+            long minor = MONEY_AMOUNT.getMinorUnits();
+            netMinor = Math.addExact(netMinor, (i & 1) == 0 ? minor : -minor);
+        }
+        return netMinor;
+    }
+}
@@ -0,0 +1,123 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.model.AccountActivityCount;
+import com.roland.training.repository.TransactionRepository;
+import com.roland.training.service.TransactionAnalyticsService;
+import com.roland.training.util.TransactionColumns.Dimension;
+import com.roland.training.util.TransactionColumns.Group;
+import com.roland.training.util.TransactionColumns.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The report aggregates as JPA/SQL queries on H2 ({@code sql*}) against the same aggregates from
+ * the in-memory column store ({@code columnar*}), over 100k and 1M seeded transactions spread
+ * over 1000 accounts of both types.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TransactionAnalyticsBenchmark {
+    private static final int ACCOUNTS = 1_000;
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private ConfigurableApplicationContext context;
+    private TransactionRepository transactionRepository;
+    private TransactionAnalyticsService transactionAnalyticsService;
+    private JdbcTemplate jdbc;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        transactionRepository = context.getBean(TransactionRepository.class);
+        transactionAnalyticsService = context.getBean(TransactionAnalyticsService.class);
+        jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+        jdbc.update("INSERT INTO accounts (account_id, account_type, balance, created_at, version, " +
+                "interest_rate, monthly_transactions) " +
+                "SELECT 'ACC' || X, CASE WHEN MOD(X, 2) = 0 THEN 'SAVINGS' ELSE 'CHECKING' END, 1000.00, " +
+                "CURRENT_TIMESTAMP, 0, 0.025, 0 FROM SYSTEM_RANGE(0, " + (ACCOUNTS - 1) + ")");
+        jdbc.update("INSERT INTO transactions (id, account_id, amount, transaction_date, transaction_type) " +
+                "SELECT X, 'ACC' || MOD(X, " + ACCOUNTS + "), CASE WHEN MOD(X, 3) = 0 THEN -10.00 ELSE 25.00 END, " +
+                "DATEADD('SECOND', -X, CURRENT_TIMESTAMP), CASE WHEN MOD(X, 3) = 0 THEN 'WITHDRAWAL' ELSE 'DEPOSIT' END " +
+                "FROM SYSTEM_RANGE(1, " + rows + ")");
+        jdbc.execute("ANALYZE");
+        // The seed bypassed the posting path, so the store is loaded again
+        transactionAnalyticsService.load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public BigDecimal[] sqlDailyTotals() {
+        LocalDate today = LocalDate.now();
+        return new BigDecimal[]{transactionRepository.sumDepositsAfterDate(today.atStartOfDay()),
+                transactionRepository.sumWithdrawalsAfterDate(today.atStartOfDay())};
+    }
+
+    @Benchmark
+    public Map<String, Object> columnarDailyTotals() {
+        return transactionAnalyticsService.getDailyTotals(LocalDate.now());
+    }
+
+    @Benchmark
+    public Object[] sqlMostActiveAccount() {
+        return transactionRepository.findMostActiveAccount().get(0);
+    }
+
+    @Benchmark
+    public Optional<AccountActivityCount> columnarMostActiveAccount() {
+        return transactionAnalyticsService.getMostActiveAccount();
+    }
+
+    @Benchmark
+    public List<Object[]> sqlTotalsByAccount() {
+        return transactionRepository.aggregateByAccount();
+    }
+
+    @Benchmark
+    public List<Group> columnarTotalsByAccount() {
+        return transactionAnalyticsService.query(Query.transactions().groupBy(Dimension.ACCOUNT));
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> sqlDepositsByHourAndAccountType() {
+        return jdbc.queryForList("SELECT HOUR(t.transaction_date), a.account_type, SUM(t.amount), COUNT(*) " +
+                "FROM transactions t JOIN accounts a ON a.account_id = t.account_id " +
+                "WHERE t.transaction_type = 'DEPOSIT' GROUP BY HOUR(t.transaction_date), a.account_type");
+    }
+
+    @Benchmark
+    public List<Group> columnarDepositsByHourAndAccountType() {
+        return transactionAnalyticsService.query(Query.transactions().transactionTypes("DEPOSIT")
+                .groupBy(Dimension.HOUR_OF_DAY, Dimension.ACCOUNT_TYPE));
+    }
+}
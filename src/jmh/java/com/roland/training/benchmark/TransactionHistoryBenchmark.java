@@ -0,0 +1,74 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.model.TransactionPage;
+import com.roland.training.service.TransactionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction history reads over a seeded table of 10k, 100k and 1M rows spread over 1000
+ * accounts: the full history, one account's history and the first keyset page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TransactionHistoryBenchmark {
+    private static final int ACCOUNTS = 1_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        transactionService = context.getBean(TransactionService.class);
+        JdbcTemplate jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+        jdbc.update("INSERT INTO transactions (id, account_id, amount, transaction_date) " +
+                "SELECT X, 'ACC' || MOD(X, " + ACCOUNTS + "), CASE WHEN MOD(X, 3) = 0 THEN -10.00 ELSE 25.00 END, " +
+                "DATEADD('SECOND', -X, CURRENT_TIMESTAMP) FROM SYSTEM_RANGE(1, " + rows + ")");
+        jdbc.execute("ANALYZE");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<String> fullHistory() {
+        return transactionService.readTransactionHistory();
+    }
+
+    @Benchmark
+    public List<String> accountHistory() {
+        return transactionService.readTransactionHistory("ACC7");
+    }
+
+    @Benchmark
+    public TransactionPage firstKeysetPage() {
+        return transactionService.readTransactionHistoryPage(null, 100);
+    }
+}
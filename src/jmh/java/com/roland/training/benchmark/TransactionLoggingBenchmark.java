@@ -0,0 +1,60 @@
+package com.roland.training.benchmark;
+
+import com.roland.training.service.TransactionService;
+import com.roland.training.util.FileReporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TransactionService#logTransaction(String, BigDecimal)}, which persists the row and
+ * writes the binary activity log and journal, next to the direct {@link FileReporter} append it
+ * replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionLoggingBenchmark {
+    private static final BigDecimal AMOUNT = new BigDecimal("12.34");
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        transactionService = context.getBean(TransactionService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void logTransaction() {
+        transactionService.logTransaction("BENCH0", AMOUNT);
+    }
+
+    @Benchmark
+    public void fileReporterLogActivity() throws IOException {
+        FileReporter.logActivity("DEPOSIT: Account BENCH0 | Amount: 12.34");
+    }
+}
@@ -2,8 +2,12 @@ package com.roland.training.bankingsystemspringboot;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 
-@SpringBootApplication
+@SpringBootApplication(scanBasePackages = "com.roland.training")
+@EntityScan("com.roland.training.model")
+@EnableJpaRepositories("com.roland.training.repository")
 public class BankingSystemSpringBootApplication {
 
     public static void main(String[] args) {
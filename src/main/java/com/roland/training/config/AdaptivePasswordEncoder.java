@@ -0,0 +1,162 @@
+package com.roland.training.config;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BCrypt encoder with a cost calibrated at startup and verification on a dedicated pool.
+ *
+ * The cost is the highest one whose hash time stays under {@code security.bcrypt.target-millis}
+ * on this machine, but never below {@code security.bcrypt.min-strength}. Hashes with a lower cost
+ * report {@link #upgradeEncoding(String)}, so the authentication provider re-hashes them on the
+ * next successful login.
+ *
+ * {@link #matches(CharSequence, String)} runs on a fixed pool with a bounded queue, so a login
+ * burst can use at most that many cores. When the queue is full, or the wait exceeds
+ * {@code security.bcrypt.verify-timeout-ms}, the login fails fast instead of queueing further.
+ */
+@Component
+public class AdaptivePasswordEncoder implements PasswordEncoder {
+    private static final int MAX_STRENGTH = 16;
+    private static final int PROBE_STRENGTH = 8;
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final BCryptPasswordEncoder delegate;
+    private final int strength;
+    private final ThreadPoolExecutor executor;
+    private final long verifyTimeoutMillis;
+
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder verifyNanos = new LongAdder();
+    private final AtomicLong maxVerifyNanos = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder encodes = new LongAdder();
+
+    public AdaptivePasswordEncoder(@Value("${security.bcrypt.target-millis:250}") long targetMillis,
+                                   @Value("${security.bcrypt.min-strength:10}") int minStrength,
+                                   @Value("${security.bcrypt.threads:0}") int threads,
+                                   @Value("${security.bcrypt.queue-capacity:64}") int queueCapacity,
+                                   @Value("${security.bcrypt.verify-timeout-ms:2000}") long verifyTimeoutMillis) {
+        this.strength = calibrate(targetMillis, Math.max(4, Math.min(minStrength, MAX_STRENGTH)));
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.verifyTimeoutMillis = verifyTimeoutMillis;
+
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+            Thread thread = new Thread(runnable, "bcrypt-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        logger.info("BCrypt cost {} for a {} ms target, {} verification threads", strength, targetMillis, poolSize);
+    }
+
+    // Times one hash at a low cost and extrapolates; every extra cost step doubles the work
+    private int calibrate(long targetMillis, int minStrength) {
+        BCryptPasswordEncoder probe = new BCryptPasswordEncoder(PROBE_STRENGTH);
+        probe.encode("calibration");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            probe.encode("calibration");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double ratio = (double) TimeUnit.MILLISECONDS.toNanos(targetMillis) / Math.max(1, best);
+        int extraSteps = ratio < 1 ? 0 : (int) Math.floor(Math.log(ratio) / Math.log(2));
+        return Math.max(minStrength, Math.min(MAX_STRENGTH, PROBE_STRENGTH + extraSteps));
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        encodes.increment();
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        Future<Boolean> result;
+        try {
+            result = executor.submit(() -> timedMatches(rawPassword, encodedPassword));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new AuthenticationServiceException("Too many concurrent logins, try again later");
+        }
+        try {
+            return result.get(verifyTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            timedOut.increment();
+            throw new AuthenticationServiceException("Login verification timed out, try again later");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Interrupted while verifying login", e);
+        } catch (ExecutionException e) {
+            throw new AuthenticationServiceException("Login verification failed", e.getCause());
+        }
+    }
+
+    private boolean timedMatches(CharSequence rawPassword, String encodedPassword) {
+        long start = System.nanoTime();
+        try {
+            return delegate.matches(rawPassword, encodedPassword);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            verifications.increment();
+            verifyNanos.add(elapsed);
+            maxVerifyNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = verifications.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("strength", strength);
+        metrics.put("threads", executor.getMaximumPoolSize());
+        metrics.put("activeVerifications", executor.getActiveCount());
+        metrics.put("queueDepth", executor.getQueue().size());
+        metrics.put("queueCapacity", executor.getQueue().size() + executor.getQueue().remainingCapacity());
+        metrics.put("verifications", count);
+        metrics.put("avgVerifyMillis", count == 0 ? 0.0 : verifyNanos.sum() / (double) count / 1_000_000);
+        metrics.put("maxVerifyMillis", TimeUnit.NANOSECONDS.toMillis(maxVerifyNanos.get()));
+        metrics.put("rejected", rejected.sum());
+        metrics.put("timedOut", timedOut.sum());
+        metrics.put("encodes", encodes.sum());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -2,6 +2,7 @@ package com.roland.training.config;
 
 import com.roland.training.exception.MyJwtTokenExpiredException;
 import com.roland.training.service.JwtUserDetailService;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,38 +29,61 @@ public class JwtRequestFilter extends OncePerRequestFilter {
     @Autowired
     private JwtTokenUtil jwtTokenUtil;
 
+    @Autowired
+    private JwtTokenCache jwtTokenCache;
+
     private final Logger logger = LogManager.getLogger(getClass());
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
             throws ServletException, IOException {
         final String requestTokenHeader = request.getHeader("token");
-        String username = null;
-        String jwtToken = null;
-        logger.info(request.getRequestURL());
+        if (logger.isDebugEnabled()) {
+            logger.debug(request.getRequestURL());
+        }
         if (requestTokenHeader != null) {
-            jwtToken = requestTokenHeader;
-            try {
-                username = jwtTokenUtil.getUsernameFromToken(jwtToken);
-            } catch (IllegalArgumentException e) {
-                logger.info("Unable to get JWT Token");
-            } catch (ExpiredJwtException e) {
-                logger.info("JWT Token has expired");
-                throw new MyJwtTokenExpiredException("Token Expired");
+            if (SecurityContextHolder.getContext().getAuthentication() == null) {
+                JwtTokenCache.VerifiedToken verified = verify(requestTokenHeader);
+                if (verified != null) {
+                    UserDetails userDetails = verified.getUserDetails();
+                    UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
+                            userDetails, null, userDetails.getAuthorities());
+                    usernamePasswordAuthenticationToken
+                            .setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                    SecurityContextHolder.getContext().setAuthentication(usernamePasswordAuthenticationToken);
+                }
             }
         } else {
             logger.warn("JWT Token does not found");
         }
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            UserDetails userDetails = this.jwtUserDetailsService.loadUserByUsername(username);
-            if (jwtTokenUtil.validateToken(jwtToken, userDetails)) {
-                UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken = new UsernamePasswordAuthenticationToken(
-                        userDetails, null, userDetails.getAuthorities());
-                usernamePasswordAuthenticationToken
-                        .setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                SecurityContextHolder.getContext().setAuthentication(usernamePasswordAuthenticationToken);
-            }
-        }
         chain.doFilter(request, response);
     }
+
+    // A cache hit does no parsing or signature check; a miss parses and verifies the token once
+    private JwtTokenCache.VerifiedToken verify(String jwtToken) {
+        JwtTokenCache.VerifiedToken cached = jwtTokenCache.get(jwtToken);
+        if (cached != null) {
+            return cached;
+        }
+
+        Claims claims;
+        try {
+            claims = jwtTokenUtil.getAllClaimsFromToken(jwtToken);
+        } catch (IllegalArgumentException e) {
+            logger.info("Unable to get JWT Token");
+            return null;
+        } catch (ExpiredJwtException e) {
+            logger.info("JWT Token has expired");
+            throw new MyJwtTokenExpiredException("Token Expired");
+        }
+        if (claims.getSubject() == null) {
+            return null;
+        }
+
+        UserDetails userDetails = this.jwtUserDetailsService.loadUserByUsername(claims.getSubject());
+        if (!jwtTokenUtil.validateToken(claims, userDetails)) {
+            return null;
+        }
+        return jwtTokenCache.put(jwtToken, claims, userDetails);
+    }
 }
@@ -0,0 +1,154 @@
+package com.roland.training.config;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of verified JWTs.
+ *
+ * Entries are keyed by the token's signature segment, which is already its HS512 digest, and
+ * hold the parsed claims and the resolved {@link UserDetails}. A hit compares the full token
+ * with the cached one, so it costs a map lookup and a string comparison instead of a signature
+ * verification and a user lookup. An entry expires at the token's own {@code exp}.
+ */
+@Component
+public class JwtTokenCache {
+    private final Map<String, VerifiedToken> tokens = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public JwtTokenCache(@Value("${jwt.cache.max-entries:10000}") int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Looks up a token that was verified before
+     *
+     * @param token The raw token
+     * @return The cached verification, or null if the token is unknown or has expired
+     */
+    public VerifiedToken get(String token) {
+        VerifiedToken cached = tokens.get(keyOf(token));
+        if (cached == null || !cached.token.equals(token)) {
+            misses.increment();
+            return null;
+        }
+        if (cached.isExpired(System.currentTimeMillis())) {
+            tokens.remove(keyOf(token), cached);
+            expired.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached;
+    }
+
+    /**
+     * Caches a token whose signature and expiration have just been verified
+     *
+     * @param token       The raw token
+     * @param claims      Its parsed claims
+     * @param userDetails The user it authenticates
+     * @return The cache entry
+     */
+    public VerifiedToken put(String token, Claims claims, UserDetails userDetails) {
+        long expiresAt = claims.getExpiration() == null ? Long.MAX_VALUE : claims.getExpiration().getTime();
+        VerifiedToken verified = new VerifiedToken(token, claims, userDetails, expiresAt);
+        if (tokens.size() >= maxEntries) {
+            makeRoom();
+        }
+        tokens.put(keyOf(token), verified);
+        return verified;
+    }
+
+    /**
+     * Drops every cached token of a user, e.g. after a PIN change
+     *
+     * @param username The user's contact number
+     */
+    public void invalidateUser(String username) {
+        tokens.values().removeIf(verified -> verified.userDetails.getUsername().equals(username));
+    }
+
+    public void clear() {
+        tokens.clear();
+    }
+
+    // Drops expired tokens first, then arbitrary ones until a tenth of the capacity is free
+    private void makeRoom() {
+        long now = System.currentTimeMillis();
+        for (Iterator<VerifiedToken> it = tokens.values().iterator(); it.hasNext(); ) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+                expired.increment();
+            }
+        }
+        int target = maxEntries - Math.max(1, maxEntries / 10);
+        for (Iterator<VerifiedToken> it = tokens.values().iterator(); it.hasNext() && tokens.size() > target; ) {
+            it.next();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static String keyOf(String token) {
+        int signature = token.lastIndexOf('.');
+        return signature < 0 ? token : token.substring(signature + 1);
+    }
+
+    public Map<String, Object> getMetrics() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("size", tokens.size());
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("hits", hitCount);
+        metrics.put("misses", missCount);
+        metrics.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        metrics.put("expired", expired.sum());
+        metrics.put("evictions", evictions.sum());
+        return metrics;
+    }
+
+    public static final class VerifiedToken {
+        private final String token;
+        private final Claims claims;
+        private final UserDetails userDetails;
+        private final long expiresAtMillis;
+
+        VerifiedToken(String token, Claims claims, UserDetails userDetails, long expiresAtMillis) {
+            this.token = token;
+            this.claims = claims;
+            this.userDetails = userDetails;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        public Claims getClaims() {
+            return claims;
+        }
+
+        public UserDetails getUserDetails() {
+            return userDetails;
+        }
+
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+
+        boolean isExpired(long nowMillis) {
+            return nowMillis >= expiresAtMillis;
+        }
+    }
+}
@@ -43,12 +43,19 @@ public class JwtTokenUtil implements Serializable {
 		return claimsResolver.apply(claims);
 	}
 
-	private Claims getAllClaimsFromToken(String token) {
+	/**
+	 * Verifies the signature of a token and returns its claims
+	 *
+	 * @param token The raw token
+	 * @return The claims
+	 * @throws io.jsonwebtoken.ExpiredJwtException if the token has expired
+	 */
+	public Claims getAllClaimsFromToken(String token) {
 		return Jwts.parser().setSigningKey(secret).parseClaimsJws(token).getBody();
 	}
 
-	private Boolean isTokenExpired(String token) {
-		final Date expiration = getExpirationDateFromToken(token);
+	private Boolean isTokenExpired(Claims claims) {
+		final Date expiration = claims.getExpiration();
 		return expiration.before(new Date());
 	}
 
@@ -70,7 +77,18 @@ public class JwtTokenUtil implements Serializable {
 	}
 
 	public Boolean validateToken(String token, UserDetails userDetails) {
-		final String username = getUsernameFromToken(token);
-		return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+		return validateToken(getAllClaimsFromToken(token), userDetails);
+	}
+
+	/**
+	 * Validates claims that were already parsed, without verifying the signature again
+	 *
+	 * @param claims      The verified claims
+	 * @param userDetails The user the token should belong to
+	 * @return Whether the token belongs to the user and has not expired
+	 */
+	public Boolean validateToken(Claims claims, UserDetails userDetails) {
+		final String username = claims.getSubject();
+		return (username.equals(userDetails.getUsername()) && !isTokenExpired(claims));
 	}
 }
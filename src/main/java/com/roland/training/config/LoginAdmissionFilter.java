@@ -0,0 +1,116 @@
+package com.roland.training.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-source admission control for {@code /api/login}.
+ *
+ * Each client address may have a few logins in flight; further attempts wait up to
+ * {@code security.login.queue-timeout-ms} for a slot and are then rejected with 429, before
+ * they reach the password encoder. One source retrying in a loop therefore cannot take the
+ * BCrypt pool away from everyone else.
+ */
+@Component
+public class LoginAdmissionFilter extends OncePerRequestFilter {
+    private static final String LOGIN_PATH = "/api/login";
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final Map<String, SourceGate> gates = new ConcurrentHashMap<>();
+    private final int maxConcurrentPerSource;
+    private final long queueTimeoutMillis;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    public LoginAdmissionFilter(@Value("${security.login.max-concurrent-per-source:2}") int maxConcurrentPerSource,
+                                @Value("${security.login.queue-timeout-ms:500}") long queueTimeoutMillis) {
+        this.maxConcurrentPerSource = Math.max(1, maxConcurrentPerSource);
+        this.queueTimeoutMillis = Math.max(0, queueTimeoutMillis);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !LOGIN_PATH.equals(request.getServletPath());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String source = request.getRemoteAddr();
+        SourceGate gate = gates.compute(source, (key, existing) -> {
+            SourceGate g = existing != null ? existing : new SourceGate(maxConcurrentPerSource);
+            g.users++;
+            return g;
+        });
+        try {
+            if (!enter(gate)) {
+                shed.increment();
+                logger.warn("Shedding login attempt from {}", source);
+                response.setHeader("Retry-After", "1");
+                response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many login attempts");
+                return;
+            }
+            try {
+                admitted.increment();
+                chain.doFilter(request, response);
+            } finally {
+                gate.slots.release();
+            }
+        } finally {
+            // Drop the gate once no request of the source is waiting or running
+            gates.computeIfPresent(source, (key, g) -> --g.users == 0 ? null : g);
+        }
+    }
+
+    private boolean enter(SourceGate gate) {
+        if (gate.slots.tryAcquire()) {
+            return true;
+        }
+        queued.increment();
+        try {
+            return gate.slots.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("activeSources", gates.size());
+        metrics.put("maxConcurrentPerSource", maxConcurrentPerSource);
+        metrics.put("admitted", admitted.sum());
+        metrics.put("queued", queued.sum());
+        metrics.put("shed", shed.sum());
+        return metrics;
+    }
+
+    private static final class SourceGate {
+        private final Semaphore slots;
+        // Requests of this source waiting or running; only changed inside ConcurrentHashMap.compute
+        private int users;
+
+        SourceGate(int permits) {
+            this.slots = new Semaphore(permits, true);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.roland.training.config;
+
+import com.roland.training.exception.QueryBudgetExceededException;
+import com.roland.training.util.QueryCounter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SQL statement budgets per HTTP request and per service method.
+ *
+ * A method's budget is read from {@code query.budget.method.<Class>.<method>}, e.g.
+ * {@code query.budget.method.AccountService.transfer}; methods without one are only measured.
+ * A unit of work over its budget, or one that runs the same statement
+ * {@code query.budget.n-plus-one-threshold} times or more, is a violation. Depending on
+ * {@code query.budget.mode} violations are logged (LOG) or thrown as
+ * {@link QueryBudgetExceededException} (FAIL); OFF disables the accounting altogether.
+ */
+@Component
+public class QueryBudget {
+    public static final String METHOD_PREFIX = "query.budget.method.";
+    private static final String REQUESTS = "request";
+    private static final int NO_BUDGET = -1;
+
+    public enum Mode {
+        OFF, LOG, FAIL
+    }
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final Environment environment;
+    private final Mode mode;
+    private final int requestBudget;
+    private final int nPlusOneThreshold;
+    private final Map<String, Integer> budgets = new ConcurrentHashMap<>();
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+    private final LongAdder violations = new LongAdder();
+
+    public QueryBudget(Environment environment,
+                       @Value("${query.budget.mode:LOG}") Mode mode,
+                       @Value("${query.budget.request:50}") int requestBudget,
+                       @Value("${query.budget.n-plus-one-threshold:10}") int nPlusOneThreshold) {
+        this.environment = environment;
+        this.mode = mode;
+        this.requestBudget = requestBudget;
+        this.nPlusOneThreshold = Math.max(2, nPlusOneThreshold);
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getNPlusOneThreshold() {
+        return nPlusOneThreshold;
+    }
+
+    /**
+     * @param method The method as {@code Class.method}, e.g. {@code AccountService.transfer}
+     * @return The configured statement budget of the method
+     */
+    public OptionalInt budgetFor(String method) {
+        int budget = budgets.computeIfAbsent(method,
+                m -> environment.getProperty(METHOD_PREFIX + m, Integer.class, NO_BUDGET));
+        return budget == NO_BUDGET ? OptionalInt.empty() : OptionalInt.of(budget);
+    }
+
+    /**
+     * Checks a finished service method against its budget
+     *
+     * @param scope The scope of the call, named {@code Class.method}
+     */
+    public void checkMethod(QueryCounter.Scope scope) {
+        check(scope.getName(), scope, budgetFor(scope.getName()).orElse(NO_BUDGET));
+    }
+
+    /**
+     * Checks a finished HTTP request against the request budget
+     *
+     * @param scope The scope of the request
+     */
+    public void checkRequest(QueryCounter.Scope scope) {
+        check(REQUESTS, scope, requestBudget);
+    }
+
+    private void check(String key, QueryCounter.Scope scope, int budget) {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        Usage u = usage.computeIfAbsent(key, k -> new Usage(budget));
+        u.add(scope);
+
+        int statements = scope.getStatements();
+        if (budget != NO_BUDGET && statements > budget) {
+            violation(u, scope, budget, String.format("%s issued %d SQL statements, budget is %d (%d rows, %d ms)",
+                    scope.getName(), statements, budget, scope.getRows(),
+                    TimeUnit.NANOSECONDS.toMillis(scope.getElapsedNanos())));
+        }
+        Map<String, Integer> repeated = scope.getRepeatedStatements(nPlusOneThreshold);
+        if (!repeated.isEmpty()) {
+            violation(u, scope, budget, String.format("Possible N+1 in %s, statements repeated %s",
+                    scope.getName(), repeated));
+        }
+    }
+
+    private void violation(Usage u, QueryCounter.Scope scope, int budget, String message) {
+        violations.increment();
+        u.violations.increment();
+        if (mode == Mode.FAIL) {
+            throw new QueryBudgetExceededException(scope.getName(), scope.getStatements(), budget, message);
+        }
+        logger.warn(message);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("mode", mode);
+        metrics.put("requestBudget", requestBudget);
+        metrics.put("nPlusOneThreshold", nPlusOneThreshold);
+        metrics.put("violations", violations.sum());
+        Map<String, Object> byScope = new TreeMap<>();
+        usage.forEach((key, u) -> byScope.put(key, u.toMap()));
+        metrics.put("scopes", byScope);
+        return metrics;
+    }
+
+    private static final class Usage {
+        private final int budget;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder statements = new LongAdder();
+        private final AtomicLong maxStatements = new AtomicLong();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder violations = new LongAdder();
+
+        Usage(int budget) {
+            this.budget = budget;
+        }
+
+        void add(QueryCounter.Scope scope) {
+            calls.increment();
+            statements.add(scope.getStatements());
+            maxStatements.accumulateAndGet(scope.getStatements(), Math::max);
+            rows.add(scope.getRows());
+            nanos.add(scope.getElapsedNanos());
+        }
+
+        Map<String, Object> toMap() {
+            long count = calls.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("budget", budget == NO_BUDGET ? null : budget);
+            map.put("calls", count);
+            map.put("avgStatements", count == 0 ? 0.0 : statements.sum() / (double) count);
+            map.put("maxStatements", maxStatements.get());
+            map.put("rows", rows.sum());
+            map.put("sqlMillis", TimeUnit.NANOSECONDS.toMillis(nanos.sum()));
+            map.put("violations", violations.sum());
+            return map;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.roland.training.config;
+
+import com.roland.training.util.QueryCounter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Opens a {@link QueryCounter} scope around every public AccountService and TransactionService
+ * method and checks it against the method's {@link QueryBudget}.
+ *
+ * Ordered first so the scope encloses the transaction advice, and the statements flushed on
+ * commit count towards the method.
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class QueryBudgetAspect {
+    private final QueryBudget queryBudget;
+
+    public QueryBudgetAspect(QueryBudget queryBudget) {
+        this.queryBudget = queryBudget;
+    }
+
+    @Around("execution(public * com.roland.training.service.AccountService.*(..)) || "
+            + "execution(public * com.roland.training.service.TransactionService.*(..))")
+    public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (!queryBudget.isEnabled()) {
+            return joinPoint.proceed();
+        }
+        String method = joinPoint.getSignature().getDeclaringType().getSimpleName()
+                + "." + joinPoint.getSignature().getName();
+        QueryCounter.Scope scope = QueryCounter.begin(method);
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } finally {
+            scope.close();
+        }
+        // Failed calls keep their own exception and are not checked
+        queryBudget.checkMethod(scope);
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+package com.roland.training.config;
+
+import com.roland.training.util.QueryCounter;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.MethodExecutionContext;
+import net.ttddyy.dsproxy.listener.MethodExecutionListener;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.util.List;
+
+/**
+ * Wraps the data source with datasource-proxy so every executed statement, its rows and its time
+ * are counted into the open {@link QueryCounter} scopes.
+ *
+ * A JDBC batch counts as one statement, since it is one round trip. Rows read are counted per
+ * {@link ResultSet#next()}, which needs result set proxies; {@code query.profiling.enabled=false}
+ * leaves the data source unwrapped.
+ */
+@Component
+public class QueryProfilingDataSourcePostProcessor implements BeanPostProcessor {
+    private final boolean enabled;
+
+    public QueryProfilingDataSourcePostProcessor(@Value("${query.profiling.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!enabled || !(bean instanceof DataSource) || bean instanceof ProxyDataSource) {
+            return bean;
+        }
+        CountingListener listener = new CountingListener();
+        return ProxyDataSourceBuilder.create((DataSource) bean)
+                .name(beanName)
+                .listener(listener)
+                .methodListener(listener)
+                .proxyResultSet()
+                .build();
+    }
+
+    private static final class CountingListener implements QueryExecutionListener, MethodExecutionListener {
+        private static final ThreadLocal<long[]> START = ThreadLocal.withInitial(() -> new long[1]);
+
+        @Override
+        public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            START.get()[0] = System.nanoTime();
+        }
+
+        @Override
+        public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+            if (QueryCounter.current() == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - START.get()[0];
+            String sql = queryInfoList.isEmpty() ? "" : queryInfoList.get(0).getQuery();
+            QueryCounter.record(sql, rowsChanged(execInfo.getResult()), nanos);
+        }
+
+        // Update counts; rows read are counted as the result set is consumed
+        private static long rowsChanged(Object result) {
+            if (result instanceof Integer) {
+                return Math.max(0, (Integer) result);
+            }
+            if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(0, count);
+                }
+                return rows;
+            }
+            return 0;
+        }
+
+        @Override
+        public void beforeMethod(MethodExecutionContext executionContext) {
+        }
+
+        @Override
+        public void afterMethod(MethodExecutionContext executionContext) {
+            if (Boolean.TRUE.equals(executionContext.getResult())
+                    && executionContext.getTarget() instanceof ResultSet
+                    && "next".equals(executionContext.getMethod().getName())) {
+                QueryCounter.recordRowRead();
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.roland.training.config;
+
+import com.roland.training.service.BankingMetrics;
+import com.roland.training.util.QueryCounter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Publishes how many JDBC statements each HTTP request issued, and checks the request against
+ * its {@link QueryBudget}, to spot N+1 query patterns.
+ */
+@Component
+public class RequestMetricsFilter extends OncePerRequestFilter {
+    private static final String ACTUATOR_PATH = "/actuator";
+
+    private final BankingMetrics bankingMetrics;
+    private final QueryBudget queryBudget;
+
+    public RequestMetricsFilter(BankingMetrics bankingMetrics, QueryBudget queryBudget) {
+        this.bankingMetrics = bankingMetrics;
+        this.queryBudget = queryBudget;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Scrapes would otherwise flood the distribution with zeros
+        return request.getServletPath().startsWith(ACTUATOR_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        QueryCounter.Scope scope = QueryCounter.begin(request.getMethod() + " " + request.getRequestURI());
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            scope.close();
+            bankingMetrics.recordStatements(scope.getStatements());
+        }
+        queryBudget.checkRequest(scope);
+    }
+}
@@ -0,0 +1,30 @@
+package com.roland.training.config;
+
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+
+/**
+ * Runs the Flyway migrations in {@code db/migration} after Hibernate has created or updated
+ * the tables. Hibernate still owns the table DDL ({@code spring.jpa.hibernate.ddl-auto=update})
+ * while the migrations own indexes, so they can only run once the tables exist.
+ */
+@Configuration
+public class SchemaMigrationConfig {
+
+    @Bean
+    public FlywayMigrationStrategy flywayMigrationStrategy() {
+        // Deferred to migrateAfterJpaSchema
+        return flyway -> {
+        };
+    }
+
+    @Bean
+    @DependsOn("entityManagerFactory")
+    public InitializingBean migrateAfterJpaSchema(Flyway flyway) {
+        return flyway::migrate;
+    }
+}
@@ -0,0 +1,116 @@
+package com.roland.training.config;
+
+import com.roland.training.util.ThreadFactories;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier thread, i.e. that block inside a
+ * {@code synchronized} block or a native frame.
+ *
+ * When virtual threads are enabled on Java 21 or newer, a JFR stream subscribes to
+ * {@code jdk.VirtualThreadPinned} events longer than {@code threads.virtual.pinning-threshold-ms}.
+ * Pinning events are counted per application call site and logged once per site. For ad-hoc
+ * investigation, {@code -Djdk.tracePinnedThreads=short} prints the same information to stdout.
+ */
+@Component
+public class VirtualThreadPinningMonitor {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_SITES = 100;
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final boolean enabled;
+    private final long thresholdMillis;
+    private final Map<String, LongAdder> sites = new ConcurrentHashMap<>();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder pinnedNanos = new LongAdder();
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                       @Value("${threads.virtual.pinning-threshold-ms:20}") long thresholdMillis) {
+        this.enabled = virtualThreads && ThreadFactories.virtualThreadsSupported();
+        this.thresholdMillis = thresholdMillis;
+        if (virtualThreads && !enabled) {
+            logger.warn("Virtual threads requested but running on Java {}; using platform threads",
+                    Runtime.version().feature());
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+        logger.info("Monitoring virtual thread pinning above {} ms", thresholdMillis);
+    }
+
+    private void onPinned(RecordedEvent event) {
+        events.increment();
+        pinnedNanos.add(event.getDuration().toNanos());
+        String site = applicationFrame(event.getStackTrace());
+        LongAdder count = sites.get(site);
+        if (count == null && sites.size() < MAX_SITES) {
+            count = sites.computeIfAbsent(site, s -> {
+                logger.warn("Virtual thread pinned for {} ms at {}", event.getDuration().toMillis(), s);
+                return new LongAdder();
+            });
+        }
+        if (count != null) {
+            count.increment();
+        }
+    }
+
+    // The innermost frame of our own code, which is where the monitor or native call was entered
+    private static String applicationFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith("com.roland.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        RecordedFrame top = stackTrace.getFrames().get(0);
+        return top.getMethod().getType().getName() + "." + top.getMethod().getName();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("thresholdMillis", thresholdMillis);
+        metrics.put("pinnedEvents", events.sum());
+        metrics.put("pinnedMillis", TimeUnit.NANOSECONDS.toMillis(pinnedNanos.sum()));
+        Map<String, Long> bySite = new LinkedHashMap<>();
+        sites.forEach((site, count) -> bySite.put(site, count.sum()));
+        metrics.put("sites", bySite);
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.roland.training.exception;
+
+public class ConcurrentUpdateException extends BankingException {
+    private final String accountNumber;
+    private final int attempts;
+
+    public ConcurrentUpdateException(String accountNumber, int attempts, Throwable cause) {
+        super(String.format("Error: Account %s was modified concurrently, gave up after %d attempts.",
+                accountNumber, attempts), cause);
+        this.accountNumber = accountNumber;
+        this.attempts = attempts;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,26 @@
+package com.roland.training.exception;
+
+public class QueryBudgetExceededException extends InternalServerErrorException {
+    private final String scope;
+    private final int statements;
+    private final int budget;
+
+    public QueryBudgetExceededException(String scope, int statements, int budget, String message) {
+        super(message);
+        this.scope = scope;
+        this.statements = statements;
+        this.budget = budget;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+}
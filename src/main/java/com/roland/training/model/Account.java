@@ -3,7 +3,6 @@ package com.roland.training.model;
 import com.roland.training.exception.InsufficientFundsException;
 import jakarta.persistence.*;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
@@ -16,8 +15,9 @@ public abstract class Account {
     @Column(name = "account_id")
     private String accountNumber;
 
-    @Column(nullable = false)
-    private BigDecimal balance;
+    // Exact DECIMAL(19,2) through MoneyConverter
+    @Column(nullable = false, precision = 19, scale = 2)
+    private Money balance;
 
     @Column(name = "last_transaction")
     private LocalDateTime lastTransaction;
@@ -25,15 +25,32 @@ public abstract class Account {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // Optimistic lock version, incremented by JPA on every update
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    // Last month (yyyy-MM) whose fees/interest were applied, the month-end engine's checkpoint
+    @Column(name = "fee_period", length = 7)
+    private String feePeriod;
+
+    // Last balance journal entry applied to this row by the write-behind cache, see AccountStateCache
+    @Column(name = "journal_seq")
+    private Long journalSeq;
+
+    // Last transaction row projected onto this balance in event-sourced mode, see LedgerService
+    @Column(name = "ledger_seq")
+    private Long ledgerSeq;
+
     // Static field - shared across instances
-    private static final BigDecimal MINIMUM_BALANCE = new BigDecimal("100.00");
+    private static final Money MINIMUM_BALANCE = Money.ofMinor(100_00);
 
     // Default constructor for JPA
     protected Account() {
     }
 
     // Public constructor
-    public Account(String accountNumber, BigDecimal balance) {
+    public Account(String accountNumber, Money balance) {
         this.accountNumber = accountNumber;
         this.balance = balance;
         this.lastTransaction = LocalDateTime.now();
@@ -44,36 +61,36 @@ public abstract class Account {
     public abstract void processMonthlyFees();
 
     // Concrete method with virtual invocation
-    public void withdraw(BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+    public void withdraw(Money amount) {
+        if (!amount.isPositive()) {
             throw new IllegalArgumentException("Withdrawal amount must be positive");
         }
 
         if (!canWithdraw(amount)) {
-            throw new InsufficientFundsException(accountNumber, amount, balance);
+            throw new InsufficientFundsException(accountNumber, amount.toBigDecimal(), balance.toBigDecimal());
         }
 
-        balance = balance.subtract(amount);
+        balance = balance.minus(amount);
         lastTransaction = LocalDateTime.now();
     }
 
-    public void deposit(BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+    public void deposit(Money amount) {
+        if (!amount.isPositive()) {
             throw new IllegalArgumentException("Deposit amount must be positive");
         }
-        balance = balance.add(amount);
+        balance = balance.plus(amount);
         lastTransaction = LocalDateTime.now();
     }
 
     // Protected method for subclasses
-    protected abstract boolean canWithdraw(BigDecimal amount);
+    protected abstract boolean canWithdraw(Money amount);
 
     // Getters
     public String getAccountNumber() {
         return accountNumber;
     }
 
-    public BigDecimal getBalance() {
+    public Money getBalance() {
         return balance;
     }
 
@@ -85,7 +102,31 @@ public abstract class Account {
         return createdAt;
     }
 
-    protected BigDecimal getMinimumBalance() {
+    public Long getVersion() {
+        return version;
+    }
+
+    public String getFeePeriod() {
+        return feePeriod;
+    }
+
+    public void setFeePeriod(String feePeriod) {
+        this.feePeriod = feePeriod;
+    }
+
+    public Long getJournalSeq() {
+        return journalSeq;
+    }
+
+    public Long getLedgerSeq() {
+        return ledgerSeq;
+    }
+
+    public void setLedgerSeq(Long ledgerSeq) {
+        this.ledgerSeq = ledgerSeq;
+    }
+
+    protected Money getMinimumBalance() {
         return MINIMUM_BALANCE;
     }
 
@@ -94,7 +135,7 @@ public abstract class Account {
         this.accountNumber = accountNumber;
     }
 
-    public void setBalance(BigDecimal balance) {
+    public void setBalance(Money balance) {
         this.balance = balance;
     }
 
@@ -122,7 +163,7 @@ public abstract class Account {
 
     @Override
     public String toString() {
-        return String.format("Account[number=%s, balance=%.2f]",
+        return String.format("Account[number=%s, balance=%s]",
                 accountNumber, balance);
     }
 }
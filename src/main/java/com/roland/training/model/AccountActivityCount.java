@@ -0,0 +1,38 @@
+package com.roland.training.model;
+
+/**
+ * Estimated number of transactions of one account in a window. The true count lies in
+ * {@code [count - errorBound, count]}; the bound is 0 when the estimate is exact.
+ */
+public class AccountActivityCount {
+    private final String accountId;
+    private final long count;
+    private final long errorBound;
+
+    public AccountActivityCount(String accountId, long count, long errorBound) {
+        this.accountId = accountId;
+        this.count = count;
+        this.errorBound = errorBound;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    public boolean isExact() {
+        return errorBound == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AccountActivityCount[account=%s, count=%d, error=%d]", accountId, count, errorBound);
+    }
+}
@@ -0,0 +1,26 @@
+package com.roland.training.model;
+
+import java.math.BigDecimal;
+
+public class AccountBalance {
+    private final String accountId;
+    private final BigDecimal balance;
+
+    public AccountBalance(String accountId, BigDecimal balance) {
+        this.accountId = accountId;
+        this.balance = balance;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AccountBalance[account=%s, balance=%s]", accountId, balance);
+    }
+}
@@ -19,11 +19,16 @@ public class AccountDTO {
         this.createdAt = createdAt;
     }
 
+    // Used by JPQL constructor expressions so account lists never load managed entities
+    public AccountDTO(String accountId, String accountType, Money balance, LocalDateTime createdAt) {
+        this(accountId, accountType, balance.toBigDecimal(), createdAt);
+    }
+
     public static AccountDTO fromAccount(Account account, String accountType) {
         return new AccountDTO(
                 account.getAccountNumber(),
                 accountType,
-                account.getBalance(),
+                account.getBalance().toBigDecimal(),
                 account.getCreatedAt()
         );
     }
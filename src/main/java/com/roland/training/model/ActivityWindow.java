@@ -0,0 +1,30 @@
+package com.roland.training.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding windows tracked by the most-active-accounts tracker. Each window is split into
+ * buckets that expire one at a time as the window slides.
+ */
+public enum ActivityWindow {
+    LAST_HOUR(60, TimeUnit.MINUTES.toMillis(1)),
+    LAST_DAY(24, TimeUnit.HOURS.toMillis(1)),
+    LAST_MONTH(30, TimeUnit.DAYS.toMillis(1)),
+    ALL_TIME(1, Long.MAX_VALUE);
+
+    private final int buckets;
+    private final long bucketMillis;
+
+    ActivityWindow(int buckets, long bucketMillis) {
+        this.buckets = buckets;
+        this.bucketMillis = bucketMillis;
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+}
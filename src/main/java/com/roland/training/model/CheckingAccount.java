@@ -4,13 +4,11 @@ import jakarta.persistence.Column;
 import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
 
-import java.math.BigDecimal;
-
 @Entity
 @DiscriminatorValue("CHECKING")
 public class CheckingAccount extends Account {
-    private static final BigDecimal MONTHLY_FEE = new BigDecimal("12.00");
-    private static final BigDecimal OVERDRAFT_LIMIT = new BigDecimal("-100.00");
+    private static final Money MONTHLY_FEE = Money.ofMinor(12_00);
+    public static final Money OVERDRAFT_LIMIT = Money.ofMinor(-100_00);
 
     @Column(name = "monthly_transactions")
     private int monthlyTransactions;
@@ -20,7 +18,7 @@ public class CheckingAccount extends Account {
         super();
     }
 
-    public CheckingAccount(String accountNumber, BigDecimal balance) {
+    public CheckingAccount(String accountNumber, Money balance) {
         super(accountNumber, balance);
         this.monthlyTransactions = 0;
     }
@@ -34,24 +32,27 @@ public class CheckingAccount extends Account {
     }
 
     @Override
-    protected boolean canWithdraw(BigDecimal amount) {
+    protected boolean canWithdraw(Money amount) {
         // Allow withdrawals up to overdraft limit
-        return getBalance().subtract(amount)
-                .compareTo(OVERDRAFT_LIMIT) >= 0;
+        return getBalance().canSubtract(amount, OVERDRAFT_LIMIT);
     }
 
     @Override
-    public void withdraw(BigDecimal amount) {
+    public void withdraw(Money amount) {
         super.withdraw(amount);
         monthlyTransactions++;
     }
 
     @Override
-    public void deposit(BigDecimal amount) {
+    public void deposit(Money amount) {
         super.deposit(amount);
         monthlyTransactions++;
     }
 
+    public void incrementTransactions() {
+        monthlyTransactions++;
+    }
+
     public int getMonthlyTransactions() {
         return monthlyTransactions;
     }
@@ -62,7 +63,7 @@ public class CheckingAccount extends Account {
 
     @Override
     public String toString() {
-        return String.format("CheckingAccount[number=%s, balance=%.2f, transactions=%d]",
+        return String.format("CheckingAccount[number=%s, balance=%s, transactions=%d]",
                 getAccountNumber(),
                 getBalance(),
                 monthlyTransactions);
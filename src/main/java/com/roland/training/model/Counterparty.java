@@ -0,0 +1,38 @@
+package com.roland.training.model;
+
+import java.math.BigDecimal;
+
+/**
+ * An account another account has exchanged transfers with, and the totals in each direction
+ */
+public class Counterparty {
+    private final String accountId;
+    private final long transfers;
+    private final BigDecimal sent;
+    private final BigDecimal received;
+
+    public Counterparty(String accountId, long transfers, BigDecimal sent, BigDecimal received) {
+        this.accountId = accountId;
+        this.transfers = transfers;
+        this.sent = sent;
+        this.received = received;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public long getTransfers() {
+        return transfers;
+    }
+
+    // Total transferred to this counterparty
+    public BigDecimal getSent() {
+        return sent;
+    }
+
+    // Total received from this counterparty
+    public BigDecimal getReceived() {
+        return received;
+    }
+}
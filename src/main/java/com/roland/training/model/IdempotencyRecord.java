@@ -0,0 +1,107 @@
+package com.roland.training.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * A deposit, withdrawal or transfer performed under a client-supplied idempotency key, with its
+ * result. Written in the transaction of the operation itself, so the key exists exactly when the
+ * operation committed. Rows expire after {@code idempotency.ttl-seconds}.
+ */
+@Entity
+@Table(name = "idempotency_keys")
+public class IdempotencyRecord {
+    @Id
+    @Column(name = "idempotency_key", length = 64)
+    private String key;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private PostingType operation;
+
+    @Column(name = "account_id", nullable = false)
+    private String accountId;
+
+    // Destination of a transfer
+    @Column(name = "to_account_id")
+    private String toAccountId;
+
+    // Exact DECIMAL(19,2) through MoneyConverter
+    @Column(nullable = false, precision = 19, scale = 2)
+    private Money amount;
+
+    // Links the legs of a transfer, see Transaction#transferLegs
+    @Column(name = "transfer_id", length = 36)
+    private String transferId;
+
+    @Column(name = "completed_at", nullable = false)
+    private LocalDateTime completedAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    // Default constructor for JPA
+    protected IdempotencyRecord() {
+    }
+
+    public IdempotencyRecord(String key, PostingType operation, String accountId, String toAccountId, Money amount,
+                             String transferId, LocalDateTime completedAt, LocalDateTime expiresAt) {
+        this.key = key;
+        this.operation = operation;
+        this.accountId = accountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+        this.transferId = transferId;
+        this.completedAt = completedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return Whether the record is the result of the same request, i.e. the key was not reused
+     *         for a different operation
+     */
+    public boolean matches(PostingType operation, String accountId, String toAccountId, Money amount) {
+        return this.operation == operation
+                && this.accountId.equals(accountId)
+                && Objects.equals(this.toAccountId, toAccountId)
+                && this.amount.equals(amount);
+    }
+
+    public boolean isExpired(LocalDateTime now) {
+        return !expiresAt.isAfter(now);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public PostingType getOperation() {
+        return operation;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public String getToAccountId() {
+        return toAccountId;
+    }
+
+    public Money getAmount() {
+        return amount;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,93 @@
+package com.roland.training.model;
+
+import jakarta.persistence.*;
+
+import java.math.BigDecimal;
+
+/**
+ * Pre-aggregated ledger counters.
+ *
+ * One table holds three scopes: {@code DAY} rows keyed by date, {@code ACCOUNT} rows keyed by
+ * account id and a single {@code BANK} key for the account count and total balance. Hot keys
+ * (days and the bank totals) are split over several slots so concurrent postings rarely update
+ * the same row; readers sum the slots of a key.
+ */
+@Entity
+@Table(name = "ledger_rollups")
+public class LedgerRollup {
+    public static final String SCOPE_DAY = "DAY";
+    public static final String SCOPE_ACCOUNT = "ACCOUNT";
+    public static final String SCOPE_BANK = "BANK";
+    public static final String BANK_KEY = "ALL";
+
+    @EmbeddedId
+    private LedgerRollupId id;
+
+    @Column(name = "deposit_sum", nullable = false, precision = 19, scale = 2)
+    private BigDecimal depositSum = BigDecimal.ZERO;
+
+    // Sum of negative amounts, kept negative like the transaction rows
+    @Column(name = "withdrawal_sum", nullable = false, precision = 19, scale = 2)
+    private BigDecimal withdrawalSum = BigDecimal.ZERO;
+
+    @Column(name = "transaction_count", nullable = false)
+    private long transactionCount;
+
+    @Column(name = "account_count", nullable = false)
+    private long accountCount;
+
+    @Column(name = "balance_sum", nullable = false, precision = 19, scale = 2)
+    private BigDecimal balanceSum = BigDecimal.ZERO;
+
+    // Default constructor for JPA
+    protected LedgerRollup() {
+    }
+
+    public LedgerRollup(LedgerRollupId id) {
+        this.id = id;
+    }
+
+    public LedgerRollupId getId() {
+        return id;
+    }
+
+    public BigDecimal getDepositSum() {
+        return depositSum;
+    }
+
+    public void setDepositSum(BigDecimal depositSum) {
+        this.depositSum = depositSum;
+    }
+
+    public BigDecimal getWithdrawalSum() {
+        return withdrawalSum;
+    }
+
+    public void setWithdrawalSum(BigDecimal withdrawalSum) {
+        this.withdrawalSum = withdrawalSum;
+    }
+
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public void setTransactionCount(long transactionCount) {
+        this.transactionCount = transactionCount;
+    }
+
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    public void setAccountCount(long accountCount) {
+        this.accountCount = accountCount;
+    }
+
+    public BigDecimal getBalanceSum() {
+        return balanceSum;
+    }
+
+    public void setBalanceSum(BigDecimal balanceSum) {
+        this.balanceSum = balanceSum;
+    }
+}
@@ -0,0 +1,56 @@
+package com.roland.training.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+@Embeddable
+public class LedgerRollupId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Column(name = "scope", length = 16)
+    private String scope;
+
+    @Column(name = "rollup_key", length = 64)
+    private String rollupKey;
+
+    @Column(name = "slot")
+    private int slot;
+
+    // Default constructor for JPA
+    protected LedgerRollupId() {
+    }
+
+    public LedgerRollupId(String scope, String rollupKey, int slot) {
+        this.scope = scope;
+        this.rollupKey = rollupKey;
+        this.slot = slot;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public String getRollupKey() {
+        return rollupKey;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof LedgerRollupId)) return false;
+        LedgerRollupId other = (LedgerRollupId) obj;
+        return slot == other.slot && scope.equals(other.scope) && rollupKey.equals(other.rollupKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(scope, rollupKey, slot);
+    }
+}
@@ -0,0 +1,56 @@
+package com.roland.training.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Balance of one account derived from its postings (transaction rows) up to and including
+ * {@code throughSeq}. Used by the event-sourced ledger mode, so that rebuilding or auditing a
+ * balance only reads the postings after the snapshot.
+ */
+@Entity
+@Table(name = "ledger_snapshots")
+public class LedgerSnapshot {
+    @Id
+    @Column(name = "account_id")
+    private String accountId;
+
+    // Id of the last transaction row the snapshot covers
+    @Column(name = "through_seq", nullable = false)
+    private long throughSeq;
+
+    // Exact DECIMAL(19,2) through MoneyConverter
+    @Column(nullable = false, precision = 19, scale = 2)
+    private Money balance;
+
+    @Column(name = "taken_at")
+    private LocalDateTime takenAt;
+
+    // Default constructor for JPA
+    protected LedgerSnapshot() {
+    }
+
+    public LedgerSnapshot(String accountId, long throughSeq, Money balance, LocalDateTime takenAt) {
+        this.accountId = accountId;
+        this.throughSeq = throughSeq;
+        this.balance = balance;
+        this.takenAt = takenAt;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public long getThroughSeq() {
+        return throughSeq;
+    }
+
+    public Money getBalance() {
+        return balance;
+    }
+
+    public LocalDateTime getTakenAt() {
+        return takenAt;
+    }
+}
@@ -0,0 +1,133 @@
+package com.roland.training.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of money held as a whole number of minor units (cents), i.e. a scaled long with
+ * scale {@value #SCALE}.
+ *
+ * Arithmetic is exact and throws {@link ArithmeticException} on overflow instead of wrapping.
+ * Every conversion that may lose precision takes an explicit {@link RoundingMode}; the ones that
+ * do not throw when the value has more than two decimals. Comparisons and balance checks work
+ * on the longs and never allocate.
+ */
+public final class Money implements Comparable<Money>, Serializable {
+    public static final int SCALE = 2;
+    public static final Money ZERO = new Money(0);
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * @param amount The amount
+     * @return The amount as money
+     * @throws ArithmeticException if the amount has more than two decimals or is out of range
+     */
+    public static Money of(BigDecimal amount) {
+        return of(amount, RoundingMode.UNNECESSARY);
+    }
+
+    /**
+     * @param amount   The amount
+     * @param rounding How to round amounts with more than two decimals
+     * @return The rounded amount as money
+     * @throws ArithmeticException if the amount is out of range
+     */
+    public static Money of(BigDecimal amount, RoundingMode rounding) {
+        return ofMinor(amount.setScale(SCALE, rounding).scaleByPowerOfTen(SCALE).longValueExact());
+    }
+
+    public static Money parse(String amount) {
+        return of(new BigDecimal(amount));
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public Money plus(Money other) {
+        return ofMinor(Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinor(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    public Money negate() {
+        return ofMinor(Math.negateExact(minorUnits));
+    }
+
+    public Money abs() {
+        return minorUnits >= 0 ? this : negate();
+    }
+
+    /**
+     * @param rate     The factor, e.g. an interest rate
+     * @param rounding How to round the product to whole minor units
+     * @return This amount times the rate
+     */
+    public Money times(BigDecimal rate, RoundingMode rounding) {
+        return ofMinor(BigDecimal.valueOf(minorUnits).multiply(rate)
+                .setScale(0, rounding).longValueExact());
+    }
+
+    /**
+     * @param amount The amount to take away
+     * @param floor  The lowest allowed result
+     * @return Whether this amount minus {@code amount} stays at or above {@code floor}
+     */
+    public boolean canSubtract(Money amount, Money floor) {
+        return Math.subtractExact(minorUnits, amount.minorUnits) >= floor.minorUnits;
+    }
+
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    public boolean isNegative() {
+        return minorUnits < 0;
+    }
+
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Money)) return false;
+        return minorUnits == ((Money) obj).minorUnits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
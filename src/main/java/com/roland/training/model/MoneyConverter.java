@@ -0,0 +1,27 @@
+package com.roland.training.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+
+/**
+ * Persists {@link Money} as an exact DECIMAL with two decimals. Marked immutable so Hibernate
+ * compares and snapshots the values as they are instead of copying them through the converter.
+ */
+@Immutable
+@Converter(autoApply = true)
+public class MoneyConverter implements AttributeConverter<Money, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Money money) {
+        return money == null ? null : money.toBigDecimal();
+    }
+
+    @Override
+    public Money convertToEntityAttribute(BigDecimal amount) {
+        // The column has scale 2, so this never rounds
+        return amount == null ? null : Money.of(amount);
+    }
+}
@@ -0,0 +1,87 @@
+package com.roland.training.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress record of one month-end fee and interest run. The period (yyyy-MM) is the key, so
+ * re-running a crashed month resumes the same record.
+ */
+@Entity
+@Table(name = "monthly_fee_runs")
+public class MonthlyFeeRun {
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+
+    @Id
+    @Column(name = "period", length = 7)
+    private String period;
+
+    @Column(nullable = false)
+    private String status;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    @Column(name = "processed_accounts")
+    private long processedAccounts;
+
+    @Column(name = "failed_accounts")
+    private long failedAccounts;
+
+    // Default constructor for JPA
+    protected MonthlyFeeRun() {
+    }
+
+    public MonthlyFeeRun(String period) {
+        this.period = period;
+        this.status = RUNNING;
+        this.startedAt = LocalDateTime.now();
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public long getProcessedAccounts() {
+        return processedAccounts;
+    }
+
+    public long getFailedAccounts() {
+        return failedAccounts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MonthlyFeeRun[period=%s, status=%s, processed=%d, failed=%d]",
+                period, status, processedAccounts, failedAccounts);
+    }
+}
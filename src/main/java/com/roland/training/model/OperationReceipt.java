@@ -0,0 +1,71 @@
+package com.roland.training.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Result of a deposit, withdrawal or transfer performed under an idempotency key. A replayed
+ * receipt is the stored result of the first request with that key; the operation did not run
+ * again.
+ */
+public class OperationReceipt {
+    private final String idempotencyKey;
+    private final PostingType operation;
+    private final String accountId;
+    private final String toAccountId;
+    private final BigDecimal amount;
+    private final String transferId;
+    private final LocalDateTime completedAt;
+    private final boolean replayed;
+
+    private OperationReceipt(IdempotencyRecord record, boolean replayed) {
+        this.idempotencyKey = record.getKey();
+        this.operation = record.getOperation();
+        this.accountId = record.getAccountId();
+        this.toAccountId = record.getToAccountId();
+        this.amount = record.getAmount().toBigDecimal();
+        this.transferId = record.getTransferId();
+        this.completedAt = record.getCompletedAt();
+        this.replayed = replayed;
+    }
+
+    public static OperationReceipt executed(IdempotencyRecord record) {
+        return new OperationReceipt(record, false);
+    }
+
+    public static OperationReceipt replayed(IdempotencyRecord record) {
+        return new OperationReceipt(record, true);
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public PostingType getOperation() {
+        return operation;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public String getToAccountId() {
+        return toAccountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public boolean isReplayed() {
+        return replayed;
+    }
+}
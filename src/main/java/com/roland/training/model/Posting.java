@@ -0,0 +1,75 @@
+package com.roland.training.model;
+
+import java.math.BigDecimal;
+
+/**
+ * A single deposit, withdrawal or transfer submitted through the batch posting API.
+ */
+public class Posting {
+    private PostingType type;
+    private String accountId;
+    private String toAccountId;
+    private BigDecimal amount;
+
+    public Posting() {
+    }
+
+    public Posting(PostingType type, String accountId, String toAccountId, BigDecimal amount) {
+        this.type = type;
+        this.accountId = accountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+    }
+
+    public static Posting deposit(String accountId, BigDecimal amount) {
+        return new Posting(PostingType.DEPOSIT, accountId, null, amount);
+    }
+
+    public static Posting withdrawal(String accountId, BigDecimal amount) {
+        return new Posting(PostingType.WITHDRAWAL, accountId, null, amount);
+    }
+
+    public static Posting transfer(String fromAccountId, String toAccountId, BigDecimal amount) {
+        return new Posting(PostingType.TRANSFER, fromAccountId, toAccountId, amount);
+    }
+
+    public PostingType getType() {
+        return type;
+    }
+
+    public void setType(PostingType type) {
+        this.type = type;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getToAccountId() {
+        return toAccountId;
+    }
+
+    public void setToAccountId(String toAccountId) {
+        this.toAccountId = toAccountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    @Override
+    public String toString() {
+        if (type == PostingType.TRANSFER) {
+            return String.format("Posting[%s, from=%s, to=%s, amount=%s]", type, accountId, toAccountId, amount);
+        }
+        return String.format("Posting[%s, account=%s, amount=%s]", type, accountId, amount);
+    }
+}
@@ -0,0 +1,48 @@
+package com.roland.training.model;
+
+/**
+ * Outcome of one posting of a batch. Failed postings leave every balance untouched.
+ */
+public class PostingResult {
+    private final int index;
+    private final Posting posting;
+    private final boolean success;
+    private final String errorType;
+    private final String message;
+
+    private PostingResult(int index, Posting posting, boolean success, String errorType, String message) {
+        this.index = index;
+        this.posting = posting;
+        this.success = success;
+        this.errorType = errorType;
+        this.message = message;
+    }
+
+    public static PostingResult success(int index, Posting posting) {
+        return new PostingResult(index, posting, true, null, null);
+    }
+
+    public static PostingResult failure(int index, Posting posting, RuntimeException error) {
+        return new PostingResult(index, posting, false, error.getClass().getSimpleName(), error.getMessage());
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Posting getPosting() {
+        return posting;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getErrorType() {
+        return errorType;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
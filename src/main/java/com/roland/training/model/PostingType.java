@@ -0,0 +1,7 @@
+package com.roland.training.model;
+
+public enum PostingType {
+    DEPOSIT,
+    WITHDRAWAL,
+    TRANSFER
+}
@@ -5,10 +5,14 @@ import jakarta.persistence.DiscriminatorValue;
 import jakarta.persistence.Entity;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 
 @Entity
 @DiscriminatorValue("SAVINGS")
 public class SavingsAccount extends Account {
+    // Banker's rounding, so rounding errors do not drift in one direction over many accounts
+    private static final RoundingMode INTEREST_ROUNDING = RoundingMode.HALF_EVEN;
+    private static final BigDecimal DEFAULT_INTEREST_RATE = new BigDecimal("0.025");
 
     @Column(name = "interest_rate")
     private BigDecimal interestRate;
@@ -18,28 +22,30 @@ public class SavingsAccount extends Account {
         super();
     }
 
-    public SavingsAccount(String accountNumber, BigDecimal balance) {
+    public SavingsAccount(String accountNumber, Money balance) {
         super(accountNumber, balance);
-        this.interestRate = new BigDecimal("0.025"); // 2.5% interest rate
+        this.interestRate = DEFAULT_INTEREST_RATE; // 2.5% interest rate
     }
 
-    public SavingsAccount(String accountNumber, BigDecimal balance, BigDecimal interestRate) {
+    public SavingsAccount(String accountNumber, Money balance, BigDecimal interestRate) {
         super(accountNumber, balance);
         this.interestRate = interestRate;
     }
 
     @Override
     public void processMonthlyFees() {
-        // Calculate and add interest
-        BigDecimal interest = getBalance().multiply(interestRate);
-        deposit(interest);
+        // Calculate and add interest, rounded to whole cents; a balance too small to earn a cent
+        // earns nothing
+        Money interest = getBalance().times(interestRate, INTEREST_ROUNDING);
+        if (interest.isPositive()) {
+            deposit(interest);
+        }
     }
 
     @Override
-    protected boolean canWithdraw(BigDecimal amount) {
+    protected boolean canWithdraw(Money amount) {
         // Ensure minimum balance is maintained
-        return getBalance().subtract(amount)
-                .compareTo(getMinimumBalance()) >= 0;
+        return getBalance().canSubtract(amount, getMinimumBalance());
     }
 
     public BigDecimal getInterestRate() {
@@ -52,7 +58,7 @@ public class SavingsAccount extends Account {
 
     @Override
     public String toString() {
-        return String.format("SavingsAccount[number=%s, balance=%.2f, interestRate=%.2f%%]",
+        return String.format("SavingsAccount[number=%s, balance=%s, interestRate=%.2f%%]",
                 getAccountNumber(),
                 getBalance(),
                 interestRate.multiply(new BigDecimal("100")));
@@ -2,21 +2,25 @@ package com.roland.training.model;
 
 import jakarta.persistence.*;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
 
 @Entity
 @Table(name = "transactions")
 public class Transaction {
+    // Pooled sequence instead of IDENTITY so Hibernate can batch inserts
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transaction_seq")
+    @SequenceGenerator(name = "transaction_seq", sequenceName = "transaction_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "account_id", nullable = false)
     private String accountId;
 
-    @Column(nullable = false)
-    private BigDecimal amount;
+    // Exact DECIMAL(19,2) through MoneyConverter
+    @Column(nullable = false, precision = 19, scale = 2)
+    private Money amount;
 
     @Column(name = "transaction_date", nullable = false)
     private LocalDateTime transactionDate;
@@ -27,25 +31,29 @@ public class Transaction {
     @Column(name = "related_account_id")
     private String relatedAccountId;
 
+    // Shared by the two legs of a transfer
+    @Column(name = "transfer_id", length = 36)
+    private String transferId;
+
     // Default constructor for JPA
     public Transaction() {
     }
 
-    public Transaction(String accountId, BigDecimal amount) {
+    public Transaction(String accountId, Money amount) {
         this.accountId = accountId;
         this.amount = amount;
         this.transactionDate = LocalDateTime.now();
-        this.transactionType = amount.compareTo(BigDecimal.ZERO) > 0 ? "DEPOSIT" : "WITHDRAWAL";
+        this.transactionType = amount.isPositive() ? "DEPOSIT" : "WITHDRAWAL";
     }
 
-    public Transaction(String accountId, BigDecimal amount, LocalDateTime transactionDate) {
+    public Transaction(String accountId, Money amount, LocalDateTime transactionDate) {
         this.accountId = accountId;
         this.amount = amount;
         this.transactionDate = transactionDate;
-        this.transactionType = amount.compareTo(BigDecimal.ZERO) > 0 ? "DEPOSIT" : "WITHDRAWAL";
+        this.transactionType = amount.isPositive() ? "DEPOSIT" : "WITHDRAWAL";
     }
 
-    public Transaction(String fromAccountId, String toAccountId, BigDecimal amount, LocalDateTime transactionDate) {
+    public Transaction(String fromAccountId, String toAccountId, Money amount, LocalDateTime transactionDate) {
         this.accountId = fromAccountId;
         this.relatedAccountId = toAccountId;
         this.amount = amount.negate(); // From account perspective, it's negative
@@ -53,6 +61,22 @@ public class Transaction {
         this.transactionType = "TRANSFER";
     }
 
+    /**
+     * Creates both legs of a transfer, linked by a new transfer id: the debit on the source
+     * account and the credit on the target, each pointing at the other account
+     */
+    public static List<Transaction> transferLegs(String fromAccountId, String toAccountId, Money amount,
+                                                 LocalDateTime transactionDate) {
+        String transferId = UUID.randomUUID().toString();
+        Transaction debit = new Transaction(fromAccountId, toAccountId, amount, transactionDate);
+        Transaction credit = new Transaction(toAccountId, amount, transactionDate);
+        credit.relatedAccountId = fromAccountId;
+        credit.transactionType = "TRANSFER";
+        debit.transferId = transferId;
+        credit.transferId = transferId;
+        return List.of(debit, credit);
+    }
+
     // Getters and Setters
     public Long getId() {
         return id;
@@ -70,11 +94,11 @@ public class Transaction {
         this.accountId = accountId;
     }
 
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
 
-    public void setAmount(BigDecimal amount) {
+    public void setAmount(Money amount) {
         this.amount = amount;
     }
 
@@ -102,17 +126,21 @@ public class Transaction {
         this.relatedAccountId = relatedAccountId;
     }
 
+    public String getTransferId() {
+        return transferId;
+    }
+
     @Override
     public String toString() {
         if ("TRANSFER".equals(transactionType) && relatedAccountId != null) {
-            return String.format("%s: %s - $%.2f transferred %s account %s",
+            return String.format("%s: %s - $%s transferred %s account %s",
                     transactionDate, accountId, amount.abs(),
-                    amount.compareTo(BigDecimal.ZERO) < 0 ? "to" : "from",
+                    amount.isNegative() ? "to" : "from",
                     relatedAccountId);
         } else {
-            return String.format("%s: %s - $%.2f %s",
+            return String.format("%s: %s - $%s %s",
                     transactionDate, accountId, amount.abs(),
-                    amount.compareTo(BigDecimal.ZERO) > 0 ? "deposit" : "withdrawal");
+                    amount.isPositive() ? "deposit" : "withdrawal");
         }
     }
 }
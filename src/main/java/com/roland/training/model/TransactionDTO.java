@@ -1,4 +1,58 @@
 package com.roland.training.model;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
 public class TransactionDTO {
+    private Long id;
+    private String accountId;
+    private BigDecimal amount;
+    private LocalDateTime transactionDate;
+
+    public TransactionDTO() {
+    }
+
+    public TransactionDTO(Long id, String accountId, BigDecimal amount, LocalDateTime transactionDate) {
+        this.id = id;
+        this.accountId = accountId;
+        this.amount = amount;
+        this.transactionDate = transactionDate;
+    }
+
+    // Used by JPQL constructor expressions so history reads never load managed entities
+    public TransactionDTO(Long id, String accountId, Money amount, LocalDateTime transactionDate) {
+        this(id, accountId, amount.toBigDecimal(), transactionDate);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public LocalDateTime getTransactionDate() {
+        return transactionDate;
+    }
+
+    public void setTransactionDate(LocalDateTime transactionDate) {
+        this.transactionDate = transactionDate;
+    }
 }
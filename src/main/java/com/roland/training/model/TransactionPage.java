@@ -0,0 +1,29 @@
+package com.roland.training.model;
+
+import java.util.List;
+
+/**
+ * One page of transaction history. Pass {@code nextCursor} back to read the following page;
+ * it is null on the last page.
+ */
+public class TransactionPage {
+    private final List<String> entries;
+    private final String nextCursor;
+
+    public TransactionPage(List<String> entries, String nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
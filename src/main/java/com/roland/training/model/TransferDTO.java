@@ -0,0 +1,52 @@
+package com.roland.training.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One transfer between two accounts, read from the leg booked on one of them
+ */
+public class TransferDTO {
+    private final Long id;
+    private final String transferId;
+    private final String fromAccountId;
+    private final String toAccountId;
+    private final BigDecimal amount;
+    private final LocalDateTime transactionDate;
+
+    // Used by JPQL constructor expressions: a debit leg is the source side, a credit leg the target side
+    public TransferDTO(Long id, String transferId, String accountId, String relatedAccountId, Money amount,
+                       LocalDateTime transactionDate) {
+        this.id = id;
+        this.transferId = transferId;
+        this.fromAccountId = amount.isNegative() ? accountId : relatedAccountId;
+        this.toAccountId = amount.isNegative() ? relatedAccountId : accountId;
+        this.amount = amount.abs().toBigDecimal();
+        this.transactionDate = transactionDate;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    // Null for transfers booked before transfer ids existed
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFromAccountId() {
+        return fromAccountId;
+    }
+
+    public String getToAccountId() {
+        return toAccountId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public LocalDateTime getTransactionDate() {
+        return transactionDate;
+    }
+}
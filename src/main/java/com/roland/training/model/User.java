@@ -1,8 +1,11 @@
 package com.roland.training.model;
 
+import com.roland.training.service.UserChangeListener;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
 import lombok.*;
-import org.springframework.data.annotation.Id;
 
 import java.util.Date;
 
@@ -12,6 +15,9 @@ import java.util.Date;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
+// "user" is a reserved word in H2
+@Table(name = "users")
+@EntityListeners(UserChangeListener.class)
 public class User {
 
     @Id
@@ -1,13 +1,17 @@
 package com.roland.training.repository;
 
 import com.roland.training.model.Account;
+import com.roland.training.model.AccountDTO;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface AccountRepository extends JpaRepository<Account, String> {
@@ -15,14 +19,98 @@ public interface AccountRepository extends JpaRepository<Account, String> {
     @Query("SELECT COUNT(a) FROM Account a")
     long countTotalAccounts();
 
-    @Query("SELECT SUM(a.balance) FROM Account a")
+    // Native, because balance is a converted Money attribute and SUM must run on the DECIMAL column
+    @Query(value = "SELECT SUM(a.balance) FROM accounts a", nativeQuery = true)
     BigDecimal sumTotalBalance();
 
-    @Query("SELECT a FROM Account a WHERE a.balance = (SELECT MAX(b.balance) FROM Account b)")
-    Optional<Account> findHighestBalanceAccount();
+    // {accountNumber, balance (Money), version} in index order, to load the in-memory balance index
+    @Query("SELECT a.accountNumber, a.balance, a.version FROM Account a ORDER BY a.balance, a.accountNumber")
+    List<Object[]> findAllBalances();
 
     List<Account> findByOrderByCreatedAtDesc();
 
+    // Newest first, with the discriminator value as the account type, like findAccountTypeById
+    @Query("SELECT new com.roland.training.model.AccountDTO(a.accountNumber, " +
+            "CASE WHEN TYPE(a) = SavingsAccount THEN 'SAVINGS' ELSE 'CHECKING' END, a.balance, a.createdAt) " +
+            "FROM Account a ORDER BY a.createdAt DESC, a.accountNumber")
+    List<AccountDTO> findAllAccountDTOs();
+
+    @Query("SELECT a FROM Account a WHERE a.accountNumber IN ?1")
+    List<Account> findAllByAccountNumberIn(Collection<String> accountIds);
+
+    // Keyset page of accounts whose fees for the period have not been applied yet
+    @Query("SELECT a.accountNumber FROM Account a WHERE a.accountNumber > ?1 " +
+            "AND (a.feePeriod IS NULL OR a.feePeriod <> ?2) ORDER BY a.accountNumber")
+    List<String> findFeePendingAccountIds(String afterAccountId, String period, Pageable page);
+
     @Query(value = "SELECT a.account_type FROM accounts a WHERE a.account_id = ?1", nativeQuery = true)
     String findAccountTypeById(String accountId);
+
+    // Adds the coalesced balance journal changes of one account up to a sequence; a no-op when the
+    // row already covers that sequence, so replaying the journal never applies a change twice
+    @Modifying
+    @Query(value = "UPDATE accounts SET balance = balance + ?2, " +
+            "monthly_transactions = CASE WHEN ?3 = 0 THEN monthly_transactions " +
+            "ELSE COALESCE(monthly_transactions, 0) + ?3 END, " +
+            "last_transaction = ?4, journal_seq = ?5, version = version + 1 " +
+            "WHERE account_id = ?1 AND COALESCE(journal_seq, 0) < ?5", nativeQuery = true)
+    int applyJournal(String accountId, BigDecimal balanceChange, int transactions,
+                     LocalDateTime lastTransaction, long journalSeq);
+
+    // Adds a balance change the journal could not take; it is never replayed, so the row's
+    // journal sequence stays as it is
+    @Modifying
+    @Query(value = "UPDATE accounts SET balance = balance + ?2, " +
+            "monthly_transactions = CASE WHEN ?3 = 0 THEN monthly_transactions " +
+            "ELSE COALESCE(monthly_transactions, 0) + ?3 END, " +
+            "last_transaction = ?4, version = version + 1 " +
+            "WHERE account_id = ?1", nativeQuery = true)
+    int applyChange(String accountId, BigDecimal balanceChange, int transactions, LocalDateTime lastTransaction);
+
+    @Query("SELECT MAX(a.journalSeq) FROM Account a")
+    Long findMaxJournalSeq();
+
+    // {accountNumber, journalSeq}
+    @Query("SELECT a.accountNumber, a.journalSeq FROM Account a WHERE a.accountNumber IN ?1")
+    List<Object[]> findJournalSeqs(Collection<String> accountIds);
+
+    @Query("SELECT a.accountNumber FROM Account a WHERE a.accountNumber > ?1 ORDER BY a.accountNumber")
+    List<String> findAccountIdsAfter(String afterAccountId, Pageable page);
+
+    // Event-sourced balance: the projected row plus the postings it does not cover yet
+    @Query(value = "SELECT a.balance + COALESCE((SELECT SUM(t.amount) FROM transactions t " +
+            "WHERE t.account_id = a.account_id AND t.id > a.ledger_seq), 0) " +
+            "FROM accounts a WHERE a.account_id = ?1", nativeQuery = true)
+    BigDecimal findLedgerBalance(String accountId);
+
+    // {accountNumber, balance, ledgerSeq, tailSum, tailCount, tailMaxId} of the rows with unprojected postings
+    @Query(value = "SELECT a.account_id, a.balance, a.ledger_seq, SUM(t.amount), COUNT(*), MAX(t.id) " +
+            "FROM accounts a JOIN transactions t ON t.account_id = a.account_id AND t.id > a.ledger_seq " +
+            "WHERE a.account_id IN ?1 GROUP BY a.account_id, a.balance, a.ledger_seq", nativeQuery = true)
+    List<Object[]> findLedgerTails(Collection<String> accountIds);
+
+    @Query(value = "SELECT DISTINCT a.account_id FROM accounts a " +
+            "JOIN transactions t ON t.account_id = a.account_id AND t.id > a.ledger_seq", nativeQuery = true)
+    List<String> findAccountIdsWithLedgerTail();
+
+    // Adds projected postings to a row; a no-op unless the row still covers exactly fromSeq
+    @Modifying
+    @Query(value = "UPDATE accounts SET balance = balance + ?2, ledger_seq = ?4, version = version + 1 " +
+            "WHERE account_id = ?1 AND ledger_seq = ?3", nativeQuery = true)
+    int projectLedger(String accountId, BigDecimal balanceChange, long fromSeq, long toSeq);
+
+    @Modifying
+    @Query(value = "UPDATE accounts SET balance = ?2, version = version + 1 " +
+            "WHERE account_id = ?1 AND ledger_seq = ?3", nativeQuery = true)
+    int repairLedgerBalance(String accountId, BigDecimal balance, long ledgerSeq);
+
+    @Modifying
+    @Query(value = "UPDATE accounts SET ledger_seq = ?1 WHERE ledger_seq IS NULL", nativeQuery = true)
+    int adoptLedger(long throughSeq);
+
+    @Modifying
+    @Query(value = "UPDATE accounts SET ledger_seq = NULL WHERE ledger_seq IS NOT NULL", nativeQuery = true)
+    int clearLedger();
+
+    boolean existsByLedgerSeqIsNotNull();
 }
@@ -0,0 +1,35 @@
+package com.roland.training.repository;
+
+import com.roland.training.model.IdempotencyRecord;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    // A plain INSERT, so a key stored concurrently fails the transaction instead of being merged over
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_keys (idempotency_key, operation, account_id, to_account_id, amount, " +
+            "transfer_id, completed_at, expires_at) VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8)", nativeQuery = true)
+    int insert(String key, String operation, String accountId, String toAccountId, BigDecimal amount,
+               String transferId, LocalDateTime completedAt, LocalDateTime expiresAt);
+
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.key = ?1 AND r.expiresAt <= ?2")
+    int deleteIfExpired(String key, LocalDateTime now);
+
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.expiresAt <= ?1")
+    int deleteExpiringBy(LocalDateTime cutoff);
+
+    // Expiries, latest first; a page of size 1 at page n gives the expiry of the key ranked n
+    @Query("SELECT r.expiresAt FROM IdempotencyRecord r ORDER BY r.expiresAt DESC")
+    List<LocalDateTime> findExpiries(Pageable pageable);
+}
@@ -0,0 +1,41 @@
+package com.roland.training.repository;
+
+import com.roland.training.model.LedgerRollup;
+import com.roland.training.model.LedgerRollupId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface LedgerRollupRepository extends JpaRepository<LedgerRollup, LedgerRollupId> {
+
+    @Modifying
+    @Query("UPDATE LedgerRollup r SET r.depositSum = r.depositSum + ?4, r.withdrawalSum = r.withdrawalSum + ?5, " +
+            "r.transactionCount = r.transactionCount + ?6 " +
+            "WHERE r.id.scope = ?1 AND r.id.rollupKey = ?2 AND r.id.slot = ?3")
+    int addActivity(String scope, String rollupKey, int slot, BigDecimal deposits, BigDecimal withdrawals, long count);
+
+    @Modifying
+    @Query("UPDATE LedgerRollup r SET r.accountCount = r.accountCount + ?4, r.balanceSum = r.balanceSum + ?5 " +
+            "WHERE r.id.scope = ?1 AND r.id.rollupKey = ?2 AND r.id.slot = ?3")
+    int addTotals(String scope, String rollupKey, int slot, long accounts, BigDecimal balance);
+
+    @Modifying
+    @Query("DELETE FROM LedgerRollup r WHERE r.id.scope IN ?1")
+    int deleteByScopes(Collection<String> scopes);
+
+    // Always returns exactly one row of {depositSum, withdrawalSum, transactionCount, accountCount, balanceSum}
+    @Query("SELECT SUM(r.depositSum), SUM(r.withdrawalSum), SUM(r.transactionCount), SUM(r.accountCount), " +
+            "SUM(r.balanceSum) FROM LedgerRollup r WHERE r.id.scope = ?1 AND r.id.rollupKey = ?2")
+    List<Object[]> sumSlots(String scope, String rollupKey);
+
+    // {rollupKey, depositSum, withdrawalSum, transactionCount}
+    @Query("SELECT r.id.rollupKey, SUM(r.depositSum), SUM(r.withdrawalSum), SUM(r.transactionCount) " +
+            "FROM LedgerRollup r WHERE r.id.scope = ?1 GROUP BY r.id.rollupKey")
+    List<Object[]> sumActivityByKey(String scope);
+}
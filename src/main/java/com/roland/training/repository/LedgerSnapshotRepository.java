@@ -0,0 +1,40 @@
+package com.roland.training.repository;
+
+import com.roland.training.model.LedgerSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface LedgerSnapshotRepository extends JpaRepository<LedgerSnapshot, String> {
+
+    @Modifying
+    @Query(value = "MERGE INTO ledger_snapshots (account_id, through_seq, balance, taken_at) KEY (account_id) " +
+            "VALUES (?1, ?2, ?3, ?4)", nativeQuery = true)
+    int saveSnapshot(String accountId, long throughSeq, BigDecimal balance, LocalDateTime takenAt);
+
+    // Opening snapshots of the rows not yet in the ledger: their current balance, through the given transaction
+    @Modifying
+    @Query(value = "MERGE INTO ledger_snapshots (account_id, through_seq, balance, taken_at) KEY (account_id) " +
+            "SELECT a.account_id, ?1, a.balance, ?2 FROM accounts a WHERE a.ledger_seq IS NULL", nativeQuery = true)
+    int adoptBalances(long throughSeq, LocalDateTime takenAt);
+
+    // {accountId, storedBalance, ledgerSeq, derivedBalance, postingsSinceSnapshot}: the snapshot plus the
+    // postings up to the row's ledger_seq, against the row; derivedBalance is null without a snapshot
+    @Query(value = "SELECT a.account_id, a.balance, a.ledger_seq, s.balance + COALESCE(SUM(t.amount), 0), COUNT(t.id) " +
+            "FROM accounts a LEFT JOIN ledger_snapshots s ON s.account_id = a.account_id " +
+            "LEFT JOIN transactions t ON t.account_id = a.account_id " +
+            "AND t.id > s.through_seq AND t.id <= a.ledger_seq " +
+            "WHERE a.account_id IN ?1 GROUP BY a.account_id, a.balance, a.ledger_seq, s.balance", nativeQuery = true)
+    List<Object[]> findChecks(Collection<String> accountIds);
+
+    @Modifying
+    @Query("DELETE FROM LedgerSnapshot s WHERE s.accountId = ?1")
+    int deleteByAccountId(String accountId);
+}
@@ -0,0 +1,16 @@
+package com.roland.training.repository;
+
+import com.roland.training.model.MonthlyFeeRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MonthlyFeeRunRepository extends JpaRepository<MonthlyFeeRun, String> {
+
+    @Modifying
+    @Query("UPDATE MonthlyFeeRun r SET r.processedAccounts = r.processedAccounts + ?2, " +
+            "r.failedAccounts = r.failedAccounts + ?3 WHERE r.period = ?1")
+    int addProgress(String period, long processed, long failed);
+}
@@ -1,28 +1,151 @@
 package com.roland.training.repository;
 
 import com.roland.training.model.Transaction;
+import com.roland.training.model.TransactionDTO;
+import com.roland.training.model.TransferDTO;
+import com.roland.training.util.ArchivedTransaction;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
+    String EXPORT_FETCH_SIZE = "500";
 
     List<Transaction> findByAccountIdOrderByTransactionDateDesc(String accountId);
 
     List<Transaction> findAllByOrderByTransactionDateDesc();
 
+    // Keyset pages on (transactionDate, id), newest first
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t ORDER BY t.transactionDate DESC, t.id DESC")
+    List<TransactionDTO> findHistoryFirstPage(Pageable page);
+
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t WHERE t.transactionDate < ?1 OR (t.transactionDate = ?1 AND t.id < ?2) " +
+            "ORDER BY t.transactionDate DESC, t.id DESC")
+    List<TransactionDTO> findHistoryPageBefore(LocalDateTime transactionDate, Long id, Pageable page);
+
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t WHERE t.accountId = ?1 ORDER BY t.transactionDate DESC, t.id DESC")
+    List<TransactionDTO> findAccountHistoryFirstPage(String accountId, Pageable page);
+
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t WHERE t.accountId = ?1 " +
+            "AND (t.transactionDate < ?2 OR (t.transactionDate = ?2 AND t.id < ?3)) " +
+            "ORDER BY t.transactionDate DESC, t.id DESC")
+    List<TransactionDTO> findAccountHistoryPageBefore(String accountId, LocalDateTime transactionDate, Long id, Pageable page);
+
+    // Streaming exports: read-only projections fetched EXPORT_FETCH_SIZE rows at a time
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t ORDER BY t.transactionDate DESC, t.id DESC")
+    Stream<TransactionDTO> streamHistory();
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t WHERE t.accountId = ?1 ORDER BY t.transactionDate DESC, t.id DESC")
+    Stream<TransactionDTO> streamAccountHistory(String accountId);
+
+    // Transfer legs booked on one account against another, newest first; served by idx_transactions_related_pair
+    @Query("SELECT new com.roland.training.model.TransferDTO(t.id, t.transferId, t.accountId, t.relatedAccountId, " +
+            "t.amount, t.transactionDate) FROM Transaction t WHERE t.relatedAccountId = ?2 AND t.accountId = ?1 " +
+            "ORDER BY t.transactionDate DESC, t.id DESC")
+    List<TransferDTO> findTransfersBetween(String accountId, String otherAccountId, Pageable page);
+
+    // {counterpartyId, transfers, sentToCounterparty, receivedFromCounterparty}, from the counterparties' legs,
+    // which point back at the account; most transfers first
+    @Query(value = "SELECT t.account_id, COUNT(*), SUM(CASE WHEN t.amount > 0 THEN t.amount ELSE 0 END), " +
+            "SUM(CASE WHEN t.amount < 0 THEN -t.amount ELSE 0 END) FROM transactions t " +
+            "WHERE t.related_account_id = ?1 GROUP BY t.account_id ORDER BY COUNT(*) DESC, t.account_id",
+            nativeQuery = true)
+    List<Object[]> findCounterparties(String accountId);
+
+    List<Transaction> findByTransferId(String transferId);
+
+    // History of an account within [from, to), newest first; served by idx_transactions_account_date
+    @Query("SELECT new com.roland.training.model.TransactionDTO(t.id, t.accountId, t.amount, t.transactionDate) " +
+            "FROM Transaction t WHERE t.accountId = ?1 AND t.transactionDate >= ?2 AND t.transactionDate < ?3 " +
+            "ORDER BY t.transactionDate DESC, t.id DESC")
+    List<TransactionDTO> findAccountHistoryBetween(String accountId, LocalDateTime from, LocalDateTime to);
+
+    // Monthly partitions: the date span of the table, one month read for archiving, and bulk drops
+    @Query("SELECT MIN(t.transactionDate) FROM Transaction t")
+    LocalDateTime findOldestTransactionDate();
+
+    @Query("SELECT MAX(t.transactionDate) FROM Transaction t")
+    LocalDateTime findNewestTransactionDate();
+
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT new com.roland.training.util.ArchivedTransaction(t.id, t.accountId, t.amount, t.transactionDate, " +
+            "t.transactionType, t.relatedAccountId, t.transferId) FROM Transaction t " +
+            "WHERE t.transactionDate >= ?1 AND t.transactionDate < ?2 " +
+            "ORDER BY t.accountId, t.transactionDate DESC, t.id DESC")
+    Stream<ArchivedTransaction> streamPartition(LocalDateTime from, LocalDateTime to);
+
+    // Every row, unordered, to load the analytics column store
+    @QueryHints({@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("SELECT new com.roland.training.util.ArchivedTransaction(t.id, t.accountId, t.amount, t.transactionDate, " +
+            "t.transactionType, t.relatedAccountId, t.transferId) FROM Transaction t")
+    Stream<ArchivedTransaction> streamAll();
+
+    // Drops the archived rows of a partition only: those up to the highest id the archive holds
+    @Modifying
+    @Query("DELETE FROM Transaction t WHERE t.transactionDate >= ?1 AND t.transactionDate < ?2 AND t.id <= ?3")
+    int dropPartition(LocalDateTime from, LocalDateTime to, long maxId);
+
+    @Modifying
+    @Query("DELETE FROM Transaction t WHERE t.transactionDate >= ?1 AND t.transactionDate < ?2")
+    int dropPartition(LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT MAX(t.id) FROM Transaction t")
+    Long findMaxId();
+
+    @Query("SELECT MAX(t.id) FROM Transaction t WHERE t.accountId = ?1")
+    Long findMaxIdByAccountId(String accountId);
+
     @Query("SELECT t.accountId, COUNT(t) as count FROM Transaction t GROUP BY t.accountId ORDER BY count DESC")
     List<Object[]> findMostActiveAccount();
 
-    @Query("SELECT SUM(t.amount) FROM Transaction t WHERE t.transactionDate >= ?1 AND t.amount > 0")
+    // {accountId, count} within [from, to), used to reconcile the most-active-accounts tracker
+    @Query("SELECT t.accountId, COUNT(t) FROM Transaction t " +
+            "WHERE t.transactionDate >= ?1 AND t.transactionDate < ?2 GROUP BY t.accountId")
+    List<Object[]> countByAccountBetween(LocalDateTime from, LocalDateTime to);
+
+    // Sums over amount are native: it is a converted Money attribute, the column is a plain DECIMAL
+    @Query(value = "SELECT SUM(t.amount) FROM transactions t WHERE t.transaction_date >= ?1 AND t.amount > 0",
+            nativeQuery = true)
     BigDecimal sumDepositsAfterDate(LocalDateTime date);
 
-    @Query("SELECT SUM(t.amount) FROM Transaction t WHERE t.transactionDate >= ?1 AND t.amount < 0")
+    @Query(value = "SELECT SUM(t.amount) FROM transactions t WHERE t.transaction_date >= ?1 AND t.amount < 0",
+            nativeQuery = true)
     BigDecimal sumWithdrawalsAfterDate(LocalDateTime date);
+
+    // {day, depositSum, withdrawalSum, transactionCount}, used to rebuild the ledger rollups
+    @Query(value = "SELECT CAST(t.transaction_date AS DATE), " +
+            "SUM(CASE WHEN t.amount > 0 THEN t.amount ELSE 0 END), " +
+            "SUM(CASE WHEN t.amount < 0 THEN t.amount ELSE 0 END), COUNT(*) " +
+            "FROM transactions t GROUP BY CAST(t.transaction_date AS DATE)", nativeQuery = true)
+    List<Object[]> aggregateByDay();
+
+    // {accountId, depositSum, withdrawalSum, transactionCount}, used to rebuild the ledger rollups
+    @Query(value = "SELECT t.account_id, SUM(CASE WHEN t.amount > 0 THEN t.amount ELSE 0 END), " +
+            "SUM(CASE WHEN t.amount < 0 THEN t.amount ELSE 0 END), COUNT(*) " +
+            "FROM transactions t GROUP BY t.account_id", nativeQuery = true)
+    List<Object[]> aggregateByAccount();
 }
 
@@ -0,0 +1,278 @@
+package com.roland.training.service;
+
+import com.roland.training.model.AccountActivityCount;
+import com.roland.training.model.ActivityWindow;
+import com.roland.training.model.Transaction;
+import com.roland.training.repository.TransactionRepository;
+import com.roland.training.util.SpaceSaving;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * Tracks the most active accounts per sliding window without querying {@code transactions}.
+ *
+ * Every posted transaction is offered to one {@link SpaceSaving} summary of m counters per
+ * window bucket ({@code activity.topk.capacity}); a bucket is cleared when the window slides
+ * past it. A top-K query merges the live buckets of the window. For each account the true count
+ * lies in {@code [count - errorBound, count]}, and the error bound never exceeds N / m, with N
+ * the number of transactions in the window. The counts are exact while a bucket has seen no
+ * more than m distinct accounts.
+ *
+ * Postings are recorded once their transaction commits, so rolled-back postings are never
+ * counted. The periodic reconciliation rebuilds the summaries from the database to drop the
+ * accumulated error.
+ */
+@Service
+public class AccountActivityTracker {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionTieringService transactionTieringService;
+    private final int capacity;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final Map<ActivityWindow, WindowSummary> windows = new EnumMap<>(ActivityWindow.class);
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private volatile long lastReconciledMillis;
+
+    @Autowired
+    public AccountActivityTracker(TransactionRepository transactionRepository,
+                                  TransactionTieringService transactionTieringService,
+                                  @Value("${activity.topk.capacity:256}") int capacity) {
+        this.transactionRepository = transactionRepository;
+        this.transactionTieringService = transactionTieringService;
+        this.capacity = Math.max(1, capacity);
+        for (ActivityWindow window : ActivityWindow.values()) {
+            windows.put(window, new WindowSummary(window, this.capacity));
+        }
+    }
+
+    /**
+     * Counts posted transactions in every window once their database transaction commits
+     *
+     * @param transactions The saved transactions
+     */
+    public void recordTransactions(Collection<Transaction> transactions) {
+        List<Transaction> posted = List.copyOf(transactions);
+        afterCommit(() -> posted.forEach(transaction ->
+                record(transaction.getAccountId(), transaction.getTransactionDate())));
+    }
+
+    private void record(String accountId, LocalDateTime transactionDate) {
+        long millis = toMillis(transactionDate);
+        for (WindowSummary summary : windows.values()) {
+            summary.record(accountId, millis);
+        }
+        recorded.increment();
+    }
+
+    /**
+     * Returns the most active accounts of a window, most active first
+     *
+     * @param window The window to rank
+     * @param k      Maximum number of accounts to return
+     * @return The estimated counts with their error bounds
+     */
+    public List<AccountActivityCount> topK(ActivityWindow window, int k) {
+        queries.increment();
+        return windows.get(window).topK(k, System.currentTimeMillis());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcile();
+    }
+
+    /**
+     * Rebuilds every window from the transactions table, which drops the accumulated error
+     */
+    @Scheduled(initialDelayString = "${activity.topk.reconcile-interval-ms:3600000}",
+            fixedDelayString = "${activity.topk.reconcile-interval-ms:3600000}")
+    public void reconcile() {
+        long start = System.currentTimeMillis();
+        for (WindowSummary summary : windows.values()) {
+            reconcile(summary, start);
+        }
+        lastReconciledMillis = System.currentTimeMillis();
+        logger.info("Reconciled most-active-account windows in {} ms", lastReconciledMillis - start);
+    }
+
+    private void reconcile(WindowSummary summary, long nowMillis) {
+        ActivityWindow window = summary.window;
+        if (window == ActivityWindow.ALL_TIME) {
+            SpaceSaving bucket = new SpaceSaving(capacity);
+            // Archived months count too; the shorter windows only ever cover hot months
+            load(bucket, transactionTieringService.countByAccount());
+            summary.replace(new SpaceSaving[]{bucket}, new long[]{0});
+            return;
+        }
+
+        int n = window.getBuckets();
+        long bucketMillis = window.getBucketMillis();
+        long current = nowMillis / bucketMillis;
+        SpaceSaving[] buckets = new SpaceSaving[n];
+        long[] epochs = new long[n];
+        for (long epoch = current - n + 1; epoch <= current; epoch++) {
+            int index = (int) Math.floorMod(epoch, (long) n);
+            SpaceSaving bucket = new SpaceSaving(capacity);
+            LocalDateTime from = fromMillis(epoch * bucketMillis);
+            LocalDateTime to = fromMillis((epoch + 1) * bucketMillis);
+            load(bucket, transactionRepository.countByAccountBetween(from, to));
+            buckets[index] = bucket;
+            epochs[index] = epoch;
+        }
+        summary.replace(buckets, epochs);
+    }
+
+    // Offering the exact counts largest first keeps the top m of them exact
+    private static void load(SpaceSaving bucket, List<Object[]> rows) {
+        List<Object[]> sorted = new ArrayList<>(rows);
+        sorted.sort(Comparator.comparingLong((Object[] row) -> ((Number) row[1]).longValue()).reversed());
+        for (Object[] row : sorted) {
+            bucket.offer(row[0].toString(), ((Number) row[1]).longValue());
+        }
+    }
+
+    public void clear() {
+        for (WindowSummary summary : windows.values()) {
+            summary.clear();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("capacity", capacity);
+        metrics.put("recorded", recorded.sum());
+        metrics.put("queries", queries.sum());
+        metrics.put("lastReconciledMillis", lastReconciledMillis);
+        for (WindowSummary summary : windows.values()) {
+            metrics.put(summary.window.name(), summary.getMetrics(System.currentTimeMillis()));
+        }
+        return metrics;
+    }
+
+    private long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    private LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), zone);
+    }
+
+    /**
+     * Ring of per-bucket summaries for one window. Bucket i holds the bucket epoch
+     * {@code epochs[i]}, where an epoch is the time divided by the bucket length.
+     */
+    private static final class WindowSummary {
+        private final ActivityWindow window;
+        private SpaceSaving[] buckets;
+        private long[] epochs;
+
+        WindowSummary(ActivityWindow window, int capacity) {
+            this.window = window;
+            this.buckets = new SpaceSaving[window.getBuckets()];
+            this.epochs = new long[window.getBuckets()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new SpaceSaving(capacity);
+                epochs[i] = Long.MIN_VALUE;
+            }
+        }
+
+        synchronized void record(String accountId, long millis) {
+            long epoch = millis / window.getBucketMillis();
+            int index = (int) Math.floorMod(epoch, (long) buckets.length);
+            if (epochs[index] != epoch) {
+                if (epochs[index] > epoch) {
+                    // Older than the window; the bucket already holds a newer period
+                    return;
+                }
+                buckets[index].clear();
+                epochs[index] = epoch;
+            }
+            buckets[index].offer(accountId, 1);
+        }
+
+        synchronized List<AccountActivityCount> topK(int k, long nowMillis) {
+            Map<String, long[]> merged = new HashMap<>();
+            long[] missing = new long[1];
+            forEachLiveBucket(nowMillis, bucket -> {
+                long minimum = bucket.minCount();
+                missing[0] += minimum;
+                bucket.forEach((key, count, error) -> {
+                    // {count, error, sum of minCount of the buckets that track the key}
+                    long[] totals = merged.computeIfAbsent(key, x -> new long[3]);
+                    totals[0] += count;
+                    totals[1] += error;
+                    totals[2] += minimum;
+                });
+            });
+
+            List<AccountActivityCount> ranked = new ArrayList<>(merged.size());
+            merged.forEach((key, totals) -> {
+                // Buckets that dropped the key may hide up to their minCount occurrences each
+                long hidden = missing[0] - totals[2];
+                ranked.add(new AccountActivityCount(key, totals[0] + hidden, totals[1] + hidden));
+            });
+            ranked.sort(Comparator.comparingLong(AccountActivityCount::getCount).reversed()
+                    .thenComparing(AccountActivityCount::getAccountId));
+            return ranked.size() > k ? new ArrayList<>(ranked.subList(0, Math.max(0, k))) : ranked;
+        }
+
+        synchronized void replace(SpaceSaving[] buckets, long[] epochs) {
+            this.buckets = buckets;
+            this.epochs = epochs;
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i].clear();
+                epochs[i] = Long.MIN_VALUE;
+            }
+        }
+
+        synchronized Map<String, Object> getMetrics(long nowMillis) {
+            long[] totals = new long[3];
+            forEachLiveBucket(nowMillis, bucket -> {
+                totals[0] += bucket.getTotal();
+                totals[1] += bucket.size();
+                totals[2] += bucket.minCount();
+            });
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("transactions", totals[0]);
+            metrics.put("trackedCounters", totals[1]);
+            metrics.put("maxError", totals[2]);
+            return metrics;
+        }
+
+        private void forEachLiveBucket(long nowMillis, Consumer<SpaceSaving> action) {
+            long oldest = nowMillis / window.getBucketMillis() - buckets.length + 1;
+            for (int i = 0; i < buckets.length; i++) {
+                if (epochs[i] >= oldest) {
+                    action.accept(buckets[i]);
+                }
+            }
+        }
+    }
+}
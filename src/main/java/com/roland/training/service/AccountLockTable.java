@@ -0,0 +1,184 @@
+package com.roland.training.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * In-process striped lock table keyed by account id.
+ *
+ * Account ids are hashed onto a fixed number of lock stripes, so mutations of unrelated
+ * accounts proceed in parallel while mutations of the same account are serialized. Operations
+ * touching two accounts always acquire the two stripes in ascending stripe order, which rules
+ * out lock-order deadlocks between concurrent transfers in opposite directions.
+ */
+@Component
+public class AccountLockTable {
+    private final ReentrantLock[] stripes;
+    private final StripeMetrics[] metrics;
+    private final int mask;
+
+    public AccountLockTable(@Value("${account.lock.stripes:256}") int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        int size = stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.mask = size - 1;
+        this.stripes = new ReentrantLock[size];
+        this.metrics = new StripeMetrics[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+            metrics[i] = new StripeMetrics();
+        }
+    }
+
+    /**
+     * Runs the work while holding the stripe of one account
+     *
+     * @param accountId The account being mutated
+     * @param work      The work to run
+     * @return The result of the work
+     */
+    public <T> T callWithLock(String accountId, Supplier<T> work) {
+        int stripe = stripeOf(accountId);
+        acquire(stripe);
+        try {
+            return work.get();
+        } finally {
+            stripes[stripe].unlock();
+        }
+    }
+
+    /**
+     * Runs the work while holding the stripes of two accounts, acquired in deterministic order
+     *
+     * @param firstAccountId  One account being mutated
+     * @param secondAccountId The other account being mutated
+     * @param work            The work to run
+     * @return The result of the work
+     */
+    public <T> T callWithLocks(String firstAccountId, String secondAccountId, Supplier<T> work) {
+        int first = stripeOf(firstAccountId);
+        int second = stripeOf(secondAccountId);
+        if (first == second) {
+            return callWithLock(firstAccountId, work);
+        }
+        int lower = Math.min(first, second);
+        int upper = Math.max(first, second);
+        acquire(lower);
+        try {
+            acquire(upper);
+            try {
+                return work.get();
+            } finally {
+                stripes[upper].unlock();
+            }
+        } finally {
+            stripes[lower].unlock();
+        }
+    }
+
+    /**
+     * Runs the work while holding the stripes of any number of accounts, acquired in ascending
+     * stripe order
+     *
+     * @param accountIds The accounts being mutated
+     * @param work       The work to run
+     * @return The result of the work
+     */
+    public <T> T callWithLocks(Collection<String> accountIds, Supplier<T> work) {
+        int[] ordered = accountIds.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+        int acquired = 0;
+        try {
+            for (int stripe : ordered) {
+                acquire(stripe);
+                acquired++;
+            }
+            return work.get();
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                stripes[ordered[i]].unlock();
+            }
+        }
+    }
+
+    public void runWithLock(String accountId, Runnable work) {
+        callWithLock(accountId, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public void runWithLocks(String firstAccountId, String secondAccountId, Runnable work) {
+        callWithLocks(firstAccountId, secondAccountId, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    int stripeOf(String accountId) {
+        int h = accountId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void acquire(int stripe) {
+        ReentrantLock lock = stripes[stripe];
+        StripeMetrics stats = metrics[stripe];
+        stats.acquisitions.increment();
+        if (lock.tryLock()) {
+            return;
+        }
+        // Only contended acquisitions pay for the clock reads
+        stats.contended.increment();
+        long start = System.nanoTime();
+        lock.lock();
+        stats.waitNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * @return Contention metrics of every stripe that has been contended at least once
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        long acquisitions = 0;
+        long contended = 0;
+        long waitNanos = 0;
+        Map<Integer, Map<String, Long>> contendedStripes = new LinkedHashMap<>();
+        for (int i = 0; i < metrics.length; i++) {
+            StripeMetrics stats = metrics[i];
+            long stripeAcquisitions = stats.acquisitions.sum();
+            long stripeContended = stats.contended.sum();
+            long stripeWait = stats.waitNanos.sum();
+            acquisitions += stripeAcquisitions;
+            contended += stripeContended;
+            waitNanos += stripeWait;
+            if (stripeContended > 0) {
+                Map<String, Long> stripe = new LinkedHashMap<>();
+                stripe.put("acquisitions", stripeAcquisitions);
+                stripe.put("contended", stripeContended);
+                stripe.put("waitMicros", TimeUnit.NANOSECONDS.toMicros(stripeWait));
+                stripe.put("queueLength", (long) stripes[i].getQueueLength());
+                contendedStripes.put(i, stripe);
+            }
+        }
+        report.put("stripes", stripes.length);
+        report.put("acquisitions", acquisitions);
+        report.put("contended", contended);
+        report.put("waitMicros", TimeUnit.NANOSECONDS.toMicros(waitNanos));
+        report.put("contendedStripes", contendedStripes);
+        return report;
+    }
+
+    private static final class StripeMetrics {
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder contended = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+    }
+}
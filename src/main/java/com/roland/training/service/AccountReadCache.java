@@ -0,0 +1,283 @@
+package com.roland.training.service;
+
+import com.roland.training.model.Account;
+import com.roland.training.model.AccountDTO;
+import com.roland.training.model.CheckingAccount;
+import com.roland.training.model.Money;
+import com.roland.training.model.SavingsAccount;
+import com.roland.training.repository.AccountRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * Read-through cache of the account list and of account types.
+ *
+ * The type of an account never changes after it is created, so types are cached for good: added
+ * when an account is created, dropped when it is deleted, and loaded with one query on a miss.
+ * The account list is kept in creation order (newest first) and maintained incrementally from
+ * the create and delete events, which apply once their transaction commits. Balances are not
+ * copied into the list; they come from the {@link BalanceIndex}, which already follows every
+ * balance change, including those still held by the {@link AccountStateCache}.
+ *
+ * {@link #getAllAccounts()} returns a versioned snapshot. It is rebuilt only when an account was
+ * added or removed or a balance changed since the last one, and shared by every caller until
+ * then, so the DTOs in it must not be modified. The list is loaded with one DTO projection query
+ * at startup.
+ */
+@Service
+public class AccountReadCache {
+    private static final Comparator<Row> NEWEST_FIRST = Comparator
+            .comparing((Row row) -> row.createdAt, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(row -> row.accountId);
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final BalanceIndex balanceIndex;
+
+    private final Map<String, String> types = new ConcurrentHashMap<>();
+
+    // The list, guarded by lock; membershipVersion changes with every add or remove
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeSet<Row> rows = new TreeSet<>(NEWEST_FIRST);
+    private final Map<String, Row> rowsById = new HashMap<>();
+    // Deletions seen before the list was loaded, which the load must not bring back
+    private final Set<String> deletedBeforeLoad = new HashSet<>();
+    private volatile boolean loaded;
+    private volatile long membershipVersion;
+    private volatile Snapshot snapshot;
+
+    private final LongAdder typeHits = new LongAdder();
+    private final LongAdder typeMisses = new LongAdder();
+    private final LongAdder listHits = new LongAdder();
+    private final LongAdder listRebuilds = new LongAdder();
+    private final LongAdder events = new LongAdder();
+
+    @Autowired
+    public AccountReadCache(AccountRepository accountRepository, BalanceIndex balanceIndex) {
+        this.accountRepository = accountRepository;
+        this.balanceIndex = balanceIndex;
+    }
+
+    /**
+     * @param accountId The account
+     * @return The account type (discriminator value), or null if there is no such account
+     */
+    public String getAccountType(String accountId) {
+        String type = types.get(accountId);
+        if (type != null) {
+            typeHits.increment();
+            return type;
+        }
+        typeMisses.increment();
+        // Under the lock, so a deletion committing meanwhile cannot be undone by this put
+        lock.lock();
+        try {
+            type = accountRepository.findAccountTypeById(accountId);
+            if (type != null) {
+                types.put(accountId, type);
+            }
+            return type;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Every account, newest first; a shared snapshot that must not be modified
+     */
+    public List<AccountDTO> getAllAccounts() {
+        if (!loaded) {
+            load();
+        }
+        Snapshot current = snapshot;
+        if (current != null && current.membershipVersion == membershipVersion
+                && current.balanceVersion == balanceIndex.getModifications()) {
+            listHits.increment();
+            return current.accounts;
+        }
+        return rebuild();
+    }
+
+    private List<AccountDTO> rebuild() {
+        lock.lock();
+        try {
+            List<String> ids = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                ids.add(row.accountId);
+            }
+            long[] balances = new long[ids.size()];
+            long balanceVersion = balanceIndex.balancesOf(ids, balances);
+
+            List<AccountDTO> accounts = new ArrayList<>(ids.size());
+            int i = 0;
+            for (Row row : rows) {
+                long balance = balances[i] == Long.MIN_VALUE ? row.balanceMinor : balances[i];
+                accounts.add(new AccountDTO(row.accountId, row.type,
+                        BigDecimal.valueOf(balance, Money.SCALE), row.createdAt));
+                i++;
+            }
+            Snapshot rebuilt = new Snapshot(membershipVersion, balanceVersion, Collections.unmodifiableList(accounts));
+            snapshot = rebuilt;
+            listRebuilds.increment();
+            return rebuilt.accounts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a new account once the current transaction commits, or immediately when there is
+     * no transaction
+     *
+     * @param account The created account
+     */
+    public void created(Account account) {
+        Row row = new Row(account.getAccountNumber(), typeOf(account), account.getBalance().getMinorUnits(),
+                account.getCreatedAt());
+        afterCommit(() -> {
+            types.put(row.accountId, row.type);
+            lock.lock();
+            try {
+                add(row);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Removes a deleted account once the current transaction commits, or immediately when there
+     * is no transaction
+     *
+     * @param accountId The deleted account
+     */
+    public void deleted(String accountId) {
+        afterCommit(() -> {
+            types.remove(accountId);
+            lock.lock();
+            try {
+                Row row = rowsById.remove(accountId);
+                if (row != null) {
+                    rows.remove(row);
+                    membershipVersion++;
+                }
+                if (!loaded) {
+                    deletedBeforeLoad.add(accountId);
+                }
+                events.increment();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Loads the account list; events that arrive meanwhile wait and apply on top
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        lock.lock();
+        try {
+            if (loaded) {
+                return;
+            }
+            List<AccountDTO> accounts = accountRepository.findAllAccountDTOs();
+            for (AccountDTO dto : accounts) {
+                if (!rowsById.containsKey(dto.getAccountId()) && !deletedBeforeLoad.contains(dto.getAccountId())) {
+                    add(new Row(dto.getAccountId(), dto.getAccountType(),
+                            Money.of(dto.getBalance()).getMinorUnits(), dto.getCreatedAt()));
+                }
+                types.putIfAbsent(dto.getAccountId(), dto.getAccountType());
+            }
+            deletedBeforeLoad.clear();
+            loaded = true;
+            logger.info("Loaded {} accounts into the account list cache", accounts.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void add(Row row) {
+        Row previous = rowsById.put(row.accountId, row);
+        if (previous != null) {
+            rows.remove(previous);
+        }
+        rows.add(row);
+        membershipVersion++;
+        events.increment();
+    }
+
+    private static String typeOf(Account account) {
+        if (account instanceof SavingsAccount) {
+            return "SAVINGS";
+        }
+        if (account instanceof CheckingAccount) {
+            return "CHECKING";
+        }
+        throw new IllegalArgumentException("Unknown account type: " + account.getClass().getSimpleName());
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("loaded", loaded);
+        metrics.put("accounts", rowsById.size());
+        metrics.put("types", types.size());
+        metrics.put("typeHits", typeHits.sum());
+        metrics.put("typeMisses", typeMisses.sum());
+        metrics.put("listHits", listHits.sum());
+        metrics.put("listRebuilds", listRebuilds.sum());
+        metrics.put("events", events.sum());
+        return metrics;
+    }
+
+    // The parts of an account that never change; balance is only the fallback until it is indexed
+    private static final class Row {
+        private final String accountId;
+        private final String type;
+        private final long balanceMinor;
+        private final LocalDateTime createdAt;
+
+        private Row(String accountId, String type, long balanceMinor, LocalDateTime createdAt) {
+            this.accountId = accountId;
+            this.type = type;
+            this.balanceMinor = balanceMinor;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final class Snapshot {
+        private final long membershipVersion;
+        private final long balanceVersion;
+        private final List<AccountDTO> accounts;
+
+        private Snapshot(long membershipVersion, long balanceVersion, List<AccountDTO> accounts) {
+            this.membershipVersion = membershipVersion;
+            this.balanceVersion = balanceVersion;
+            this.accounts = accounts;
+        }
+    }
+}
@@ -1,254 +1,742 @@
 package com.roland.training.service;
 
 import com.roland.training.exception.AccountNotFoundException;
+import com.roland.training.exception.BadRequestException;
 import com.roland.training.exception.BankingException;
+import com.roland.training.exception.ConcurrentUpdateException;
 import com.roland.training.exception.InsufficientFundsException;
 import com.roland.training.exception.OverdraftLimitExceededException;
 import com.roland.training.model.*;
 import com.roland.training.repository.AccountRepository;
 import com.roland.training.repository.TransactionRepository;
+import com.roland.training.util.ActivityRecord;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 public class AccountService {
 
+    private static final int ACCOUNT_LOAD_CHUNK = 1000;
+
     private final AccountRepository accountRepository;
     private final TransactionRepository transactionRepository;
     private final TransactionService transactionService;
+    private final AccountLockTable accountLockTable;
+    private final MonthlyFeeEngine monthlyFeeEngine;
+    private final LedgerRollupService ledgerRollupService;
+    private final AccountActivityTracker accountActivityTracker;
+    private final BalanceIndex balanceIndex;
+    private final AccountStateCache accountStateCache;
+    private final AccountReadCache accountReadCache;
+    private final LedgerService ledgerService;
+    private final IdempotencyService idempotencyService;
+    private final TransactionAnalyticsService transactionAnalyticsService;
+    private final BankingMetrics bankingMetrics;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
 
     @Autowired
     public AccountService(AccountRepository accountRepository,
                           TransactionRepository transactionRepository,
-                          TransactionService transactionService) {
+                          TransactionService transactionService,
+                          AccountLockTable accountLockTable,
+                          MonthlyFeeEngine monthlyFeeEngine,
+                          LedgerRollupService ledgerRollupService,
+                          AccountActivityTracker accountActivityTracker,
+                          BalanceIndex balanceIndex,
+                          AccountStateCache accountStateCache,
+                          AccountReadCache accountReadCache,
+                          LedgerService ledgerService,
+                          IdempotencyService idempotencyService,
+                          TransactionAnalyticsService transactionAnalyticsService,
+                          BankingMetrics bankingMetrics,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${account.optimistic.max-attempts:3}") int maxAttempts) {
         this.accountRepository = accountRepository;
         this.transactionRepository = transactionRepository;
         this.transactionService = transactionService;
+        this.accountLockTable = accountLockTable;
+        this.monthlyFeeEngine = monthlyFeeEngine;
+        this.ledgerRollupService = ledgerRollupService;
+        this.accountActivityTracker = accountActivityTracker;
+        this.balanceIndex = balanceIndex;
+        this.accountStateCache = accountStateCache;
+        this.accountReadCache = accountReadCache;
+        this.ledgerService = ledgerService;
+        this.idempotencyService = idempotencyService;
+        this.transactionAnalyticsService = transactionAnalyticsService;
+        this.bankingMetrics = bankingMetrics;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = Math.max(1, maxAttempts);
     }
 
     @Transactional
     public Account createAccount(AccountType type, String accountId, BigDecimal initialBalance) throws BankingException {
+        Money balance = toMoney(initialBalance, "Initial balance");
+        // Every posting is appended to the activity log after it commits, so an id the log
+        // cannot hold has to be refused before anything is written
+        if (accountId == null || !ActivityRecord.fits(accountId)) {
+            throw new BankingException("Account id must be at most "
+                    + ActivityRecord.MAX_ACCOUNT_ID_BYTES + " bytes");
+        }
+
         // Create appropriate account type
         Account account;
         if (type == AccountType.SAVINGS) {
-            account = new SavingsAccount(accountId, initialBalance);
+            account = new SavingsAccount(accountId, balance);
         } else if (type == AccountType.CHECKING) {
-            account = new CheckingAccount(accountId, initialBalance);
+            account = new CheckingAccount(accountId, balance);
         } else {
             throw new BankingException("Invalid account type");
         }
 
         // Save account to database
         account = accountRepository.save(account);
+        ledgerRollupService.adjustTotals(1, initialBalance);
+        balanceIndex.track(account);
+        accountReadCache.created(account);
 
         // Log initial deposit if positive
-        if (initialBalance.compareTo(BigDecimal.ZERO) > 0) {
-            transactionService.logTransaction(accountId, initialBalance, "Initial deposit");
+        if (balance.isPositive()) {
+            transactionService.logTransaction(accountId, balance);
+        }
+        if (ledgerService.isEnabled()) {
+            ledgerService.open(account);
         }
 
         return account;
     }
 
-    @Transactional
     public void deposit(String accountId, BigDecimal amount) throws BankingException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new BankingException("Deposit amount must be positive");
-        }
+        deposit(accountId, amount, null);
+    }
 
-        Account account = accountRepository.findById(accountId)
-                .orElseThrow(() -> new AccountNotFoundException(accountId));
+    /**
+     * Deposits at most once per idempotency key, see {@link IdempotencyService}
+     *
+     * @return The receipt of the deposit, replayed if the key was used before
+     */
+    public OperationReceipt deposit(String idempotencyKey, String accountId, BigDecimal amount) throws BankingException {
+        Money money = positiveAmount(amount, "Deposit");
+        return idempotencyService.execute(idempotencyKey, PostingType.DEPOSIT, accountId, null, money,
+                claim -> deposit(accountId, amount, claim));
+    }
 
-        // Update balance
-        account.setBalance(account.getBalance().add(amount));
-        account.setLastTransaction(LocalDateTime.now());
-        accountRepository.save(account);
+    private void deposit(String accountId, BigDecimal amount, IdempotencyService.Claim claim) {
+        BankingMetrics.Sample sample = bankingMetrics.start(BankingMetrics.Operation.DEPOSIT);
+        try {
+            Money money = positiveAmount(amount, "Deposit");
 
-        // If it's a checking account, increment transaction count
-        if (account instanceof CheckingAccount) {
-            ((CheckingAccount) account).incrementTransactions();
+            if (ledgerService.isEnabled()) {
+                accountLockTable.runWithLock(accountId, () -> postDeposit(accountId, money, sample, claim));
+            } else {
+                accountLockTable.runWithLock(accountId, () -> applyDeposit(accountId, money, sample, claim));
+            }
+            sample.success();
+        } catch (RuntimeException e) {
+            throw sample.failure(e);
         }
+    }
+
+    // Runs under the account's lock. Only the transaction row, the rollups and the idempotency key
+    // are written to the database now. Once they commit, the balance is journaled and held by the
+    // state cache; the lock keeps the account unchanged in between.
+    private void applyDeposit(String accountId, Money amount, BankingMetrics.Sample sample,
+                              IdempotencyService.Claim claim) {
+        Account account = accountStateCache.load(accountId);
+        sample.account(account);
+
+        executeWithRetry(accountId, () -> {
+            ledgerRollupService.adjustTotals(0, amount.toBigDecimal());
+            transactionService.logTransaction(accountId, amount);
+            idempotencyService.record(claim, null);
+        });
 
-        // Log transaction
-        transactionService.logTransaction(accountId, amount, "Deposit");
+        // Update balance, counting the transaction on checking accounts
+        accountStateCache.apply(account, amount, 1);
     }
 
-    @Transactional
     public void withdraw(String accountId, BigDecimal amount) throws BankingException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new BankingException("Withdrawal amount must be positive");
+        withdraw(accountId, amount, null);
+    }
+
+    /**
+     * Withdraws at most once per idempotency key, see {@link IdempotencyService}
+     *
+     * @return The receipt of the withdrawal, replayed if the key was used before
+     */
+    public OperationReceipt withdraw(String idempotencyKey, String accountId, BigDecimal amount) throws BankingException {
+        Money money = positiveAmount(amount, "Withdrawal");
+        return idempotencyService.execute(idempotencyKey, PostingType.WITHDRAWAL, accountId, null, money,
+                claim -> withdraw(accountId, amount, claim));
+    }
+
+    private void withdraw(String accountId, BigDecimal amount, IdempotencyService.Claim claim) {
+        BankingMetrics.Sample sample = bankingMetrics.start(BankingMetrics.Operation.WITHDRAW);
+        try {
+            Money money = positiveAmount(amount, "Withdrawal");
+
+            if (ledgerService.isEnabled()) {
+                accountLockTable.runWithLock(accountId, () -> postWithdrawal(accountId, money, sample, claim));
+            } else {
+                accountLockTable.runWithLock(accountId, () -> applyWithdrawal(accountId, money, sample, claim));
+            }
+            sample.success();
+        } catch (RuntimeException e) {
+            throw sample.failure(e);
         }
+    }
 
-        Account account = accountRepository.findById(accountId)
-                .orElseThrow(() -> new AccountNotFoundException(accountId));
+    // Runs under the account's lock, see applyDeposit
+    private void applyWithdrawal(String accountId, Money amount, BankingMetrics.Sample sample,
+                                 IdempotencyService.Claim claim) {
+        Account account = accountStateCache.load(accountId);
+        sample.account(account);
 
         // Check balance based on account type
+        checkWithdrawal(account, amount);
+
+        Money debit = amount.negate();
+        executeWithRetry(accountId, () -> {
+            ledgerRollupService.adjustTotals(0, debit.toBigDecimal());
+            transactionService.logTransaction(accountId, debit);
+            idempotencyService.record(claim, null);
+        });
+
+        // Update balance, counting the transaction on checking accounts
+        accountStateCache.apply(account, debit, 1);
+    }
+
+    public void transfer(String fromAccountId, String toAccountId, BigDecimal amount) throws BankingException {
+        transfer(fromAccountId, toAccountId, amount, null);
+    }
+
+    /**
+     * Transfers at most once per idempotency key, see {@link IdempotencyService}
+     *
+     * @return The receipt of the transfer with its transfer id, replayed if the key was used before
+     */
+    public OperationReceipt transfer(String idempotencyKey, String fromAccountId, String toAccountId,
+                                     BigDecimal amount) throws BankingException {
+        Money money = positiveAmount(amount, "Transfer");
+        checkDistinct(fromAccountId, toAccountId);
+        return idempotencyService.execute(idempotencyKey, PostingType.TRANSFER, fromAccountId, toAccountId, money,
+                claim -> transfer(fromAccountId, toAccountId, amount, claim));
+    }
+
+    private void transfer(String fromAccountId, String toAccountId, BigDecimal amount, IdempotencyService.Claim claim) {
+        BankingMetrics.Sample sample = bankingMetrics.start(BankingMetrics.Operation.TRANSFER);
+        try {
+            Money money = positiveAmount(amount, "Transfer");
+            // Rejected before any lock is taken, as postBatch does for its transfers
+            checkDistinct(fromAccountId, toAccountId);
+
+            if (ledgerService.isEnabled()) {
+                accountLockTable.runWithLocks(fromAccountId, toAccountId,
+                        () -> postTransfer(fromAccountId, toAccountId, money, sample, claim));
+            } else {
+                accountLockTable.runWithLocks(fromAccountId, toAccountId,
+                        () -> applyTransfer(fromAccountId, toAccountId, money, sample, claim));
+            }
+            sample.success();
+        } catch (RuntimeException e) {
+            throw sample.failure(e);
+        }
+    }
+
+    // Runs under both accounts' locks, see applyDeposit. Tagged with the type of the source account.
+    private void applyTransfer(String fromAccountId, String toAccountId, Money amount, BankingMetrics.Sample sample,
+                               IdempotencyService.Claim claim) {
+        Account fromAccount = accountStateCache.load(fromAccountId);
+        sample.account(fromAccount);
+
+        Account toAccount = accountStateCache.load(toAccountId);
+
+        // Check balance based on account type
+        checkWithdrawal(fromAccount, amount);
+
+        executeWithRetry(fromAccountId, () -> {
+            String transferId = transactionService.logTransfer(fromAccountId, toAccountId, amount);
+            idempotencyService.record(claim, transferId);
+        });
+
+        // Update both balances in one journal entry, counting the transaction on the source
+        accountStateCache.apply(fromAccount, amount.negate(), 1, toAccount, amount, 0);
+    }
+
+    // Event-sourced mode, under the account's lock: only the posting is written and the projector
+    // moves it onto the balance, see LedgerService
+    private void postDeposit(String accountId, Money amount, BankingMetrics.Sample sample,
+                             IdempotencyService.Claim claim) {
+        executeWithRetry(accountId, () -> {
+            Account account = findAccount(accountId);
+            sample.account(account);
+            recordActivity(account, 1);
+            ledgerRollupService.adjustTotals(0, amount.toBigDecimal());
+            transactionService.logTransaction(accountId, amount);
+            idempotencyService.record(claim, null);
+        });
+    }
+
+    private void postWithdrawal(String accountId, Money amount, BankingMetrics.Sample sample,
+                                IdempotencyService.Claim claim) {
+        executeWithRetry(accountId, () -> {
+            Account account = findAccount(accountId);
+            sample.account(account);
+            checkWithdrawal(account, ledgerService.getBalance(accountId), amount);
+            recordActivity(account, 1);
+            Money debit = amount.negate();
+            ledgerRollupService.adjustTotals(0, debit.toBigDecimal());
+            transactionService.logTransaction(accountId, debit);
+            idempotencyService.record(claim, null);
+        });
+    }
+
+    private void postTransfer(String fromAccountId, String toAccountId, Money amount, BankingMetrics.Sample sample,
+                              IdempotencyService.Claim claim) {
+        executeWithRetry(fromAccountId, () -> {
+            Account fromAccount = findAccount(fromAccountId);
+            sample.account(fromAccount);
+            Account toAccount = findAccount(toAccountId);
+            checkWithdrawal(fromAccount, ledgerService.getBalance(fromAccountId), amount);
+            recordActivity(fromAccount, 1);
+            recordActivity(toAccount, 0);
+            String transferId = transactionService.logTransfer(fromAccountId, toAccountId, amount);
+            idempotencyService.record(claim, transferId);
+        });
+    }
+
+    private static void checkDistinct(String fromAccountId, String toAccountId) {
+        if (fromAccountId != null && fromAccountId.equals(toAccountId)) {
+            throw new BankingException("Cannot transfer to the same account");
+        }
+    }
+
+    private Account findAccount(String accountId) {
+        return accountRepository.findById(accountId).orElseThrow(() -> new AccountNotFoundException(accountId));
+    }
+
+    // Stamps the activity on a loaded account, counting the transaction on checking accounts;
+    // the balance is left to the ledger projector
+    private static void recordActivity(Account account, int transactions) {
+        account.setLastTransaction(LocalDateTime.now());
+        if (transactions != 0 && account instanceof CheckingAccount) {
+            ((CheckingAccount) account).incrementTransactions();
+        }
+    }
+
+    // Throws if the account type does not allow withdrawing the amount; the checks do not allocate
+    private static void checkWithdrawal(Account account, Money amount) {
+        checkWithdrawal(account, account.getBalance(), amount);
+    }
+
+    private static void checkWithdrawal(Account account, Money balance, Money amount) {
         if (account instanceof SavingsAccount) {
-            if (account.getBalance().compareTo(amount) < 0) {
-                throw new InsufficientFundsException(accountId, amount, account.getBalance());
+            if (!balance.canSubtract(amount, Money.ZERO)) {
+                throw new InsufficientFundsException(account.getAccountNumber(),
+                        amount.toBigDecimal(), balance.toBigDecimal());
             }
         } else if (account instanceof CheckingAccount) {
-            BigDecimal overdraftLimit = new BigDecimal("-100.00");
-            if (account.getBalance().subtract(amount).compareTo(overdraftLimit) < 0) {
-                throw new OverdraftLimitExceededException(accountId, amount, account.getBalance());
+            if (!balance.canSubtract(amount, CheckingAccount.OVERDRAFT_LIMIT)) {
+                throw new OverdraftLimitExceededException(account.getAccountNumber(),
+                        amount.toBigDecimal(), balance.toBigDecimal());
             }
-            // Increment transaction count
-            ((CheckingAccount) account).incrementTransactions();
         }
+    }
+
+    // Amounts enter the service as BigDecimal and are converted once, rejecting fractions of a cent
+    private static Money toMoney(BigDecimal amount, String what) {
+        try {
+            return Money.of(amount);
+        } catch (ArithmeticException e) {
+            throw new BankingException(what + " must be a whole number of cents: " + amount, e);
+        }
+    }
 
-        // Update balance
-        account.setBalance(account.getBalance().subtract(amount));
-        account.setLastTransaction(LocalDateTime.now());
-        accountRepository.save(account);
+    private static Money positiveAmount(BigDecimal amount, String operation) {
+        Money money = toMoney(amount, operation + " amount");
+        if (!money.isPositive()) {
+            throw new BankingException(operation + " amount must be positive");
+        }
+        return money;
+    }
 
-        // Log transaction
-        transactionService.logTransaction(accountId, amount.negate(), "Withdrawal");
+    /**
+     * Posts a batch of deposits, withdrawals and transfers in one transaction.
+     *
+     * All touched accounts are loaded with IN queries, the postings are applied in memory in
+     * submission order, and the balance updates and transaction rows are written in a single
+     * flush using JDBC batching. A posting that fails validation is reported as failed and
+     * leaves every balance untouched; the remaining postings still apply.
+     *
+     * @param postings The postings to apply, in order
+     * @return One result per posting, in the same order
+     */
+    public List<PostingResult> postBatch(List<Posting> postings) {
+        return timed(BankingMetrics.Operation.POST_BATCH, () -> applyPostings(postings));
     }
 
-    @Transactional
-    public void transfer(String fromAccountId, String toAccountId, BigDecimal amount) throws BankingException {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new BankingException("Transfer amount must be positive");
+    private List<PostingResult> applyPostings(List<Posting> postings) {
+        Set<String> accountIds = new TreeSet<>();
+        for (Posting posting : postings) {
+            if (posting.getAccountId() != null) {
+                accountIds.add(posting.getAccountId());
+            }
+            if (posting.getType() == PostingType.TRANSFER && posting.getToAccountId() != null) {
+                accountIds.add(posting.getToAccountId());
+            }
+        }
+        if (accountIds.isEmpty()) {
+            return applyBatch(postings, Map.of());
+        }
+
+        // Cached accounts are written back first and evicted on commit, since the batch updates rows
+        String retryKey = accountIds.iterator().next();
+        return accountLockTable.callWithLocks(accountIds,
+                () -> executeWithRetry(retryKey, () -> {
+                    accountStateCache.release(accountIds);
+                    return applyBatch(postings, loadAccounts(accountIds));
+                }));
+    }
+
+    private Map<String, Account> loadAccounts(Set<String> accountIds) {
+        Map<String, Account> accounts = new HashMap<>(accountIds.size() * 2);
+        List<String> ids = new ArrayList<>(accountIds);
+        for (int from = 0; from < ids.size(); from += ACCOUNT_LOAD_CHUNK) {
+            List<String> chunk = ids.subList(from, Math.min(from + ACCOUNT_LOAD_CHUNK, ids.size()));
+            for (Account account : accountRepository.findAllByAccountNumberIn(chunk)) {
+                accounts.put(account.getAccountNumber(), account);
+            }
         }
+        return accounts;
+    }
 
-        Account fromAccount = accountRepository.findById(fromAccountId)
-                .orElseThrow(() -> new AccountNotFoundException(fromAccountId));
+    private List<PostingResult> applyBatch(List<Posting> postings, Map<String, Account> accounts) {
+        List<PostingResult> results = new ArrayList<>(postings.size());
+        List<Transaction> transactions = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        if (ledgerService.isEnabled()) {
+            ledgerService.catchUp(accounts);
+        }
 
-        Account toAccount = accountRepository.findById(toAccountId)
-                .orElseThrow(() -> new AccountNotFoundException(toAccountId));
+        for (int i = 0; i < postings.size(); i++) {
+            Posting posting = postings.get(i);
+            try {
+                applyPosting(posting, accounts, transactions, now);
+                results.add(PostingResult.success(i, posting));
+            } catch (BankingException | IllegalArgumentException e) {
+                results.add(PostingResult.failure(i, posting, e));
+            }
+        }
 
-        // Check balance based on account type
-        if (fromAccount instanceof SavingsAccount) {
-            if (fromAccount.getBalance().compareTo(amount) < 0) {
-                throw new InsufficientFundsException(fromAccountId, amount, fromAccount.getBalance());
+        // Managed accounts are flushed with the transaction rows when the transaction commits
+        if (!transactions.isEmpty()) {
+            transactionService.logTransactions(transactions);
+            long netMinor = 0;
+            for (Transaction transaction : transactions) {
+                netMinor = Math.addExact(netMinor, transaction.getAmount().getMinorUnits());
             }
-        } else if (fromAccount instanceof CheckingAccount) {
-            BigDecimal overdraftLimit = new BigDecimal("-100.00");
-            if (fromAccount.getBalance().subtract(amount).compareTo(overdraftLimit) < 0) {
-                throw new OverdraftLimitExceededException(fromAccountId, amount, fromAccount.getBalance());
+            ledgerRollupService.adjustTotals(0, BigDecimal.valueOf(netMinor, Money.SCALE));
+            if (ledgerService.isEnabled()) {
+                ledgerService.stamp(accounts, transactions);
             }
-            // Increment transaction count
-            ((CheckingAccount) fromAccount).incrementTransactions();
         }
+        // Untouched accounts keep their version, so tracking them is a no-op
+        accounts.values().forEach(balanceIndex::track);
+        return results;
+    }
 
-        // Update balances
-        fromAccount.setBalance(fromAccount.getBalance().subtract(amount));
-        toAccount.setBalance(toAccount.getBalance().add(amount));
+    // Validates the posting completely before touching any balance, so a failure has no side effects
+    private static void applyPosting(Posting posting, Map<String, Account> accounts,
+                                     List<Transaction> transactions, LocalDateTime now) {
+        if (posting.getType() == null) {
+            throw new IllegalArgumentException("Posting type is required");
+        }
+        if (posting.getAmount() == null) {
+            throw new BankingException("Posting amount must be positive");
+        }
+        Money amount = positiveAmount(posting.getAmount(), "Posting");
+        Account account = requireAccount(accounts, posting.getAccountId());
+
+        switch (posting.getType()) {
+            case DEPOSIT:
+                account.setBalance(account.getBalance().plus(amount));
+                account.setLastTransaction(now);
+                if (account instanceof CheckingAccount) {
+                    ((CheckingAccount) account).incrementTransactions();
+                }
+                transactions.add(new Transaction(account.getAccountNumber(), amount, now));
+                break;
+            case WITHDRAWAL:
+                checkWithdrawal(account, amount);
+                account.setBalance(account.getBalance().minus(amount));
+                account.setLastTransaction(now);
+                if (account instanceof CheckingAccount) {
+                    ((CheckingAccount) account).incrementTransactions();
+                }
+                transactions.add(new Transaction(account.getAccountNumber(), amount.negate(), now));
+                break;
+            case TRANSFER:
+                Account toAccount = requireAccount(accounts, posting.getToAccountId());
+                if (toAccount == account) {
+                    throw new BankingException("Cannot transfer to the same account");
+                }
+                checkWithdrawal(account, amount);
+                account.setBalance(account.getBalance().minus(amount));
+                toAccount.setBalance(toAccount.getBalance().plus(amount));
+                account.setLastTransaction(now);
+                toAccount.setLastTransaction(now);
+                if (account instanceof CheckingAccount) {
+                    ((CheckingAccount) account).incrementTransactions();
+                }
+
+                transactions.addAll(Transaction.transferLegs(account.getAccountNumber(),
+                        toAccount.getAccountNumber(), amount, now));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported posting type: " + posting.getType());
+        }
+    }
 
-        LocalDateTime now = LocalDateTime.now();
-        fromAccount.setLastTransaction(now);
-        toAccount.setLastTransaction(now);
+    private static Account requireAccount(Map<String, Account> accounts, String accountId) {
+        Account account = accountId == null ? null : accounts.get(accountId);
+        if (account == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+        return account;
+    }
 
-        accountRepository.save(fromAccount);
-        accountRepository.save(toAccount);
+    // Runs one mutation in its own transaction, retrying it when the optimistic version check fails
+    private void executeWithRetry(String accountId, Runnable mutation) {
+        executeWithRetry(accountId, () -> {
+            mutation.run();
+            return null;
+        });
+    }
 
-        // Log transactions
-        transactionService.logTransaction(fromAccountId, amount.negate(), "Transfer to " + toAccountId);
-        transactionService.logTransaction(toAccountId, amount, "Transfer from " + fromAccountId);
-        transactionService.logTransfer(fromAccountId, toAccountId, amount);
+    private <T> T executeWithRetry(String accountId, Supplier<T> mutation) {
+        OptimisticLockingFailureException lastFailure = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> mutation.get());
+            } catch (OptimisticLockingFailureException e) {
+                lastFailure = e;
+                if (attempt < maxAttempts) {
+                    backOff(attempt);
+                }
+            }
+        }
+        throw new ConcurrentUpdateException(accountId, maxAttempts, lastFailure);
     }
 
+    private static void backOff(int attempt) {
+        long maxMillis = 1L << Math.min(attempt, 6);
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(1, maxMillis + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BankingException("Interrupted while retrying account update", e);
+        }
+    }
+
+    // Served from the state cache, where a miss loads the account; in event-sourced mode derived from the ledger
     public BigDecimal getBalance(String accountId) throws BankingException {
-        return accountRepository.findById(accountId)
-                .orElseThrow(() -> new AccountNotFoundException(accountId))
-                .getBalance();
+        if (ledgerService.isEnabled()) {
+            return ledgerService.getBalance(accountId).toBigDecimal();
+        }
+        return accountStateCache.getBalance(accountId).toBigDecimal();
     }
 
     public String getAccountTypeById(String accountId) {
-        return accountRepository.findAccountTypeById(accountId);
+        return accountReadCache.getAccountType(accountId);
     }
 
+    // A shared snapshot, newest first; see AccountReadCache
     public List<AccountDTO> getAllAccounts() {
-        return accountRepository.findByOrderByCreatedAtDesc().stream()
-                .map(AccountDTO::fromEntity)
-                .collect(Collectors.toList());
+        return accountReadCache.getAllAccounts();
     }
 
-    @Transactional
     public void deleteAccount(String accountId) throws BankingException {
-        Account account = accountRepository.findById(accountId)
-                .orElseThrow(() -> new AccountNotFoundException(accountId));
+        // Locked until the commit, so no deposit can cache the account in between
+        accountLockTable.runWithLock(accountId, () -> transactionTemplate.executeWithoutResult(status -> {
+            accountStateCache.release(List.of(accountId));
+            Account account = findAccount(accountId);
+            Money balance = account.getBalance();
+            if (ledgerService.isEnabled()) {
+                balance = ledgerService.getBalance(accountId);
+                ledgerService.close(accountId);
+            }
 
-        // Delete the account and its transactions
-        accountRepository.delete(account);
+            // Delete the account and its transactions
+            accountRepository.delete(account);
+            ledgerRollupService.adjustTotals(-1, balance.negate().toBigDecimal());
+            balanceIndex.untrack(accountId);
+            accountReadCache.deleted(accountId);
+        }));
     }
 
-    @Transactional
-    public void processMonthlyFees() {
-        List<Account> accounts = accountRepository.findAll();
-
-        for (Account account : accounts) {
-            account.processMonthlyFees();
-            accountRepository.save(account);
-
-            // Log the fee transaction
-            BigDecimal fee = BigDecimal.ZERO;
-            if (account instanceof CheckingAccount) {
-                fee = new BigDecimal("-12.00"); // Monthly fee
-            } else if (account instanceof SavingsAccount) {
-                // For savings, calculate the interest
-                SavingsAccount savingsAccount = (SavingsAccount) account;
-                fee = account.getBalance().multiply(savingsAccount.getInterestRate());
-            }
-
-            if (fee.compareTo(BigDecimal.ZERO) != 0) {
-                String description = fee.compareTo(BigDecimal.ZERO) > 0 ?
-                        "Monthly interest" : "Monthly fee";
-                transactionService.logTransaction(account.getAccountNumber(), fee, description);
-            }
-        }
+    /**
+     * Applies this month's fees and interest through the chunked month-end engine. Safe to call
+     * again after a crash: accounts already charged for the month are skipped.
+     *
+     * @return Summary of the run
+     */
+    public Map<String, Object> processMonthlyFees() {
+        return timed(BankingMetrics.Operation.MONTHLY_FEES, () -> monthlyFeeEngine.run(YearMonth.now()));
     }
 
     public Map<String, Object> getAccountSummary() {
-        Map<String, Object> summary = new HashMap<>();
-
-        summary.put("totalAccounts", accountRepository.countTotalAccounts());
+        return timed(BankingMetrics.Operation.ACCOUNT_SUMMARY, this::accountSummary);
+    }
 
-        BigDecimal totalBalance = accountRepository.sumTotalBalance();
-        summary.put("totalBalance", totalBalance != null ? totalBalance : BigDecimal.ZERO);
+    private Map<String, Object> accountSummary() {
+        // Served from the ledger rollups instead of COUNT/SUM over accounts
+        Map<String, Object> report = new HashMap<>(ledgerRollupService.getBankTotals());
 
-        return summary;
+        // Transaction totals of the whole history, both tiers, from the analytics store
+        if (transactionAnalyticsService.isReady()) {
+            report.putAll(transactionAnalyticsService.getTotals());
+        }
+        return report;
     }
 
     public Map<String, Object> getDailyTransactions() {
-        Map<String, Object> report = new HashMap<>();
-
-        LocalDateTime startOfDay = LocalDate.now().atStartOfDay();
+        return timed(BankingMetrics.Operation.DAILY_TRANSACTIONS, this::dailyTransactions);
+    }
 
-        BigDecimal deposits = transactionRepository.sumDepositsAfterDate(startOfDay);
-        report.put("totalDeposits", deposits != null ? deposits : BigDecimal.ZERO);
+    private Map<String, Object> dailyTransactions() {
+        Map<String, Object> report = new HashMap<>();
 
-        BigDecimal withdrawals = transactionRepository.sumWithdrawalsAfterDate(startOfDay);
-        report.put("totalWithdrawals", withdrawals != null ? withdrawals : BigDecimal.ZERO);
+        // Served from the analytics store, or today's ledger rollup while it loads, instead of
+        // two scans over transactions
+        Map<String, Object> today = transactionAnalyticsService.isReady()
+                ? transactionAnalyticsService.getDailyTotals(LocalDate.now())
+                : ledgerRollupService.getDailyTotals(LocalDate.now());
+        report.put("totalDeposits", today.get("totalDeposits"));
+        report.put("totalWithdrawals", today.get("totalWithdrawals"));
 
         return report;
     }
 
     public Map<String, Object> getAccountActivity() {
+        return timed(BankingMetrics.Operation.ACCOUNT_ACTIVITY, this::accountActivity);
+    }
+
+    private Map<String, Object> accountActivity() {
         Map<String, Object> report = new HashMap<>();
 
-        // Find most active account
-        List<Object[]> mostActive = transactionRepository.findMostActiveAccount();
-        if (!mostActive.isEmpty()) {
-            Object[] result = mostActive.get(0);
-            report.put("mostActiveAccount", result[0].toString());
-            report.put("transactionCount", result[1]);
+        // Find most active account: exact from the analytics store, estimated while it loads
+        Optional<AccountActivityCount> mostActive = transactionAnalyticsService.isReady()
+                ? transactionAnalyticsService.getMostActiveAccount()
+                : accountActivityTracker.topK(ActivityWindow.ALL_TIME, 1).stream().findFirst();
+        mostActive.ifPresent(result -> {
+            report.put("mostActiveAccount", result.getAccountId());
+            report.put("transactionCount", result.getCount());
+        });
+
+        // Find highest balance account; ties resolve deterministically instead of failing
+        List<AccountBalance> highest = balanceIndex.highest(1);
+        if (!highest.isEmpty()) {
+            report.put("highestBalanceAccount", highest.get(0).getAccountId());
+            report.put("highestBalance", highest.get(0).getBalance());
         }
 
-        // Find highest balance account
-        accountRepository.findHighestBalanceAccount().ifPresent(account -> {
-            report.put("highestBalanceAccount", account.getAccountNumber());
-            report.put("highestBalance", account.getBalance());
+        return report;
+    }
+
+    /**
+     * Returns the K most active accounts of a sliding window
+     *
+     * @param window The window to rank, e.g. the last hour
+     * @param k      Number of accounts to return
+     * @return The accounts with their estimated transaction counts, most active first
+     * @throws BadRequestException if k is not positive
+     */
+    public List<AccountActivityCount> getTopActiveAccounts(ActivityWindow window, int k) {
+        return timed(BankingMetrics.Operation.TOP_ACTIVE_ACCOUNTS, () -> {
+            if (k <= 0) {
+                throw new BadRequestException("k must be positive");
+            }
+            return accountActivityTracker.topK(window, k);
         });
+    }
 
-        return report;
+    /**
+     * Returns the accounts with the highest balances
+     *
+     * @param n Number of accounts to return
+     * @return The accounts, highest balance first
+     */
+    public List<AccountBalance> getHighestBalances(int n) {
+        if (n <= 0) {
+            throw new BadRequestException("n must be positive");
+        }
+        return balanceIndex.highest(n);
+    }
+
+    /**
+     * Returns the accounts with the lowest balances
+     *
+     * @param n Number of accounts to return
+     * @return The accounts, lowest balance first
+     */
+    public List<AccountBalance> getLowestBalances(int n) {
+        if (n <= 0) {
+            throw new BadRequestException("n must be positive");
+        }
+        return balanceIndex.lowest(n);
+    }
+
+    /**
+     * Reports how many accounts fall in a balance band, and the balance percentiles
+     *
+     * @param min Lower bound of the band, inclusive
+     * @param max Upper bound of the band, inclusive
+     * @return The band count, total account count and the 50th, 90th and 99th percentiles
+     */
+    public Map<String, Object> getBalanceDistribution(BigDecimal min, BigDecimal max) {
+        return timed(BankingMetrics.Operation.BALANCE_DISTRIBUTION, () -> {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("accountsInBand", balanceIndex.countBetween(min, max));
+            report.put("totalAccounts", balanceIndex.size());
+            for (int percentile : new int[]{50, 90, 99}) {
+                balanceIndex.percentile(percentile)
+                        .ifPresent(entry -> report.put("p" + percentile, entry.getBalance()));
+            }
+            return report;
+        });
+    }
+
+    // Times an operation that is not tied to a single account
+    private <T> T timed(BankingMetrics.Operation operation, Supplier<T> work) {
+        BankingMetrics.Sample sample = bankingMetrics.start(operation);
+        try {
+            T result = work.get();
+            sample.success();
+            return result;
+        } catch (RuntimeException e) {
+            throw sample.failure(e);
+        }
     }
 }
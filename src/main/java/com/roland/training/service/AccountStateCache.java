@@ -0,0 +1,481 @@
+package com.roland.training.service;
+
+import com.roland.training.exception.AccountNotFoundException;
+import com.roland.training.model.Account;
+import com.roland.training.model.CheckingAccount;
+import com.roland.training.model.Money;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.util.BalanceJournal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * Write-behind cache of the state of hot accounts: balance, last transaction time and monthly
+ * transaction count.
+ *
+ * While an account is cached, its in-memory state is authoritative. Mutations run under the
+ * account's lock from {@link AccountLockTable}. Once the posting of a change has committed, the
+ * change is appended to the {@link BalanceJournal} and applied in memory when the entry is
+ * durable, so the journal never holds a change whose posting rolled back. Every
+ * {@code balance.cache.flush-interval-ms} the journal segment is sealed and the changes of each
+ * dirty account are coalesced into one delta UPDATE, which also stamps the row with the last
+ * journal sequence it covers; then the sealed segments are deleted. On startup the journal is
+ * replayed and entries a row already covers are skipped, so a crash at any point neither loses
+ * nor doubles a change. Rows are only written on flush, so queries on the accounts table lag
+ * the cache by up to one interval.
+ *
+ * Accounts idle for {@code balance.cache.idle-evict-ms}, and the least recently used ones beyond
+ * {@code balance.cache.max-accounts}, are evicted after their flush. Code that writes balances
+ * to the database itself (batch postings, the month-end engine, deletion) first calls
+ * {@link #release(Collection)} to flush and evict the accounts it touches.
+ */
+@Service
+public class AccountStateCache {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final AccountLockTable accountLockTable;
+    private final BalanceJournal balanceJournal;
+    private final BalanceIndex balanceIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAccounts;
+    private final long idleEvictNanos;
+    private final int flushBatchSize;
+
+    private final Map<String, Cached> accounts = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder mutations = new LongAdder();
+    private final LongAdder journalFailures = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushedAccounts = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder replayedEntries = new LongAdder();
+
+    @Autowired
+    public AccountStateCache(AccountRepository accountRepository,
+                             AccountLockTable accountLockTable,
+                             BalanceJournal balanceJournal,
+                             BalanceIndex balanceIndex,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${balance.cache.max-accounts:100000}") int maxAccounts,
+                             @Value("${balance.cache.idle-evict-ms:300000}") long idleEvictMillis,
+                             @Value("${balance.cache.flush-batch-size:256}") int flushBatchSize) {
+        this.accountRepository = accountRepository;
+        this.accountLockTable = accountLockTable;
+        this.balanceJournal = balanceJournal;
+        this.balanceIndex = balanceIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAccounts = Math.max(1, maxAccounts);
+        this.idleEvictNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleEvictMillis));
+        this.flushBatchSize = Math.max(1, flushBatchSize);
+    }
+
+    /**
+     * Replays the journal of the previous run into the accounts table and opens the journal
+     */
+    @PostConstruct
+    public void recover() {
+        List<BalanceJournal.Entry> entries = balanceJournal.recover();
+        Long recorded = accountRepository.findMaxJournalSeq();
+        long lastSequence = recorded == null ? 0 : recorded;
+        if (!entries.isEmpty()) {
+            replay(entries);
+            lastSequence = Math.max(lastSequence, entries.get(entries.size() - 1).getSequence());
+        }
+        balanceJournal.open(lastSequence);
+        balanceJournal.discard(lastSequence);
+    }
+
+    private void replay(List<BalanceJournal.Entry> entries) {
+        Map<String, List<BalanceJournal.Entry>> byAccount = new LinkedHashMap<>();
+        for (BalanceJournal.Entry entry : entries) {
+            for (BalanceJournal.Change change : entry.getChanges()) {
+                byAccount.computeIfAbsent(change.getAccountId(), id -> new ArrayList<>()).add(entry);
+            }
+        }
+        List<String> ids = new ArrayList<>(byAccount.keySet());
+        int applied = 0;
+        for (int from = 0; from < ids.size(); from += flushBatchSize) {
+            List<String> chunk = ids.subList(from, Math.min(from + flushBatchSize, ids.size()));
+            applied += transactionTemplate.execute(status -> replayChunk(chunk, byAccount));
+        }
+        replayedEntries.add(entries.size());
+        logger.info("Replayed {} balance journal entries, {} of {} accounts needed changes",
+                entries.size(), applied, ids.size());
+    }
+
+    private int replayChunk(List<String> ids, Map<String, List<BalanceJournal.Entry>> byAccount) {
+        Map<String, Long> covered = new HashMap<>();
+        for (Object[] row : accountRepository.findJournalSeqs(ids)) {
+            covered.put((String) row[0], row[1] == null ? 0L : ((Number) row[1]).longValue());
+        }
+        int applied = 0;
+        for (String id : ids) {
+            Long coveredSequence = covered.get(id);
+            if (coveredSequence == null) {
+                logger.warn("Skipping balance journal entries of deleted account {}", id);
+                continue;
+            }
+            Pending pending = new Pending();
+            for (BalanceJournal.Entry entry : byAccount.get(id)) {
+                if (entry.getSequence() <= coveredSequence) {
+                    continue;
+                }
+                for (BalanceJournal.Change change : entry.getChanges()) {
+                    if (change.getAccountId().equals(id)) {
+                        pending.add(change.getDeltaMinor(), change.getTransactions(), entry.getTime(), entry.getSequence());
+                    }
+                }
+            }
+            if (pending.sequence > 0) {
+                write(id, pending);
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Returns the balance of an account, loading it into the cache on a miss
+     *
+     * @param accountId The account
+     * @return The current balance
+     * @throws AccountNotFoundException If there is no such account
+     */
+    public Money getBalance(String accountId) {
+        Cached cached = accounts.get(accountId);
+        if (cached != null) {
+            hits.increment();
+            cached.lastAccessNanos = System.nanoTime();
+            return cached.balance;
+        }
+        // Loaded under the lock, so a concurrent eviction cannot leave a stale copy behind
+        return accountLockTable.callWithLock(accountId, () -> load(accountId).getBalance());
+    }
+
+    /**
+     * Returns the cached account, loading it on a miss. The caller holds the account's lock and
+     * must only change the account through {@link #apply}.
+     *
+     * @param accountId The account
+     * @return The cached, detached account
+     * @throws AccountNotFoundException If there is no such account
+     */
+    public Account load(String accountId) {
+        Cached cached = accounts.get(accountId);
+        if (cached != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            Account account = accountRepository.findById(accountId)
+                    .orElseThrow(() -> new AccountNotFoundException(accountId));
+            cached = new Cached(account);
+            accounts.put(accountId, cached);
+        }
+        cached.lastAccessNanos = System.nanoTime();
+        return cached.account;
+    }
+
+    /**
+     * Journals a change of one cached account and applies it in memory. The caller holds the
+     * account's lock and has committed the posting of the change. Should the journal fail, the
+     * change is written straight to the account row instead, so it is never lost.
+     *
+     * @param account      The account, as returned by {@link #load(String)}
+     * @param change       The balance change
+     * @param transactions The change of the monthly transaction count, for checking accounts
+     */
+    public void apply(Account account, Money change, int transactions) {
+        apply(new Account[]{account}, new long[]{change.getMinorUnits()}, new int[]{transactions});
+    }
+
+    /**
+     * Journals the changes of two cached accounts as one entry and applies them in memory. The
+     * caller holds both accounts' locks and has committed the posting of the changes.
+     */
+    public void apply(Account first, Money firstChange, int firstTransactions,
+                      Account second, Money secondChange, int secondTransactions) {
+        apply(new Account[]{first, second},
+                new long[]{firstChange.getMinorUnits(), secondChange.getMinorUnits()},
+                new int[]{firstTransactions, secondTransactions});
+    }
+
+    private void apply(Account[] targets, long[] deltas, int[] transactions) {
+        Cached[] entries = new Cached[targets.length];
+        List<BalanceJournal.Change> changes = new ArrayList<>(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            String id = targets[i].getAccountNumber();
+            entries[i] = accounts.get(id);
+            if (entries[i] == null || entries[i].account != targets[i]) {
+                throw new IllegalStateException("Account " + id + " is not held by the state cache");
+            }
+            if (!(targets[i] instanceof CheckingAccount)) {
+                transactions[i] = 0;
+            }
+            changes.add(new BalanceJournal.Change(id, deltas[i], transactions[i]));
+        }
+        // Marked before journaling, so a flush that seals the segment always sees the account
+        for (Account target : targets) {
+            dirty.add(target.getAccountNumber());
+        }
+        LocalDateTime now = LocalDateTime.now();
+        long sequence;
+        try {
+            sequence = balanceJournal.append(now, changes);
+        } catch (RuntimeException e) {
+            journalFailures.increment();
+            logger.error("Failed to journal balance changes of {}, writing them through",
+                    changes.stream().map(BalanceJournal.Change::getAccountId).collect(Collectors.toList()), e);
+            writeThrough(targets, deltas, transactions, now);
+            sequence = 0;
+        }
+        for (int i = 0; i < entries.length; i++) {
+            entries[i].apply(deltas[i], transactions[i], now, sequence);
+            balanceIndex.update(targets[i].getAccountNumber(), entries[i].balance);
+        }
+        mutations.increment();
+    }
+
+    // The posting has committed, so a change the journal cannot take goes to the rows directly
+    private void writeThrough(Account[] targets, long[] deltas, int[] transactions, LocalDateTime now) {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < targets.length; i++) {
+                accountRepository.applyChange(targets[i].getAccountNumber(),
+                        BigDecimal.valueOf(deltas[i], Money.SCALE), transactions[i], now);
+            }
+        });
+    }
+
+    /**
+     * Writes the pending changes of the given accounts and evicts them, so the caller can
+     * change their rows directly. Inside a transaction the write joins it and the accounts are
+     * evicted when it commits; the caller should hold the locks until then.
+     *
+     * @param accountIds The accounts about to be written elsewhere
+     */
+    public void release(Collection<String> accountIds) {
+        List<String> ids = accountIds.stream()
+                .filter(accounts::containsKey)
+                .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return;
+        }
+        accountLockTable.callWithLocks(ids, () -> {
+            writeBack(ids);
+            afterCommit(() -> ids.forEach(this::evict));
+            return null;
+        });
+        releases.add(ids.size());
+    }
+
+    /**
+     * Seals the journal, writes every dirty account, deletes the sealed segments and evicts
+     * cold accounts
+     */
+    @Scheduled(fixedDelayString = "${balance.cache.flush-interval-ms:200}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            long sealedThrough = balanceJournal.roll();
+            List<String> ids = new ArrayList<>(dirty);
+            boolean complete = true;
+            for (int from = 0; from < ids.size(); from += flushBatchSize) {
+                List<String> chunk = ids.subList(from, Math.min(from + flushBatchSize, ids.size()));
+                try {
+                    accountLockTable.callWithLocks(chunk, () -> {
+                        writeBack(chunk);
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    // Stay dirty and journaled; the next flush retries them
+                    complete = false;
+                    flushErrors.increment();
+                    logger.error("Failed to flush {} cached accounts", chunk.size(), e);
+                }
+            }
+            if (complete) {
+                balanceJournal.discard(sealedThrough);
+            }
+            flushes.increment();
+            evictCold();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Called with the locks of the accounts held
+    private void writeBack(List<String> ids) {
+        List<Cached> written = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            for (String id : ids) {
+                Cached cached = accounts.get(id);
+                if (cached == null || cached.pending.sequence == 0) {
+                    // Marked by a change whose journal append failed
+                    dirty.remove(id);
+                    continue;
+                }
+                write(id, cached.pending);
+                written.add(cached);
+            }
+        });
+        afterCommit(() -> {
+            for (Cached cached : written) {
+                cached.pending = new Pending();
+                dirty.remove(cached.account.getAccountNumber());
+            }
+            flushedAccounts.add(written.size());
+        });
+    }
+
+    private void write(String accountId, Pending pending) {
+        int rows = accountRepository.applyJournal(accountId, BigDecimal.valueOf(pending.deltaMinor, Money.SCALE),
+                pending.transactions, pending.lastTransaction, pending.sequence);
+        if (rows == 0) {
+            logger.warn("Balance journal changes up to {} not applied to account {}: deleted or already applied",
+                    pending.sequence, accountId);
+        }
+    }
+
+    private void evictCold() {
+        long now = System.nanoTime();
+        List<Cached> clean = new ArrayList<>();
+        List<String> evict = new ArrayList<>();
+        for (Cached cached : accounts.values()) {
+            if (cached.pending.sequence != 0) {
+                continue;
+            }
+            if (now - cached.lastAccessNanos > idleEvictNanos) {
+                evict.add(cached.account.getAccountNumber());
+            } else {
+                clean.add(cached);
+            }
+        }
+        int excess = accounts.size() - evict.size() - maxAccounts;
+        if (excess > 0) {
+            clean.sort(Comparator.comparingLong(cached -> cached.lastAccessNanos));
+            for (int i = 0; i < excess && i < clean.size(); i++) {
+                evict.add(clean.get(i).account.getAccountNumber());
+            }
+        }
+        for (String id : evict) {
+            accountLockTable.runWithLock(id, () -> evict(id));
+        }
+    }
+
+    // Called with the account's lock held; dirty accounts stay until they are flushed
+    private void evict(String accountId) {
+        Cached cached = accounts.get(accountId);
+        if (cached != null && cached.pending.sequence == 0) {
+            accounts.remove(accountId);
+            evictions.increment();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("cachedAccounts", accounts.size());
+        metrics.put("dirtyAccounts", dirty.size());
+        metrics.put("hits", hitCount);
+        metrics.put("misses", misses.sum());
+        metrics.put("hitRate", lookups == 0 ? 0.0 : hitCount / (double) lookups);
+        metrics.put("mutations", mutations.sum());
+        metrics.put("journalFailures", journalFailures.sum());
+        metrics.put("flushes", flushes.sum());
+        metrics.put("flushedAccounts", flushedAccounts.sum());
+        metrics.put("flushErrors", flushErrors.sum());
+        metrics.put("evictions", evictions.sum());
+        metrics.put("releases", releases.sum());
+        metrics.put("replayedEntries", replayedEntries.sum());
+        metrics.put("journal", balanceJournal.getMetrics());
+        return metrics;
+    }
+
+    /**
+     * Writes everything still pending before the journal closes
+     */
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private static final class Cached {
+        // Detached copy, changed only through apply() under the account's lock
+        private final Account account;
+        // Published for lock-free balance reads
+        private volatile Money balance;
+        private volatile long lastAccessNanos;
+        // Changes journaled but not yet written to the row, guarded by the account's lock
+        private Pending pending = new Pending();
+
+        private Cached(Account account) {
+            this.account = account;
+            this.balance = account.getBalance();
+        }
+
+        private void apply(long deltaMinor, int transactions, LocalDateTime now, long sequence) {
+            account.setBalance(account.getBalance().plus(Money.ofMinor(deltaMinor)));
+            account.setLastTransaction(now);
+            if (transactions != 0) {
+                CheckingAccount checking = (CheckingAccount) account;
+                checking.setMonthlyTransactions(checking.getMonthlyTransactions() + transactions);
+            }
+            // A change without a sequence was written through and has nothing left to flush
+            if (sequence != 0) {
+                pending.add(deltaMinor, transactions, now, sequence);
+            }
+            balance = account.getBalance();
+            lastAccessNanos = System.nanoTime();
+        }
+    }
+
+    // Coalesced changes of one account up to a journal sequence
+    private static final class Pending {
+        private long deltaMinor;
+        private int transactions;
+        private LocalDateTime lastTransaction;
+        private long sequence;
+
+        private void add(long deltaMinor, int transactions, LocalDateTime time, long sequence) {
+            this.deltaMinor = Math.addExact(this.deltaMinor, deltaMinor);
+            this.transactions += transactions;
+            if (lastTransaction == null || time.isAfter(lastTransaction)) {
+                lastTransaction = time;
+            }
+            this.sequence = Math.max(this.sequence, sequence);
+        }
+    }
+}
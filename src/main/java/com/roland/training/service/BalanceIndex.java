@@ -0,0 +1,304 @@
+package com.roland.training.service;
+
+import com.roland.training.model.Account;
+import com.roland.training.model.AccountBalance;
+import com.roland.training.model.Money;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.util.RankedSkipList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * In-process index of all account balances, ordered by (balance, account id).
+ *
+ * Balance mutations call {@link #track(Account)} inside their transaction; the index is updated
+ * after the commit, so it never shows a balance that was rolled back. Each entry remembers the
+ * account version it was taken from and older versions are ignored, so commits that finish out
+ * of order cannot leave a stale balance behind. Backed by a {@link RankedSkipList}, every query
+ * runs in O(log n), plus the size of the result for highest/lowest-N.
+ *
+ * The index is loaded at startup with one ordered scan over {@code idx_accounts_balance}.
+ */
+@Service
+public class BalanceIndex {
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingLong((Entry e) -> e.balanceMinor)
+            .thenComparingInt(e -> e.bound)
+            .thenComparing(e -> e.accountId, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final RankedSkipList<Entry> entries = new RankedSkipList<>(ORDER);
+    private final Map<String, Entry> byAccount = new HashMap<>();
+    // Bumped on every change, so readers can tell whether balances they copied are still current
+    private volatile long modifications;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Autowired
+    public BalanceIndex(AccountRepository accountRepository) {
+        this.accountRepository = accountRepository;
+    }
+
+    /**
+     * Records the balance of an account once the current transaction commits, or immediately
+     * when there is no transaction
+     *
+     * @param account The account whose balance may have changed
+     */
+    public void track(Account account) {
+        afterCommit(() -> put(account.getAccountNumber(), account.getBalance(), versionOf(account)));
+    }
+
+    /**
+     * Drops an account once the current transaction commits, or immediately when there is no
+     * transaction
+     *
+     * @param accountId The deleted account
+     */
+    public void untrack(String accountId) {
+        afterCommit(() -> remove(accountId));
+    }
+
+    /**
+     * Records a balance held by {@link AccountStateCache}, which is ahead of the database row.
+     * The entry keeps the version it had, so later commits still order against it.
+     *
+     * @param accountId The account
+     * @param balance   Its current balance
+     */
+    public void update(String accountId, Money balance) {
+        lock.writeLock().lock();
+        try {
+            Entry current = byAccount.get(accountId);
+            put(accountId, balance, current == null ? -1 : current.version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void put(String accountId, Money balance, long version) {
+        lock.writeLock().lock();
+        try {
+            Entry current = byAccount.get(accountId);
+            if (current != null) {
+                if (current.version > version) {
+                    return;
+                }
+                entries.remove(current);
+            }
+            Entry entry = new Entry(balance.getMinorUnits(), accountId, version, 0);
+            entries.add(entry);
+            byAccount.put(accountId, entry);
+            modifications++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(String accountId) {
+        lock.writeLock().lock();
+        try {
+            Entry current = byAccount.remove(accountId);
+            if (current != null) {
+                entries.remove(current);
+                modifications++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param n Maximum number of accounts
+     * @return The accounts with the highest balances, highest first
+     */
+    public List<AccountBalance> highest(int n) {
+        lock.readLock().lock();
+        try {
+            List<Entry> range = entries.range(Math.max(0, entries.size() - n), n);
+            Collections.reverse(range);
+            return toBalances(range);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param n Maximum number of accounts
+     * @return The accounts with the lowest balances, lowest first
+     */
+    public List<AccountBalance> lowest(int n) {
+        lock.readLock().lock();
+        try {
+            return toBalances(entries.range(0, n));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the accounts whose balance lies in a band
+     *
+     * @param min Lower bound, inclusive
+     * @param max Upper bound, inclusive
+     * @return Number of accounts with {@code min <= balance <= max}
+     */
+    public int countBetween(BigDecimal min, BigDecimal max) {
+        if (min.compareTo(max) > 0) {
+            return 0;
+        }
+        // Balances are whole cents, so a band bound between two cents rounds inwards
+        long minMinor = Money.of(min, RoundingMode.CEILING).getMinorUnits();
+        long maxMinor = Money.of(max, RoundingMode.FLOOR).getMinorUnits();
+        lock.readLock().lock();
+        try {
+            return entries.countLessThan(Entry.after(maxMinor)) - entries.countLessThan(Entry.before(minMinor));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the account at a percentile of the balance distribution, using the nearest-rank
+     * method
+     *
+     * @param percentile Between 0 and 100
+     * @return The account at that rank, or empty if there are no accounts
+     */
+    public Optional<AccountBalance> percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        lock.readLock().lock();
+        try {
+            int size = entries.size();
+            if (size == 0) {
+                return Optional.empty();
+            }
+            int index = Math.max(0, (int) Math.ceil(percentile / 100 * size) - 1);
+            Entry entry = entries.get(Math.min(index, size - 1));
+            return Optional.of(entry.toBalance());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return A counter that changes whenever any balance in the index changes
+     */
+    public long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Copies the balances of several accounts under one lock
+     *
+     * @param accountIds  The accounts
+     * @param minorUnits  Receives the balance of each account in cents, or {@link Long#MIN_VALUE}
+     *                    for accounts not in the index
+     * @return The modification counter the copied balances belong to
+     */
+    public long balancesOf(List<String> accountIds, long[] minorUnits) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < accountIds.size(); i++) {
+                Entry entry = byAccount.get(accountIds.get(i));
+                minorUnits[i] = entry == null ? Long.MIN_VALUE : entry.balanceMinor;
+            }
+            return modifications;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reloads the index from the accounts table
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        List<Object[]> rows = accountRepository.findAllBalances();
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            byAccount.clear();
+            for (Object[] row : rows) {
+                long version = row[2] == null ? -1 : ((Number) row[2]).longValue();
+                Entry entry = new Entry(((Money) row[1]).getMinorUnits(), row[0].toString(), version, 0);
+                entries.add(entry);
+                byAccount.put(entry.accountId, entry);
+            }
+            modifications++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Loaded {} accounts into the balance index", rows.size());
+    }
+
+    private static long versionOf(Account account) {
+        return account.getVersion() == null ? -1 : account.getVersion();
+    }
+
+    private static List<AccountBalance> toBalances(List<Entry> range) {
+        return range.stream()
+                .map(Entry::toBalance)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Index key. Probes for band queries use bound -1 or 1 to sort before or after every account
+     * with the same balance.
+     */
+    private static final class Entry {
+        private final long balanceMinor;
+        private final String accountId;
+        private final long version;
+        private final int bound;
+
+        Entry(long balanceMinor, String accountId, long version, int bound) {
+            this.balanceMinor = balanceMinor;
+            this.accountId = accountId;
+            this.version = version;
+            this.bound = bound;
+        }
+
+        static Entry before(long balanceMinor) {
+            return new Entry(balanceMinor, null, 0, -1);
+        }
+
+        static Entry after(long balanceMinor) {
+            return new Entry(balanceMinor, null, 0, 1);
+        }
+
+        AccountBalance toBalance() {
+            return new AccountBalance(accountId, BigDecimal.valueOf(balanceMinor, Money.SCALE));
+        }
+    }
+}
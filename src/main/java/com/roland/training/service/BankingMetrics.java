@@ -0,0 +1,223 @@
+package com.roland.training.service;
+
+import com.roland.training.exception.AccountNotFoundException;
+import com.roland.training.exception.BadRequestException;
+import com.roland.training.exception.BankingException;
+import com.roland.training.exception.InsufficientFundsException;
+import com.roland.training.exception.OverdraftLimitExceededException;
+import com.roland.training.model.Account;
+import com.roland.training.model.CheckingAccount;
+import com.roland.training.model.SavingsAccount;
+import com.roland.training.util.TransactionJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer instrumentation of the banking operations.
+ *
+ * Every timer and counter is registered up front, one per (operation, account type, outcome),
+ * so recording only indexes an array. When {@code banking.metrics.enabled} is false,
+ * {@link #start(Operation)} returns a shared no-op sample and nothing is allocated or recorded.
+ */
+@Component
+public class BankingMetrics {
+
+    public enum Operation {
+        DEPOSIT, WITHDRAW, TRANSFER, POST_BATCH, MONTHLY_FEES,
+        ACCOUNT_SUMMARY, DAILY_TRANSACTIONS, ACCOUNT_ACTIVITY, TOP_ACTIVE_ACCOUNTS, BALANCE_DISTRIBUTION,
+        LOG_TRANSACTION
+    }
+
+    public enum AccountKind {
+        SAVINGS, CHECKING, NONE
+    }
+
+    public enum Outcome {
+        SUCCESS, REJECTED, ERROR
+    }
+
+    private static final Class<?>[] REJECTIONS = {
+            InsufficientFundsException.class, OverdraftLimitExceededException.class, AccountNotFoundException.class
+    };
+
+    private final boolean enabled;
+    private final Timer[][][] timers;
+    private final Counter[] rejections;
+    private final Counter otherRejections;
+    private final DistributionSummary statementsPerRequest;
+
+    @Autowired
+    public BankingMetrics(MeterRegistry registry,
+                          TransactionJournal transactionJournal,
+                          @Value("${banking.metrics.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        Operation[] operations = Operation.values();
+        AccountKind[] kinds = AccountKind.values();
+        Outcome[] outcomes = Outcome.values();
+        this.timers = new Timer[operations.length][kinds.length][outcomes.length];
+        this.rejections = new Counter[REJECTIONS.length];
+        if (!enabled) {
+            this.otherRejections = null;
+            this.statementsPerRequest = null;
+            return;
+        }
+
+        for (Operation operation : operations) {
+            for (AccountKind kind : kinds) {
+                for (Outcome outcome : outcomes) {
+                    timers[operation.ordinal()][kind.ordinal()][outcome.ordinal()] = Timer.builder("banking.operation")
+                            .description("Latency of account and report operations")
+                            .tag("operation", tagValue(operation))
+                            .tag("account.type", tagValue(kind))
+                            .tag("outcome", tagValue(outcome))
+                            .publishPercentileHistogram()
+                            .register(registry);
+                }
+            }
+        }
+        for (int i = 0; i < REJECTIONS.length; i++) {
+            rejections[i] = rejectionCounter(registry, REJECTIONS[i].getSimpleName());
+        }
+        this.otherRejections = rejectionCounter(registry, "Other");
+
+        this.statementsPerRequest = DistributionSummary.builder("banking.jpa.statements.per.request")
+                .description("JDBC statements issued by Hibernate per HTTP request")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        // The journal keeps its own counters; these read them on scrape
+        FunctionCounter.builder("banking.journal.bytes.written", transactionJournal,
+                        journal -> ((Number) journal.getMetrics().get("bytesWritten")).doubleValue())
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("banking.journal.entries.written", transactionJournal,
+                        journal -> ((Number) journal.getMetrics().get("written")).doubleValue())
+                .register(registry);
+        Gauge.builder("banking.journal.queue.depth", transactionJournal,
+                        journal -> ((Number) journal.getMetrics().get("queueDepth")).doubleValue())
+                .register(registry);
+        // Group commits include their fsyncs, which are also timed on their own
+        FunctionTimer.builder("banking.journal.group.write", transactionJournal,
+                        journal -> ((Number) journal.getMetrics().get("groups")).longValue(),
+                        journal -> ((Number) journal.getMetrics().get("groupNanos")).doubleValue(),
+                        TimeUnit.NANOSECONDS)
+                .description("Time the journal writer spends writing each group commit")
+                .register(registry);
+        FunctionTimer.builder("banking.journal.fsync", transactionJournal,
+                        journal -> ((Number) journal.getMetrics().get("fsyncs")).longValue(),
+                        journal -> ((Number) journal.getMetrics().get("fsyncNanos")).doubleValue(),
+                        TimeUnit.NANOSECONDS)
+                .description("Time the journal writer spends in fsync")
+                .register(registry);
+    }
+
+    private static Counter rejectionCounter(MeterRegistry registry, String exception) {
+        return Counter.builder("banking.operation.rejections")
+                .description("Operations rejected by business rules, by exception type")
+                .tag("exception", exception)
+                .register(registry);
+    }
+
+    /**
+     * Starts timing an operation
+     *
+     * @param operation The operation
+     * @return A sample to complete with {@link Sample#success()} or {@link Sample#failure(RuntimeException)}
+     */
+    public Sample start(Operation operation) {
+        return enabled ? new Sample(this, operation, System.nanoTime()) : Sample.NOOP;
+    }
+
+    /**
+     * Records the number of JDBC statements of one HTTP request
+     *
+     * @param statements Statements counted by {@link com.roland.training.util.QueryCounter}
+     */
+    public void recordStatements(int statements) {
+        if (enabled) {
+            statementsPerRequest.record(statements);
+        }
+    }
+
+    private void record(Operation operation, AccountKind kind, Outcome outcome, long startNanos) {
+        timers[operation.ordinal()][kind.ordinal()][outcome.ordinal()]
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Outcome reject(RuntimeException e) {
+        for (int i = 0; i < REJECTIONS.length; i++) {
+            if (REJECTIONS[i].isInstance(e)) {
+                rejections[i].increment();
+                return Outcome.REJECTED;
+            }
+        }
+        if (e instanceof BankingException || e instanceof BadRequestException) {
+            otherRejections.increment();
+            return Outcome.REJECTED;
+        }
+        return Outcome.ERROR;
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * One timed operation. The account type is attached once the account is loaded.
+     */
+    public static class Sample {
+        static final Sample NOOP = new Sample(null, null, 0);
+
+        private final BankingMetrics metrics;
+        private final Operation operation;
+        private final long startNanos;
+        private AccountKind kind = AccountKind.NONE;
+
+        Sample(BankingMetrics metrics, Operation operation, long startNanos) {
+            this.metrics = metrics;
+            this.operation = operation;
+            this.startNanos = startNanos;
+        }
+
+        public void account(Account account) {
+            if (metrics == null) {
+                return;
+            }
+            if (account instanceof SavingsAccount) {
+                kind = AccountKind.SAVINGS;
+            } else if (account instanceof CheckingAccount) {
+                kind = AccountKind.CHECKING;
+            }
+        }
+
+        public void success() {
+            if (metrics != null) {
+                metrics.record(operation, kind, Outcome.SUCCESS, startNanos);
+            }
+        }
+
+        /**
+         * Records a failed operation
+         *
+         * @param e The failure
+         * @return The same exception, so callers can rethrow it
+         */
+        public RuntimeException failure(RuntimeException e) {
+            if (metrics != null) {
+                metrics.record(operation, kind, metrics.reject(e), startNanos);
+            }
+            return e;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.roland.training.service;
+
+import com.roland.training.exception.BadRequestException;
+import com.roland.training.model.IdempotencyRecord;
+import com.roland.training.model.Money;
+import com.roland.training.model.OperationReceipt;
+import com.roland.training.model.PostingType;
+import com.roland.training.repository.IdempotencyRecordRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * Idempotency keys for deposits, withdrawals and transfers, so a client can retry an operation
+ * that timed out without performing it twice.
+ *
+ * The operation writes its key and result to {@code idempotency_keys} in its own transaction,
+ * see {@link #record}, so a key is stored exactly when the operation committed. A request with a
+ * known key is answered from a size-bounded LRU cache in front of that table, or from the table
+ * itself, and never reaches the accounts. Requests with the same key that arrive while the first
+ * one runs wait for it and share its outcome. A key reused for a different operation, account or
+ * amount is rejected.
+ *
+ * Only completed operations are stored; after a failure the key is free, and a retry runs again.
+ * Keys expire after {@code idempotency.ttl-seconds}, and a scheduled purge deletes expired rows
+ * and trims the table to the {@code idempotency.max-keys} keys expiring last.
+ */
+@Service
+public class IdempotencyService {
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long ttlSeconds;
+    private final int maxEntries;
+    private final int maxKeys;
+
+    private final LinkedHashMap<String, IdempotencyRecord> records;
+    private final Map<String, Claim> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder storeHits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder purged = new LongAdder();
+
+    @Autowired
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${idempotency.ttl-seconds:86400}") long ttlSeconds,
+                              @Value("${idempotency.cache.max-entries:10000}") int maxEntries,
+                              @Value("${idempotency.max-keys:1000000}") int maxKeys) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.ttlSeconds = Math.max(1, ttlSeconds);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxKeys = Math.max(1, maxKeys);
+        this.records = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+                return size() > IdempotencyService.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Performs an operation once per key
+     *
+     * @param key         The client's idempotency key
+     * @param operation   The kind of operation
+     * @param accountId   The account, or the source of a transfer
+     * @param toAccountId The destination of a transfer, otherwise null
+     * @param amount      The amount
+     * @param mutation    Performs the operation, calling {@link #record} with the claim in its transaction
+     * @return The result of the operation, or the stored result of the first request with the key
+     * @throws BadRequestException If the key is malformed or was used for a different request
+     */
+    public OperationReceipt execute(String key, PostingType operation, String accountId, String toAccountId,
+                                    Money amount, Consumer<Claim> mutation) {
+        Claim claim = new Claim(checkKey(key), operation, accountId, toAccountId, amount);
+
+        IdempotencyRecord cached = cached(claim.key);
+        if (cached != null) {
+            cacheHits.increment();
+            return replay(cached, claim);
+        }
+
+        Claim leader = inFlight.putIfAbsent(claim.key, claim);
+        if (leader != null) {
+            coalesced.increment();
+            if (!claim.sameRequest(leader)) {
+                throw reused(claim.key);
+            }
+            return replay(await(leader), claim);
+        }
+
+        try {
+            IdempotencyRecord record = stored(claim.key);
+            if (record == null) {
+                mutation.accept(claim);
+                record = claim.record;
+                if (record == null) {
+                    throw new IllegalStateException("Operation did not record idempotency key " + claim.key);
+                }
+                executed.increment();
+                claim.done.complete(record);
+                return OperationReceipt.executed(record);
+            }
+            storeHits.increment();
+            cache(record);
+            claim.done.complete(record);
+            return replay(record, claim);
+        } catch (DataIntegrityViolationException e) {
+            // Stored by another instance between the lookup and the insert; the operation rolled back
+            IdempotencyRecord record = idempotencyRecordRepository.findById(claim.key).orElse(null);
+            if (record == null) {
+                claim.done.completeExceptionally(e);
+                throw e;
+            }
+            conflicts.increment();
+            cache(record);
+            claim.done.complete(record);
+            return replay(record, claim);
+        } catch (RuntimeException | Error e) {
+            claim.done.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(claim.key, claim);
+        }
+    }
+
+    /**
+     * Stores the key and result of an operation in the current transaction. The key is cached
+     * once the transaction commits. Does nothing without a claim.
+     *
+     * @param claim      The claim passed to the operation, or null for a request without a key
+     * @param transferId The transfer id of a transfer, otherwise null
+     */
+    public void record(Claim claim, String transferId) {
+        if (claim == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        IdempotencyRecord record = new IdempotencyRecord(claim.key, claim.operation, claim.accountId,
+                claim.toAccountId, claim.amount, transferId, now, now.plusSeconds(ttlSeconds));
+        idempotencyRecordRepository.insert(record.getKey(), record.getOperation().name(), record.getAccountId(),
+                record.getToAccountId(), record.getAmount().toBigDecimal(), transferId,
+                record.getCompletedAt(), record.getExpiresAt());
+        // Replaced if the transaction is retried
+        claim.record = record;
+        afterCommit(() -> cache(record));
+    }
+
+    @Scheduled(fixedDelayString = "${idempotency.purge-interval-ms:60000}")
+    public void purge() {
+        int deleted = transactionTemplate.execute(status -> {
+            int expired = idempotencyRecordRepository.deleteExpiringBy(LocalDateTime.now());
+            // Keys past the newest maxKeys; ties with the last one kept go too
+            List<LocalDateTime> cutoff = idempotencyRecordRepository.findExpiries(PageRequest.of(maxKeys, 1));
+            return cutoff.isEmpty() ? expired : expired + idempotencyRecordRepository.deleteExpiringBy(cutoff.get(0));
+        });
+        if (deleted > 0) {
+            purged.add(deleted);
+            logger.info("Purged {} idempotency keys", deleted);
+        }
+    }
+
+    private static String checkKey(String key) {
+        if (key == null || key.isBlank()) {
+            throw new BadRequestException("Idempotency key must not be empty");
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new BadRequestException("Idempotency key must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+        return key;
+    }
+
+    private IdempotencyRecord cached(String key) {
+        synchronized (records) {
+            IdempotencyRecord record = records.get(key);
+            if (record != null && record.isExpired(LocalDateTime.now())) {
+                records.remove(key);
+                return null;
+            }
+            return record;
+        }
+    }
+
+    private void cache(IdempotencyRecord record) {
+        synchronized (records) {
+            records.put(record.getKey(), record);
+        }
+    }
+
+    // The stored record of a key; an expired one is deleted so the key can be used again
+    private IdempotencyRecord stored(String key) {
+        IdempotencyRecord record = idempotencyRecordRepository.findById(key).orElse(null);
+        if (record == null) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (record.isExpired(now)) {
+            transactionTemplate.executeWithoutResult(status -> idempotencyRecordRepository.deleteIfExpired(key, now));
+            return null;
+        }
+        return record;
+    }
+
+    private static IdempotencyRecord await(Claim leader) {
+        try {
+            return leader.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private OperationReceipt replay(IdempotencyRecord record, Claim claim) {
+        if (!record.matches(claim.operation, claim.accountId, claim.toAccountId, claim.amount)) {
+            throw reused(claim.key);
+        }
+        return OperationReceipt.replayed(record);
+    }
+
+    private BadRequestException reused(String key) {
+        rejected.increment();
+        return new BadRequestException("Idempotency key " + key + " was already used for a different request");
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (records) {
+            metrics.put("cachedKeys", records.size());
+        }
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("inFlight", inFlight.size());
+        metrics.put("executed", executed.sum());
+        metrics.put("cacheHits", cacheHits.sum());
+        metrics.put("storeHits", storeHits.sum());
+        metrics.put("coalesced", coalesced.sum());
+        metrics.put("conflicts", conflicts.sum());
+        metrics.put("rejected", rejected.sum());
+        metrics.put("purged", purged.sum());
+        return metrics;
+    }
+
+    /**
+     * A request holding a key: the operation it asks for, and once done, its stored record.
+     * Requests with the same key that arrive meanwhile wait on it.
+     */
+    public static final class Claim {
+        private final String key;
+        private final PostingType operation;
+        private final String accountId;
+        private final String toAccountId;
+        private final Money amount;
+        private final CompletableFuture<IdempotencyRecord> done = new CompletableFuture<>();
+        private volatile IdempotencyRecord record;
+
+        private Claim(String key, PostingType operation, String accountId, String toAccountId, Money amount) {
+            this.key = key;
+            this.operation = operation;
+            this.accountId = accountId;
+            this.toAccountId = toAccountId;
+            this.amount = amount;
+        }
+
+        private boolean sameRequest(Claim other) {
+            return operation == other.operation
+                    && accountId.equals(other.accountId)
+                    && Objects.equals(toAccountId, other.toAccountId)
+                    && amount.equals(other.amount);
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.roland.training.service;
 
+import com.roland.training.config.JwtTokenCache;
 import com.roland.training.repository.UserRepository;
 import com.roland.training.model.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
@@ -13,22 +15,65 @@ import java.util.ArrayList;
 
 @Service("userDetailService")
 @ComponentScan(basePackages = "com.test.project.security.model")
-public class JwtUserDetailService implements UserDetailsService {
+public class JwtUserDetailService implements UserDetailsService, UserDetailsPasswordService {
 
 	@Autowired
 	private UserRepository userRepository;
 
+	@Autowired
+	private UserPrincipalCache userPrincipalCache;
+
+	@Autowired
+	private JwtTokenCache jwtTokenCache;
+
 	@Override
 	public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+		UserDetails cached = userPrincipalCache.get(username);
+		if (cached != null) {
+			return cached;
+		}
 		try {
 			User user = userRepository.findByContactNo(username);
 			if (user == null) {
 				throw new UsernameNotFoundException("User not found with mobile no: " + username);
 			}
+			userPrincipalCache.put(user.getId(), user.getContactNo(), user.getPin());
 			return new org.springframework.security.core.userdetails.User(user.getContactNo(), user.getPin(), new ArrayList<>());
 		} catch (Exception e){
 			throw new UsernameNotFoundException("User not found with mobile no: " + username);
 		}
 	}
 
+	/**
+	 * Stores a PIN hash re-encoded at the current BCrypt cost after a successful login. Saving
+	 * the user invalidates its cached principal through {@link UserChangeListener}.
+	 *
+	 * @param userDetails The authenticated user
+	 * @param newPassword The new hash
+	 * @return The user with the new hash
+	 */
+	@Override
+	public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+		User user = userRepository.findByContactNo(userDetails.getUsername());
+		if (user != null) {
+			user.setPin(newPassword);
+			userRepository.save(user);
+		}
+		return new org.springframework.security.core.userdetails.User(userDetails.getUsername(), newPassword, new ArrayList<>());
+	}
+
+	/**
+	 * Drops the cached principal and verified tokens of a user whose record changed
+	 *
+	 * @param user The changed or deleted user
+	 */
+	public void invalidateUser(User user) {
+		for (String contactNo : userPrincipalCache.invalidate(user.getId(), user.getContactNo())) {
+			jwtTokenCache.invalidateUser(contactNo);
+		}
+		if (user.getContactNo() != null) {
+			jwtTokenCache.invalidateUser(user.getContactNo());
+		}
+	}
+
 }
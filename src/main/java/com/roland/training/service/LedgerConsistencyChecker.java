@@ -0,0 +1,153 @@
+package com.roland.training.service;
+
+import com.roland.training.model.Money;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.LedgerSnapshotRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audits the event-sourced ledger, see {@link LedgerService}: for every account, its snapshot
+ * plus the postings after it up to the row's {@code ledger_seq} must equal the stored balance.
+ *
+ * Accounts are read in keyset-paginated chunks with one query each, which only touches the
+ * postings since each snapshot, so an audit scales with recent activity rather than with the
+ * whole history. Postings not yet projected are outside the comparison, so the check needs no
+ * locks. With repair, a mismatching row is reset to the derived balance under the account's
+ * lock, unless the projector moved it meanwhile.
+ */
+@Service
+public class LedgerConsistencyChecker {
+    private static final int REPORTED_MISMATCHES = 20;
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final LedgerSnapshotRepository ledgerSnapshotRepository;
+    private final AccountLockTable accountLockTable;
+    private final BalanceIndex balanceIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int chunkSize;
+
+    private volatile Map<String, Object> lastReport = Map.of();
+
+    @Autowired
+    public LedgerConsistencyChecker(AccountRepository accountRepository,
+                                    LedgerSnapshotRepository ledgerSnapshotRepository,
+                                    AccountLockTable accountLockTable,
+                                    BalanceIndex balanceIndex,
+                                    PlatformTransactionManager transactionManager,
+                                    @Value("${ledger.event-sourced:false}") boolean enabled,
+                                    @Value("${ledger.check.chunk-size:500}") int chunkSize) {
+        this.accountRepository = accountRepository;
+        this.ledgerSnapshotRepository = ledgerSnapshotRepository;
+        this.accountLockTable = accountLockTable;
+        this.balanceIndex = balanceIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    @Scheduled(fixedDelayString = "${ledger.check.interval-ms:3600000}",
+            initialDelayString = "${ledger.check.interval-ms:3600000}")
+    public void scheduledCheck() {
+        if (enabled) {
+            check(false);
+        }
+    }
+
+    /**
+     * Checks every account
+     *
+     * @param repair Whether to reset mismatching rows to the balance derived from the ledger
+     * @return Summary of the check, with the first mismatches
+     */
+    public Map<String, Object> check(boolean repair) {
+        long start = System.nanoTime();
+        long checked = 0;
+        long postings = 0;
+        long missingSnapshots = 0;
+        long repaired = 0;
+        List<Map<String, Object>> mismatches = new ArrayList<>();
+        long mismatchCount = 0;
+
+        String after = "";
+        while (true) {
+            List<String> ids = accountRepository.findAccountIdsAfter(after, PageRequest.of(0, chunkSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+            after = ids.get(ids.size() - 1);
+
+            for (Object[] row : ledgerSnapshotRepository.findChecks(ids)) {
+                String id = (String) row[0];
+                BigDecimal stored = (BigDecimal) row[1];
+                BigDecimal derived = (BigDecimal) row[3];
+                checked++;
+                postings += ((Number) row[4]).longValue();
+                if (row[2] == null || derived == null) {
+                    missingSnapshots++;
+                    logger.warn("Account {} is not in the event-sourced ledger", id);
+                    continue;
+                }
+                if (derived.compareTo(stored) == 0) {
+                    continue;
+                }
+                mismatchCount++;
+                logger.error("Ledger of account {} derives {} but the row holds {}", id, derived, stored);
+                if (mismatches.size() < REPORTED_MISMATCHES) {
+                    Map<String, Object> mismatch = new LinkedHashMap<>();
+                    mismatch.put("accountId", id);
+                    mismatch.put("storedBalance", stored);
+                    mismatch.put("derivedBalance", derived);
+                    mismatches.add(mismatch);
+                }
+                if (repair && repair(id, derived, ((Number) row[2]).longValue())) {
+                    repaired++;
+                }
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("checkedAccounts", checked);
+        report.put("postingsRead", postings);
+        report.put("missingSnapshots", missingSnapshots);
+        report.put("mismatchedAccounts", mismatchCount);
+        report.put("repairedAccounts", repaired);
+        report.put("mismatches", mismatches);
+        report.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        lastReport = report;
+        logger.info("Ledger consistency check: {} accounts, {} mismatched, {} repaired", checked, mismatchCount, repaired);
+        return report;
+    }
+
+    private boolean repair(String accountId, BigDecimal derived, long ledgerSeq) {
+        return accountLockTable.callWithLock(accountId, () -> {
+            boolean repaired = transactionTemplate.execute(status ->
+                    accountRepository.repairLedgerBalance(accountId, derived, ledgerSeq) > 0);
+            if (repaired) {
+                balanceIndex.update(accountId, Money.of(derived));
+            }
+            return repaired;
+        });
+    }
+
+    public Map<String, Object> getMetrics() {
+        return lastReport;
+    }
+}
@@ -0,0 +1,238 @@
+package com.roland.training.service;
+
+import com.roland.training.model.Money;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.LedgerSnapshotRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * Background projector of the event-sourced ledger, see {@link LedgerService}.
+ *
+ * Postings mark their account once they commit. Every {@code ledger.projector.interval-ms} the
+ * marked accounts are projected in chunks under their locks: the postings after each row's
+ * {@code ledger_seq} are summed and added to the row in one UPDATE, which only applies if the
+ * row still covers the sequence the sum started from. Once an account has
+ * {@code ledger.snapshot.every} postings since its snapshot, a new snapshot is derived from the
+ * previous one plus those postings and compared with the projected row; it is only written when
+ * both agree, so a snapshot is never taken from a corrupt row.
+ */
+@Service
+public class LedgerProjector {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final LedgerSnapshotRepository ledgerSnapshotRepository;
+    private final AccountLockTable accountLockTable;
+    private final BalanceIndex balanceIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int snapshotEvery;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock projectLock = new ReentrantLock();
+    // Postings projected since the last snapshot; counting restarts from zero after a restart
+    private final Map<String, Integer> sinceSnapshot = new ConcurrentHashMap<>();
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder projectedAccounts = new LongAdder();
+    private final LongAdder projectedPostings = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder snapshotMismatches = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    @Autowired
+    public LedgerProjector(AccountRepository accountRepository,
+                           LedgerSnapshotRepository ledgerSnapshotRepository,
+                           AccountLockTable accountLockTable,
+                           BalanceIndex balanceIndex,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${ledger.event-sourced:false}") boolean enabled,
+                           @Value("${ledger.projector.batch-size:256}") int batchSize,
+                           @Value("${ledger.snapshot.every:100}") int snapshotEvery) {
+        this.accountRepository = accountRepository;
+        this.ledgerSnapshotRepository = ledgerSnapshotRepository;
+        this.accountLockTable = accountLockTable;
+        this.balanceIndex = balanceIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+    }
+
+    /**
+     * Marks an account for projection once the current transaction commits
+     *
+     * @param accountId The account that received a posting
+     */
+    public void enqueue(String accountId) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> pending.add(accountId));
+    }
+
+    /**
+     * Marks the accounts left with unprojected postings by the previous run
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void catchUp() {
+        if (enabled) {
+            pending.addAll(accountRepository.findAccountIdsWithLedgerTail());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ledger.projector.interval-ms:500}")
+    public void project() {
+        if (enabled) {
+            projectPending();
+        }
+    }
+
+    /**
+     * Projects every account with unprojected postings, whether or not the mode is enabled
+     *
+     * @return Number of accounts projected
+     */
+    public long projectAll() {
+        pending.addAll(accountRepository.findAccountIdsWithLedgerTail());
+        return projectPending();
+    }
+
+    private long projectPending() {
+        projectLock.lock();
+        try {
+            List<String> ids = new ArrayList<>(pending);
+            // Removed first; a posting committing meanwhile marks its account again
+            pending.removeAll(ids);
+            long before = projectedAccounts.sum();
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                List<String> chunk = ids.subList(from, Math.min(from + batchSize, ids.size()));
+                try {
+                    accountLockTable.callWithLocks(chunk, () -> {
+                        projectChunk(chunk);
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    pending.addAll(chunk);
+                    errors.increment();
+                    logger.error("Failed to project the ledger of {} accounts", chunk.size(), e);
+                }
+            }
+            runs.increment();
+            return projectedAccounts.sum() - before;
+        } finally {
+            projectLock.unlock();
+        }
+    }
+
+    // Called with the locks of the accounts held
+    private void projectChunk(List<String> ids) {
+        Map<String, Money> projected = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        List<String> checked = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Object[] row : accountRepository.findLedgerTails(ids)) {
+                String id = (String) row[0];
+                BigDecimal tail = (BigDecimal) row[3];
+                long fromSeq = ((Number) row[2]).longValue();
+                long toSeq = ((Number) row[5]).longValue();
+                if (accountRepository.projectLedger(id, tail, fromSeq, toSeq) == 0) {
+                    // Stamped by a batch writer meanwhile; projected again next round if needed
+                    conflicts.increment();
+                    pending.add(id);
+                    continue;
+                }
+                projected.put(id, Money.of((BigDecimal) row[1]).plus(Money.of(tail)));
+                counts.put(id, ((Number) row[4]).intValue());
+            }
+            List<String> due = new ArrayList<>();
+            counts.forEach((id, count) -> {
+                if (sinceSnapshot.getOrDefault(id, 0) + count >= snapshotEvery) {
+                    due.add(id);
+                }
+            });
+            if (!due.isEmpty()) {
+                takeSnapshots(due);
+                checked.addAll(due);
+            }
+        });
+        projected.forEach(balanceIndex::update);
+        counts.forEach((id, count) -> sinceSnapshot.merge(id, count, Integer::sum));
+        // Counted from zero even after a mismatch, so it is reported once per interval rather than per posting
+        checked.forEach(sinceSnapshot::remove);
+        projectedAccounts.add(projected.size());
+        projectedPostings.add(counts.values().stream().mapToLong(Integer::longValue).sum());
+    }
+
+    // Runs in the projection's transaction, after the rows were updated
+    private void takeSnapshots(List<String> ids) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Object[] row : ledgerSnapshotRepository.findChecks(ids)) {
+            String id = (String) row[0];
+            BigDecimal stored = (BigDecimal) row[1];
+            BigDecimal derived = (BigDecimal) row[3];
+            if (derived == null) {
+                logger.warn("Account {} has no ledger snapshot; run the consistency check", id);
+            } else if (derived.compareTo(stored) != 0) {
+                snapshotMismatches.increment();
+                logger.error("Ledger of account {} derives {} but the row holds {}; snapshot not taken", id, derived, stored);
+            } else {
+                ledgerSnapshotRepository.saveSnapshot(id, ((Number) row[2]).longValue(), stored, now);
+                snapshots.increment();
+            }
+        }
+    }
+
+    /**
+     * Forgets a deleted account
+     *
+     * @param accountId The account
+     */
+    public void remove(String accountId) {
+        pending.remove(accountId);
+        sinceSnapshot.remove(accountId);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("pendingAccounts", pending.size());
+        metrics.put("runs", runs.sum());
+        metrics.put("projectedAccounts", projectedAccounts.sum());
+        metrics.put("projectedPostings", projectedPostings.sum());
+        metrics.put("conflicts", conflicts.sum());
+        metrics.put("snapshots", snapshots.sum());
+        metrics.put("snapshotMismatches", snapshotMismatches.sum());
+        metrics.put("errors", errors.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,343 @@
+package com.roland.training.service;
+
+import com.roland.training.model.LedgerRollup;
+import com.roland.training.model.LedgerRollupId;
+import com.roland.training.model.Money;
+import com.roland.training.model.Transaction;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.LedgerRollupRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Maintains the pre-aggregated ledger rollups.
+ *
+ * Postings call {@link #recordTransactions(Collection)} and {@link #adjustTotals(long, BigDecimal)}
+ * inside their own unit of work, so the counters commit or roll back together with the balances.
+ * Updates are relative ({@code x = x + ?}) and spread over slots, so report methods read a
+ * handful of rows instead of scanning {@code transactions} or {@code accounts}.
+ *
+ * Once the application is up, the rollups are verified against the raw data and rebuilt if
+ * they drifted ({@code rollup.rebuild-on-startup}). Every {@code rollup.verify-interval-ms}
+ * they are verified again and mismatches are logged, to be rebuilt at the next restart.
+ */
+@Service
+public class LedgerRollupService {
+    private static final int REPORTED_MISMATCHES = 20;
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final LedgerRollupRepository ledgerRollupRepository;
+    private final TransactionTieringService transactionTieringService;
+    private final AccountRepository accountRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate newTransactionTemplate;
+    private final int slots;
+    private final boolean rebuildOnStartup;
+
+    @Autowired
+    public LedgerRollupService(LedgerRollupRepository ledgerRollupRepository,
+                               TransactionTieringService transactionTieringService,
+                               AccountRepository accountRepository,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${rollup.slots:16}") int slots,
+                               @Value("${rollup.rebuild-on-startup:true}") boolean rebuildOnStartup) {
+        this.ledgerRollupRepository = ledgerRollupRepository;
+        this.transactionTieringService = transactionTieringService;
+        this.accountRepository = accountRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.slots = Math.max(1, slots);
+        this.rebuildOnStartup = rebuildOnStartup;
+    }
+
+    /**
+     * Verifies the rollups before postings pile up on them, and rebuilds them if they drifted,
+     * e.g. after rows were changed outside the application
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyOnStartup() {
+        if (!verifyAndLog() && rebuildOnStartup) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Verifies the rollups and logs the mismatches. Postings running meanwhile, and balances the
+     * account state cache has not flushed yet, can show up as mismatches too.
+     */
+    @Scheduled(initialDelayString = "${rollup.verify-interval-ms:3600000}",
+            fixedDelayString = "${rollup.verify-interval-ms:3600000}")
+    public void scheduledVerify() {
+        verifyAndLog();
+    }
+
+    private boolean verifyAndLog() {
+        Map<String, Object> report = verify();
+        if ((boolean) report.get("consistent")) {
+            logger.info("Ledger rollups match the transactions and accounts");
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        List<String> mismatches = (List<String>) report.get("mismatches");
+        logger.warn("Ledger rollups have {} mismatches, e.g. {}", mismatches.size(),
+                mismatches.subList(0, Math.min(REPORTED_MISMATCHES, mismatches.size())));
+        return false;
+    }
+
+    public void recordTransaction(Transaction transaction) {
+        Activity activity = new Activity();
+        activity.add(transaction.getAmount());
+        addActivity(LedgerRollup.SCOPE_DAY, transaction.getTransactionDate().toLocalDate().toString(), randomSlot(), activity);
+        addActivity(LedgerRollup.SCOPE_ACCOUNT, transaction.getAccountId(), 0, activity);
+    }
+
+    /**
+     * Adds a group of transactions to the daily and per-account counters, with one update per
+     * touched day and account
+     *
+     * @param transactions The transactions being posted
+     */
+    public void recordTransactions(Collection<Transaction> transactions) {
+        Map<String, Activity> byDay = new HashMap<>();
+        Map<String, Activity> byAccount = new HashMap<>();
+        for (Transaction transaction : transactions) {
+            Money amount = transaction.getAmount();
+            byDay.computeIfAbsent(transaction.getTransactionDate().toLocalDate().toString(), d -> new Activity()).add(amount);
+            byAccount.computeIfAbsent(transaction.getAccountId(), a -> new Activity()).add(amount);
+        }
+        int slot = randomSlot();
+        byDay.forEach((day, activity) -> addActivity(LedgerRollup.SCOPE_DAY, day, slot, activity));
+        byAccount.forEach((accountId, activity) -> addActivity(LedgerRollup.SCOPE_ACCOUNT, accountId, 0, activity));
+    }
+
+    /**
+     * Adjusts the bank-wide account count and total balance
+     *
+     * @param accountDelta Number of accounts created (positive) or deleted (negative)
+     * @param balanceDelta Net change of the sum of all balances
+     */
+    public void adjustTotals(long accountDelta, BigDecimal balanceDelta) {
+        if (accountDelta == 0 && balanceDelta.compareTo(BigDecimal.ZERO) == 0) {
+            return;
+        }
+        int slot = randomSlot();
+        if (ledgerRollupRepository.addTotals(LedgerRollup.SCOPE_BANK, LedgerRollup.BANK_KEY, slot, accountDelta, balanceDelta) == 0) {
+            ensureRow(new LedgerRollupId(LedgerRollup.SCOPE_BANK, LedgerRollup.BANK_KEY, slot));
+            ledgerRollupRepository.addTotals(LedgerRollup.SCOPE_BANK, LedgerRollup.BANK_KEY, slot, accountDelta, balanceDelta);
+        }
+    }
+
+    private void addActivity(String scope, String key, int slot, Activity activity) {
+        BigDecimal deposits = activity.deposits();
+        BigDecimal withdrawals = activity.withdrawals();
+        if (ledgerRollupRepository.addActivity(scope, key, slot, deposits, withdrawals, activity.count) == 0) {
+            ensureRow(new LedgerRollupId(scope, key, slot));
+            ledgerRollupRepository.addActivity(scope, key, slot, deposits, withdrawals, activity.count);
+        }
+    }
+
+    // Creates a missing row in its own transaction, so concurrent first writers only race on the insert
+    private void ensureRow(LedgerRollupId id) {
+        try {
+            newTransactionTemplate.executeWithoutResult(status -> {
+                if (!ledgerRollupRepository.existsById(id)) {
+                    ledgerRollupRepository.save(new LedgerRollup(id));
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Created concurrently by another posting
+        }
+    }
+
+    /**
+     * Drops the daily and per-account counters, for when every transaction is deleted. The bank
+     * totals describe the accounts and stay.
+     */
+    public void clearActivity() {
+        ledgerRollupRepository.deleteByScopes(List.of(LedgerRollup.SCOPE_DAY, LedgerRollup.SCOPE_ACCOUNT));
+    }
+
+    private int randomSlot() {
+        return slots == 1 ? 0 : ThreadLocalRandom.current().nextInt(slots);
+    }
+
+    public Map<String, Object> getDailyTotals(LocalDate day) {
+        Object[] row = sumSlots(LedgerRollup.SCOPE_DAY, day.toString());
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("totalDeposits", decimal(row[0]));
+        totals.put("totalWithdrawals", decimal(row[1]));
+        totals.put("transactionCount", count(row[2]));
+        return totals;
+    }
+
+    public Map<String, Object> getAccountTotals(String accountId) {
+        Object[] row = sumSlots(LedgerRollup.SCOPE_ACCOUNT, accountId);
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("totalDeposits", decimal(row[0]));
+        totals.put("totalWithdrawals", decimal(row[1]));
+        totals.put("transactionCount", count(row[2]));
+        return totals;
+    }
+
+    public Map<String, Object> getBankTotals() {
+        Object[] row = sumSlots(LedgerRollup.SCOPE_BANK, LedgerRollup.BANK_KEY);
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("totalAccounts", count(row[3]));
+        totals.put("totalBalance", decimal(row[4]));
+        return totals;
+    }
+
+    private Object[] sumSlots(String scope, String key) {
+        List<Object[]> rows = ledgerRollupRepository.sumSlots(scope, key);
+        return rows.isEmpty() ? new Object[5] : rows.get(0);
+    }
+
+    /**
+     * Recomputes every rollup from the raw transactions and accounts. Postings running at the
+     * same time may be counted twice or not at all, so run it while the ledger is quiet.
+     */
+    public void rebuild() {
+        transactionTemplate.executeWithoutResult(status -> {
+            ledgerRollupRepository.deleteAllInBatch();
+
+            List<LedgerRollup> rollups = new ArrayList<>();
+            for (Object[] row : transactionTieringService.aggregateByDay()) {
+                rollups.add(activityRollup(LedgerRollup.SCOPE_DAY, dayKey(row[0]), row));
+            }
+            for (Object[] row : transactionTieringService.aggregateByAccount()) {
+                rollups.add(activityRollup(LedgerRollup.SCOPE_ACCOUNT, row[0].toString(), row));
+            }
+            LedgerRollup bank = new LedgerRollup(new LedgerRollupId(LedgerRollup.SCOPE_BANK, LedgerRollup.BANK_KEY, 0));
+            bank.setAccountCount(accountRepository.countTotalAccounts());
+            bank.setBalanceSum(decimal(accountRepository.sumTotalBalance()));
+            rollups.add(bank);
+
+            ledgerRollupRepository.saveAll(rollups);
+            logger.info("Rebuilt {} ledger rollup rows", rollups.size());
+        });
+    }
+
+    /**
+     * Compares the rollups with aggregates recomputed from the raw transactions and accounts
+     *
+     * @return Whether they match, and a description of every mismatch
+     */
+    public Map<String, Object> verify() {
+        List<String> mismatches = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            compareActivity(LedgerRollup.SCOPE_DAY, transactionTieringService.aggregateByDay(), true, mismatches);
+            compareActivity(LedgerRollup.SCOPE_ACCOUNT, transactionTieringService.aggregateByAccount(), false, mismatches);
+
+            Map<String, Object> bank = getBankTotals();
+            long accounts = accountRepository.countTotalAccounts();
+            BigDecimal balance = decimal(accountRepository.sumTotalBalance());
+            if ((long) bank.get("totalAccounts") != accounts) {
+                mismatches.add(String.format("BANK accounts: rollup %s, actual %d", bank.get("totalAccounts"), accounts));
+            }
+            if (((BigDecimal) bank.get("totalBalance")).compareTo(balance) != 0) {
+                mismatches.add(String.format("BANK balance: rollup %s, actual %s", bank.get("totalBalance"), balance));
+            }
+        });
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("consistent", mismatches.isEmpty());
+        report.put("mismatches", mismatches);
+        return report;
+    }
+
+    private void compareActivity(String scope, List<Object[]> actualRows, boolean dayKeys, List<String> mismatches) {
+        Map<String, Object[]> stored = new HashMap<>();
+        for (Object[] row : ledgerRollupRepository.sumActivityByKey(scope)) {
+            stored.put(row[0].toString(), row);
+        }
+        for (Object[] actual : actualRows) {
+            String key = dayKeys ? dayKey(actual[0]) : actual[0].toString();
+            Object[] rollup = stored.remove(key);
+            if (rollup == null
+                    || decimal(rollup[1]).compareTo(decimal(actual[1])) != 0
+                    || decimal(rollup[2]).compareTo(decimal(actual[2])) != 0
+                    || count(rollup[3]) != count(actual[3])) {
+                mismatches.add(String.format("%s %s: rollup %s, actual [%s, %s, %s]", scope, key,
+                        rollup == null ? "missing" : "[" + rollup[1] + ", " + rollup[2] + ", " + rollup[3] + "]",
+                        actual[1], actual[2], actual[3]));
+            }
+        }
+        for (Object[] extra : stored.values()) {
+            if (count(extra[3]) != 0) {
+                mismatches.add(String.format("%s %s: rollup has %s transactions, actual none", scope, extra[0], extra[3]));
+            }
+        }
+    }
+
+    private static LedgerRollup activityRollup(String scope, String key, Object[] row) {
+        LedgerRollup rollup = new LedgerRollup(new LedgerRollupId(scope, key, 0));
+        rollup.setDepositSum(decimal(row[1]));
+        rollup.setWithdrawalSum(decimal(row[2]));
+        rollup.setTransactionCount(count(row[3]));
+        return rollup;
+    }
+
+    private static String dayKey(Object value) {
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate().toString();
+        }
+        return value.toString();
+    }
+
+    private static BigDecimal decimal(Object value) {
+        if (value == null) {
+            return BigDecimal.ZERO;
+        }
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+
+    private static long count(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    // Sums in minor units, converted to DECIMAL once per rollup update
+    private static final class Activity {
+        private long depositMinor;
+        private long withdrawalMinor;
+        private long count;
+
+        void add(Money amount) {
+            if (amount.isPositive()) {
+                depositMinor = Math.addExact(depositMinor, amount.getMinorUnits());
+            } else if (amount.isNegative()) {
+                withdrawalMinor = Math.addExact(withdrawalMinor, amount.getMinorUnits());
+            }
+            count++;
+        }
+
+        BigDecimal deposits() {
+            return BigDecimal.valueOf(depositMinor, Money.SCALE);
+        }
+
+        BigDecimal withdrawals() {
+            return BigDecimal.valueOf(withdrawalMinor, Money.SCALE);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.roland.training.service;
+
+import com.roland.training.exception.AccountNotFoundException;
+import com.roland.training.model.Account;
+import com.roland.training.model.Money;
+import com.roland.training.model.Transaction;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.LedgerSnapshotRepository;
+import com.roland.training.repository.TransactionRepository;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Event-sourced ledger mode ({@code ledger.event-sourced=true}).
+ *
+ * In this mode the transaction rows are the postings and the source of truth; the balance
+ * column of an account is a projection of them. Every row carries {@code ledger_seq}, the id of
+ * the last posting it covers, and the invariant is: balance = snapshot + postings after the
+ * snapshot up to {@code ledger_seq}. The current balance is the row plus the postings after
+ * {@code ledger_seq}, read in one query. Deposits, withdrawals and transfers only insert postings
+ * under the account's lock; the {@link LedgerProjector} moves them onto the rows in the
+ * background and takes periodic snapshots, and the {@link LedgerConsistencyChecker} audits
+ * them. Transaction ids come from a pooled sequence handed out in order within the process, and
+ * postings of one account are written under its lock, so an account's postings commit in id
+ * order and "after {@code ledger_seq}" never misses one.
+ *
+ * Writers that change balances on loaded entities (batch postings, the month-end engine) hold
+ * the locks of their accounts, {@link #catchUp} them to the current balance first and
+ * {@link #stamp} them with their new postings after, so the row stays a complete projection.
+ *
+ * On startup in this mode, accounts not yet in the ledger adopt their current balance as an
+ * opening snapshot. With the mode off, a previous ledger run is projected completely and its
+ * watermarks and snapshots are dropped, so the mode can be switched both ways between restarts.
+ * The write-behind {@link AccountStateCache} is bypassed while the mode is on.
+ */
+@Service
+public class LedgerService {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final LedgerSnapshotRepository ledgerSnapshotRepository;
+    private final LedgerProjector ledgerProjector;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+
+    @Autowired
+    public LedgerService(AccountRepository accountRepository,
+                         TransactionRepository transactionRepository,
+                         LedgerSnapshotRepository ledgerSnapshotRepository,
+                         LedgerProjector ledgerProjector,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${ledger.event-sourced:false}") boolean enabled) {
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.ledgerSnapshotRepository = ledgerSnapshotRepository;
+        this.ledgerProjector = ledgerProjector;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Brings the accounts into the ledger, or takes them out of it when the mode is off
+     */
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            transactionTemplate.executeWithoutResult(status -> adopt());
+        } else if (accountRepository.existsByLedgerSeqIsNotNull()) {
+            long projected = ledgerProjector.projectAll();
+            transactionTemplate.executeWithoutResult(status -> {
+                accountRepository.clearLedger();
+                ledgerSnapshotRepository.deleteAllInBatch();
+            });
+            logger.info("Event-sourced ledger disabled: projected {} accounts and dropped the snapshots", projected);
+        }
+    }
+
+    // Existing balances become opening snapshots through the last transaction, whose rows they already include
+    private void adopt() {
+        Long maxId = transactionRepository.findMaxId();
+        long throughSeq = maxId == null ? 0 : maxId;
+        ledgerSnapshotRepository.adoptBalances(throughSeq, LocalDateTime.now());
+        int adopted = accountRepository.adoptLedger(throughSeq);
+        if (adopted > 0) {
+            logger.info("Adopted {} account balances into the event-sourced ledger through transaction {}",
+                    adopted, throughSeq);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param accountId The account
+     * @return Its balance: the projected row plus the postings not projected yet
+     * @throws AccountNotFoundException If there is no such account
+     */
+    public Money getBalance(String accountId) {
+        BigDecimal balance = accountRepository.findLedgerBalance(accountId);
+        if (balance == null) {
+            throw new AccountNotFoundException(accountId);
+        }
+        return Money.of(balance);
+    }
+
+    /**
+     * Opens the ledger of a new account: the row covers its postings so far, and its balance is
+     * the opening snapshot. Postings of a deleted account with the same id are covered too, so
+     * they never count again.
+     *
+     * @param account The account just saved, with its opening posting logged
+     */
+    public void open(Account account) {
+        Long maxId = transactionRepository.findMaxIdByAccountId(account.getAccountNumber());
+        long throughSeq = maxId == null ? 0 : maxId;
+        account.setLedgerSeq(throughSeq);
+        ledgerSnapshotRepository.saveSnapshot(account.getAccountNumber(), throughSeq,
+                account.getBalance().toBigDecimal(), LocalDateTime.now());
+    }
+
+    /**
+     * Drops the snapshot of an account being deleted; its postings stay as history
+     *
+     * @param accountId The account
+     */
+    public void close(String accountId) {
+        ledgerSnapshotRepository.deleteByAccountId(accountId);
+        ledgerProjector.remove(accountId);
+    }
+
+    /**
+     * Projects the pending postings onto loaded accounts, so the caller can change their
+     * balances in memory. The caller holds their locks.
+     *
+     * @param accounts Accounts loaded in the current transaction, by id
+     */
+    public void catchUp(Map<String, Account> accounts) {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        for (Object[] row : accountRepository.findLedgerTails(accounts.keySet())) {
+            Account account = accounts.get((String) row[0]);
+            account.setBalance(account.getBalance().plus(Money.of((BigDecimal) row[3])));
+            account.setLedgerSeq(((Number) row[5]).longValue());
+        }
+    }
+
+    /**
+     * Moves the watermark of caught-up accounts past the postings just written for them
+     *
+     * @param accounts Accounts passed to {@link #catchUp}, by id
+     * @param postings The saved postings, with their ids
+     */
+    public void stamp(Map<String, Account> accounts, Collection<Transaction> postings) {
+        for (Transaction posting : postings) {
+            Account account = accounts.get(posting.getAccountId());
+            if (account != null && (account.getLedgerSeq() == null || account.getLedgerSeq() < posting.getId())) {
+                account.setLedgerSeq(posting.getId());
+            }
+        }
+    }
+
+    /**
+     * Marks an account that received a posting for the projector
+     *
+     * @param accountId The account
+     */
+    public void posted(String accountId) {
+        ledgerProjector.enqueue(accountId);
+    }
+}
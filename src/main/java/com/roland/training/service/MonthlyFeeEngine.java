@@ -0,0 +1,258 @@
+package com.roland.training.service;
+
+import com.roland.training.exception.BankingException;
+import com.roland.training.model.Account;
+import com.roland.training.model.Money;
+import com.roland.training.model.MonthlyFeeRun;
+import com.roland.training.model.Transaction;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.MonthlyFeeRunRepository;
+import com.roland.training.util.QueryCounter;
+import com.roland.training.util.ThreadFactories;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Month-end fee and interest engine.
+ *
+ * Accounts are streamed in keyset-paginated chunks of account ids and every chunk is processed
+ * on a bounded executor in its own transaction: the accounts are loaded with one IN query,
+ * {@link Account#processMonthlyFees()} is applied, and the fee/interest transactions are
+ * batch-inserted. Each processed account is stamped with the period in the same transaction,
+ * which is the checkpoint: a crashed or partially failed run is resumed by running the same
+ * month again, and accounts that were already charged are skipped.
+ *
+ * A chunk is charged under the locks of its accounts. Accounts held by the
+ * {@link AccountStateCache} are written back and evicted first, and since postings only load
+ * an account into the cache under its lock, none can cache a pre-fee row while the chunk runs.
+ * In event-sourced mode the chunk is charged on balances caught up with their pending postings,
+ * see {@link LedgerService}.
+ */
+@Service
+public class MonthlyFeeEngine {
+    private static final DateTimeFormatter PERIOD_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final AccountRepository accountRepository;
+    private final MonthlyFeeRunRepository monthlyFeeRunRepository;
+    private final TransactionService transactionService;
+    private final LedgerRollupService ledgerRollupService;
+    private final BalanceIndex balanceIndex;
+    private final AccountStateCache accountStateCache;
+    private final AccountLockTable accountLockTable;
+    private final LedgerService ledgerService;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final int threads;
+    private final int maxAttempts;
+    private final boolean virtualThreads;
+
+    @Autowired
+    public MonthlyFeeEngine(AccountRepository accountRepository,
+                            MonthlyFeeRunRepository monthlyFeeRunRepository,
+                            TransactionService transactionService,
+                            LedgerRollupService ledgerRollupService,
+                            BalanceIndex balanceIndex,
+                            AccountStateCache accountStateCache,
+                            AccountLockTable accountLockTable,
+                            LedgerService ledgerService,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${fees.engine.chunk-size:500}") int chunkSize,
+                            @Value("${fees.engine.threads:0}") int threads,
+                            @Value("${account.optimistic.max-attempts:3}") int maxAttempts,
+                            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.accountRepository = accountRepository;
+        this.monthlyFeeRunRepository = monthlyFeeRunRepository;
+        this.transactionService = transactionService;
+        this.ledgerRollupService = ledgerRollupService;
+        this.balanceIndex = balanceIndex;
+        this.accountStateCache = accountStateCache;
+        this.accountLockTable = accountLockTable;
+        this.ledgerService = ledgerService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.virtualThreads = virtualThreads && ThreadFactories.virtualThreadsSupported();
+    }
+
+    /**
+     * Applies the monthly fees and interest of a period to every account not yet charged for it
+     *
+     * @param month The period to process
+     * @return Summary of the run
+     */
+    public Map<String, Object> run(YearMonth month) {
+        String period = month.format(PERIOD_FORMATTER);
+        long start = System.nanoTime();
+        transactionTemplate.executeWithoutResult(status -> startRun(period));
+
+        LongAdder processed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        AtomicInteger failedChunks = new AtomicInteger();
+        int chunks = 0;
+
+        // Chunks block on the database, so with virtual threads each one gets its own thread and
+        // the semaphore alone bounds the concurrency
+        ExecutorService executor = virtualThreads
+                ? Executors.newCachedThreadPool(ThreadFactories.create("monthly-fees-", true))
+                : Executors.newFixedThreadPool(threads, ThreadFactories.create("monthly-fees-", false));
+        // Bounds the number of chunks held in memory ahead of the workers
+        Semaphore inFlight = new Semaphore(threads * 2);
+        try {
+            String after = "";
+            while (true) {
+                List<String> ids = accountRepository.findFeePendingAccountIds(after, period, PageRequest.of(0, chunkSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                after = ids.get(ids.size() - 1);
+                chunks++;
+
+                inFlight.acquire();
+                executor.execute(QueryCounter.wrap(() -> {
+                    try {
+                        long[] counts = accountLockTable.callWithLocks(ids, () -> {
+                            accountStateCache.release(ids);
+                            return processChunkWithRetry(period, ids);
+                        });
+                        processed.add(counts[0]);
+                        failed.add(counts[1]);
+                    } catch (RuntimeException e) {
+                        failedChunks.incrementAndGet();
+                        logger.error("Monthly fee chunk {}..{} failed for {}", ids.get(0), ids.get(ids.size() - 1), period, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BankingException("Interrupted while processing monthly fees for " + period, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // A run with unstamped accounts stays RUNNING, so it is visibly due for another pass
+        boolean completed = failedChunks.get() == 0 && failed.sum() == 0;
+        if (completed) {
+            transactionTemplate.executeWithoutResult(status -> completeRun(period));
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("period", period);
+        summary.put("completed", completed);
+        summary.put("chunks", chunks);
+        summary.put("failedChunks", failedChunks.get());
+        summary.put("processedAccounts", processed.sum());
+        summary.put("failedAccounts", failed.sum());
+        summary.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.info("Monthly fee run {}", summary);
+        return summary;
+    }
+
+    private void startRun(String period) {
+        MonthlyFeeRun run = monthlyFeeRunRepository.findById(period).orElseGet(() -> new MonthlyFeeRun(period));
+        if (MonthlyFeeRun.COMPLETED.equals(run.getStatus())) {
+            logger.info("Monthly fee run {} already completed, processing remaining accounts only", period);
+        }
+        run.setStatus(MonthlyFeeRun.RUNNING);
+        run.setCompletedAt(null);
+        monthlyFeeRunRepository.save(run);
+    }
+
+    private void completeRun(String period) {
+        monthlyFeeRunRepository.findById(period).ifPresent(run -> {
+            run.setStatus(MonthlyFeeRun.COMPLETED);
+            run.setCompletedAt(LocalDateTime.now());
+        });
+    }
+
+    private long[] processChunkWithRetry(String period, List<String> ids) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> processChunk(period, ids));
+            } catch (OptimisticLockingFailureException e) {
+                // A concurrent posting touched one of the accounts; the whole chunk rolled back
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    // Runs inside one transaction per chunk; returns {processed, failed}
+    private long[] processChunk(String period, List<String> ids) {
+        List<Account> accounts = accountRepository.findAllByAccountNumberIn(ids);
+        Map<String, Account> byId = new HashMap<>(accounts.size() * 2);
+        if (ledgerService.isEnabled()) {
+            accounts.forEach(account -> byId.put(account.getAccountNumber(), account));
+            ledgerService.catchUp(byId);
+        }
+        List<Transaction> transactions = new ArrayList<>(accounts.size());
+        LocalDateTime now = LocalDateTime.now();
+        long processed = 0;
+        long failed = 0;
+        long netMinor = 0;
+
+        for (Account account : accounts) {
+            if (period.equals(account.getFeePeriod())) {
+                continue;
+            }
+            Money before = account.getBalance();
+            try {
+                account.processMonthlyFees();
+            } catch (BankingException | IllegalArgumentException e) {
+                // Left unstamped so the next run of this period retries it
+                failed++;
+                logger.warn("Monthly fees not applied to account {}: {}", account.getAccountNumber(), e.getMessage());
+                continue;
+            }
+            account.setFeePeriod(period);
+            balanceIndex.track(account);
+            processed++;
+
+            Money change = account.getBalance().minus(before);
+            if (!change.isZero()) {
+                transactions.add(new Transaction(account.getAccountNumber(), change, now));
+                netMinor = Math.addExact(netMinor, change.getMinorUnits());
+            }
+        }
+
+        if (!transactions.isEmpty()) {
+            transactionService.logTransactions(transactions);
+            ledgerRollupService.adjustTotals(0, BigDecimal.valueOf(netMinor, Money.SCALE));
+            if (ledgerService.isEnabled()) {
+                ledgerService.stamp(byId, transactions);
+            }
+        }
+        monthlyFeeRunRepository.addProgress(period, processed, failed);
+        return new long[]{processed, failed};
+    }
+}
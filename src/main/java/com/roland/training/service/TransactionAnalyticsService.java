@@ -0,0 +1,282 @@
+package com.roland.training.service;
+
+import com.roland.training.exception.BankingException;
+import com.roland.training.model.AccountActivityCount;
+import com.roland.training.model.Transaction;
+import com.roland.training.repository.TransactionRepository;
+import com.roland.training.util.ArchivedTransaction;
+import com.roland.training.util.TransactionColumns;
+import com.roland.training.util.TransactionColumns.Dimension;
+import com.roland.training.util.TransactionColumns.Group;
+import com.roland.training.util.TransactionColumns.Query;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
+
+/**
+ * Ad-hoc analytics over the whole transaction history, both tiers, from a
+ * {@link TransactionColumns} store held in memory.
+ *
+ * The store is loaded once the application is ready and then fed from the posting path after
+ * each commit, so rolled-back postings never show up. Postings that commit while the load runs
+ * are held back and added at the end unless the load already read them, which it tells by id.
+ * Queries fail with a {@link BankingException} until the load has finished; the reports that
+ * have a database fallback check {@link #isReady()} first.
+ *
+ * Typical queries: deposits per hour of day per account type over a date range, daily volume
+ * of one account, or the most active accounts of all time.
+ */
+@Service
+public class TransactionAnalyticsService {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionTieringService transactionTieringService;
+    private final TransactionTemplate readOnlyTemplate;
+    private final ForkJoinPool pool;
+    private final TransactionColumns columns;
+
+    private boolean loading;
+    private volatile boolean ready;
+    private final List<Transaction> pending = new ArrayList<>();
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder queryNanos = new LongAdder();
+    private volatile long loadMillis;
+
+    @Autowired
+    public TransactionAnalyticsService(TransactionRepository transactionRepository,
+                                       TransactionTieringService transactionTieringService,
+                                       AccountReadCache accountReadCache,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${analytics.threads:0}") int threads) {
+        this.transactionRepository = transactionRepository;
+        this.transactionTieringService = transactionTieringService;
+        this.readOnlyTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTemplate.setReadOnly(true);
+        this.pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+        this.columns = new TransactionColumns(accountReadCache::getAccountType, pool);
+    }
+
+    /**
+     * Loads both tiers of the history into the column store, replacing what it held
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long start = System.currentTimeMillis();
+        synchronized (this) {
+            ready = false;
+            loading = true;
+            pending.clear();
+            columns.clear();
+        }
+        long[] loadedIds;
+        try {
+            loadedIds = transactionTieringService.read(() -> {
+                transactionTieringService.forEachArchivedTransaction(this::append);
+                return readOnlyTemplate.execute(status -> {
+                    LongList ids = new LongList();
+                    try (Stream<ArchivedTransaction> rows = transactionRepository.streamAll()) {
+                        rows.forEach(row -> {
+                            append(row);
+                            ids.add(row.getId());
+                        });
+                    }
+                    return ids.sorted();
+                });
+            });
+        } catch (RuntimeException e) {
+            // The reports keep using the database until the next load
+            synchronized (this) {
+                loading = false;
+                pending.clear();
+                columns.clear();
+            }
+            logger.error("Failed to load the analytics store", e);
+            return;
+        }
+        int held;
+        synchronized (this) {
+            held = pending.size();
+            for (Transaction transaction : pending) {
+                if (Arrays.binarySearch(loadedIds, transaction.getId()) < 0) {
+                    append(transaction);
+                }
+            }
+            pending.clear();
+            loading = false;
+            ready = true;
+        }
+        loadMillis = System.currentTimeMillis() - start;
+        logger.info("Loaded {} transactions of {} accounts into the analytics store in {} ms ({} held back)",
+                columns.size(), columns.accountCount(), loadMillis, held);
+    }
+
+    /**
+     * Adds posted transactions once their database transaction commits
+     *
+     * @param transactions The saved transactions, with their ids
+     */
+    public void recordTransactions(Collection<Transaction> transactions) {
+        List<Transaction> posted = List.copyOf(transactions);
+        afterCommit(() -> {
+            synchronized (this) {
+                if (loading) {
+                    pending.addAll(posted);
+                } else if (ready) {
+                    posted.forEach(this::append);
+                }
+            }
+        });
+    }
+
+    private void append(Transaction transaction) {
+        columns.append(transaction.getAccountId(), transaction.getAmount().getMinorUnits(),
+                transaction.getTransactionDate(), transaction.getTransactionType());
+    }
+
+    private void append(ArchivedTransaction row) {
+        columns.append(row.getAccountId(), row.getAmountMinor(), row.getTransactionDate(), row.getTransactionType());
+    }
+
+    /**
+     * Empties the store, after the transactions were cleared
+     */
+    public synchronized void clear() {
+        pending.clear();
+        columns.clear();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Runs a filter/group/sum query over every transaction, e.g. deposits per hour per account type:
+     * {@code Query.transactions().transactionTypes("DEPOSIT").groupBy(HOUR_OF_DAY, ACCOUNT_TYPE)}
+     *
+     * @return One group per distinct key, with its count and deposit and withdrawal sums
+     * @throws BankingException While the store is loading
+     */
+    public List<Group> query(Query query) {
+        if (!ready) {
+            throw new BankingException("Transaction analytics are still loading");
+        }
+        long start = System.nanoTime();
+        try {
+            return columns.query(query);
+        } finally {
+            queries.increment();
+            queryNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Deposits, withdrawals and count of one day, like {@link LedgerRollupService#getDailyTotals}
+     */
+    public Map<String, Object> getDailyTotals(LocalDate day) {
+        return totals(query(Query.transactions().between(day.atStartOfDay(), day.plusDays(1).atStartOfDay())));
+    }
+
+    /**
+     * Deposits, withdrawals and count of the whole history
+     */
+    public Map<String, Object> getTotals() {
+        return totals(query(Query.transactions()));
+    }
+
+    private static Map<String, Object> totals(List<Group> groups) {
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("totalDeposits", groups.isEmpty() ? BigDecimal.ZERO.setScale(2) : groups.get(0).getDeposits());
+        totals.put("totalWithdrawals", groups.isEmpty() ? BigDecimal.ZERO.setScale(2) : groups.get(0).getWithdrawals());
+        totals.put("transactionCount", groups.isEmpty() ? 0L : groups.get(0).getCount());
+        return totals;
+    }
+
+    /**
+     * @return The account with the most transactions of all time, exact; ties go to the lowest id
+     */
+    public Optional<AccountActivityCount> getMostActiveAccount() {
+        Group best = null;
+        for (Group group : query(Query.transactions().groupBy(Dimension.ACCOUNT))) {
+            if (best == null || group.getCount() > best.getCount() || (group.getCount() == best.getCount()
+                    && group.getKey().get(0).toString().compareTo(best.getKey().get(0).toString()) < 0)) {
+                best = group;
+            }
+        }
+        return best == null ? Optional.empty()
+                : Optional.of(new AccountActivityCount(best.getKey().get(0).toString(), best.getCount(), 0));
+    }
+
+    /**
+     * Volume of one account per day over a date range
+     *
+     * @param from First day, inclusive
+     * @param to   Last day, inclusive
+     */
+    public List<Group> getAccountDailyActivity(String accountId, LocalDate from, LocalDate to) {
+        LocalDateTime end = to.plusDays(1).atStartOfDay();
+        return query(Query.transactions().account(accountId).between(from.atStartOfDay(), end).groupBy(Dimension.DAY));
+    }
+
+    public Map<String, Object> getMetrics() {
+        long count = queries.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("ready", ready);
+        metrics.put("rows", columns.size());
+        metrics.put("accounts", columns.accountCount());
+        metrics.put("bytes", columns.sizeBytes());
+        metrics.put("threads", pool.getParallelism());
+        metrics.put("loadMillis", loadMillis);
+        metrics.put("queries", count);
+        metrics.put("avgQueryMillis", count == 0 ? 0.0 : queryNanos.sum() / (double) count / 1_000_000);
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // Growable array of the ids read by the load
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(values, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
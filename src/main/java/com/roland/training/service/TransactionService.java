@@ -1,82 +1,438 @@
 package com.roland.training.service;
 
+import com.roland.training.exception.BadRequestException;
+import com.roland.training.exception.BankingException;
+import com.roland.training.model.Counterparty;
+import com.roland.training.model.Money;
 import com.roland.training.model.Transaction;
+import com.roland.training.model.TransactionDTO;
+import com.roland.training.model.TransactionPage;
+import com.roland.training.model.TransferDTO;
 import com.roland.training.repository.TransactionRepository;
-import com.roland.training.util.FileReporter;
+import com.roland.training.util.ActivityLog;
+import com.roland.training.util.ActivityRecord;
+import com.roland.training.util.ActivityType;
+import com.roland.training.util.TransactionJournal;
 import jakarta.transaction.Transactional;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.roland.training.util.TransactionCallbacks.afterCommit;
 
 @Service
 @Transactional
 public class TransactionService {
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss a");
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final Logger logger = LogManager.getLogger(getClass());
 
     @Autowired
     private TransactionRepository transactionRepository;
 
     @Autowired
-    private FileReporter fileReporter;
+    private TransactionJournal transactionJournal;
+
+    @Autowired
+    private ActivityLog activityLog;
+
+    @Autowired
+    private LedgerRollupService ledgerRollupService;
+
+    @Autowired
+    private AccountActivityTracker accountActivityTracker;
+
+    @Autowired
+    private BankingMetrics bankingMetrics;
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private TransactionTieringService transactionTieringService;
+
+    @Autowired
+    private TransactionAnalyticsService transactionAnalyticsService;
 
     public void logTransaction(String accountId, BigDecimal amount) {
-        LocalDateTime now = LocalDateTime.now();
-        Transaction transaction = new Transaction(accountId, amount, now);
-        transactionRepository.save(transaction);
+        logTransaction(accountId, Money.of(amount), LocalDateTime.now());
+    }
 
-        String activityType = amount.compareTo(BigDecimal.ZERO) > 0 ? "DEPOSIT" : "WITHDRAWAL";
-        String logEntry = String.format("[%s] %s: Account %s - $%.2f", now.format(FORMATTER), activityType, accountId, amount.abs());
-        try {
-            fileReporter.logActivity(logEntry);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to log activity to file", e);
-        }
+    public void logTransaction(String accountId, Money amount) {
+        logTransaction(accountId, amount, LocalDateTime.now());
     }
 
     public void logTransaction(String accountId, BigDecimal amount, Timestamp timestamp) {
-        LocalDateTime dateTime = timestamp.toLocalDateTime();
-        Transaction transaction = new Transaction(accountId, amount, dateTime);
-        transactionRepository.save(transaction);
+        logTransaction(accountId, Money.of(amount), timestamp.toLocalDateTime());
+    }
 
-        String activityType = amount.compareTo(BigDecimal.ZERO) > 0 ? "DEPOSIT" : "WITHDRAWAL";
-        String logEntry = String.format("[%s] %s: Account %s - $%.2f", dateTime.format(FORMATTER), activityType, accountId, amount.abs());
+    private void logTransaction(String accountId, Money amount, LocalDateTime dateTime) {
+        BankingMetrics.Sample sample = bankingMetrics.start(BankingMetrics.Operation.LOG_TRANSACTION);
         try {
-            fileReporter.logActivity(logEntry);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to log activity to file", e);
+            Transaction transaction = new Transaction(accountId, amount, dateTime);
+            transactionRepository.save(transaction);
+            ledgerRollupService.recordTransaction(transaction);
+            transactionAnalyticsService.recordTransactions(List.of(transaction));
+            accountActivityTracker.recordTransactions(List.of(transaction));
+            ledgerService.posted(accountId);
+
+            logActivity(List.of(ActivityRecord.of(accountId, amount, dateTime, activityTypeOf(amount), null)));
+            sample.success();
+        } catch (RuntimeException e) {
+            throw sample.failure(e);
         }
     }
 
-    public void logTransfer(String fromAccountId, String toAccountId, BigDecimal amount) {
-        String logEntry = String.format("[%s] TRANSFER: From %s to %s - $%.2f", LocalDateTime.now().format(FORMATTER), fromAccountId, toAccountId, amount);
+    /**
+     * Persists a batch of transactions in a single saveAll so Hibernate can group the inserts
+     * into JDBC batches, then writes their activity records
+     *
+     * @param transactions The transactions to log
+     */
+    public void logTransactions(List<Transaction> transactions) {
+        BankingMetrics.Sample sample = bankingMetrics.start(BankingMetrics.Operation.LOG_TRANSACTION);
         try {
-            fileReporter.logActivity(logEntry);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to log transfer activity to file", e);
+            transactionRepository.saveAll(transactions);
+            ledgerRollupService.recordTransactions(transactions);
+            transactionAnalyticsService.recordTransactions(transactions);
+            accountActivityTracker.recordTransactions(transactions);
+
+            List<ActivityRecord> records = new ArrayList<>(transactions.size());
+            for (Transaction transaction : transactions) {
+                Money amount = transaction.getAmount();
+                ledgerService.posted(transaction.getAccountId());
+                records.add(ActivityRecord.of(transaction.getAccountId(), amount, transaction.getTransactionDate(),
+                        activityTypeOf(transaction), transaction.getRelatedAccountId()));
+            }
+            logActivity(records);
+            sample.success();
+        } catch (RuntimeException e) {
+            throw sample.failure(e);
+        }
+    }
+
+    /**
+     * Books a transfer as two legs linked by a transfer id, inserted in one batch: the debit on
+     * the source account and the credit on the target
+     *
+     * @return The transfer id
+     */
+    public String logTransfer(String fromAccountId, String toAccountId, Money amount) {
+        List<Transaction> legs = Transaction.transferLegs(fromAccountId, toAccountId, amount, LocalDateTime.now());
+        logTransactions(legs);
+        return legs.get(0).getTransferId();
+    }
+
+    // The binary activity log is the record of truth; the daily text log is rendered from it.
+    // Both are written once the postings commit, so a rolled-back or retried attempt leaves no
+    // records behind. The postings already stand by then, so a failed append is logged rather
+    // than reported to the caller
+    private void logActivity(List<ActivityRecord> records) {
+        afterCommit(() -> {
+            for (ActivityRecord record : records) {
+                try {
+                    activityLog.append(record);
+                    transactionJournal.append(record.toLogLine());
+                } catch (RuntimeException e) {
+                    logger.error("Could not log committed activity for account {}", record.getAccountId(), e);
+                }
+            }
+        });
+    }
+
+    private static ActivityType activityTypeOf(Money amount) {
+        return amount.isPositive() ? ActivityType.DEPOSIT : ActivityType.WITHDRAWAL;
+    }
+
+    // The debit leg of a transfer is logged as the transfer itself, the credit leg as a deposit
+    private static ActivityType activityTypeOf(Transaction transaction) {
+        if ("TRANSFER".equals(transaction.getTransactionType()) && transaction.getAmount().isNegative()) {
+            return ActivityType.TRANSFER;
         }
+        return activityTypeOf(transaction.getAmount());
     }
 
+    /**
+     * Lists the transfers between two accounts in either direction, newest first
+     *
+     * @param accountId      One account
+     * @param otherAccountId The other account
+     * @param limit          Maximum number of transfers, capped at 1000
+     * @return The transfers
+     */
+    public List<TransferDTO> getTransfersBetween(String accountId, String otherAccountId, int limit) {
+        // Each transfer has exactly one leg on either account, so reading one side lists each once
+        return transactionRepository.findTransfersBetween(accountId, otherAccountId,
+                PageRequest.of(0, clampPageSize(limit)));
+    }
+
+    /**
+     * Lists the accounts an account has exchanged transfers with
+     *
+     * @param accountId The account
+     * @return The counterparties with the totals in each direction, most transfers first
+     */
+    public List<Counterparty> getCounterparties(String accountId) {
+        List<Counterparty> counterparties = new ArrayList<>();
+        for (Object[] row : transactionRepository.findCounterparties(accountId)) {
+            counterparties.add(new Counterparty((String) row[0], ((Number) row[1]).longValue(),
+                    (BigDecimal) row[2], (BigDecimal) row[3]));
+        }
+        return counterparties;
+    }
+
+    // Both tiers, newest first; see TransactionTieringService
     public List<String> readTransactionHistory() {
-        return transactionRepository.findAllByOrderByTransactionDateDesc().stream()
-                .map(t -> String.format("%s,%s,%.2f", t.getTransactionDate(), t.getAccountId(), t.getAmount()))
-                .collect(Collectors.toList());
+        return transactionTieringService.read(() -> {
+            try (Stream<TransactionDTO> rows = transactionRepository.streamHistory()) {
+                return toHistoryEntries(TransactionTieringService.mergeNewestFirst(rows.iterator(),
+                        transactionTieringService.archivedNewestFirst(null)));
+            }
+        });
+    }
+
+    /**
+     * Reads the activity of one account from the binary activity log, without a database round trip
+     *
+     * @param accountId The account to read
+     * @return The activity records, oldest first
+     */
+    public List<ActivityRecord> readActivityLog(String accountId) {
+        return activityLog.readAccountHistory(accountId);
     }
 
     public List<String> readTransactionHistory(String accountId) {
-        return transactionRepository.findByAccountIdOrderByTransactionDateDesc(accountId).stream()
-                .map(t -> String.format("%s,%s,%.2f", t.getTransactionDate(), accountId, t.getAmount()))
-                .collect(Collectors.toList());
+        return transactionTieringService.read(() -> {
+            try (Stream<TransactionDTO> rows = transactionRepository.streamAccountHistory(accountId)) {
+                return toHistoryEntries(TransactionTieringService.mergeNewestFirst(rows.iterator(),
+                        transactionTieringService.archivedNewestFirst(accountId)));
+            }
+        });
+    }
+
+    /**
+     * Reads an account's history within a date range, newest first. Only the archived months and
+     * files that can hold rows of the account in the range are read.
+     *
+     * @param accountId The account to read
+     * @param from      First day, inclusive
+     * @param to        Last day, inclusive
+     * @return The entries, in the format of {@link #readTransactionHistory(String)}
+     */
+    public List<String> readTransactionHistory(String accountId, LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new BadRequestException("History range starts after it ends");
+        }
+        LocalDateTime start = from.atStartOfDay();
+        LocalDateTime end = to.plusDays(1).atStartOfDay();
+        return transactionTieringService.read(() -> {
+            List<TransactionDTO> rows = transactionRepository.findAccountHistoryBetween(accountId, start, end);
+            List<TransactionDTO> archived = transactionTieringService.archivedBetween(accountId, start, end);
+            return toHistoryEntries(TransactionTieringService.mergeNewestFirst(rows.iterator(), archived.iterator()));
+        });
+    }
+
+    /**
+     * Reads one page of the full transaction history, newest first, using a keyset cursor on
+     * (transactionDate, id) instead of loading the whole table
+     *
+     * @param cursor   The cursor returned with the previous page, or null for the first page
+     * @param pageSize Number of entries per page, capped at 1000
+     * @return The page and the cursor of the next one
+     */
+    public TransactionPage readTransactionHistoryPage(String cursor, int pageSize) {
+        int size = clampPageSize(pageSize);
+        PageRequest page = PageRequest.of(0, size + 1);
+        Cursor position = cursor == null || cursor.isEmpty() ? null : Cursor.decode(cursor);
+        return transactionTieringService.read(() -> {
+            List<TransactionDTO> rows = position == null
+                    ? transactionRepository.findHistoryFirstPage(page)
+                    : transactionRepository.findHistoryPageBefore(position.transactionDate, position.id, page);
+            return toPage(withArchived(rows, null, position, size + 1), size);
+        });
+    }
+
+    /**
+     * Reads one page of an account's transaction history, newest first
+     *
+     * @param accountId The account to read
+     * @param cursor    The cursor returned with the previous page, or null for the first page
+     * @param pageSize  Number of entries per page, capped at 1000
+     * @return The page and the cursor of the next one
+     */
+    public TransactionPage readTransactionHistoryPage(String accountId, String cursor, int pageSize) {
+        int size = clampPageSize(pageSize);
+        PageRequest page = PageRequest.of(0, size + 1);
+        Cursor position = cursor == null || cursor.isEmpty() ? null : Cursor.decode(cursor);
+        return transactionTieringService.read(() -> {
+            List<TransactionDTO> rows = position == null
+                    ? transactionRepository.findAccountHistoryFirstPage(accountId, page)
+                    : transactionRepository.findAccountHistoryPageBefore(accountId, position.transactionDate, position.id, page);
+            return toPage(withArchived(rows, accountId, position, size + 1), size);
+        });
+    }
+
+    // Merges the archived rows before the same position into a page read from the table. When the
+    // table filled the page, archived rows older than its last row cannot make it and are not read.
+    private List<TransactionDTO> withArchived(List<TransactionDTO> rows, String accountId, Cursor position, int limit) {
+        LocalDateTime notBefore = rows.size() < limit ? null : rows.get(rows.size() - 1).getTransactionDate();
+        List<TransactionDTO> archived = transactionTieringService.archivedBefore(accountId,
+                position == null ? null : position.transactionDate, position == null ? null : position.id,
+                notBefore, limit);
+        if (archived.isEmpty()) {
+            return rows;
+        }
+        List<TransactionDTO> merged = new ArrayList<>(limit);
+        Iterator<TransactionDTO> it = TransactionTieringService.mergeNewestFirst(rows.iterator(), archived.iterator());
+        while (it.hasNext() && merged.size() < limit) {
+            merged.add(it.next());
+        }
+        return merged;
+    }
+
+    /**
+     * Streams the full transaction history as CSV, newest first. Rows are fetched from the
+     * database in bounded chunks and written straight to the output, so the result set is
+     * never held in memory.
+     *
+     * @param out The output stream to write to, e.g. the HTTP response body; left open
+     * @throws IOException If there's an error writing to the output
+     */
+    public void exportTransactionHistory(OutputStream out) throws IOException {
+        exportTiered(transactionRepository::streamHistory, null, out);
+    }
+
+    /**
+     * Streams an account's transaction history as CSV, newest first
+     *
+     * @param accountId The account to export
+     * @param out       The output stream to write to, e.g. the HTTP response body; left open
+     * @throws IOException If there's an error writing to the output
+     */
+    public void exportTransactionHistory(String accountId, OutputStream out) throws IOException {
+        exportTiered(() -> transactionRepository.streamAccountHistory(accountId), accountId, out);
+    }
+
+    // The table streamed in chunks, merged with the archive read one month at a time
+    private void exportTiered(Supplier<Stream<TransactionDTO>> table, String accountId, OutputStream out)
+            throws IOException {
+        try {
+            transactionTieringService.read(() -> {
+                try (Stream<TransactionDTO> rows = table.get()) {
+                    writeCsv(TransactionTieringService.mergeNewestFirst(rows.iterator(),
+                            transactionTieringService.archivedNewestFirst(accountId)), out);
+                    return null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeCsv(Iterator<TransactionDTO> rows, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        while (rows.hasNext()) {
+            writer.write(toHistoryEntry(rows.next()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private static List<String> toHistoryEntries(Iterator<TransactionDTO> rows) {
+        List<String> entries = new ArrayList<>();
+        while (rows.hasNext()) {
+            entries.add(toHistoryEntry(rows.next()));
+        }
+        return entries;
+    }
+
+    // "date,account,amount", without String.format
+    private static String toHistoryEntry(TransactionDTO row) {
+        return row.getTransactionDate() + "," + row.getAccountId() + ","
+                + row.getAmount().setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private static TransactionPage toPage(List<TransactionDTO> rows, int pageSize) {
+        boolean hasMore = rows.size() > pageSize;
+        List<TransactionDTO> pageRows = hasMore ? rows.subList(0, pageSize) : rows;
+        List<String> entries = new ArrayList<>(pageRows.size());
+        for (TransactionDTO row : pageRows) {
+            entries.add(toHistoryEntry(row));
+        }
+        String nextCursor = null;
+        if (hasMore) {
+            TransactionDTO last = pageRows.get(pageRows.size() - 1);
+            nextCursor = new Cursor(last.getTransactionDate(), last.getId()).encode();
+        }
+        return new TransactionPage(entries, nextCursor);
+    }
+
+    private static int clampPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            throw new BadRequestException("Page size must be positive");
+        }
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    // Opaque keyset position: the (transactionDate, id) of the last entry of a page
+    private static final class Cursor {
+        private final LocalDateTime transactionDate;
+        private final Long id;
+
+        private Cursor(LocalDateTime transactionDate, Long id) {
+            this.transactionDate = transactionDate;
+            this.id = id;
+        }
+
+        String encode() {
+            String raw = transactionDate + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf('|');
+                return new Cursor(LocalDateTime.parse(raw.substring(0, separator)), Long.valueOf(raw.substring(separator + 1)));
+            } catch (IllegalArgumentException | DateTimeParseException | StringIndexOutOfBoundsException e) {
+                throw new BadRequestException("Invalid history cursor");
+            }
+        }
     }
 
     public void clearTransactions() {
-        transactionRepository.deleteAll();
+        if (ledgerService.isEnabled()) {
+            throw new BankingException("Transactions are the ledger in event-sourced mode and cannot be cleared");
+        }
+        // One bulk DELETE per monthly partition, plus the archive
+        transactionTieringService.dropAll();
+        ledgerRollupService.clearActivity();
+        accountActivityTracker.clear();
+        transactionAnalyticsService.clear();
     }
 }
 
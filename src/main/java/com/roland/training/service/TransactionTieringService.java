@@ -0,0 +1,475 @@
+package com.roland.training.service;
+
+import com.roland.training.model.TransactionDTO;
+import com.roland.training.repository.TransactionRepository;
+import com.roland.training.util.ArchivedTransaction;
+import com.roland.training.util.TransactionArchive;
+import jakarta.annotation.PostConstruct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Retention and tiering of the transaction history.
+ *
+ * Transactions are partitioned by calendar month of their date. H2 has no declarative table
+ * partitioning, so a partition is the month's date range, which {@code idx_transactions_date_amount}
+ * serves, and dropping one is a single bulk DELETE on that range instead of loading and deleting
+ * rows one by one. The newest {@code archive.hot-months} months besides the current one stay in
+ * the {@code transactions} table. Older months are compacted into the {@link TransactionArchive},
+ * and their partition is dropped once the archive is committed. Only the rows the archive holds
+ * are deleted, so the drop is rolled back if any row of the month was added meanwhile.
+ *
+ * Readers take the read side of a lock that the drop-and-publish step takes for writing, so a
+ * history read sees every row exactly once, in the table or in the archive. Archive reads skip
+ * months outside the requested date range and files outside the requested account.
+ *
+ * Nothing is archived in event-sourced ledger mode, where the transaction rows are the ledger.
+ */
+@Service
+public class TransactionTieringService {
+    private static final Comparator<TransactionDTO> NEWEST_FIRST = Comparator
+            .comparing(TransactionDTO::getTransactionDate, Comparator.reverseOrder())
+            .thenComparing(TransactionDTO::getId, Comparator.reverseOrder());
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionArchive transactionArchive;
+    private final LedgerService ledgerService;
+    private final TransactionTemplate transactionTemplate;
+    private final int hotMonths;
+
+    private final ReentrantReadWriteLock tierLock = new ReentrantReadWriteLock();
+    private final ReentrantLock archiveLock = new ReentrantLock();
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder archivedMonths = new LongAdder();
+    private final LongAdder archivedRows = new LongAdder();
+    private final LongAdder droppedRows = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    @Autowired
+    public TransactionTieringService(TransactionRepository transactionRepository,
+                                     TransactionArchive transactionArchive,
+                                     LedgerService ledgerService,
+                                     PlatformTransactionManager transactionManager,
+                                     @Value("${archive.hot-months:3}") int hotMonths) {
+        this.transactionRepository = transactionRepository;
+        this.transactionArchive = transactionArchive;
+        this.ledgerService = ledgerService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.hotMonths = Math.max(1, hotMonths);
+    }
+
+    /**
+     * Finishes the months archived by a run that stopped before dropping their partition
+     */
+    @PostConstruct
+    public void recover() {
+        for (TransactionArchive.Month month : transactionArchive.unpublished()) {
+            int dropped = transactionTemplate.execute(status -> transactionRepository.dropPartition(
+                    start(month.getMonth()), start(month.getMonth().plusMonths(1)), month.getMaxId()));
+            transactionArchive.publish(month.getMonth());
+            droppedRows.add(dropped);
+            logger.info("Finished archiving {}: dropped {} rows left in the table", month.getMonth(), dropped);
+        }
+    }
+
+    /**
+     * Runs a history read against a consistent view of both tiers
+     */
+    public <T> T read(Supplier<T> read) {
+        tierLock.readLock().lock();
+        try {
+            return read.get();
+        } finally {
+            tierLock.readLock().unlock();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${archive.interval-ms:3600000}", fixedDelayString = "${archive.interval-ms:3600000}")
+    public void scheduledArchive() {
+        archiveColdMonths();
+    }
+
+    /**
+     * Archives every month in the table older than the hot months, oldest first. Rows of a month
+     * that is archived already, e.g. postings dated into the past, stay in the table.
+     *
+     * @return Summary of the run
+     */
+    public Map<String, Object> archiveColdMonths() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        if (ledgerService.isEnabled()) {
+            summary.put("skipped", "event-sourced ledger mode");
+            return summary;
+        }
+        archiveLock.lock();
+        try {
+            YearMonth cutoff = YearMonth.now().minusMonths(hotMonths);
+            LocalDateTime oldest = transactionRepository.findOldestTransactionDate();
+            List<String> archived = new ArrayList<>();
+            long rows = 0;
+            if (oldest != null) {
+                for (YearMonth month = YearMonth.from(oldest); month.isBefore(cutoff); month = month.plusMonths(1)) {
+                    if (!transactionArchive.isArchived(month)) {
+                        long monthRows = archiveMonth(month);
+                        if (monthRows > 0) {
+                            archived.add(month.toString());
+                            rows += monthRows;
+                        }
+                    }
+                }
+            }
+            runs.increment();
+            summary.put("hotFrom", cutoff.toString());
+            summary.put("archivedMonths", archived);
+            summary.put("archivedRows", rows);
+            return summary;
+        } finally {
+            archiveLock.unlock();
+        }
+    }
+
+    // Writes the month to the archive, then drops its partition and publishes it; returns the rows moved
+    private long archiveMonth(YearMonth month) {
+        LocalDateTime from = start(month);
+        LocalDateTime to = start(month.plusMonths(1));
+        try (TransactionArchive.MonthWriter writer = transactionArchive.write(month)) {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<ArchivedTransaction> rows = transactionRepository.streamPartition(from, to)) {
+                    rows.forEach(row -> {
+                        try {
+                            writer.add(row);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            });
+            if (writer.isEmpty()) {
+                return 0;
+            }
+            TransactionArchive.Month archived = writer.commit();
+
+            tierLock.writeLock().lock();
+            try {
+                int dropped;
+                try {
+                    dropped = transactionTemplate.execute(status -> {
+                        int deleted = transactionRepository.dropPartition(from, to, archived.getMaxId());
+                        if (deleted != archived.getRows()) {
+                            status.setRollbackOnly();
+                        }
+                        return deleted;
+                    });
+                } catch (RuntimeException e) {
+                    writer.abort();
+                    throw e;
+                }
+                if (dropped != archived.getRows()) {
+                    writer.abort();
+                    failures.increment();
+                    logger.warn("Partition {} changed while it was archived ({} rows archived, {} in the table); " +
+                            "retrying next run", month, archived.getRows(), dropped);
+                    return 0;
+                }
+                transactionArchive.publish(month);
+            } finally {
+                tierLock.writeLock().unlock();
+            }
+            archivedMonths.increment();
+            archivedRows.add(archived.getRows());
+            droppedRows.add(archived.getRows());
+            return archived.getRows();
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            logger.error("Failed to archive the transactions of {}", month, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Drops every partition of the table, one bulk DELETE per month, and the whole archive
+     *
+     * @return Number of transactions dropped
+     */
+    public long dropAll() {
+        archiveLock.lock();
+        tierLock.writeLock().lock();
+        try {
+            long dropped = 0;
+            LocalDateTime oldest = transactionRepository.findOldestTransactionDate();
+            LocalDateTime newest = transactionRepository.findNewestTransactionDate();
+            if (oldest != null) {
+                for (YearMonth month = YearMonth.from(oldest); !month.isAfter(YearMonth.from(newest));
+                     month = month.plusMonths(1)) {
+                    YearMonth partition = month;
+                    dropped += transactionTemplate.execute(status ->
+                            transactionRepository.dropPartition(start(partition), start(partition.plusMonths(1))));
+                }
+            }
+            dropped += transactionArchive.dropAll();
+            droppedRows.add(dropped);
+            return dropped;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            tierLock.writeLock().unlock();
+            archiveLock.unlock();
+        }
+    }
+
+    /**
+     * Reads archived history before a keyset position, newest first. Months after the position
+     * are skipped, and older months are only read until the limit is reached.
+     *
+     * @param accountId       The account, or null for all
+     * @param transactionDate Date of the position, or null to start from the newest
+     * @param id              Id of the position
+     * @param notBefore       Rows older than this date are not needed, or null
+     * @param limit           Maximum number of rows
+     */
+    public List<TransactionDTO> archivedBefore(String accountId, LocalDateTime transactionDate, Long id,
+                                               LocalDateTime notBefore, int limit) {
+        List<TransactionDTO> rows = new ArrayList<>();
+        // Exclusive bound one microsecond after the position, which is the precision of the dates
+        LocalDateTime to = transactionDate == null ? null : transactionDate.plusNanos(1_000);
+        for (YearMonth month : transactionArchive.months().descendingSet()) {
+            if (transactionDate != null && start(month).isAfter(transactionDate)) {
+                continue;
+            }
+            if (notBefore != null && !start(month.plusMonths(1)).isAfter(notBefore)) {
+                break;
+            }
+            for (ArchivedTransaction row : transactionArchive.read(month, accountId, notBefore, to)) {
+                if (transactionDate == null || row.getTransactionDate().isBefore(transactionDate)
+                        || (row.getTransactionDate().isEqual(transactionDate) && row.getId() < id)) {
+                    rows.add(toDTO(row));
+                }
+            }
+            // Months are disjoint, so nothing older can rank before what was collected
+            if (rows.size() >= limit) {
+                break;
+            }
+        }
+        rows.sort(NEWEST_FIRST);
+        return rows.size() > limit ? new ArrayList<>(rows.subList(0, limit)) : rows;
+    }
+
+    /**
+     * Reads the archived history of an account within a date range, newest first
+     *
+     * @param from Oldest date, inclusive
+     * @param to   Newest date, exclusive
+     */
+    public List<TransactionDTO> archivedBetween(String accountId, LocalDateTime from, LocalDateTime to) {
+        List<TransactionDTO> rows = new ArrayList<>();
+        for (YearMonth month : transactionArchive.months().subSet(YearMonth.from(from), true, YearMonth.from(to), true)) {
+            for (ArchivedTransaction row : transactionArchive.read(month, accountId, from, to)) {
+                rows.add(toDTO(row));
+            }
+        }
+        rows.sort(NEWEST_FIRST);
+        return rows;
+    }
+
+    /**
+     * Iterates the archived history newest first, reading one month at a time
+     *
+     * @param accountId The account, or null for all
+     */
+    public Iterator<TransactionDTO> archivedNewestFirst(String accountId) {
+        Iterator<YearMonth> months = transactionArchive.months().descendingIterator();
+        return new Iterator<>() {
+            private Iterator<TransactionDTO> month = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!month.hasNext() && months.hasNext()) {
+                    List<TransactionDTO> rows = new ArrayList<>();
+                    for (ArchivedTransaction row : transactionArchive.read(months.next(), accountId, null, null)) {
+                        rows.add(toDTO(row));
+                    }
+                    rows.sort(NEWEST_FIRST);
+                    month = rows.iterator();
+                }
+                return month.hasNext();
+            }
+
+            @Override
+            public TransactionDTO next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return month.next();
+            }
+        };
+    }
+
+    /**
+     * Merges two histories sorted newest first
+     */
+    public static Iterator<TransactionDTO> mergeNewestFirst(Iterator<TransactionDTO> a, Iterator<TransactionDTO> b) {
+        return new Iterator<>() {
+            private TransactionDTO nextA = a.hasNext() ? a.next() : null;
+            private TransactionDTO nextB = b.hasNext() ? b.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return nextA != null || nextB != null;
+            }
+
+            @Override
+            public TransactionDTO next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                TransactionDTO next;
+                if (nextB == null || (nextA != null && NEWEST_FIRST.compare(nextA, nextB) <= 0)) {
+                    next = nextA;
+                    nextA = a.hasNext() ? a.next() : null;
+                } else {
+                    next = nextB;
+                    nextB = b.hasNext() ? b.next() : null;
+                }
+                return next;
+            }
+        };
+    }
+
+    /**
+     * {day, depositSum, withdrawalSum, transactionCount} over both tiers, like
+     * {@link TransactionRepository#aggregateByDay()}
+     */
+    public List<Object[]> aggregateByDay() {
+        return read(() -> {
+            Map<Object, Object[]> days = new TreeMap<>();
+            for (Object[] row : transactionRepository.aggregateByDay()) {
+                days.put(toLocalDate(row[0]), row);
+            }
+            forEachArchived(row -> addActivity(days, row.getTransactionDate().toLocalDate(), row));
+            return new ArrayList<>(days.values());
+        });
+    }
+
+    /**
+     * {accountId, depositSum, withdrawalSum, transactionCount} over both tiers, like
+     * {@link TransactionRepository#aggregateByAccount()}
+     */
+    public List<Object[]> aggregateByAccount() {
+        return read(() -> {
+            Map<Object, Object[]> accounts = new TreeMap<>();
+            for (Object[] row : transactionRepository.aggregateByAccount()) {
+                accounts.put(row[0].toString(), row);
+            }
+            forEachArchived(row -> addActivity(accounts, row.getAccountId(), row));
+            return new ArrayList<>(accounts.values());
+        });
+    }
+
+    /**
+     * {accountId, count} over both tiers, like {@link TransactionRepository#findMostActiveAccount()}
+     */
+    public List<Object[]> countByAccount() {
+        return read(() -> {
+            Map<String, Long> counts = new TreeMap<>();
+            for (Object[] row : transactionRepository.findMostActiveAccount()) {
+                counts.put(row[0].toString(), ((Number) row[1]).longValue());
+            }
+            forEachArchived(row -> counts.merge(row.getAccountId(), 1L, Long::sum));
+            List<Object[]> rows = new ArrayList<>(counts.size());
+            counts.forEach((accountId, count) -> rows.add(new Object[]{accountId, count}));
+            return rows;
+        });
+    }
+
+    /**
+     * Passes every archived transaction, with all its columns, to the consumer, oldest month
+     * first. Call it within {@link #read}, so no month moves between the tiers meanwhile.
+     */
+    public void forEachArchivedTransaction(Consumer<ArchivedTransaction> consumer) {
+        for (YearMonth month : transactionArchive.months()) {
+            transactionArchive.readDetails(month, null, null, null).forEach(consumer);
+        }
+    }
+
+    private void forEachArchived(Consumer<ArchivedTransaction> consumer) {
+        for (YearMonth month : transactionArchive.months()) {
+            transactionArchive.read(month, null, null, null).forEach(consumer);
+        }
+    }
+
+    private static void addActivity(Map<Object, Object[]> rows, Object key, ArchivedTransaction row) {
+        Object[] sums = rows.computeIfAbsent(key, k -> new Object[]{k, BigDecimal.ZERO, BigDecimal.ZERO, 0L});
+        BigDecimal amount = BigDecimal.valueOf(row.getAmountMinor(), 2);
+        int column = row.getAmountMinor() > 0 ? 1 : 2;
+        if (row.getAmountMinor() != 0) {
+            sums[column] = decimal(sums[column]).add(amount);
+        }
+        sums[3] = ((Number) sums[3]).longValue() + 1;
+    }
+
+    private static BigDecimal decimal(Object value) {
+        if (value == null) {
+            return BigDecimal.ZERO;
+        }
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+
+    private static LocalDate toLocalDate(Object value) {
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        }
+        return value instanceof LocalDate ? (LocalDate) value : LocalDate.parse(value.toString());
+    }
+
+    private static TransactionDTO toDTO(ArchivedTransaction row) {
+        return new TransactionDTO(row.getId(), row.getAccountId(), BigDecimal.valueOf(row.getAmountMinor(), 2),
+                row.getTransactionDate());
+    }
+
+    private static LocalDateTime start(YearMonth month) {
+        return month.atDay(1).atStartOfDay();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("hotMonths", hotMonths);
+        metrics.put("runs", runs.sum());
+        metrics.put("archivedMonths", archivedMonths.sum());
+        metrics.put("archivedRows", archivedRows.sum());
+        metrics.put("droppedRows", droppedRows.sum());
+        metrics.put("failures", failures.sum());
+        metrics.put("archive", transactionArchive.getMetrics());
+        return metrics;
+    }
+}
@@ -0,0 +1,42 @@
+package com.roland.training.service;
+
+import com.roland.training.model.User;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * JPA entity listener that invalidates the cached principal of a user whose PIN or record
+ * changed. Hibernate resolves it as a Spring bean.
+ *
+ * The caches are cleared at flush and again after commit, so a lookup that ran between the
+ * two cannot keep the old record cached.
+ */
+@Component
+public class UserChangeListener {
+
+    private final JwtUserDetailService jwtUserDetailService;
+
+    @Autowired
+    public UserChangeListener(@Lazy JwtUserDetailService jwtUserDetailService) {
+        this.jwtUserDetailService = jwtUserDetailService;
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void userChanged(User user) {
+        jwtUserDetailService.invalidateUser(user);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    jwtUserDetailService.invalidateUser(user);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.roland.training.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded LRU cache of user principals keyed by contact number, with a time-to-live.
+ *
+ * Only the username and PIN hash are cached. Every hit returns a fresh {@link UserDetails},
+ * because the authentication manager erases the credentials of the principal it is given,
+ * which would corrupt a shared instance.
+ */
+@Component
+public class UserPrincipalCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Principal> principals;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public UserPrincipalCache(@Value("${user.cache.max-entries:10000}") int maxEntries,
+                              @Value("${user.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ttlSeconds));
+        this.principals = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Principal> eldest) {
+                return size() > UserPrincipalCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param contactNo The username
+     * @return A copy of the cached principal, or null if it is missing or older than the TTL
+     */
+    public UserDetails get(String contactNo) {
+        Principal principal;
+        synchronized (principals) {
+            principal = principals.get(contactNo);
+            if (principal != null && System.nanoTime() - principal.loadedAtNanos > ttlNanos) {
+                principals.remove(contactNo);
+                principal = null;
+            }
+        }
+        if (principal == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new User(principal.contactNo, principal.pin, new ArrayList<>());
+    }
+
+    public void put(String userId, String contactNo, String pin) {
+        Principal principal = new Principal(userId, contactNo, pin, System.nanoTime());
+        synchronized (principals) {
+            principals.put(contactNo, principal);
+        }
+    }
+
+    /**
+     * Drops the principals of a user, including ones cached under a previous contact number
+     *
+     * @param userId    The user's id
+     * @param contactNo The user's current contact number
+     * @return Every contact number that was dropped
+     */
+    public List<String> invalidate(String userId, String contactNo) {
+        List<String> removed = new ArrayList<>();
+        synchronized (principals) {
+            if (contactNo != null && principals.remove(contactNo) != null) {
+                removed.add(contactNo);
+            }
+            for (Iterator<Principal> it = principals.values().iterator(); it.hasNext(); ) {
+                Principal principal = it.next();
+                if (principal.userId != null && principal.userId.equals(userId)) {
+                    it.remove();
+                    removed.add(principal.contactNo);
+                }
+            }
+        }
+        invalidations.increment();
+        return removed;
+    }
+
+    public void clear() {
+        synchronized (principals) {
+            principals.clear();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (principals) {
+            metrics.put("size", principals.size());
+        }
+        metrics.put("maxEntries", maxEntries);
+        metrics.put("hits", hits.sum());
+        metrics.put("misses", misses.sum());
+        metrics.put("invalidations", invalidations.sum());
+        return metrics;
+    }
+
+    private static final class Principal {
+        private final String userId;
+        private final String contactNo;
+        private final String pin;
+        private final long loadedAtNanos;
+
+        Principal(String userId, String contactNo, String pin, long loadedAtNanos) {
+            this.userId = userId;
+            this.contactNo = contactNo;
+            this.pin = pin;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.roland.training.util;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only binary activity log made of memory-mapped segments.
+ *
+ * Every activity is appended as a fixed-layout {@link ActivityRecord} to the active segment,
+ * which is rolled once it reaches {@code activity.log.segment.bytes}. Each segment keeps a
+ * sparse per-account block index, so the history of a single account can be replayed from
+ * disk without a database round trip. The daily text log is a rendering of these records
+ * (see {@link ActivityRecord#toLogLine()} and {@link #renderText(Appendable)}).
+ *
+ * Guarded by a {@link ReentrantLock} rather than a monitor, so a virtual thread rolling a
+ * segment does not pin its carrier thread.
+ */
+@Component
+public class ActivityLog {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int blockRecords;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<ActivityLogSegment> segments = new ArrayList<>();
+    private ActivityLogSegment active;
+
+    public ActivityLog(@Value("${activity.log.dir:}") String directory,
+                       @Value("${activity.log.segment.bytes:67108864}") long segmentBytes,
+                       @Value("${activity.log.index.block.records:64}") int blockRecords) throws IOException {
+        if (segmentBytes < ActivityRecord.RECORD_SIZE) {
+            throw new IllegalArgumentException("Activity log segment must hold at least one record");
+        }
+        if (blockRecords <= 0) {
+            throw new IllegalArgumentException("Activity log index block size must be positive");
+        }
+        this.directory = directory.isBlank() ? FileReporter.logsDirectory().resolve("activity") : Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.blockRecords = blockRecords;
+        Files.createDirectories(this.directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(p -> p.getFileName().toString().endsWith(ActivityLogSegment.SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            segments.add(ActivityLogSegment.open(path, blockRecords));
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            ActivityLogSegment last = segments.get(segments.size() - 1);
+            if (last.isSealed()) {
+                roll(last.getBaseRecord() + last.getRecordCount());
+            } else {
+                active = last;
+            }
+        }
+        logger.info("Activity log recovered {} segment(s) from {}", segments.size(), directory);
+    }
+
+    private void roll(long baseRecord) throws IOException {
+        active = ActivityLogSegment.create(directory, baseRecord, segmentBytes, blockRecords);
+        segments.add(active);
+    }
+
+    /**
+     * Appends a record, rolling to a new segment when the active one is full
+     *
+     * @param record The record to append
+     * @throws UncheckedIOException If rolling to a new segment fails
+     */
+    public void append(ActivityRecord record) {
+        lock.lock();
+        try {
+            if (active.append(record)) {
+                return;
+            }
+            try {
+                active.seal();
+                roll(active.getBaseRecord() + active.getRecordCount());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to roll activity log segment", e);
+            }
+            if (!active.append(record)) {
+                throw new IllegalStateException("Activity record does not fit in an empty segment");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays the history of one account in the order it was written
+     *
+     * @param accountId The account to replay
+     * @param consumer  Receives every record of the account
+     */
+    public void replay(String accountId, Consumer<ActivityRecord> consumer) {
+        byte[] encoded = ActivityRecord.encode(accountId);
+        List<SegmentView> views = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ActivityLogSegment segment : segments) {
+                int[] blocks = segment.blocksOf(accountId);
+                if (blocks.length > 0) {
+                    views.add(new SegmentView(segment, blocks, segment.getRecordCount()));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (SegmentView view : views) {
+            view.segment.replay(encoded, view.blocks, view.limit, consumer);
+        }
+    }
+
+    /**
+     * Reads the history of one account without going to the database
+     *
+     * @param accountId The account to read
+     * @return The records of the account, oldest first
+     */
+    public List<ActivityRecord> readAccountHistory(String accountId) {
+        List<ActivityRecord> records = new ArrayList<>();
+        replay(accountId, records::add);
+        return records;
+    }
+
+    /**
+     * Replays every record of the log in the order it was written
+     *
+     * @param consumer Receives every record
+     */
+    public void replayAll(Consumer<ActivityRecord> consumer) {
+        List<SegmentView> views = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ActivityLogSegment segment : segments) {
+                views.add(new SegmentView(segment, null, segment.getRecordCount()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (SegmentView view : views) {
+            view.segment.replayAll(view.limit, consumer);
+        }
+    }
+
+    /**
+     * Renders the whole binary log in the text activity log format
+     *
+     * @param out Receives one line per record
+     * @throws IOException If there's an error writing to the output
+     */
+    public void renderText(Appendable out) throws IOException {
+        try {
+            replayAll(record -> {
+                try {
+                    out.append(record.toLogLine()).append(System.lineSeparator());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            for (ActivityLogSegment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class SegmentView {
+        private final ActivityLogSegment segment;
+        private final int[] blocks;
+        private final int limit;
+
+        private SegmentView(ActivityLogSegment segment, int[] blocks, int limit) {
+            this.segment = segment;
+            this.blocks = blocks;
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.roland.training.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * One memory-mapped segment of the binary activity log.
+ *
+ * Records are grouped into fixed-size blocks. The sparse per-account index stores, for every
+ * account, only the numbers of the blocks that contain at least one of its records, so replaying
+ * an account touches just those blocks instead of the whole segment. The index is kept in memory
+ * while the segment is active and written next to the segment file when it is sealed.
+ */
+final class ActivityLogSegment {
+    static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path path;
+    private final long baseRecord;
+    private final int blockRecords;
+    private final int capacityRecords;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<String, BlockList> index = new HashMap<>();
+    private int recordCount;
+    private boolean sealed;
+
+    private ActivityLogSegment(Path path, long baseRecord, int blockRecords, FileChannel channel, long sizeBytes)
+            throws IOException {
+        this.path = path;
+        this.baseRecord = baseRecord;
+        this.blockRecords = blockRecords;
+        this.capacityRecords = (int) (sizeBytes / ActivityRecord.RECORD_SIZE);
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacityRecords * ActivityRecord.RECORD_SIZE);
+    }
+
+    static Path segmentPath(Path directory, long baseRecord) {
+        return directory.resolve(String.format("activity-%020d%s", baseRecord, SEGMENT_SUFFIX));
+    }
+
+    static long baseRecordOf(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return Long.parseLong(name.substring("activity-".length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static ActivityLogSegment create(Path directory, long baseRecord, long segmentBytes, int blockRecords)
+            throws IOException {
+        Path path = segmentPath(directory, baseRecord);
+        FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE);
+        return new ActivityLogSegment(path, baseRecord, blockRecords, channel, segmentBytes);
+    }
+
+    /**
+     * Opens an existing segment, recovering the record count from the commit markers and the
+     * index from the sealed index file if one exists.
+     */
+    static ActivityLogSegment open(Path path, int blockRecords) throws IOException {
+        FileChannel channel = FileChannel.open(path, READ, WRITE);
+        ActivityLogSegment segment = new ActivityLogSegment(path, baseRecordOf(path), blockRecords, channel, channel.size());
+        if (!segment.loadIndex()) {
+            segment.rebuildIndex();
+        }
+        return segment;
+    }
+
+    /**
+     * Appends a record to this segment.
+     *
+     * @return false if the segment is full
+     */
+    boolean append(ActivityRecord record) {
+        if (sealed || recordCount >= capacityRecords) {
+            return false;
+        }
+        record.writeTo(buffer, recordCount * ActivityRecord.RECORD_SIZE);
+        indexRecord(record.getAccountId(), recordCount);
+        recordCount++;
+        return true;
+    }
+
+    private void indexRecord(String accountId, int position) {
+        index.computeIfAbsent(accountId, id -> new BlockList()).add(position / blockRecords);
+    }
+
+    /**
+     * Forces the mapped records to disk and writes the sparse index next to the segment
+     */
+    void seal() throws IOException {
+        buffer.force();
+        Path indexPath = indexPath();
+        Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(blockRecords);
+            out.writeInt(recordCount);
+            out.writeInt(index.size());
+            for (Map.Entry<String, BlockList> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                BlockList blocks = entry.getValue();
+                out.writeInt(blocks.size);
+                for (int i = 0; i < blocks.size; i++) {
+                    out.writeInt(blocks.blocks[i]);
+                }
+            }
+        }
+        Files.move(tmp, indexPath, REPLACE_EXISTING, ATOMIC_MOVE);
+        sealed = true;
+    }
+
+    private boolean loadIndex() throws IOException {
+        Path indexPath = indexPath();
+        if (!Files.exists(indexPath)) {
+            return false;
+        }
+        try (InputStream stream = Files.newInputStream(indexPath);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != blockRecords) {
+                return false;
+            }
+            recordCount = in.readInt();
+            int accounts = in.readInt();
+            for (int a = 0; a < accounts; a++) {
+                String accountId = in.readUTF();
+                int size = in.readInt();
+                BlockList blocks = new BlockList();
+                for (int i = 0; i < size; i++) {
+                    blocks.add(in.readInt());
+                }
+                index.put(accountId, blocks);
+            }
+        }
+        sealed = true;
+        return true;
+    }
+
+    private void rebuildIndex() {
+        index.clear();
+        int position = 0;
+        while (position < capacityRecords && ActivityRecord.isCommitted(buffer, position * ActivityRecord.RECORD_SIZE)) {
+            ActivityRecord record = ActivityRecord.readFrom(buffer, position * ActivityRecord.RECORD_SIZE);
+            indexRecord(record.getAccountId(), position);
+            position++;
+        }
+        recordCount = position;
+    }
+
+    private Path indexPath() {
+        String name = path.getFileName().toString();
+        return path.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * @return A copy of the block numbers holding records of the account, in ascending order
+     */
+    int[] blocksOf(String accountId) {
+        BlockList blocks = index.get(accountId);
+        return blocks == null ? new int[0] : Arrays.copyOf(blocks.blocks, blocks.size);
+    }
+
+    /**
+     * Replays the records of one account found in the given blocks, up to a record limit
+     * captured together with the block list.
+     */
+    void replay(byte[] accountId, int[] blocks, int limit, Consumer<ActivityRecord> consumer) {
+        for (int block : blocks) {
+            int start = block * blockRecords;
+            int end = Math.min(start + blockRecords, limit);
+            for (int position = start; position < end; position++) {
+                int offset = position * ActivityRecord.RECORD_SIZE;
+                if (ActivityRecord.hasAccountId(buffer, offset, accountId)) {
+                    consumer.accept(ActivityRecord.readFrom(buffer, offset));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays every record of this segment up to a record limit
+     */
+    void replayAll(int limit, Consumer<ActivityRecord> consumer) {
+        for (int position = 0; position < limit; position++) {
+            consumer.accept(ActivityRecord.readFrom(buffer, position * ActivityRecord.RECORD_SIZE));
+        }
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    long getBaseRecord() {
+        return baseRecord;
+    }
+
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    private static final class BlockList {
+        private int[] blocks = new int[4];
+        private int size;
+
+        // Records are appended in order, so a block is only ever added after the previous one
+        void add(int block) {
+            if (size > 0 && blocks[size - 1] == block) {
+                return;
+            }
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+            }
+            blocks[size++] = block;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.roland.training.util;
+
+import com.roland.training.model.Money;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-layout binary activity record.
+ *
+ * Layout (88 bytes, big endian):
+ * <pre>
+ *  0  long    timestamp, nanoseconds since the epoch
+ *  8  long    amount, unscaled value
+ * 16  int     amount, scale
+ * 20  byte    activity type code
+ * 21  byte    account id length
+ * 22  byte    related account id length (0 if none)
+ * 23  byte    commit marker, written last
+ * 24  byte[32] account id, UTF-8, zero padded
+ * 56  byte[32] related account id, UTF-8, zero padded
+ * </pre>
+ */
+public final class ActivityRecord {
+    public static final int RECORD_SIZE = 88;
+    public static final int MAX_ACCOUNT_ID_BYTES = 32;
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss a");
+    private static final BigInteger MAX_UNSCALED = BigInteger.valueOf(Long.MAX_VALUE);
+    private static final byte COMMITTED = 1;
+
+    private static final int TIMESTAMP_OFFSET = 0;
+    private static final int UNSCALED_OFFSET = 8;
+    private static final int SCALE_OFFSET = 16;
+    private static final int TYPE_OFFSET = 20;
+    private static final int ACCOUNT_LENGTH_OFFSET = 21;
+    private static final int RELATED_LENGTH_OFFSET = 22;
+    private static final int MARKER_OFFSET = 23;
+    private static final int ACCOUNT_OFFSET = 24;
+    private static final int RELATED_OFFSET = ACCOUNT_OFFSET + MAX_ACCOUNT_ID_BYTES;
+
+    private final String accountId;
+    private final long unscaledAmount;
+    private final int scale;
+    private final long epochNanos;
+    private final ActivityType type;
+    private final String relatedAccountId;
+
+    public ActivityRecord(String accountId, long unscaledAmount, int scale, long epochNanos,
+                          ActivityType type, String relatedAccountId) {
+        this.accountId = accountId;
+        this.unscaledAmount = unscaledAmount;
+        this.scale = scale;
+        this.epochNanos = epochNanos;
+        this.type = type;
+        this.relatedAccountId = relatedAccountId;
+    }
+
+    /**
+     * Creates a record from the service-level representation of an activity
+     *
+     * @param accountId        The account the activity belongs to
+     * @param amount           The amount, negative for money leaving the account
+     * @param timestamp        The local time of the activity
+     * @param type             The activity type
+     * @param relatedAccountId The counterparty account, or null
+     * @return The record
+     */
+    public static ActivityRecord of(String accountId, BigDecimal amount, LocalDateTime timestamp,
+                                    ActivityType type, String relatedAccountId) {
+        BigDecimal exact = fitToLong(amount);
+        return new ActivityRecord(accountId, exact.unscaledValue().longValue(), exact.scale(),
+                epochNanos(timestamp), type, relatedAccountId);
+    }
+
+    /**
+     * Creates a record from a money amount, which already is a scaled long
+     *
+     * @see #of(String, BigDecimal, LocalDateTime, ActivityType, String)
+     */
+    public static ActivityRecord of(String accountId, Money amount, LocalDateTime timestamp,
+                                    ActivityType type, String relatedAccountId) {
+        return new ActivityRecord(accountId, amount.getMinorUnits(), Money.SCALE,
+                epochNanos(timestamp), type, relatedAccountId);
+    }
+
+    private static long epochNanos(LocalDateTime timestamp) {
+        Instant instant = timestamp.atZone(ZoneId.systemDefault()).toInstant();
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    // Unbounded-scale amounts (e.g. accrued interest) are rounded until the unscaled value fits a long
+    private static BigDecimal fitToLong(BigDecimal amount) {
+        BigDecimal value = amount;
+        while (value.unscaledValue().abs().compareTo(MAX_UNSCALED) > 0) {
+            if (value.scale() <= 0) {
+                throw new ArithmeticException("Amount out of range for activity log: " + amount);
+            }
+            value = value.setScale(value.scale() - 1, RoundingMode.HALF_EVEN);
+        }
+        return value;
+    }
+
+    /**
+     * Writes this record at the given absolute offset. The commit marker is written last so a
+     * reader never observes a partially written record as complete.
+     */
+    void writeTo(ByteBuffer buffer, int offset) {
+        byte[] account = encode(accountId);
+        byte[] related = relatedAccountId == null ? new byte[0] : encode(relatedAccountId);
+
+        buffer.putLong(offset + TIMESTAMP_OFFSET, epochNanos);
+        buffer.putLong(offset + UNSCALED_OFFSET, unscaledAmount);
+        buffer.putInt(offset + SCALE_OFFSET, scale);
+        buffer.put(offset + TYPE_OFFSET, type.getCode());
+        buffer.put(offset + ACCOUNT_LENGTH_OFFSET, (byte) account.length);
+        buffer.put(offset + RELATED_LENGTH_OFFSET, (byte) related.length);
+        buffer.put(offset + ACCOUNT_OFFSET, account);
+        buffer.put(offset + RELATED_OFFSET, related);
+        buffer.put(offset + MARKER_OFFSET, COMMITTED);
+    }
+
+    /**
+     * @return true if a complete record is stored at the given offset
+     */
+    static boolean isCommitted(ByteBuffer buffer, int offset) {
+        return buffer.get(offset + MARKER_OFFSET) == COMMITTED;
+    }
+
+    /**
+     * Checks the account id of the record at the given offset without decoding the whole record
+     */
+    static boolean hasAccountId(ByteBuffer buffer, int offset, byte[] accountId) {
+        if (buffer.get(offset + ACCOUNT_LENGTH_OFFSET) != accountId.length) {
+            return false;
+        }
+        for (int i = 0; i < accountId.length; i++) {
+            if (buffer.get(offset + ACCOUNT_OFFSET + i) != accountId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static ActivityRecord readFrom(ByteBuffer buffer, int offset) {
+        long epochNanos = buffer.getLong(offset + TIMESTAMP_OFFSET);
+        long unscaled = buffer.getLong(offset + UNSCALED_OFFSET);
+        int scale = buffer.getInt(offset + SCALE_OFFSET);
+        ActivityType type = ActivityType.fromCode(buffer.get(offset + TYPE_OFFSET));
+        String account = decode(buffer, offset + ACCOUNT_OFFSET, buffer.get(offset + ACCOUNT_LENGTH_OFFSET));
+        int relatedLength = buffer.get(offset + RELATED_LENGTH_OFFSET);
+        String related = relatedLength == 0 ? null : decode(buffer, offset + RELATED_OFFSET, relatedLength);
+        return new ActivityRecord(account, unscaled, scale, epochNanos, type, related);
+    }
+
+    /**
+     * @return Whether the id fits the fixed-width account field of a record
+     */
+    public static boolean fits(String accountId) {
+        return accountId.getBytes(StandardCharsets.UTF_8).length <= MAX_ACCOUNT_ID_BYTES;
+    }
+
+    static byte[] encode(String accountId) {
+        byte[] bytes = accountId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_ACCOUNT_ID_BYTES) {
+            throw new IllegalArgumentException("Account id too long for activity log: " + accountId);
+        }
+        return bytes;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Renders this record in the format of the daily text activity log
+     *
+     * @return The text log line
+     */
+    public String toLogLine() {
+        String time = getTimestamp().format(FORMATTER);
+        if (type == ActivityType.TRANSFER) {
+            return String.format("[%s] TRANSFER: From %s to %s - $%.2f", time, accountId, relatedAccountId, getAmount().abs());
+        }
+        return String.format("[%s] %s: Account %s - $%.2f", time, type.name(), accountId, getAmount().abs());
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public long getUnscaledAmount() {
+        return unscaledAmount;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public BigDecimal getAmount() {
+        return BigDecimal.valueOf(unscaledAmount, scale);
+    }
+
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public LocalDateTime getTimestamp() {
+        Instant instant = Instant.ofEpochSecond(0, epochNanos);
+        return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+    }
+
+    public ActivityType getType() {
+        return type;
+    }
+
+    public String getRelatedAccountId() {
+        return relatedAccountId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ActivityRecord[account=%s, type=%s, amount=%s, related=%s]",
+                accountId, type, getAmount(), relatedAccountId);
+    }
+}
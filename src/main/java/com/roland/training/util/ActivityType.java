@@ -0,0 +1,29 @@
+package com.roland.training.util;
+
+/**
+ * Activity types stored in the binary activity log. The code is the on-disk representation.
+ */
+public enum ActivityType {
+    DEPOSIT((byte) 1),
+    WITHDRAWAL((byte) 2),
+    TRANSFER((byte) 3);
+
+    private final byte code;
+
+    ActivityType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static ActivityType fromCode(byte code) {
+        for (ActivityType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown activity type code: " + code);
+    }
+}
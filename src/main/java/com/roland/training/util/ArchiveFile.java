@@ -0,0 +1,511 @@
+package com.roland.training.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * One immutable file of the transaction archive: the rows of a contiguous range of accounts
+ * within one month, sorted by account, then newest first.
+ *
+ * Rows are stored column by column, each column deflated on its own, so a read decompresses
+ * only the columns it needs. Layout (big endian):
+ * <pre>
+ *  int     magic, short version
+ *  int     row count
+ *  UTF     first account id, UTF last account id
+ *  long    oldest and newest transaction date, microseconds since the epoch
+ *  long    highest transaction id
+ *  int[7]  raw length of each column, int[7] deflated length of each column
+ *  byte[]  the deflated columns, in order
+ *  long    CRC32 of everything before it
+ * </pre>
+ * Columns: accounts (each distinct id with its row count; rows of one account are contiguous),
+ * ids and dates (zigzag varint deltas, dates in microseconds), amounts (zigzag varint cents),
+ * transaction types and related accounts (dictionary codes) and transfer ids (UUIDs as two
+ * longs). Dates keep microsecond precision, which is what the database column holds.
+ */
+final class ArchiveFile {
+    static final String SUFFIX = ".arc";
+
+    private static final int MAGIC = 0x54584152;
+    private static final short VERSION = 1;
+
+    private static final int ACCOUNTS = 0;
+    private static final int IDS = 1;
+    private static final int DATES = 2;
+    private static final int AMOUNTS = 3;
+    private static final int TYPES = 4;
+    private static final int RELATED = 5;
+    private static final int TRANSFERS = 6;
+    private static final int COLUMNS = 7;
+
+    private final Path path;
+    private final int rowCount;
+    private final String firstAccount;
+    private final String lastAccount;
+    private final LocalDateTime oldest;
+    private final LocalDateTime newest;
+    private final long maxId;
+    private final long sizeBytes;
+
+    private ArchiveFile(Path path, int rowCount, String firstAccount, String lastAccount,
+                        LocalDateTime oldest, LocalDateTime newest, long maxId, long sizeBytes) {
+        this.path = path;
+        this.rowCount = rowCount;
+        this.firstAccount = firstAccount;
+        this.lastAccount = lastAccount;
+        this.oldest = oldest;
+        this.newest = newest;
+        this.maxId = maxId;
+        this.sizeBytes = sizeBytes;
+    }
+
+    /**
+     * Writes a file through a temporary file, forced to disk and moved into place
+     *
+     * @param path The file to create
+     * @param rows At least one row, sorted by account id
+     */
+    static ArchiveFile write(Path path, List<ArchivedTransaction> rows) throws IOException {
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("An archive file needs at least one row");
+        }
+        ColumnWriter[] columns = new ColumnWriter[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            columns[i] = new ColumnWriter();
+        }
+
+        Map<String, Integer> accounts = new LinkedHashMap<>();
+        Dictionary types = new Dictionary();
+        Dictionary related = new Dictionary();
+        String previousAccount = null;
+        long previousId = 0;
+        long previousMicros = 0;
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (ArchivedTransaction row : rows) {
+            if (previousAccount != null && previousAccount.compareTo(row.getAccountId()) > 0) {
+                throw new IllegalArgumentException("Archive rows must be sorted by account id");
+            }
+            previousAccount = row.getAccountId();
+            accounts.merge(row.getAccountId(), 1, Integer::sum);
+
+            long micros = toMicros(row.getTransactionDate());
+            writeVarLong(columns[IDS].out, zigzag(row.getId() - previousId));
+            writeVarLong(columns[DATES].out, zigzag(micros - previousMicros));
+            writeVarLong(columns[AMOUNTS].out, zigzag(row.getAmountMinor()));
+            writeVarLong(columns[TYPES].out, types.code(row.getTransactionType()));
+            writeVarLong(columns[RELATED].out, related.code(row.getRelatedAccountId()));
+            writeTransferId(columns[TRANSFERS].out, row.getTransferId());
+            previousId = row.getId();
+            previousMicros = micros;
+            oldest = Math.min(oldest, micros);
+            newest = Math.max(newest, micros);
+            maxId = Math.max(maxId, row.getId());
+        }
+        writeVarLong(columns[ACCOUNTS].out, accounts.size());
+        for (Map.Entry<String, Integer> account : accounts.entrySet()) {
+            columns[ACCOUNTS].out.writeUTF(account.getKey());
+            writeVarLong(columns[ACCOUNTS].out, account.getValue());
+        }
+        byte[][] encoded = new byte[COLUMNS][];
+        int[] rawLengths = new int[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            byte[] raw = i == TYPES ? types.prefix(columns[i].toByteArray())
+                    : i == RELATED ? related.prefix(columns[i].toByteArray())
+                    : columns[i].toByteArray();
+            rawLengths[i] = raw.length;
+            encoded[i] = deflate(raw);
+        }
+
+        String first = rows.get(0).getAccountId();
+        String last = rows.get(rows.size() - 1).getAccountId();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(rows.size());
+        out.writeUTF(first);
+        out.writeUTF(last);
+        out.writeLong(oldest);
+        out.writeLong(newest);
+        out.writeLong(maxId);
+        for (int length : rawLengths) {
+            out.writeInt(length);
+        }
+        for (byte[] column : encoded) {
+            out.writeInt(column.length);
+        }
+        for (byte[] column : encoded) {
+            out.write(column);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try (FileChannel channel = FileChannel.open(temp, CREATE_NEW, WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, ATOMIC_MOVE);
+        return new ArchiveFile(path, rows.size(), first, last, fromMicros(oldest), fromMicros(newest), maxId, bytes.size());
+    }
+
+    /**
+     * Opens a file, reading only its header
+     */
+    static ArchiveFile open(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 512))) {
+            checkMagic(in, path);
+            int rowCount = in.readInt();
+            String first = in.readUTF();
+            String last = in.readUTF();
+            LocalDateTime oldest = fromMicros(in.readLong());
+            LocalDateTime newest = fromMicros(in.readLong());
+            long maxId = in.readLong();
+            return new ArchiveFile(path, rowCount, first, last, oldest, newest, maxId, Files.size(path));
+        }
+    }
+
+    /**
+     * Reads the rows of one account, or of every account, within a date range. Only the columns
+     * the read needs are decompressed.
+     *
+     * @param accountId The account, or null for all
+     * @param from      Oldest date, inclusive, or null
+     * @param to        Newest date, exclusive, or null
+     * @param details   Whether to decode the type, related account and transfer id columns
+     * @return The rows, by account, newest first within an account
+     * @throws IOException If the file cannot be read or fails its checksum
+     */
+    List<ArchivedTransaction> read(String accountId, LocalDateTime from, LocalDateTime to, boolean details)
+            throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < Long.BYTES) {
+            throw new IOException("Truncated archive file " + path);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        if (ByteBuffer.wrap(bytes, bytes.length - Long.BYTES, Long.BYTES).getLong() != crc.getValue()) {
+            throw new IOException("Archive file " + path + " fails its checksum");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        checkMagic(in, path);
+        in.readInt();
+        in.readUTF();
+        in.readUTF();
+        in.skipBytes(3 * Long.BYTES);
+        int[] rawLengths = new int[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            rawLengths[i] = in.readInt();
+        }
+        int[] lengths = new int[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            lengths[i] = in.readInt();
+        }
+        // The columns sit right before the trailing checksum
+        int[] offsets = new int[COLUMNS + 1];
+        offsets[0] = bytes.length - Long.BYTES;
+        for (int length : lengths) {
+            offsets[0] -= length;
+        }
+        for (int i = 0; i < COLUMNS; i++) {
+            offsets[i + 1] = offsets[i] + lengths[i];
+        }
+
+        // Rows [start, end) of the account, or all rows; the delta columns are decoded from the first row
+        DataInputStream accountColumn = inflate(bytes, offsets[ACCOUNTS], lengths[ACCOUNTS], rawLengths[ACCOUNTS]);
+        int accountCount = (int) readVarLong(accountColumn);
+        String[] rowAccounts = new String[accountCount];
+        int[] rowCounts = new int[accountCount];
+        int start = 0;
+        int end = 0;
+        boolean found = accountId == null;
+        for (int i = 0; i < accountCount; i++) {
+            rowAccounts[i] = accountColumn.readUTF();
+            rowCounts[i] = (int) readVarLong(accountColumn);
+            if (!found) {
+                if (rowAccounts[i].equals(accountId)) {
+                    found = true;
+                    end = start + rowCounts[i];
+                } else {
+                    start += rowCounts[i];
+                }
+            } else if (accountId == null) {
+                end += rowCounts[i];
+            }
+        }
+        if (!found) {
+            return List.of();
+        }
+
+        DataInputStream ids = inflate(bytes, offsets[IDS], lengths[IDS], rawLengths[IDS]);
+        DataInputStream dates = inflate(bytes, offsets[DATES], lengths[DATES], rawLengths[DATES]);
+        DataInputStream amounts = inflate(bytes, offsets[AMOUNTS], lengths[AMOUNTS], rawLengths[AMOUNTS]);
+        DataInputStream types = null;
+        DataInputStream related = null;
+        DataInputStream transfers = null;
+        String[] typeNames = null;
+        String[] relatedIds = null;
+        if (details) {
+            types = inflate(bytes, offsets[TYPES], lengths[TYPES], rawLengths[TYPES]);
+            typeNames = readDictionary(types);
+            related = inflate(bytes, offsets[RELATED], lengths[RELATED], rawLengths[RELATED]);
+            relatedIds = readDictionary(related);
+            transfers = inflate(bytes, offsets[TRANSFERS], lengths[TRANSFERS], rawLengths[TRANSFERS]);
+        }
+        long fromMicros = from == null ? Long.MIN_VALUE : toMicros(from);
+        long toMicros = to == null ? Long.MAX_VALUE : toMicros(to);
+
+        List<ArchivedTransaction> rows = new ArrayList<>(end - start);
+        long id = 0;
+        long micros = 0;
+        int account = 0;
+        int accountEnd = rowCounts.length == 0 ? 0 : rowCounts[0];
+        for (int row = 0; row < end; row++) {
+            while (row >= accountEnd) {
+                accountEnd += rowCounts[++account];
+            }
+            id += unzigzag(readVarLong(ids));
+            micros += unzigzag(readVarLong(dates));
+            long amount = unzigzag(readVarLong(amounts));
+            String type = null;
+            String relatedId = null;
+            String transferId = null;
+            if (details) {
+                type = decode(typeNames, readVarLong(types));
+                relatedId = decode(relatedIds, readVarLong(related));
+                transferId = readTransferId(transfers);
+            }
+            if (row >= start && micros >= fromMicros && micros < toMicros) {
+                rows.add(new ArchivedTransaction(id, rowAccounts[account], amount, fromMicros(micros),
+                        type, relatedId, transferId));
+            }
+        }
+        return rows;
+    }
+
+    boolean covers(String accountId) {
+        return firstAccount.compareTo(accountId) <= 0 && lastAccount.compareTo(accountId) >= 0;
+    }
+
+    // Whether any row may fall in [from, to); null bounds are open
+    boolean overlaps(LocalDateTime from, LocalDateTime to) {
+        return (from == null || !newest.isBefore(from)) && (to == null || oldest.isBefore(to));
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    String getFirstAccount() {
+        return firstAccount;
+    }
+
+    long getMaxId() {
+        return maxId;
+    }
+
+    long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    private static void checkMagic(DataInput in, Path path) throws IOException {
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+            throw new IOException("Not a transaction archive file: " + path);
+        }
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static DataInputStream inflate(byte[] bytes, int offset, int length, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                n += inflater.inflate(raw, n, rawLength - n);
+            }
+            if (n != rawLength) {
+                throw new IOException("Truncated archive column");
+            }
+            return new DataInputStream(new ByteArrayInputStream(raw));
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive column", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static String[] readDictionary(DataInputStream in) throws IOException {
+        String[] entries = new String[(int) readVarLong(in)];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = in.readUTF();
+        }
+        return entries;
+    }
+
+    private static String decode(String[] dictionary, long code) {
+        return code == 0 ? null : dictionary[(int) code - 1];
+    }
+
+    // 0 for none, 1 and two longs for a UUID, 2 and UTF for anything else
+    private static void writeTransferId(DataOutput out, String transferId) throws IOException {
+        if (transferId == null) {
+            out.writeByte(0);
+            return;
+        }
+        try {
+            UUID uuid = UUID.fromString(transferId);
+            if (uuid.toString().equals(transferId)) {
+                out.writeByte(1);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // Not a UUID, stored as text
+        }
+        out.writeByte(2);
+        out.writeUTF(transferId);
+    }
+
+    private static String readTransferId(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case 0:
+                return null;
+            case 1:
+                return new UUID(in.readLong(), in.readLong()).toString();
+            default:
+                return in.readUTF();
+        }
+    }
+
+    static long toMicros(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + dateTime.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated archive column");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static final class ColumnWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    // String column values by code, 0 being null
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new LinkedHashMap<>();
+
+        int code(String value) {
+            if (value == null) {
+                return 0;
+            }
+            return codes.computeIfAbsent(value, v -> codes.size() + 1);
+        }
+
+        // The entries, followed by the codes
+        byte[] prefix(byte[] codeBytes) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(codeBytes.length + 16 * codes.size());
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeVarLong(out, codes.size());
+            for (String value : codes.keySet()) {
+                out.writeUTF(value);
+            }
+            out.write(codeBytes);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+}
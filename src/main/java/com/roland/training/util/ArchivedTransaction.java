@@ -0,0 +1,65 @@
+package com.roland.training.util;
+
+import com.roland.training.model.Money;
+
+import java.time.LocalDateTime;
+
+/**
+ * One transaction row as stored in the {@link TransactionArchive}. Reads that only need the
+ * history columns leave the type, related account and transfer id null.
+ */
+public final class ArchivedTransaction {
+    private final long id;
+    private final String accountId;
+    private final long amountMinor;
+    private final LocalDateTime transactionDate;
+    private final String transactionType;
+    private final String relatedAccountId;
+    private final String transferId;
+
+    public ArchivedTransaction(long id, String accountId, long amountMinor, LocalDateTime transactionDate,
+                               String transactionType, String relatedAccountId, String transferId) {
+        this.id = id;
+        this.accountId = accountId;
+        this.amountMinor = amountMinor;
+        this.transactionDate = transactionDate;
+        this.transactionType = transactionType;
+        this.relatedAccountId = relatedAccountId;
+        this.transferId = transferId;
+    }
+
+    // Used by the JPQL constructor expression that reads a month for archiving
+    public ArchivedTransaction(Long id, String accountId, Money amount, LocalDateTime transactionDate,
+                               String transactionType, String relatedAccountId, String transferId) {
+        this(id, accountId, amount.getMinorUnits(), transactionDate, transactionType, relatedAccountId, transferId);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    // Amount in cents
+    public long getAmountMinor() {
+        return amountMinor;
+    }
+
+    public LocalDateTime getTransactionDate() {
+        return transactionDate;
+    }
+
+    public String getTransactionType() {
+        return transactionType;
+    }
+
+    public String getRelatedAccountId() {
+        return relatedAccountId;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+}
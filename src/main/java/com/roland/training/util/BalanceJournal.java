@@ -0,0 +1,481 @@
+package com.roland.training.util;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Redo log of the balance changes held in memory by the account state cache.
+ *
+ * Each {@link #append} writes one checksummed entry with the changes of one operation, so both
+ * legs of a transfer are journaled together, and returns once the entry is as durable as
+ * {@code balance.journal.durability} asks for. With GROUP_FSYNC concurrent appenders share
+ * fsyncs: whoever syncs first forces everything written so far. Entries carry increasing
+ * sequence numbers. The journal is split into segments: {@link #roll()} seals the active one,
+ * and {@link #discard(long)} deletes sealed segments once their changes are in the database.
+ *
+ * A crash can leave a torn entry at the end of the last segment; {@link #recover()} stops
+ * reading at the first entry whose length or checksum does not match.
+ */
+@Component
+public class BalanceJournal {
+    private static final String SEGMENT_PREFIX = "balances-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int MAX_ENTRY_BYTES = 1 << 20;
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final Path directory;
+    private final JournalDurability durability;
+
+    // Lock order is syncLock before appendLock; the segment fields are guarded by appendLock
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final List<Segment> sealed = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private Segment active;
+    private long lastSequence;
+    private long appendedEntries;
+    private volatile long syncedEntries;
+    private IOException failure;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong discardedSegments = new AtomicLong();
+
+    public BalanceJournal(@Value("${balance.journal.dir:}") String directory,
+                          @Value("${balance.journal.durability:GROUP_FSYNC}") JournalDurability durability) throws IOException {
+        this.directory = directory.isBlank() ? FileReporter.logsDirectory().resolve("balances") : Paths.get(directory);
+        this.durability = durability;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Reads every entry left by the previous run. The segments read are kept, sealed, until
+     * they are discarded.
+     *
+     * @return The entries in sequence order
+     */
+    public List<Entry> recover() {
+        appendLock.lock();
+        try {
+            if (active != null) {
+                throw new IllegalStateException("Balance journal is already open");
+            }
+            List<Path> paths;
+            try (Stream<Path> files = Files.list(directory)) {
+                paths = files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                                && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            List<Entry> entries = new ArrayList<>();
+            for (Path path : paths) {
+                int before = entries.size();
+                read(path, entries);
+                long last = entries.size() > before ? entries.get(entries.size() - 1).sequence : 0;
+                sealed.add(new Segment(path, last));
+                lastSequence = Math.max(lastSequence, last);
+            }
+            logger.info("Balance journal recovered {} entries from {} segment(s) in {}",
+                    entries.size(), paths.size(), directory);
+            return entries;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover balance journal from " + directory, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Opens a new active segment; entries appended from now on are numbered after the given
+     * sequence and after every recovered entry
+     *
+     * @param afterSequence The highest sequence already used, e.g. as recorded in the database
+     */
+    public void open(long afterSequence) {
+        appendLock.lock();
+        try {
+            lastSequence = Math.max(lastSequence, afterSequence);
+            // Recovered segments without a readable entry, which may carry the name the new one gets
+            for (Iterator<Segment> it = sealed.iterator(); it.hasNext(); ) {
+                Segment segment = it.next();
+                if (segment.lastSequence == 0) {
+                    Files.deleteIfExists(segment.path);
+                    it.remove();
+                }
+            }
+            active = newSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open balance journal in " + directory, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the changes of one operation
+     *
+     * @param time    When the changes were made
+     * @param changes The balance changes, one per account
+     * @return The sequence number of the entry
+     * @throws UncheckedIOException If the entry could not be written or made durable
+     */
+    public long append(LocalDateTime time, List<Change> changes) {
+        long sequence;
+        long entries;
+        appendLock.lock();
+        try {
+            if (active == null) {
+                throw new IllegalStateException("Balance journal is not open");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Balance journal failed earlier", failure);
+            }
+            sequence = lastSequence + 1;
+            ByteBuffer entry = encode(sequence, time, changes);
+            long start = active.channel.position();
+            try {
+                while (entry.hasRemaining()) {
+                    bytesWritten.addAndGet(active.channel.write(entry));
+                }
+                if (durability == JournalDurability.SYNC) {
+                    force(active.channel);
+                }
+            } catch (IOException e) {
+                truncate(start, e);
+                throw new UncheckedIOException("Failed to append to balance journal", e);
+            }
+            lastSequence = sequence;
+            active.lastSequence = sequence;
+            entries = ++appendedEntries;
+            if (durability == JournalDurability.SYNC) {
+                syncedEntries = entries;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to balance journal", e);
+        } finally {
+            appendLock.unlock();
+        }
+        if (durability == JournalDurability.GROUP_FSYNC) {
+            sync(entries);
+        }
+        return sequence;
+    }
+
+    // A torn entry would hide every entry after it from recovery, so it is cut off, or the
+    // journal stops accepting entries
+    private void truncate(long position, IOException cause) {
+        try {
+            active.channel.truncate(position);
+            active.channel.position(position);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+            logger.error("Balance journal segment {} could not be repaired, rejecting further entries",
+                    active.path, cause);
+        }
+    }
+
+    private void sync(long entries) {
+        if (syncedEntries >= entries) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (syncedEntries >= entries) {
+                return;
+            }
+            FileChannel channel;
+            long written;
+            appendLock.lock();
+            try {
+                channel = active.channel;
+                written = appendedEntries;
+            } finally {
+                appendLock.unlock();
+            }
+            force(channel);
+            syncedEntries = written;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to sync balance journal", e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Seals the active segment and starts a new one, unless the active segment is empty
+     *
+     * @return The highest sequence appended so far; every entry up to it is in a sealed segment
+     */
+    public long roll() {
+        syncLock.lock();
+        appendLock.lock();
+        try {
+            if (active == null) {
+                throw new IllegalStateException("Balance journal is not open");
+            }
+            if (active.lastSequence > 0) {
+                close(active);
+                sealed.add(active);
+                active = newSegment();
+                syncedEntries = appendedEntries;
+            }
+            return lastSequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to roll balance journal segment", e);
+        } finally {
+            appendLock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the sealed segments that only hold entries up to a sequence
+     *
+     * @param throughSequence The highest sequence whose changes are in the database
+     */
+    public void discard(long throughSequence) {
+        appendLock.lock();
+        try {
+            for (Iterator<Segment> it = sealed.iterator(); it.hasNext(); ) {
+                Segment segment = it.next();
+                if (segment.lastSequence > throughSequence) {
+                    continue;
+                }
+                Files.deleteIfExists(segment.path);
+                it.remove();
+                discardedSegments.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // Kept and retried on the next discard; replaying it is harmless
+            logger.warn("Failed to delete balance journal segment", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, lastSequence + 1, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, 0);
+        segment.channel = FileChannel.open(path, CREATE_NEW, WRITE, APPEND);
+        return segment;
+    }
+
+    private void close(Segment segment) throws IOException {
+        if (durability != JournalDurability.ASYNC) {
+            force(segment.channel);
+        }
+        segment.channel.close();
+        segment.channel = null;
+    }
+
+    private void force(FileChannel channel) throws IOException {
+        channel.force(false);
+        fsyncs.incrementAndGet();
+    }
+
+    // [length][sequence][epoch millis][count]{[id length][id][delta][transactions]}*[crc32]
+    private ByteBuffer encode(long sequence, LocalDateTime time, List<Change> changes) {
+        int length = Long.BYTES + Long.BYTES + Short.BYTES + Integer.BYTES;
+        List<byte[]> ids = new ArrayList<>(changes.size());
+        for (Change change : changes) {
+            byte[] id = change.accountId.getBytes(StandardCharsets.UTF_8);
+            ids.add(id);
+            length += Short.BYTES + id.length + Long.BYTES + Integer.BYTES;
+        }
+        if (length > MAX_ENTRY_BYTES) {
+            throw new IllegalArgumentException("Balance journal entry too large: " + length + " bytes");
+        }
+        if (buffer.capacity() < Integer.BYTES + length) {
+            buffer = ByteBuffer.allocate(Integer.highestOneBit(Integer.BYTES + length) << 1);
+        }
+        buffer.clear();
+        buffer.putInt(length);
+        buffer.putLong(sequence);
+        buffer.putLong(time.toInstant(ZoneOffset.UTC).toEpochMilli());
+        buffer.putShort((short) changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            Change change = changes.get(i);
+            buffer.putShort((short) ids.get(i).length);
+            buffer.put(ids.get(i));
+            buffer.putLong(change.deltaMinor);
+            buffer.putInt(change.transactions);
+        }
+        crc.reset();
+        crc.update(buffer.array(), Integer.BYTES, length - Integer.BYTES);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private void read(Path path, List<Entry> entries) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 checksum = new CRC32();
+        while (data.remaining() >= Integer.BYTES) {
+            int start = data.position();
+            int length = data.getInt();
+            if (length <= 0 || length > MAX_ENTRY_BYTES || data.remaining() < length) {
+                data.position(start);
+                break;
+            }
+            checksum.reset();
+            checksum.update(data.array(), start + Integer.BYTES, length - Integer.BYTES);
+            ByteBuffer body = data.slice(start + Integer.BYTES, length);
+            data.position(start + Integer.BYTES + length);
+            if (body.getInt(length - Integer.BYTES) != (int) checksum.getValue()) {
+                data.position(start);
+                break;
+            }
+            entries.add(decode(body));
+        }
+        if (data.hasRemaining()) {
+            logger.warn("Ignoring {} bytes of torn or corrupt entries at the end of {}", data.remaining(), path);
+        }
+    }
+
+    private static Entry decode(ByteBuffer body) {
+        long sequence = body.getLong();
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(body.getLong()), ZoneOffset.UTC);
+        int count = body.getShort();
+        List<Change> changes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] id = new byte[body.getShort()];
+            body.get(id);
+            changes.add(new Change(new String(id, StandardCharsets.UTF_8), body.getLong(), body.getInt()));
+        }
+        return new Entry(sequence, time, changes);
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        appendLock.lock();
+        try {
+            metrics.put("durability", durability.name());
+            metrics.put("lastSequence", lastSequence);
+            metrics.put("appendedEntries", appendedEntries);
+            metrics.put("sealedSegments", sealed.size());
+            metrics.put("failed", failure != null);
+        } finally {
+            appendLock.unlock();
+        }
+        metrics.put("bytesWritten", bytesWritten.get());
+        metrics.put("fsyncs", fsyncs.get());
+        metrics.put("discardedSegments", discardedSegments.get());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        syncLock.lock();
+        appendLock.lock();
+        try {
+            if (active != null) {
+                force(active.channel);
+                active.channel.close();
+                active = null;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to close balance journal", e);
+        } finally {
+            appendLock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private long lastSequence;
+        private FileChannel channel;
+
+        private Segment(Path path, long lastSequence) {
+            this.path = path;
+            this.lastSequence = lastSequence;
+        }
+    }
+
+    /**
+     * The change of one account's balance and monthly transaction count
+     */
+    public static final class Change {
+        private final String accountId;
+        private final long deltaMinor;
+        private final int transactions;
+
+        public Change(String accountId, long deltaMinor, int transactions) {
+            this.accountId = accountId;
+            this.deltaMinor = deltaMinor;
+            this.transactions = transactions;
+        }
+
+        public String getAccountId() {
+            return accountId;
+        }
+
+        public long getDeltaMinor() {
+            return deltaMinor;
+        }
+
+        public int getTransactions() {
+            return transactions;
+        }
+    }
+
+    /**
+     * One journaled operation
+     */
+    public static final class Entry {
+        private final long sequence;
+        private final LocalDateTime time;
+        private final List<Change> changes;
+
+        private Entry(long sequence, LocalDateTime time, List<Change> changes) {
+            this.sequence = sequence;
+            this.time = time;
+            this.changes = Collections.unmodifiableList(changes);
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public LocalDateTime getTime() {
+            return time;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.roland.training.util;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
@@ -36,8 +40,24 @@ public class FileReporter {
      * @throws IOException If there's an error writing to the file
      */
     public static void logActivity(String activity) throws IOException {
-        String filename = LOGS_DIR + File.separator + "transactions-" + LocalDate.now().format(DATE_FORMATTER) + ".txt";
-        writeToFile(filename, activity, true);
+        writeToFile(activityLogPath(LocalDate.now()).toString(), activity, true);
+    }
+
+    /**
+     * Resolves the transaction activity day-file for a given date
+     *
+     * @param day The day of the activity
+     * @return The path of the day-file
+     */
+    public static Path activityLogPath(LocalDate day) {
+        return logsDirectory().resolve("transactions-" + day.format(DATE_FORMATTER) + ".txt");
+    }
+
+    /**
+     * @return The directory holding the activity logs
+     */
+    public static Path logsDirectory() {
+        return Paths.get(LOGS_DIR);
     }
 
 //    private static void writeToFile(String filename, String content, boolean append) throws IOException {
@@ -55,14 +75,17 @@ public class FileReporter {
      *
      * Why This Works?
      * FileWriter doesn't let you specify encoding, so it might default to system encoding (e.g., Windows-1252).
-     * OutputStreamWriter(new FileOutputStream(...), StandardCharsets.UTF_8) ensures the file is written in UTF-8, supporting → and other Unicode characters.
+     * Encoding the content as UTF-8 explicitly ensures the file is written in UTF-8, supporting → and other Unicode characters.
+     *
+     * The line is encoded up front and written with a single Files.write call instead of through a
+     * BufferedWriter, whose monitors pin the carrier thread when called from a virtual thread.
      * */
     private static void writeToFile(String filename, String content, boolean append) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(filename, append), StandardCharsets.UTF_8))) {
-            writer.write(content);
-            writer.newLine();
-            writer.flush();
+        byte[] line = (content + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        if (append) {
+            Files.write(Paths.get(filename), line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } else {
+            Files.write(Paths.get(filename), line, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
         }
     }
 
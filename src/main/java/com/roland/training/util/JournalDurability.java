@@ -0,0 +1,24 @@
+package com.roland.training.util;
+
+/**
+ * Durability modes supported by {@link TransactionJournal}.
+ */
+public enum JournalDurability {
+    /**
+     * Producers return as soon as the entry is enqueued. The writer hands entries to the
+     * OS in group writes but never forces them to disk.
+     */
+    ASYNC,
+
+    /**
+     * Producers wait until the group containing their entry has been written and forced
+     * with a single fsync. One fsync is shared by every entry in the group.
+     */
+    GROUP_FSYNC,
+
+    /**
+     * Producers wait until their own entry has been written and forced. Every entry costs
+     * one fsync.
+     */
+    SYNC
+}
@@ -0,0 +1,179 @@
+package com.roland.training.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread accounting of the JDBC statements, rows and statement time of a unit of work.
+ *
+ * Units of work are {@link Scope}s opened with {@link #begin(String)}; scopes nest, and a statement
+ * counts towards every open scope of the thread. Statements outside any scope, e.g. from
+ * scheduled jobs, are not counted. Work handed to another thread stays in the scope when the
+ * task is wrapped with {@link #wrap(Runnable)}.
+ */
+public final class QueryCounter {
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private QueryCounter() {
+    }
+
+    /**
+     * Opens a scope on the current thread, nested in the scope already open
+     *
+     * @param name The unit of work, e.g. a service method
+     * @return The scope, to close when the work is done
+     */
+    public static Scope begin(String name) {
+        Scope scope = new Scope(name, CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return The innermost open scope of the current thread, or null
+     */
+    public static Scope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Counts one executed statement, or one JDBC batch, towards the open scopes
+     *
+     * @param sql   The statement
+     * @param rows  Rows changed by the statement
+     * @param nanos Execution time
+     */
+    public static void record(String sql, long rows, long nanos) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            return;
+        }
+        scope.root.countSql(sql);
+        for (; scope != null; scope = scope.parent) {
+            scope.statements.incrementAndGet();
+            scope.rows.addAndGet(rows);
+            scope.nanos.addAndGet(nanos);
+        }
+    }
+
+    /**
+     * Counts one row read from a result set towards the open scopes
+     */
+    public static void recordRowRead() {
+        for (Scope scope = CURRENT.get(); scope != null; scope = scope.parent) {
+            scope.rows.incrementAndGet();
+        }
+    }
+
+    /**
+     * Makes a task count towards the scope open on the calling thread, wherever it runs
+     *
+     * @param task The task
+     * @return The wrapped task, or the task itself if no scope is open
+     */
+    public static Runnable wrap(Runnable task) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            return task;
+        }
+        return () -> {
+            Scope previous = CURRENT.get();
+            CURRENT.set(scope);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(Scope scope) {
+        if (scope == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(scope);
+        }
+    }
+
+    /**
+     * Statements, rows and time of one unit of work. The counters may be updated from several
+     * threads through {@link #wrap(Runnable)}.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final String name;
+        private final Scope parent;
+        private final Scope root;
+        private final AtomicInteger statements = new AtomicInteger();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        // Executions per SQL string, kept by the outermost scope only
+        private final Map<String, Integer> sqlCounts;
+
+        private Scope(String name, Scope parent) {
+            this.name = name;
+            this.parent = parent;
+            this.root = parent == null ? this : parent.root;
+            this.sqlCounts = parent == null ? new HashMap<>() : null;
+        }
+
+        private void countSql(String sql) {
+            synchronized (sqlCounts) {
+                sqlCounts.merge(sql, 1, Integer::sum);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isRoot() {
+            return parent == null;
+        }
+
+        public int getStatements() {
+            return statements.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getElapsedNanos() {
+            return nanos.get();
+        }
+
+        /**
+         * Finds statements executed over and over in this unit of work, the signature of an N+1
+         * query pattern. Only the outermost scope keeps the SQL, so nested scopes report none.
+         *
+         * @param threshold Executions from which a statement is reported
+         * @return Executions per repeated statement, most frequent first
+         */
+        public Map<String, Integer> getRepeatedStatements(int threshold) {
+            Map<String, Integer> repeated = new LinkedHashMap<>();
+            if (sqlCounts == null) {
+                return repeated;
+            }
+            synchronized (sqlCounts) {
+                sqlCounts.entrySet().stream()
+                        .filter(entry -> entry.getValue() >= threshold)
+                        .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                        .forEachOrdered(entry -> repeated.put(entry.getKey(), entry.getValue()));
+            }
+            return repeated;
+        }
+
+        /**
+         * Closes the scope, making its parent the current scope again
+         */
+        @Override
+        public void close() {
+            if (CURRENT.get() == this) {
+                restore(parent);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.roland.training.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Skip list with per-link widths, so ordered lookups and rank queries both run in expected
+ * O(log n): every link records how many elements it skips, and summing the widths along a
+ * search path gives the rank of the element reached.
+ *
+ * Keys are unique under the comparator. Not thread-safe.
+ */
+public final class RankedSkipList<K> {
+    private static final int MAX_LEVEL = 32;
+
+    private final Comparator<? super K> comparator;
+    private final Node<K> head = new Node<>(null, MAX_LEVEL);
+    private int level = 1;
+    private int size;
+
+    public RankedSkipList(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+    }
+
+    /**
+     * Inserts a key
+     *
+     * @param key The key to insert
+     * @return False if an equal key is already present
+     */
+    @SuppressWarnings("unchecked")
+    public boolean add(K key) {
+        Node<K>[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node<K> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && comparator.compare(x.next[i].key, key) < 0) {
+                rank[i] += x.width[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        if (x.next[0] != null && comparator.compare(x.next[0].key, key) == 0) {
+            return false;
+        }
+
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.width[i] = size;
+            }
+            level = nodeLevel;
+        }
+
+        Node<K> node = new Node<>(key, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.width[i] = update[i].width[i] - (rank[0] - rank[i]);
+            update[i].width[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].width[i]++;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key The key to remove
+     * @return False if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public boolean remove(K key) {
+        Node<K>[] update = new Node[MAX_LEVEL];
+        Node<K> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && comparator.compare(x.next[i].key, key) < 0) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        Node<K> target = x.next[0];
+        if (target == null || comparator.compare(target.key, key) != 0) {
+            return false;
+        }
+
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == target) {
+                update[i].width[i] += target.width[i] - 1;
+                update[i].next[i] = target.next[i];
+            } else {
+                update[i].width[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * @param key The probe, which does not need to be present
+     * @return Number of keys strictly less than the probe
+     */
+    public int countLessThan(K key) {
+        int rank = 0;
+        Node<K> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && comparator.compare(x.next[i].key, key) < 0) {
+                rank += x.width[i];
+                x = x.next[i];
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @param index Zero-based position in ascending order
+     * @return The key at that position
+     * @throws IndexOutOfBoundsException if there is no such position
+     */
+    public K get(int index) {
+        Node<K> node = nodeAt(index);
+        return node.key;
+    }
+
+    /**
+     * Returns up to count keys in ascending order, starting at a position
+     *
+     * @param fromIndex Zero-based position of the first key
+     * @param count     Maximum number of keys to return
+     * @return The keys
+     */
+    public List<K> range(int fromIndex, int count) {
+        List<K> keys = new ArrayList<>(Math.max(0, Math.min(count, size - fromIndex)));
+        if (fromIndex >= size || count <= 0) {
+            return keys;
+        }
+        for (Node<K> x = nodeAt(Math.max(0, fromIndex)); x != null && keys.size() < count; x = x.next[0]) {
+            keys.add(x.key);
+        }
+        return keys;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.next[i] = null;
+            head.width[i] = 0;
+        }
+        level = 1;
+        size = 0;
+    }
+
+    private Node<K> nodeAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        int target = index + 1;
+        int traversed = 0;
+        Node<K> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.width[i] <= target) {
+                traversed += x.width[i];
+                x = x.next[i];
+            }
+            if (traversed == target) {
+                return x;
+            }
+        }
+        throw new IllegalStateException("Skip list widths are inconsistent");
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        // p = 1/4, as in Pugh's paper
+        while (level < MAX_LEVEL && (ThreadLocalRandom.current().nextInt() & 3) == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    private static final class Node<K> {
+        private final K key;
+        private final Node<K>[] next;
+        private final int[] width;
+
+        @SuppressWarnings("unchecked")
+        Node(K key, int level) {
+            this.key = key;
+            this.next = new Node[level];
+            this.width = new int[level];
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.roland.training.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitters summary with a fixed number of counters.
+ *
+ * Counters are kept in an indexed min-heap, so an update costs O(log m). When a new key arrives
+ * and all m counters are taken, the smallest counter is reassigned to the new key and its old
+ * count becomes the new key's error. Guarantees, with N the total weight offered:
+ * <ul>
+ *     <li>every reported count over-estimates the true count by at most its error, and every
+ *     error is at most N / m;</li>
+ *     <li>a key missing from the summary occurred at most {@link #minCount()} times;</li>
+ *     <li>while there are no more distinct keys than counters, all counts are exact.</li>
+ * </ul>
+ * Not thread-safe.
+ */
+public final class SpaceSaving {
+    private final int capacity;
+    private final Map<String, Integer> positions;
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.positions = new HashMap<>(capacity * 2);
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+    }
+
+    /**
+     * Adds weight to a key
+     *
+     * @param key    The key, e.g. an account id
+     * @param weight The weight to add, usually 1
+     */
+    public void offer(String key, long weight) {
+        total += weight;
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position] += weight;
+            siftDown(position);
+        } else if (size < capacity) {
+            keys[size] = key;
+            counts[size] = weight;
+            errors[size] = 0;
+            positions.put(key, size);
+            siftUp(size++);
+        } else {
+            // Replace the smallest counter; its count is the new key's possible over-estimate
+            long minimum = counts[0];
+            positions.remove(keys[0]);
+            keys[0] = key;
+            counts[0] = minimum + weight;
+            errors[0] = minimum;
+            positions.put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return Upper bound on the count of any key that is not in the summary
+     */
+    public long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(CounterVisitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(keys[i], counts[i], errors[i]);
+        }
+    }
+
+    public void clear() {
+        positions.clear();
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+        }
+        size = 0;
+        total = 0;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (counts[parent] <= counts[index]) {
+                return;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                return;
+            }
+            int right = left + 1;
+            int smallest = right < size && counts[right] < counts[left] ? right : left;
+            if (counts[index] <= counts[smallest]) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        long error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+
+    @FunctionalInterface
+    public interface CounterVisitor {
+        void visit(String key, long count, long error);
+    }
+}
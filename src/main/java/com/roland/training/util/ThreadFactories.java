@@ -0,0 +1,58 @@
+package com.roland.training.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the service executors.
+ *
+ * The project compiles for Java 17, so virtual threads are created reflectively and are only
+ * available when the application runs on Java 21 or newer. Elsewhere the factories fall back to
+ * platform threads.
+ */
+public final class ThreadFactories {
+    private static final int VIRTUAL_THREADS_FEATURE = 21;
+
+    private ThreadFactories() {
+    }
+
+    /**
+     * @return Whether the running JVM supports virtual threads
+     */
+    public static boolean virtualThreadsSupported() {
+        return Runtime.version().feature() >= VIRTUAL_THREADS_FEATURE;
+    }
+
+    /**
+     * Creates a factory of named threads
+     *
+     * @param prefix  Thread name prefix, followed by a sequence number
+     * @param virtual Whether to create virtual threads, if the JVM supports them
+     * @return The factory; platform threads are daemons
+     */
+    public static ThreadFactory create(String prefix, boolean virtual) {
+        if (virtual && virtualThreadsSupported()) {
+            return virtual(prefix);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Thread.ofVirtual().name(prefix, 1).factory()
+    private static ThreadFactory virtual(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not available on this JVM", e);
+        }
+    }
+}
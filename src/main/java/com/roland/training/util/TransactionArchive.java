@@ -0,0 +1,376 @@
+package com.roland.training.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Cold tier of the transaction history: one directory per month, holding compressed columnar
+ * {@link ArchiveFile}s that each cover a contiguous range of accounts, and a manifest.
+ *
+ * A month is written with {@link #write}, which cuts a new file every
+ * {@code archive.file.max-rows} rows at an account boundary. The manifest is written last and
+ * is the commit point: on startup a month directory without one is an interrupted attempt and
+ * is deleted. A committed month stays invisible to readers until {@link #publish}, which the
+ * caller does once the archived rows are gone from the database, so a read never sees a row in
+ * both tiers.
+ *
+ * Reads name a month, and optionally an account and a date range; files whose account range or
+ * dates cannot match are skipped without being opened.
+ */
+@Component
+public class TransactionArchive {
+    private static final String MANIFEST = "manifest";
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final Path directory;
+    private final int maxFileRows;
+    private final ConcurrentSkipListMap<YearMonth, Month> months = new ConcurrentSkipListMap<>();
+
+    private final LongAdder filesRead = new LongAdder();
+    private final LongAdder filesPruned = new LongAdder();
+    private final LongAdder rowsRead = new LongAdder();
+
+    public TransactionArchive(@Value("${archive.dir:}") String directory,
+                              @Value("${archive.file.max-rows:100000}") int maxFileRows) throws IOException {
+        this.directory = directory.isBlank() ? FileReporter.logsDirectory().resolve("archive") : Paths.get(directory);
+        this.maxFileRows = Math.max(1, maxFileRows);
+        Files.createDirectories(this.directory);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<Path> monthDirectories;
+        try (Stream<Path> files = Files.list(directory)) {
+            monthDirectories = files.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+        }
+        for (Path monthDirectory : monthDirectories) {
+            YearMonth month;
+            try {
+                month = YearMonth.parse(monthDirectory.getFileName().toString());
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            Path manifest = monthDirectory.resolve(MANIFEST);
+            if (!Files.exists(manifest)) {
+                logger.warn("Deleting interrupted archive of {}", month);
+                deleteDirectory(monthDirectory);
+                continue;
+            }
+            months.put(month, Month.load(month, monthDirectory, manifest));
+        }
+        logger.info("Transaction archive recovered {} month(s) from {}", months.size(), directory);
+    }
+
+    /**
+     * Starts archiving a month that is not archived yet, replacing what an earlier failed attempt left
+     *
+     * @param month The month
+     * @return The writer; rows must be added sorted by account id
+     */
+    public MonthWriter write(YearMonth month) throws IOException {
+        if (months.containsKey(month)) {
+            throw new IllegalStateException("Month " + month + " is already archived");
+        }
+        Path monthDirectory = directory.resolve(month.toString());
+        deleteDirectory(monthDirectory);
+        Files.createDirectories(monthDirectory);
+        return new MonthWriter(month, monthDirectory);
+    }
+
+    /**
+     * Makes a committed month visible to readers
+     */
+    public void publish(YearMonth month) {
+        Month archived = months.get(month);
+        if (archived == null) {
+            throw new IllegalStateException("Month " + month + " is not archived");
+        }
+        archived.published = true;
+    }
+
+    /**
+     * @return Committed months not yet published, oldest first
+     */
+    public List<Month> unpublished() {
+        return months.values().stream().filter(month -> !month.published).collect(Collectors.toList());
+    }
+
+    /**
+     * @return Whether the month has been committed, published or not
+     */
+    public boolean isArchived(YearMonth month) {
+        return months.containsKey(month);
+    }
+
+    /**
+     * @return The published months, oldest first
+     */
+    public NavigableSet<YearMonth> months() {
+        NavigableSet<YearMonth> published = new TreeSet<>();
+        months.forEach((month, archived) -> {
+            if (archived.published) {
+                published.add(month);
+            }
+        });
+        return published;
+    }
+
+    /**
+     * Reads the history columns of a published month
+     *
+     * @param month     The month
+     * @param accountId The account, or null for every account
+     * @param from      Oldest date, inclusive, or null
+     * @param to        Newest date, exclusive, or null
+     * @return The rows by account, newest first within an account; empty if the month is not published
+     * @throws UncheckedIOException If a file cannot be read
+     */
+    public List<ArchivedTransaction> read(YearMonth month, String accountId, LocalDateTime from, LocalDateTime to) {
+        return read(month, accountId, from, to, false);
+    }
+
+    /**
+     * Reads every column of a published month, see {@link #read(YearMonth, String, LocalDateTime, LocalDateTime)}
+     */
+    public List<ArchivedTransaction> readDetails(YearMonth month, String accountId, LocalDateTime from, LocalDateTime to) {
+        return read(month, accountId, from, to, true);
+    }
+
+    private List<ArchivedTransaction> read(YearMonth month, String accountId, LocalDateTime from, LocalDateTime to,
+                                           boolean details) {
+        Month archived = months.get(month);
+        if (archived == null || !archived.published) {
+            return List.of();
+        }
+        List<ArchivedTransaction> rows = new ArrayList<>();
+        for (ArchiveFile file : archived.files) {
+            if ((accountId != null && !file.covers(accountId)) || !file.overlaps(from, to)) {
+                filesPruned.increment();
+                continue;
+            }
+            try {
+                List<ArchivedTransaction> fileRows = file.read(accountId, from, to, details);
+                rows.addAll(fileRows);
+                rowsRead.add(fileRows.size());
+                filesRead.increment();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Deletes every archived month
+     *
+     * @return Number of rows deleted
+     */
+    public long dropAll() throws IOException {
+        long rows = 0;
+        for (Month month : new ArrayList<>(months.values())) {
+            months.remove(month.month);
+            rows += month.rows;
+            deleteDirectory(directory.resolve(month.month.toString()));
+        }
+        return rows;
+    }
+
+    private static void deleteDirectory(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long files = 0;
+        long rows = 0;
+        long bytes = 0;
+        for (Month month : months.values()) {
+            files += month.files.size();
+            rows += month.rows;
+            for (ArchiveFile file : month.files) {
+                bytes += file.getSizeBytes();
+            }
+        }
+        metrics.put("months", months.size());
+        metrics.put("files", files);
+        metrics.put("rows", rows);
+        metrics.put("bytes", bytes);
+        metrics.put("filesRead", filesRead.sum());
+        metrics.put("filesPruned", filesPruned.sum());
+        metrics.put("rowsRead", rowsRead.sum());
+        return metrics;
+    }
+
+    /**
+     * An archived month: its files by account range, its row count and the highest transaction
+     * id archived, which bounds the rows the caller drops from the database
+     */
+    public static final class Month {
+        private final YearMonth month;
+        private final List<ArchiveFile> files;
+        private final long rows;
+        private final long maxId;
+        private volatile boolean published;
+
+        private Month(YearMonth month, List<ArchiveFile> files, long rows, long maxId) {
+            this.month = month;
+            this.files = files;
+            this.rows = rows;
+            this.maxId = maxId;
+        }
+
+        // Manifest: "rows=<n>", "maxId=<id>", then one file name per line
+        private static Month load(YearMonth month, Path monthDirectory, Path manifest) throws IOException {
+            List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            long rows = Long.parseLong(lines.get(0).substring("rows=".length()));
+            long maxId = Long.parseLong(lines.get(1).substring("maxId=".length()));
+            List<ArchiveFile> files = new ArrayList<>();
+            for (String name : lines.subList(2, lines.size())) {
+                if (!name.isBlank()) {
+                    files.add(ArchiveFile.open(monthDirectory.resolve(name)));
+                }
+            }
+            return new Month(month, files, rows, maxId);
+        }
+
+        public YearMonth getMonth() {
+            return month;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMaxId() {
+            return maxId;
+        }
+
+        public boolean isPublished() {
+            return published;
+        }
+    }
+
+    /**
+     * Writes the files of one month; {@link #commit} writes the manifest, and closing an
+     * uncommitted writer deletes what it wrote
+     */
+    public final class MonthWriter implements Closeable {
+        private final YearMonth month;
+        private final Path monthDirectory;
+        private final List<ArchiveFile> files = new ArrayList<>();
+        private final List<ArchivedTransaction> pending = new ArrayList<>();
+        private long rows;
+        private long maxId;
+        private boolean committed;
+
+        private MonthWriter(YearMonth month, Path monthDirectory) {
+            this.month = month;
+            this.monthDirectory = monthDirectory;
+        }
+
+        public void add(ArchivedTransaction row) throws IOException {
+            if (pending.size() >= maxFileRows
+                    && !pending.get(pending.size() - 1).getAccountId().equals(row.getAccountId())) {
+                flush();
+            }
+            pending.add(row);
+        }
+
+        public boolean isEmpty() {
+            return files.isEmpty() && pending.isEmpty();
+        }
+
+        private void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Path path = monthDirectory.resolve(String.format("transactions-%s-%04d%s", month, files.size(), ArchiveFile.SUFFIX));
+            ArchiveFile file = ArchiveFile.write(path, pending);
+            files.add(file);
+            rows += file.getRowCount();
+            maxId = Math.max(maxId, file.getMaxId());
+            pending.clear();
+        }
+
+        /**
+         * Writes the last file and the manifest; the month is archived but not yet published
+         *
+         * @return The archived month
+         */
+        public Month commit() throws IOException {
+            flush();
+            StringBuilder manifest = new StringBuilder();
+            manifest.append("rows=").append(rows).append('\n');
+            manifest.append("maxId=").append(maxId).append('\n');
+            for (ArchiveFile file : files) {
+                manifest.append(file.getPath().getFileName()).append('\n');
+            }
+            Path temp = monthDirectory.resolve(MANIFEST + ".tmp");
+            Files.writeString(temp, manifest, StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, monthDirectory.resolve(MANIFEST), ATOMIC_MOVE);
+
+            Month archived = new Month(month, List.copyOf(files), rows, maxId);
+            months.put(month, archived);
+            committed = true;
+            logger.info("Archived {} transactions of {} into {} file(s)", rows, month, files.size());
+            return archived;
+        }
+
+        /**
+         * Deletes a committed month again, e.g. when dropping its rows from the database failed
+         */
+        public void abort() throws IOException {
+            if (committed) {
+                months.remove(month);
+                committed = false;
+            }
+            deleteDirectory(monthDirectory);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                deleteDirectory(monthDirectory);
+            }
+        }
+    }
+}
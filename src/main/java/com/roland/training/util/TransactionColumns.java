@@ -0,0 +1,645 @@
+package com.roland.training.util;
+
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * In-memory column store of the transaction history for filter/group/sum queries.
+ *
+ * Rows are kept in chunks of {@link #CHUNK_ROWS} primitive columns: the date as epoch
+ * microseconds of the local date-time, the amount in cents, the account as an ordinal and the
+ * transaction type as a dictionary code. The type of each account sits in a side array indexed
+ * by ordinal. Every chunk records the oldest and newest date it holds, so date-range queries
+ * skip chunks that cannot match and skip the date filter on chunks that lie wholly inside.
+ *
+ * A query runs column at a time over each chunk: the filters narrow a selection vector, the
+ * group-by dimensions fold into one key per selected row, and the amounts are summed by key.
+ * Chunks are processed in parallel on a fork/join pool and the partial results merged.
+ *
+ * There is a single writer at a time. Appends fill the arrays before publishing the new row
+ * count, so a query sees a consistent prefix of the rows without locking.
+ */
+public final class TransactionColumns {
+    public static final int CHUNK_ROWS = 1 << 16;
+
+    private static final long MICROS_PER_HOUR = 3_600_000_000L;
+    private static final long MICROS_PER_DAY = 24 * MICROS_PER_HOUR;
+    // Above this many groups the partial results are hash maps instead of arrays indexed by key
+    private static final int DENSE_GROUPS = 1 << 16;
+    // Code 0 of both dictionaries stands for a missing type
+    private static final String NONE = null;
+
+    /**
+     * What a query can group by
+     */
+    public enum Dimension {
+        ACCOUNT,
+        ACCOUNT_TYPE,
+        TRANSACTION_TYPE,
+        MONTH,
+        DAY,
+        DAY_OF_WEEK,
+        HOUR_OF_DAY
+    }
+
+    private final Function<String, String> accountTypes;
+    private final ForkJoinPool pool;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int rows;
+    private volatile long oldestMicros = Long.MAX_VALUE;
+    private volatile long newestMicros = Long.MIN_VALUE;
+    // Bumped by clear(), so a query can tell that it read arrays of two different generations
+    private volatile int generation;
+
+    // Account and type dictionaries; the arrays are replaced when they grow
+    private final Map<String, Integer> accountOrdinals = new ConcurrentHashMap<>();
+    private volatile String[] accountIds = new String[1024];
+    private volatile byte[] accountTypeCodes = new byte[1024];
+    private volatile int accountCount;
+    private final Dictionary accountTypeNames = new Dictionary();
+    private final Dictionary transactionTypeNames = new Dictionary();
+
+    /**
+     * @param accountTypes Resolves the type of an account the first time it is seen; may return null
+     * @param pool         Pool the chunks of a query are processed on
+     */
+    public TransactionColumns(Function<String, String> accountTypes, ForkJoinPool pool) {
+        this.accountTypes = accountTypes;
+        this.pool = pool;
+    }
+
+    /**
+     * Appends one transaction
+     *
+     * @param accountId       The account
+     * @param amountMinor     Signed amount in cents
+     * @param transactionDate The date
+     * @param transactionType The type, or null
+     */
+    public synchronized void append(String accountId, long amountMinor, LocalDateTime transactionDate,
+                                    String transactionType) {
+        int row = rows;
+        int chunkIndex = row / CHUNK_ROWS;
+        Chunk[] current = chunks;
+        if (chunkIndex == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[chunkIndex] = new Chunk();
+            chunks = current;
+        }
+        Chunk chunk = current[chunkIndex];
+        int offset = row - chunkIndex * CHUNK_ROWS;
+        long micros = toMicros(transactionDate);
+        chunk.micros[offset] = micros;
+        chunk.amounts[offset] = amountMinor;
+        chunk.accounts[offset] = ordinalOf(accountId);
+        chunk.types[offset] = transactionTypeNames.codeOf(transactionType);
+        chunk.oldestMicros = Math.min(chunk.oldestMicros, micros);
+        chunk.newestMicros = Math.max(chunk.newestMicros, micros);
+        if (micros < oldestMicros) {
+            oldestMicros = micros;
+        }
+        if (micros > newestMicros) {
+            newestMicros = micros;
+        }
+        // Publishes the row and everything written above
+        rows = row + 1;
+    }
+
+    private int ordinalOf(String accountId) {
+        Integer ordinal = accountOrdinals.get(accountId);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        int next = accountCount;
+        if (next == accountIds.length) {
+            accountIds = Arrays.copyOf(accountIds, next * 2);
+            accountTypeCodes = Arrays.copyOf(accountTypeCodes, next * 2);
+        }
+        accountIds[next] = accountId;
+        accountTypeCodes[next] = accountTypeNames.codeOf(accountTypes.apply(accountId));
+        accountOrdinals.put(accountId, next);
+        accountCount = next + 1;
+        return next;
+    }
+
+    /**
+     * Drops every row and dictionary entry
+     */
+    public synchronized void clear() {
+        generation++;
+        rows = 0;
+        chunks = new Chunk[0];
+        oldestMicros = Long.MAX_VALUE;
+        newestMicros = Long.MIN_VALUE;
+        accountOrdinals.clear();
+        accountIds = new String[1024];
+        accountTypeCodes = new byte[1024];
+        accountCount = 0;
+        accountTypeNames.clear();
+        transactionTypeNames.clear();
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int accountCount() {
+        return accountCount;
+    }
+
+    // Bytes held by the columns, not counting the dictionaries
+    public long sizeBytes() {
+        return (long) chunks.length * CHUNK_ROWS * (Long.BYTES + Long.BYTES + Integer.BYTES + Byte.BYTES);
+    }
+
+    /**
+     * Runs a query over the rows appended so far
+     *
+     * @return One group per distinct key that has rows, in key order
+     */
+    public List<Group> query(Query query) {
+        Plan plan;
+        int before;
+        do {
+            before = generation;
+            // The row count is read first, so everything read after it covers at least that many rows
+            int total = rows;
+            if (total == 0) {
+                return List.of();
+            }
+            plan = new Plan(query, total);
+        } while (before != generation);
+        if (plan.empty) {
+            return List.of();
+        }
+        int chunkCount = (plan.rows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        Partial result = chunkCount == 1 ? plan.scan(0) : pool.invoke(new ScanTask(plan, 0, chunkCount));
+        return plan.decode(result);
+    }
+
+    // Epoch microseconds of the local date-time, so days and hours fall on multiples of the units
+    static long toMicros(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + dateTime.getNano() / 1_000;
+    }
+
+    private static final class Chunk {
+        private final long[] micros = new long[CHUNK_ROWS];
+        private final long[] amounts = new long[CHUNK_ROWS];
+        private final int[] accounts = new int[CHUNK_ROWS];
+        private final byte[] types = new byte[CHUNK_ROWS];
+        private volatile long oldestMicros = Long.MAX_VALUE;
+        private volatile long newestMicros = Long.MIN_VALUE;
+    }
+
+    // String dictionary with byte codes; code 0 is null
+    private static final class Dictionary {
+        private final Map<String, Byte> codes = new HashMap<>();
+        private volatile String[] names = {NONE};
+
+        byte codeOf(String name) {
+            if (name == null) {
+                return 0;
+            }
+            Byte code = codes.get(name);
+            if (code != null) {
+                return code;
+            }
+            if (names.length > Byte.MAX_VALUE) {
+                throw new IllegalStateException("More than " + Byte.MAX_VALUE + " distinct values of " + name);
+            }
+            String[] grown = Arrays.copyOf(names, names.length + 1);
+            grown[names.length] = name;
+            codes.put(name, (byte) names.length);
+            names = grown;
+            return (byte) (grown.length - 1);
+        }
+
+        String[] names() {
+            return names;
+        }
+
+        void clear() {
+            codes.clear();
+            names = new String[]{NONE};
+        }
+    }
+
+    /**
+     * A filter/group/sum query over the transactions. Every filter left unset matches all rows.
+     */
+    public static final class Query {
+        private LocalDateTime from;
+        private LocalDateTime to;
+        private String accountId;
+        private Set<String> transactionTypes;
+        private Set<String> accountTypes;
+        private final List<Dimension> groupBy = new ArrayList<>();
+
+        public static Query transactions() {
+            return new Query();
+        }
+
+        /**
+         * @param from Oldest date, inclusive, or null
+         * @param to   Newest date, exclusive, or null
+         */
+        public Query between(LocalDateTime from, LocalDateTime to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        public Query account(String accountId) {
+            this.accountId = accountId;
+            return this;
+        }
+
+        public Query transactionTypes(String... types) {
+            this.transactionTypes = Set.of(types);
+            return this;
+        }
+
+        public Query accountTypes(String... types) {
+            this.accountTypes = Set.of(types);
+            return this;
+        }
+
+        public Query groupBy(Dimension... dimensions) {
+            if (EnumSet.copyOf(Arrays.asList(dimensions)).size() != dimensions.length) {
+                throw new IllegalArgumentException("Dimension grouped by twice");
+            }
+            groupBy.addAll(Arrays.asList(dimensions));
+            return this;
+        }
+    }
+
+    /**
+     * One result group: the values of the group-by dimensions, in the order of the query, and
+     * the count and sums of its rows
+     */
+    public static final class Group {
+        private final List<Object> key;
+        private final long count;
+        private final long creditsMinor;
+        private final long debitsMinor;
+
+        private Group(List<Object> key, long count, long creditsMinor, long debitsMinor) {
+            this.key = key;
+            this.count = count;
+            this.creditsMinor = creditsMinor;
+            this.debitsMinor = debitsMinor;
+        }
+
+        // An account id, type name, LocalDate, YearMonth, DayOfWeek or hour, by dimension
+        public List<Object> getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        // Sum of the positive amounts
+        public BigDecimal getDeposits() {
+            return BigDecimal.valueOf(creditsMinor, 2);
+        }
+
+        // Sum of the negative amounts, negative like the withdrawal sums of the ledger rollups
+        public BigDecimal getWithdrawals() {
+            return BigDecimal.valueOf(debitsMinor, 2);
+        }
+
+        public BigDecimal getNet() {
+            return BigDecimal.valueOf(creditsMinor + debitsMinor, 2);
+        }
+    }
+
+    // Per-chunk aggregates: dense arrays indexed by key, or a map when there are too many keys
+    private static final class Partial {
+        private final long[] counts;
+        private final long[] credits;
+        private final long[] debits;
+        private final Map<Long, long[]> sparse;
+
+        private Partial(long groups) {
+            if (groups <= DENSE_GROUPS) {
+                counts = new long[(int) groups];
+                credits = new long[(int) groups];
+                debits = new long[(int) groups];
+                sparse = null;
+            } else {
+                counts = credits = debits = null;
+                sparse = new HashMap<>();
+            }
+        }
+
+        void merge(Partial other) {
+            if (sparse == null) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += other.counts[i];
+                    credits[i] += other.credits[i];
+                    debits[i] += other.debits[i];
+                }
+            } else {
+                other.sparse.forEach((key, sums) -> {
+                    long[] into = sparse.computeIfAbsent(key, k -> new long[3]);
+                    into[0] += sums[0];
+                    into[1] += sums[1];
+                    into[2] += sums[2];
+                });
+            }
+        }
+    }
+
+    // A query resolved against one snapshot: bounds in microseconds, codes and group key radixes
+    private final class Plan {
+        private final Chunk[] chunks = TransactionColumns.this.chunks;
+        private final byte[] typeOfAccount = accountTypeCodes;
+        private final String[] accountIds = TransactionColumns.this.accountIds;
+        private final String[] transactionTypeNames = TransactionColumns.this.transactionTypeNames.names();
+        private final String[] accountTypeNames = TransactionColumns.this.accountTypeNames.names();
+        private final int rows;
+        private final long fromMicros;
+        private final long toMicros;
+        private final int account;
+        private final boolean[] transactionTypes;
+        private final boolean[] accountTypes;
+        private final Dimension[] dimensions;
+        private final int[] radixes;
+        private final long groups;
+        private final long firstDay;
+        private final int[] monthOfDay;
+        private final int firstMonth;
+        private final boolean empty;
+
+        Plan(Query query, int rows) {
+            this.rows = rows;
+            int accountCount = TransactionColumns.this.accountCount;
+            // Never wider than the data, so day and month keys stay in a small range
+            this.fromMicros = Math.max(query.from == null ? Long.MIN_VALUE : toMicros(query.from), oldestMicros);
+            this.toMicros = Math.min(query.to == null ? Long.MAX_VALUE : toMicros(query.to), newestMicros + 1);
+            Integer ordinal = query.accountId == null ? Integer.valueOf(-1) : accountOrdinals.get(query.accountId);
+            this.account = ordinal == null ? -1 : ordinal;
+            this.empty = fromMicros >= toMicros || ordinal == null;
+            this.transactionTypes = codes(query.transactionTypes, transactionTypeNames);
+            this.accountTypes = codes(query.accountTypes, accountTypeNames);
+
+            this.dimensions = query.groupBy.toArray(new Dimension[0]);
+            this.radixes = new int[dimensions.length];
+            this.firstDay = empty ? 0 : Math.floorDiv(fromMicros, MICROS_PER_DAY);
+            long lastDay = empty ? 0 : Math.floorDiv(toMicros - 1, MICROS_PER_DAY);
+            int[] months = null;
+            int monthBase = 0;
+            long groupCount = 1;
+            for (int d = 0; d < dimensions.length; d++) {
+                switch (dimensions[d]) {
+                    case ACCOUNT -> radixes[d] = Math.max(1, accountCount);
+                    case ACCOUNT_TYPE -> radixes[d] = accountTypeNames.length;
+                    case TRANSACTION_TYPE -> radixes[d] = transactionTypeNames.length;
+                    case DAY -> radixes[d] = (int) (lastDay - firstDay + 1);
+                    case DAY_OF_WEEK -> radixes[d] = 7;
+                    case HOUR_OF_DAY -> radixes[d] = 24;
+                    case MONTH -> {
+                        // Calendar months are not a fixed number of days, so each day is mapped up front
+                        months = new int[(int) (lastDay - firstDay + 1)];
+                        monthBase = monthIndex(LocalDate.ofEpochDay(firstDay));
+                        for (int i = 0; i < months.length; i++) {
+                            months[i] = monthIndex(LocalDate.ofEpochDay(firstDay + i)) - monthBase;
+                        }
+                        radixes[d] = months[months.length - 1] + 1;
+                    }
+                }
+                groupCount = Math.multiplyExact(groupCount, radixes[d]);
+            }
+            this.groups = groupCount;
+            this.monthOfDay = months;
+            this.firstMonth = monthBase;
+        }
+
+        // Scans one chunk: filters into a selection vector, folds the keys, sums by key
+        Partial scan(int chunkIndex) {
+            Chunk chunk = chunks[chunkIndex];
+            int n = Math.min(CHUNK_ROWS, rows - chunkIndex * CHUNK_ROWS);
+            Partial partial = new Partial(groups);
+            if (chunk.newestMicros < fromMicros || chunk.oldestMicros >= toMicros) {
+                return partial;
+            }
+
+            int[] selection = new int[n];
+            int selected = 0;
+            long[] micros = chunk.micros;
+            if (chunk.oldestMicros >= fromMicros && chunk.newestMicros < toMicros) {
+                for (int i = 0; i < n; i++) {
+                    selection[i] = i;
+                }
+                selected = n;
+            } else {
+                for (int i = 0; i < n; i++) {
+                    selection[selected] = i;
+                    selected += micros[i] >= fromMicros & micros[i] < toMicros ? 1 : 0;
+                }
+            }
+            if (account >= 0) {
+                int[] accounts = chunk.accounts;
+                int kept = 0;
+                for (int j = 0; j < selected; j++) {
+                    selection[kept] = selection[j];
+                    kept += accounts[selection[j]] == account ? 1 : 0;
+                }
+                selected = kept;
+            }
+            if (transactionTypes != null) {
+                byte[] types = chunk.types;
+                int kept = 0;
+                for (int j = 0; j < selected; j++) {
+                    selection[kept] = selection[j];
+                    kept += transactionTypes[types[selection[j]]] ? 1 : 0;
+                }
+                selected = kept;
+            }
+            if (accountTypes != null) {
+                int[] accounts = chunk.accounts;
+                int kept = 0;
+                for (int j = 0; j < selected; j++) {
+                    selection[kept] = selection[j];
+                    kept += accountTypes[typeOfAccount[accounts[selection[j]]]] ? 1 : 0;
+                }
+                selected = kept;
+            }
+            if (selected == 0) {
+                return partial;
+            }
+
+            long[] keys = new long[selected];
+            for (int d = 0; d < dimensions.length; d++) {
+                fold(keys, selection, selected, chunk, dimensions[d], radixes[d]);
+            }
+
+            long[] amounts = chunk.amounts;
+            if (partial.sparse == null) {
+                long[] counts = partial.counts;
+                long[] credits = partial.credits;
+                long[] debits = partial.debits;
+                for (int j = 0; j < selected; j++) {
+                    int key = (int) keys[j];
+                    long amount = amounts[selection[j]];
+                    counts[key]++;
+                    credits[key] += Math.max(amount, 0);
+                    debits[key] += Math.min(amount, 0);
+                }
+            } else {
+                for (int j = 0; j < selected; j++) {
+                    long amount = amounts[selection[j]];
+                    long[] sums = partial.sparse.computeIfAbsent(keys[j], k -> new long[3]);
+                    sums[0]++;
+                    sums[1] += Math.max(amount, 0);
+                    sums[2] += Math.min(amount, 0);
+                }
+            }
+            return partial;
+        }
+
+        // keys = keys * radix + code of the dimension, one tight loop per dimension
+        private void fold(long[] keys, int[] selection, int selected, Chunk chunk, Dimension dimension, int radix) {
+            long[] micros = chunk.micros;
+            int[] accounts = chunk.accounts;
+            switch (dimension) {
+                case ACCOUNT -> {
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix + accounts[selection[j]];
+                    }
+                }
+                case ACCOUNT_TYPE -> {
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix + typeOfAccount[accounts[selection[j]]];
+                    }
+                }
+                case TRANSACTION_TYPE -> {
+                    byte[] types = chunk.types;
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix + types[selection[j]];
+                    }
+                }
+                case DAY -> {
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix + (Math.floorDiv(micros[selection[j]], MICROS_PER_DAY) - firstDay);
+                    }
+                }
+                case MONTH -> {
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix
+                                + monthOfDay[(int) (Math.floorDiv(micros[selection[j]], MICROS_PER_DAY) - firstDay)];
+                    }
+                }
+                case DAY_OF_WEEK -> {
+                    // 1970-01-01 was a Thursday, so Monday is 0
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix + Math.floorMod(Math.floorDiv(micros[selection[j]], MICROS_PER_DAY) + 3, 7);
+                    }
+                }
+                case HOUR_OF_DAY -> {
+                    for (int j = 0; j < selected; j++) {
+                        keys[j] = keys[j] * radix + Math.floorMod(micros[selection[j]], MICROS_PER_DAY) / MICROS_PER_HOUR;
+                    }
+                }
+            }
+        }
+
+        List<Group> decode(Partial partial) {
+            List<Group> result = new ArrayList<>();
+            if (partial.sparse == null) {
+                for (int key = 0; key < partial.counts.length; key++) {
+                    if (partial.counts[key] > 0) {
+                        result.add(new Group(keyValues(key), partial.counts[key],
+                                partial.credits[key], partial.debits[key]));
+                    }
+                }
+            } else {
+                List<Long> keys = new ArrayList<>(partial.sparse.keySet());
+                Collections.sort(keys);
+                for (long key : keys) {
+                    long[] sums = partial.sparse.get(key);
+                    result.add(new Group(keyValues(key), sums[0], sums[1], sums[2]));
+                }
+            }
+            return result;
+        }
+
+        private List<Object> keyValues(long key) {
+            Object[] values = new Object[dimensions.length];
+            for (int d = dimensions.length - 1; d >= 0; d--) {
+                int code = (int) (key % radixes[d]);
+                key /= radixes[d];
+                values[d] = switch (dimensions[d]) {
+                    case ACCOUNT -> accountIds[code];
+                    case ACCOUNT_TYPE -> accountTypeNames[code];
+                    case TRANSACTION_TYPE -> transactionTypeNames[code];
+                    case DAY -> LocalDate.ofEpochDay(firstDay + code);
+                    case MONTH -> YearMonth.of((firstMonth + code) / 12, (firstMonth + code) % 12 + 1);
+                    case DAY_OF_WEEK -> DayOfWeek.of(code + 1);
+                    case HOUR_OF_DAY -> code;
+                };
+            }
+            return Arrays.asList(values);
+        }
+    }
+
+    private static int monthIndex(LocalDate day) {
+        return day.getYear() * 12 + day.getMonthValue() - 1;
+    }
+
+    // Marks the codes of the named values; null when every value matches
+    private static boolean[] codes(Set<String> names, String[] dictionary) {
+        if (names == null) {
+            return null;
+        }
+        boolean[] codes = new boolean[Byte.MAX_VALUE + 1];
+        for (int code = 0; code < dictionary.length; code++) {
+            codes[code] = dictionary[code] != null && names.contains(dictionary[code]);
+        }
+        return codes;
+    }
+
+    private static final class ScanTask extends RecursiveTask<Partial> {
+        private final Plan plan;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ScanTask(Plan plan, int fromChunk, int toChunk) {
+            this.plan = plan;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (toChunk - fromChunk == 1) {
+                return plan.scan(fromChunk);
+            }
+            int middle = (fromChunk + toChunk) >>> 1;
+            ScanTask left = new ScanTask(plan, fromChunk, middle);
+            left.fork();
+            Partial right = new ScanTask(plan, middle, toChunk).compute();
+            Partial result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.roland.training.util;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Asynchronous, batched writer for the daily transaction activity log.
+ *
+ * Producers enqueue lines into a bounded lock-free ring buffer and return (or wait, depending
+ * on the {@link JournalDurability} mode). A single background writer drains the buffer in group
+ * commits, closing a group once it holds {@code journal.batch.size} entries or
+ * {@code journal.flush.interval.ms} has passed since its first entry. The writer keeps one
+ * long-lived {@link FileChannel} open for the current day-file and rolls to a new one when the
+ * entries move to the next day.
+ */
+@Component
+public class TransactionJournal {
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int STALL_SPINS = 64;
+    private static final long STALL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long ACK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final JournalDurability durability;
+    private final JournalRingBuffer<Entry> ring;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private FileChannel channel;
+    private LocalDate channelDay;
+
+    private volatile boolean running;
+    private volatile boolean writerParked;
+    private volatile Thread writer;
+
+    // Producer-side backpressure metrics
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder fullStalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    // Writer-side metrics, only updated by the writer thread
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong groups = new AtomicLong();
+    private final AtomicLong fsyncs = new AtomicLong();
+    private final AtomicLong groupNanos = new AtomicLong();
+    private final AtomicLong fsyncNanos = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+    private final AtomicLong maxGroupSize = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    public TransactionJournal(@Value("${journal.durability:ASYNC}") JournalDurability durability,
+                              @Value("${journal.buffer.capacity:8192}") int capacity,
+                              @Value("${journal.batch.size:256}") int batchSize,
+                              @Value("${journal.flush.interval.ms:5}") long flushIntervalMillis) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Journal batch size must be positive");
+        }
+        this.durability = durability;
+        this.ring = new JournalRingBuffer<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMillis));
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::runWriter, "transaction-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("Transaction journal started: durability={}, capacity={}, batchSize={}",
+                durability, ring.capacity(), batchSize);
+    }
+
+    /**
+     * Appends an activity line to the current day-file
+     *
+     * @param activity The activity to log
+     * @throws UncheckedIOException If the entry could not be made durable (GROUP_FSYNC and SYNC only)
+     */
+    public void append(String activity) {
+        append(LocalDate.now(), activity);
+    }
+
+    /**
+     * Appends an activity line to the day-file of the given date
+     *
+     * @param day      The day-file the entry belongs to
+     * @param activity The activity to log
+     * @throws UncheckedIOException If the entry could not be made durable (GROUP_FSYNC and SYNC only)
+     */
+    public void append(LocalDate day, String activity) {
+        if (!running) {
+            throw new IllegalStateException("Transaction journal is not running");
+        }
+        Entry entry = new Entry(day, activity, durability == JournalDurability.ASYNC ? null : Thread.currentThread());
+        enqueue(entry);
+        if (entry.waiter != null) {
+            awaitDurable(entry);
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        if (!ring.offer(entry)) {
+            // Buffer is full: apply backpressure to the producer until the writer frees a slot
+            fullStalls.increment();
+            long start = System.nanoTime();
+            int spins = 0;
+            while (!ring.offer(entry)) {
+                if (!running) {
+                    throw new IllegalStateException("Transaction journal is not running");
+                }
+                wakeWriter();
+                if (++spins < STALL_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(this, STALL_PARK_NANOS);
+                }
+            }
+            stallNanos.add(System.nanoTime() - start);
+        }
+        enqueued.increment();
+        if (writerParked) {
+            wakeWriter();
+        }
+    }
+
+    private void awaitDurable(Entry entry) {
+        while (!entry.done) {
+            if (writer == null) {
+                throw new IllegalStateException("Transaction journal closed before the entry was written");
+            }
+            LockSupport.parkNanos(this, ACK_PARK_NANOS);
+        }
+        if (entry.failure != null) {
+            throw new UncheckedIOException("Failed to log activity to file", entry.failure);
+        }
+    }
+
+    private void wakeWriter() {
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void runWriter() {
+        List<Entry> group = new ArrayList<>(batchSize);
+        while (true) {
+            Entry first = ring.poll();
+            if (first == null) {
+                if (!running) {
+                    break;
+                }
+                writerParked = true;
+                if (ring.size() == 0 && running) {
+                    LockSupport.parkNanos(this, Math.max(flushIntervalNanos, STALL_PARK_NANOS));
+                }
+                writerParked = false;
+                continue;
+            }
+
+            updateMax(maxQueueDepth, ring.size() + 1L);
+            group.add(first);
+            collectGroup(group);
+            commit(group);
+            group.clear();
+        }
+        closeChannel();
+    }
+
+    // Keeps draining into the group until it is full or the flush interval has passed
+    private void collectGroup(List<Entry> group) {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (group.size() < batchSize) {
+            Entry next = ring.poll();
+            if (next != null) {
+                group.add(next);
+                continue;
+            }
+            if (durability == JournalDurability.SYNC || !running) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, STALL_PARK_NANOS));
+        }
+    }
+
+    private void commit(List<Entry> group) {
+        long start = System.nanoTime();
+        IOException failure = null;
+        try {
+            for (Entry entry : group) {
+                if (!entry.day.equals(channelDay)) {
+                    rollTo(entry.day);
+                }
+                buffer(entry.line);
+                if (durability == JournalDurability.SYNC) {
+                    flushBuffer();
+                    force();
+                    complete(entry, null);
+                }
+            }
+            flushBuffer();
+            if (durability == JournalDurability.GROUP_FSYNC) {
+                force();
+            }
+        } catch (IOException e) {
+            failure = e;
+            writeErrors.incrementAndGet();
+            writeBuffer.clear();
+            closeChannel();
+            logger.error("Failed to write transaction journal group of {} entries", group.size(), e);
+        }
+        groupNanos.addAndGet(System.nanoTime() - start);
+
+        for (Entry entry : group) {
+            complete(entry, failure);
+        }
+        written.addAndGet(group.size());
+        groups.incrementAndGet();
+        updateMax(maxGroupSize, group.size());
+    }
+
+    private void buffer(String line) throws IOException {
+        byte[] bytes = (line + LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > writeBuffer.remaining()) {
+            flushBuffer();
+        }
+        if (bytes.length > writeBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            writeBuffer.put(bytes);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            bytesWritten.addAndGet(channel.write(source));
+        }
+    }
+
+    private void force() throws IOException {
+        long start = System.nanoTime();
+        channel.force(false);
+        fsyncNanos.addAndGet(System.nanoTime() - start);
+        fsyncs.incrementAndGet();
+    }
+
+    private void rollTo(LocalDate day) throws IOException {
+        if (channel != null) {
+            flushBuffer();
+            if (durability != JournalDurability.ASYNC) {
+                force();
+            }
+            channel.close();
+        }
+        channel = FileChannel.open(FileReporter.activityLogPath(day), CREATE, WRITE, APPEND);
+        channelDay = day;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Failed to close transaction journal for {}", channelDay, e);
+        } finally {
+            channel = null;
+            channelDay = null;
+        }
+    }
+
+    private static void complete(Entry entry, IOException failure) {
+        if (entry.done) {
+            return;
+        }
+        entry.failure = failure;
+        entry.done = true;
+        if (entry.waiter != null) {
+            LockSupport.unpark(entry.waiter);
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        if (value > max.get()) {
+            max.set(value);
+        }
+    }
+
+    /**
+     * @return Throughput and backpressure counters of the journal
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("durability", durability.name());
+        metrics.put("capacity", ring.capacity());
+        metrics.put("queueDepth", ring.size());
+        metrics.put("maxQueueDepth", maxQueueDepth.get());
+        metrics.put("enqueued", enqueued.sum());
+        metrics.put("written", written.get());
+        metrics.put("groups", groups.get());
+        metrics.put("groupNanos", groupNanos.get());
+        metrics.put("maxGroupSize", maxGroupSize.get());
+        metrics.put("fsyncs", fsyncs.get());
+        metrics.put("fsyncNanos", fsyncNanos.get());
+        metrics.put("bytesWritten", bytesWritten.get());
+        metrics.put("writeErrors", writeErrors.get());
+        metrics.put("fullStalls", fullStalls.sum());
+        metrics.put("stallMillis", TimeUnit.NANOSECONDS.toMillis(stallNanos.sum()));
+        return metrics;
+    }
+
+    /**
+     * Stops accepting entries, drains everything already enqueued and closes the day-file
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        running = false;
+        Thread thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+            writer = null;
+        }
+    }
+
+    private static final class Entry {
+        private final LocalDate day;
+        private final String line;
+        private final Thread waiter;
+        private volatile boolean done;
+        private volatile IOException failure;
+
+        private Entry(LocalDate day, String line, Thread waiter) {
+            this.day = day;
+            this.line = line;
+            this.waiter = waiter;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+-- Per-account history, newest first; also covers GROUP BY account_id
+CREATE INDEX IF NOT EXISTS idx_transactions_account_date
+    ON transactions (account_id, transaction_date DESC, id DESC);
+
+-- Date-range deposit/withdrawal sums
+CREATE INDEX IF NOT EXISTS idx_transactions_date_amount
+    ON transactions (transaction_date, amount);
+
+-- Counterparty lookups on transfer legs
+CREATE INDEX IF NOT EXISTS idx_transactions_related_account
+    ON transactions (related_account_id);
@@ -0,0 +1,3 @@
+-- Ordered balance scans for the in-memory balance index and highest/lowest balance lookups
+CREATE INDEX IF NOT EXISTS idx_accounts_balance
+    ON accounts (balance, account_id);
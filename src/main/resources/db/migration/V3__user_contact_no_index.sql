@@ -0,0 +1,3 @@
+-- Login and JWT principal lookups by contact number; one user per number
+CREATE UNIQUE INDEX IF NOT EXISTS idx_users_contact_no
+    ON users (contact_no);
@@ -0,0 +1,3 @@
+-- Ledger tails: the postings of an account after a transaction id
+CREATE INDEX IF NOT EXISTS idx_transactions_account_id
+    ON transactions (account_id, id);
@@ -0,0 +1,9 @@
+-- Transfer legs by counterparty: transfers between two accounts and the counterparties of one.
+-- Replaces idx_transactions_related_account, which is a prefix of it
+CREATE INDEX IF NOT EXISTS idx_transactions_related_pair
+    ON transactions (related_account_id, account_id, transaction_date DESC, id DESC);
+DROP INDEX IF EXISTS idx_transactions_related_account;
+
+-- Both legs of one transfer
+CREATE INDEX IF NOT EXISTS idx_transactions_transfer_id
+    ON transactions (transfer_id);
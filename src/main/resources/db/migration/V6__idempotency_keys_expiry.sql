@@ -0,0 +1,3 @@
+-- Purge of expired idempotency keys, and trimming to the newest keys
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_expires_at
+    ON idempotency_keys (expires_at);
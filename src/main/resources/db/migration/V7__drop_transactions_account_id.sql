@@ -0,0 +1,4 @@
+-- The ledger tails (t.account_id = ? AND t.id > ?) are served by idx_transactions_account_date,
+-- which carries id in its key. The (account_id, id) index from V4 won the plan of the per-account
+-- history ordered by date, which then needed a sort
+DROP INDEX IF EXISTS idx_transactions_account_id;
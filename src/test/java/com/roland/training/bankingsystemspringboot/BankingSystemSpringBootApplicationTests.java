@@ -3,7 +3,7 @@ package com.roland.training.bankingsystemspringboot;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = "jwt.secret=test-secret")
 class BankingSystemSpringBootApplicationTests {
 
     @Test
@@ -0,0 +1,140 @@
+package com.roland.training.repository;
+
+import com.roland.training.config.SchemaMigrationConfig;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.jdbc.Sql;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Pins the H2 query plans of the transaction repository queries to the migration indexes, so a
+ * regression to a full table scan fails the build. The SQL mirrors what Hibernate generates for
+ * each repository method.
+ */
+@DataJpaTest
+@Sql(executionPhase = Sql.ExecutionPhase.BEFORE_TEST_CLASS, statements = {
+        TransactionQueryPlanTest.SEED_TRANSACTIONS, "ANALYZE"})
+@Sql(executionPhase = Sql.ExecutionPhase.AFTER_TEST_CLASS, statements = "DELETE FROM transactions")
+class TransactionQueryPlanTest {
+    // 5000 rows over 50 accounts and one year, so the optimizer has realistic statistics. Seeded
+    // once per class outside the test transactions: ANALYZE commits, so a per-test seed would
+    // not be rolled back.
+    static final String SEED_TRANSACTIONS =
+            "INSERT INTO transactions (id, account_id, amount, transaction_date, transaction_type, related_account_id) " +
+            "SELECT X, 'ACC' || MOD(X, 50), CASE WHEN MOD(X, 3) = 0 THEN -10.00 ELSE 25.00 END, " +
+            "DATEADD('DAY', -MOD(X, 365), CURRENT_TIMESTAMP), 'DEPOSIT', " +
+            "CASE WHEN MOD(X, 7) = 0 THEN 'ACC' || MOD(X + 1, 50) END " +
+            "FROM SYSTEM_RANGE(1, 5000)";
+
+    @Configuration
+    @EntityScan("com.roland.training.model")
+    @EnableJpaRepositories("com.roland.training.repository")
+    @Import(SchemaMigrationConfig.class)
+    static class Config {
+    }
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void accountHistoryUsesAccountDateIndex() {
+        // findByAccountIdOrderByTransactionDateDesc
+        String plan = explain("SELECT * FROM transactions t WHERE t.account_id = 'ACC7' " +
+                "ORDER BY t.transaction_date DESC");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_ACCOUNT_DATE");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void accountHistoryPageUsesAccountDateIndex() {
+        // findAccountHistoryPageBefore
+        String plan = explain("SELECT t.id, t.account_id, t.amount, t.transaction_date FROM transactions t " +
+                "WHERE t.account_id = 'ACC7' AND (t.transaction_date < CURRENT_TIMESTAMP " +
+                "OR (t.transaction_date = CURRENT_TIMESTAMP AND t.id < 100)) " +
+                "ORDER BY t.transaction_date DESC, t.id DESC FETCH FIRST 51 ROWS ONLY");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_ACCOUNT_DATE");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void ledgerTailUsesAccountDateIndex() {
+        // AccountRepository.findLedgerBalance/findLedgerTails: the postings after the projected seq
+        String plan = explain("SELECT SUM(t.amount) FROM transactions t WHERE t.account_id = 'ACC7' AND t.id > 4000");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_ACCOUNT_DATE");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void depositSumUsesDateAmountIndex() {
+        // sumDepositsAfterDate
+        String plan = explain("SELECT SUM(t.amount) FROM transactions t " +
+                "WHERE t.transaction_date >= DATEADD('DAY', -1, CURRENT_TIMESTAMP) AND t.amount > 0");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_DATE_AMOUNT");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void withdrawalSumUsesDateAmountIndex() {
+        // sumWithdrawalsAfterDate
+        String plan = explain("SELECT SUM(t.amount) FROM transactions t " +
+                "WHERE t.transaction_date >= DATEADD('DAY', -1, CURRENT_TIMESTAMP) AND t.amount < 0");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_DATE_AMOUNT");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void mostActiveAccountGroupsOverAccountIndex() {
+        // findMostActiveAccount
+        String plan = explain("SELECT t.account_id, COUNT(t.id) AS c FROM transactions t " +
+                "GROUP BY t.account_id ORDER BY c DESC");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_ACCOUNT_DATE");
+        assertThat(plan).containsIgnoringCase("group sorted");
+    }
+
+    @Test
+    void counterpartyLookupUsesRelatedPairIndex() {
+        String plan = explain("SELECT * FROM transactions t WHERE t.related_account_id = 'ACC8'");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_RELATED_PAIR");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void transfersBetweenUseRelatedPairIndex() {
+        // findTransfersBetween
+        String plan = explain("SELECT t.id, t.transfer_id, t.account_id, t.related_account_id, t.amount, " +
+                "t.transaction_date FROM transactions t WHERE t.related_account_id = 'ACC8' AND t.account_id = 'ACC7' " +
+                "ORDER BY t.transaction_date DESC, t.id DESC FETCH FIRST 101 ROWS ONLY");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_RELATED_PAIR");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    @Test
+    void counterpartiesUseRelatedPairIndex() {
+        // findCounterparties
+        String plan = explain("SELECT t.account_id, COUNT(*), SUM(CASE WHEN t.amount > 0 THEN t.amount ELSE 0 END), " +
+                "SUM(CASE WHEN t.amount < 0 THEN -t.amount ELSE 0 END) FROM transactions t " +
+                "WHERE t.related_account_id = 'ACC8' GROUP BY t.account_id");
+
+        assertThat(plan).containsIgnoringCase("IDX_TRANSACTIONS_RELATED_PAIR");
+        assertThat(plan).doesNotContainIgnoringCase("tableScan");
+    }
+
+    private String explain(String sql) {
+        return entityManager.createNativeQuery("EXPLAIN " + sql).getSingleResult().toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.config.QueryBudget;
+import com.roland.training.model.AccountType;
+import com.roland.training.model.ActivityWindow;
+import com.roland.training.model.Posting;
+import com.roland.training.util.QueryCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Pins the number of SQL statements of every public AccountService method, so a change that adds
+ * queries, or an N+1 pattern, fails the build.
+ *
+ * The single-account operations are held to their budgets in application.properties, measured
+ * in steady state: one rollup slot, and the day's rollup row created by a warm-up posting. The
+ * batch operations scale with the accounts they touch and are pinned here for a fixed fixture.
+ */
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class,
+        properties = {"query.budget.mode=LOG", "rollup.slots=1", "jwt.secret=test-secret"})
+class AccountServiceQueryBudgetTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+    private static final BigDecimal AMOUNT = new BigDecimal("10.00");
+    private static final Set<String> PINNED_HERE = Set.of("postBatch", "processMonthlyFees");
+
+    // Account load, sequence, day rollup, 4 account rollups, totals, insert batch and update batch
+    private static final int POST_BATCH_BUDGET = 10;
+    // Run bookkeeping (4), two chunk queries, then one chunk: accounts, sequence, day rollup,
+    // 2 account rollups, totals, progress, insert batch and update batch
+    private static final int MONTHLY_FEES_BUDGET = 15;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private QueryBudget queryBudget;
+
+    @Test
+    void everyPublicMethodHasABudget() {
+        for (Method method : AccountService.class.getDeclaredMethods()) {
+            if (Modifier.isPublic(method.getModifiers()) && !PINNED_HERE.contains(method.getName())) {
+                assertThat(queryBudget.budgetFor("AccountService." + method.getName()))
+                        .as("query.budget.method.AccountService.%s", method.getName())
+                        .isPresent();
+            }
+        }
+    }
+
+    @Test
+    void accountOperationsStayWithinBudget() {
+        String savings = newAccount(AccountType.SAVINGS);
+        String checking = newAccount(AccountType.CHECKING);
+        accountService.deposit(savings, AMOUNT);
+
+        // A new account always creates its own rollup row
+        assertWithinBudget("createAccount", () -> newAccount(AccountType.SAVINGS));
+        assertWithinBudget("deposit", () -> accountService.deposit(savings, AMOUNT));
+        assertWithinBudget("withdraw", () -> accountService.withdraw(checking, AMOUNT));
+        assertWithinBudget("transfer", () -> accountService.transfer(savings, checking, AMOUNT));
+
+        String closed = newAccount(AccountType.CHECKING);
+        assertWithinBudget("deleteAccount", () -> accountService.deleteAccount(closed));
+    }
+
+    @Test
+    void readsStayWithinBudget() {
+        String savings = newAccount(AccountType.SAVINGS);
+
+        assertWithinBudget("getBalance", () -> accountService.getBalance(savings));
+        assertWithinBudget("getAccountTypeById", () -> accountService.getAccountTypeById(savings));
+        assertWithinBudget("getAllAccounts", () -> accountService.getAllAccounts());
+        assertWithinBudget("getAccountSummary", () -> accountService.getAccountSummary());
+        assertWithinBudget("getDailyTransactions", () -> accountService.getDailyTransactions());
+        assertWithinBudget("getAccountActivity", () -> accountService.getAccountActivity());
+        assertWithinBudget("getTopActiveAccounts", () -> accountService.getTopActiveAccounts(ActivityWindow.LAST_HOUR, 10));
+        assertWithinBudget("getHighestBalances", () -> accountService.getHighestBalances(10));
+        assertWithinBudget("getLowestBalances", () -> accountService.getLowestBalances(10));
+        assertWithinBudget("getBalanceDistribution",
+                () -> accountService.getBalanceDistribution(BigDecimal.ZERO, INITIAL_BALANCE));
+    }
+
+    @Test
+    void postBatchIsIndependentOfPostingCount() {
+        List<String> accounts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            accounts.add(newAccount(AccountType.CHECKING));
+        }
+        List<Posting> postings = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String account = accounts.get(i % accounts.size());
+            postings.add(i % 2 == 0
+                    ? Posting.deposit(account, AMOUNT)
+                    : Posting.transfer(account, accounts.get((i + 1) % accounts.size()), AMOUNT));
+        }
+
+        assertWithinBudget("postBatch", POST_BATCH_BUDGET, () -> accountService.postBatch(postings));
+    }
+
+    @Test
+    void monthlyFeesStayWithinBudget() {
+        // Charges whatever earlier tests left, so the measured run only sees the new accounts
+        accountService.processMonthlyFees();
+        newAccount(AccountType.SAVINGS);
+        newAccount(AccountType.CHECKING);
+
+        assertWithinBudget("processMonthlyFees", MONTHLY_FEES_BUDGET, () -> accountService.processMonthlyFees());
+    }
+
+    private String newAccount(AccountType type) {
+        String accountId = "QB-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(type, accountId, INITIAL_BALANCE);
+        return accountId;
+    }
+
+    private void assertWithinBudget(String method, Runnable call) {
+        assertWithinBudget(method, queryBudget.budgetFor("AccountService." + method).orElseThrow(), call);
+    }
+
+    private void assertWithinBudget(String method, int budget, Runnable call) {
+        QueryCounter.Scope scope = QueryCounter.begin("test " + method);
+        try {
+            call.run();
+        } finally {
+            scope.close();
+        }
+        assertThat(scope.getStatements())
+                .as("SQL statements of AccountService.%s", method)
+                .isLessThanOrEqualTo(budget);
+        assertThat(scope.getRepeatedStatements(queryBudget.getNPlusOneThreshold()))
+                .as("Repeated statements of AccountService.%s", method)
+                .isEmpty();
+    }
+}
@@ -0,0 +1,55 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.exception.AccountNotFoundException;
+import com.roland.training.exception.BankingException;
+import com.roland.training.model.AccountType;
+import com.roland.training.util.ActivityRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = "jwt.secret=test-secret")
+class AccountServiceTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100.00");
+
+    @Autowired
+    private AccountService accountService;
+
+    @Test
+    void rejectsAccountIdsTheActivityLogCannotHold() {
+        String tooLong = "L".repeat(ActivityRecord.MAX_ACCOUNT_ID_BYTES + 1);
+
+        assertThatThrownBy(() -> accountService.createAccount(AccountType.CHECKING, tooLong, INITIAL_BALANCE))
+                .isInstanceOf(BankingException.class)
+                .hasMessageContaining(String.valueOf(ActivityRecord.MAX_ACCOUNT_ID_BYTES));
+        assertThatThrownBy(() -> accountService.getBalance(tooLong))
+                .isInstanceOf(AccountNotFoundException.class);
+
+        String longest = "M".repeat(ActivityRecord.MAX_ACCOUNT_ID_BYTES);
+        accountService.createAccount(AccountType.CHECKING, longest, INITIAL_BALANCE);
+        assertThat(accountService.getBalance(longest)).isEqualByComparingTo(INITIAL_BALANCE);
+    }
+
+    @Test
+    void rejectsATransferToTheSameAccount() {
+        String accountId = "ST-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(AccountType.CHECKING, accountId, INITIAL_BALANCE);
+
+        assertThatThrownBy(() -> accountService.transfer(accountId, accountId, new BigDecimal("10.00")))
+                .isInstanceOf(BankingException.class)
+                .hasMessage("Cannot transfer to the same account");
+        assertThatThrownBy(() -> accountService.transfer(UUID.randomUUID().toString(), accountId, accountId,
+                new BigDecimal("10.00")))
+                .isInstanceOf(BankingException.class)
+                .hasMessage("Cannot transfer to the same account");
+
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo(INITIAL_BALANCE);
+    }
+}
@@ -0,0 +1,215 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.model.AccountType;
+import com.roland.training.model.Money;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.util.BalanceJournal;
+import com.roland.training.util.JournalDurability;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.reset;
+
+/**
+ * Runs the write-behind cache against the real journal and database. The scheduled flush is
+ * pushed out of the way, so changes stay in the journal until a test flushes them.
+ */
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = {
+        "jwt.secret=test-secret",
+        "balance.cache.flush-interval-ms=3600000",
+        "balance.journal.durability=SYNC"})
+class AccountStateCacheTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100.00");
+
+    private static Path journalDirectory;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountStateCache accountStateCache;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AccountLockTable accountLockTable;
+
+    @Autowired
+    private BalanceIndex balanceIndex;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @SpyBean
+    private TransactionService transactionService;
+
+    @SpyBean
+    private BalanceJournal balanceJournal;
+
+    private final List<Path> copies = new ArrayList<>();
+
+    @DynamicPropertySource
+    static void journalDirectory(DynamicPropertyRegistry registry) throws IOException {
+        journalDirectory = Files.createTempDirectory("balance-journal-test");
+        registry.add("balance.journal.dir", () -> journalDirectory.toString());
+    }
+
+    @AfterEach
+    void cleanUp() throws IOException {
+        reset(transactionService, balanceJournal);
+        for (Path copy : copies) {
+            deleteDirectory(copy);
+        }
+    }
+
+    @Test
+    void onlyCommittedPostingsAreReplayedAfterACrash() throws IOException {
+        String accountId = newAccount(AccountType.CHECKING);
+
+        // The posting fails after the balance has been checked, as a crash before its commit would
+        doThrow(new IllegalStateException("Simulated failure before commit"))
+                .when(transactionService).logTransaction(eq(accountId), any(Money.class));
+        assertThatThrownBy(() -> accountService.deposit(accountId, new BigDecimal("10.00")))
+                .isInstanceOf(IllegalStateException.class);
+        reset(transactionService);
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo("100.00");
+
+        accountService.deposit(accountId, new BigDecimal("5.00"));
+
+        // Restart on a copy of the journal as the process would have left it: only the committed
+        // deposit is there to replay, and replaying it reaches the row exactly once
+        Path copy = copyJournal();
+        BalanceJournal recovered = new BalanceJournal(copy.toString(), JournalDurability.SYNC);
+        try {
+            assertThat(changesOf(accountId, recovered.recover())).containsExactly(500L);
+        } finally {
+            recovered.close();
+        }
+
+        BalanceJournal restarted = new BalanceJournal(copy.toString(), JournalDurability.SYNC);
+        try {
+            new AccountStateCache(accountRepository, accountLockTable, restarted, balanceIndex,
+                    transactionManager, 100_000, 300_000, 256).recover();
+        } finally {
+            restarted.close();
+        }
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("105.00");
+
+        // The live cache's own flush of the same entry finds the row already covering it
+        accountStateCache.flush();
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("105.00");
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo("105.00");
+    }
+
+    @Test
+    void transferLegsAreJournaledTogetherOnlyOnceCommitted() throws IOException {
+        String from = newAccount(AccountType.CHECKING);
+        String to = newAccount(AccountType.SAVINGS);
+
+        doThrow(new IllegalStateException("Simulated failure before commit"))
+                .when(transactionService).logTransfer(eq(from), eq(to), any(Money.class));
+        assertThatThrownBy(() -> accountService.transfer(from, to, new BigDecimal("30.00")))
+                .isInstanceOf(IllegalStateException.class);
+        reset(transactionService);
+
+        accountService.transfer(from, to, new BigDecimal("20.00"));
+
+        BalanceJournal recovered = new BalanceJournal(copyJournal().toString(), JournalDurability.SYNC);
+        try {
+            List<BalanceJournal.Entry> entries = recovered.recover();
+            assertThat(changesOf(from, entries)).containsExactly(-2000L);
+            assertThat(changesOf(to, entries)).containsExactly(2000L);
+        } finally {
+            recovered.close();
+        }
+        assertThat(accountService.getBalance(from)).isEqualByComparingTo("80.00");
+        assertThat(accountService.getBalance(to)).isEqualByComparingTo("120.00");
+    }
+
+    @Test
+    void changeIsWrittenThroughWhenTheJournalFails() {
+        String accountId = newAccount(AccountType.SAVINGS);
+        accountService.getBalance(accountId);
+
+        doThrow(new UncheckedIOException("Simulated journal failure", new IOException("disk full")))
+                .when(balanceJournal).append(any(), anyList());
+        accountService.deposit(accountId, new BigDecimal("10.00"));
+        reset(balanceJournal);
+
+        // The posting committed, so its change is on the row already and no flush adds it again
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo("110.00");
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("110.00");
+        accountStateCache.flush();
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("110.00");
+
+        accountService.deposit(accountId, new BigDecimal("1.00"));
+        accountStateCache.flush();
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("111.00");
+    }
+
+    private String newAccount(AccountType type) {
+        String accountId = "SC-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(type, accountId, INITIAL_BALANCE);
+        return accountId;
+    }
+
+    private BigDecimal storedBalance(String accountId) {
+        return accountRepository.findById(accountId).orElseThrow().getBalance().toBigDecimal();
+    }
+
+    private static List<Long> changesOf(String accountId, List<BalanceJournal.Entry> entries) {
+        List<Long> deltas = new ArrayList<>();
+        for (BalanceJournal.Entry entry : entries) {
+            for (BalanceJournal.Change change : entry.getChanges()) {
+                if (change.getAccountId().equals(accountId)) {
+                    deltas.add(change.getDeltaMinor());
+                }
+            }
+        }
+        return deltas;
+    }
+
+    private Path copyJournal() throws IOException {
+        Path copy = Files.createTempDirectory("balance-journal-copy");
+        copies.add(copy);
+        try (Stream<Path> files = Files.list(journalDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        return copy;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+}
@@ -0,0 +1,176 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.exception.BadRequestException;
+import com.roland.training.model.AccountType;
+import com.roland.training.model.Money;
+import com.roland.training.model.OperationReceipt;
+import com.roland.training.model.PostingType;
+import com.roland.training.repository.IdempotencyRecordRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = "jwt.secret=test-secret")
+class IdempotencyServiceTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100.00");
+    private static final Money AMOUNT = Money.parse("10.00");
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void replaysTheStoredResultOfAKey() {
+        String from = newAccount();
+        String to = newAccount();
+        String key = newKey();
+
+        OperationReceipt first = accountService.transfer(key, from, to, new BigDecimal("10.00"));
+        OperationReceipt again = accountService.transfer(key, from, to, new BigDecimal("10.00"));
+
+        assertThat(first.isReplayed()).isFalse();
+        assertThat(again.isReplayed()).isTrue();
+        assertThat(again.getTransferId()).isNotNull().isEqualTo(first.getTransferId());
+        assertThat(accountService.getBalance(from)).isEqualByComparingTo("90.00");
+        assertThat(accountService.getBalance(to)).isEqualByComparingTo("110.00");
+
+        // Another instance, with nothing cached, answers from the table
+        IdempotencyService coldInstance = new IdempotencyService(idempotencyRecordRepository, transactionManager,
+                86_400, 100, 1_000);
+        OperationReceipt stored = coldInstance.execute(key, PostingType.TRANSFER, from, to, AMOUNT,
+                claim -> {
+                    throw new AssertionError("A stored key must not run again");
+                });
+        assertThat(stored.isReplayed()).isTrue();
+        assertThat(stored.getTransferId()).isEqualTo(first.getTransferId());
+    }
+
+    @Test
+    void rejectsAKeyReusedForADifferentRequest() {
+        String accountId = newAccount();
+        String other = newAccount();
+        String key = newKey();
+        accountService.deposit(key, accountId, new BigDecimal("10.00"));
+
+        assertThatThrownBy(() -> accountService.deposit(key, accountId, new BigDecimal("11.00")))
+                .isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> accountService.deposit(key, other, new BigDecimal("10.00")))
+                .isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> accountService.withdraw(key, accountId, new BigDecimal("10.00")))
+                .isInstanceOf(BadRequestException.class);
+
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo("110.00");
+        assertThat(accountService.getBalance(other)).isEqualByComparingTo("100.00");
+    }
+
+    @Test
+    void concurrentRequestsWithAKeyShareTheFirstOutcome() throws Exception {
+        String accountId = newAccount();
+        String key = newKey();
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<OperationReceipt> leader = executor.submit(() -> idempotencyService.execute(key,
+                    PostingType.DEPOSIT, accountId, null, AMOUNT, claim -> {
+                        runs.incrementAndGet();
+                        running.countDown();
+                        await(finish);
+                        transactionTemplate.executeWithoutResult(status -> idempotencyService.record(claim, null));
+                    }));
+            assertThat(running.await(10, TimeUnit.SECONDS)).isTrue();
+
+            long coalescedBefore = coalesced();
+            Future<OperationReceipt> follower = executor.submit(() -> idempotencyService.execute(key,
+                    PostingType.DEPOSIT, accountId, null, AMOUNT, claim -> runs.incrementAndGet()));
+            // The follower waits on the claim of the request in flight
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (coalesced() == coalescedBefore && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(follower.isDone()).isFalse();
+
+            // A different request with the key in flight is turned away at once
+            assertThatThrownBy(() -> idempotencyService.execute(key, PostingType.DEPOSIT, accountId, null,
+                    Money.parse("99.00"), claim -> runs.incrementAndGet()))
+                    .isInstanceOf(BadRequestException.class);
+
+            finish.countDown();
+            assertThat(leader.get(10, TimeUnit.SECONDS).isReplayed()).isFalse();
+            assertThat(follower.get(10, TimeUnit.SECONDS).isReplayed()).isTrue();
+            assertThat(runs).hasValue(1);
+        } finally {
+            finish.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void aFailedOperationLeavesTheKeyFree() {
+        String accountId = newAccount();
+        String key = newKey();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        assertThatThrownBy(() -> idempotencyService.execute(key, PostingType.DEPOSIT, accountId, null, AMOUNT,
+                claim -> transactionTemplate.executeWithoutResult(status -> {
+                    idempotencyService.record(claim, null);
+                    throw new IllegalStateException("Simulated failure before commit");
+                })))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(idempotencyRecordRepository.findById(key)).isEmpty();
+
+        // The retry of the same request runs again
+        OperationReceipt retry = accountService.deposit(key, accountId, new BigDecimal("10.00"));
+        assertThat(retry.isReplayed()).isFalse();
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo("110.00");
+        assertThat(idempotencyRecordRepository.findById(key)).isPresent();
+    }
+
+    private String newAccount() {
+        String accountId = "IK-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(AccountType.CHECKING, accountId, INITIAL_BALANCE);
+        return accountId;
+    }
+
+    private static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    private long coalesced() {
+        return (Long) idempotencyService.getMetrics().get("coalesced");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
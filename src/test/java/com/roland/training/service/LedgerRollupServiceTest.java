@@ -0,0 +1,84 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.model.AccountType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs on a database of its own, since clearing the transactions affects every account
+ */
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = {
+        "jwt.secret=test-secret",
+        "spring.datasource.url=jdbc:h2:mem:rolluptest"})
+class LedgerRollupServiceTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100.00");
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private TransactionService transactionService;
+
+    @Autowired
+    private LedgerRollupService ledgerRollupService;
+
+    @Autowired
+    private AccountStateCache accountStateCache;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void clearingTransactionsResetsTheActivityRollups() {
+        String accountId = newAccount();
+        accountService.deposit(accountId, new BigDecimal("10.00"));
+        assertThat((long) ledgerRollupService.getAccountTotals(accountId).get("transactionCount")).isEqualTo(2);
+
+        transactionService.clearTransactions();
+
+        assertThat((long) ledgerRollupService.getDailyTotals(LocalDate.now()).get("transactionCount")).isZero();
+        assertThat((long) ledgerRollupService.getAccountTotals(accountId).get("transactionCount")).isZero();
+        assertConsistent();
+    }
+
+    @Test
+    void startupRebuildsDriftedRollups() {
+        String accountId = newAccount();
+        accountService.withdraw(accountId, new BigDecimal("30.00"));
+        assertConsistent();
+
+        jdbcTemplate.update("UPDATE ledger_rollups SET transaction_count = transaction_count + 5, "
+                + "deposit_sum = deposit_sum + 1 WHERE scope = 'ACCOUNT' AND rollup_key = ?", accountId);
+        assertThat(ledgerRollupService.verify().get("consistent")).isEqualTo(false);
+
+        ledgerRollupService.verifyOnStartup();
+
+        assertConsistent();
+        Map<String, Object> totals = ledgerRollupService.getAccountTotals(accountId);
+        assertThat((long) totals.get("transactionCount")).isEqualTo(2);
+        assertThat((BigDecimal) totals.get("totalWithdrawals")).isEqualByComparingTo("-30.00");
+    }
+
+    private void assertConsistent() {
+        // The bank totals are compared with the account rows, which the state cache writes behind
+        accountStateCache.flush();
+        Map<String, Object> report = ledgerRollupService.verify();
+        assertThat(report.get("mismatches")).asList().isEmpty();
+    }
+
+    private String newAccount() {
+        String accountId = "RU-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(AccountType.CHECKING, accountId, INITIAL_BALANCE);
+        return accountId;
+    }
+}
@@ -0,0 +1,135 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.model.AccountType;
+import com.roland.training.model.LedgerSnapshot;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.LedgerSnapshotRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the event-sourced ledger mode on a database of its own. The scheduled projector and
+ * check are pushed out of the way, so each test projects and audits when it wants to.
+ */
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = {
+        "jwt.secret=test-secret",
+        "spring.datasource.url=jdbc:h2:mem:ledgertest",
+        "ledger.event-sourced=true",
+        "ledger.projector.interval-ms=3600000",
+        "ledger.snapshot.every=3"})
+class LedgerServiceTest {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100.00");
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private LedgerProjector ledgerProjector;
+
+    @Autowired
+    private LedgerConsistencyChecker ledgerConsistencyChecker;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private LedgerSnapshotRepository ledgerSnapshotRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void balanceIncludesPostingsNotProjectedYet() {
+        String from = newAccount();
+        String to = newAccount();
+
+        accountService.deposit(from, new BigDecimal("10.00"));
+        accountService.withdraw(from, new BigDecimal("5.00"));
+        accountService.transfer(from, to, new BigDecimal("20.00"));
+
+        // Only postings were written; the rows still hold the opening balances
+        assertThat(storedBalance(from)).isEqualByComparingTo("100.00");
+        assertThat(accountService.getBalance(from)).isEqualByComparingTo("85.00");
+        assertThat(accountService.getBalance(to)).isEqualByComparingTo("120.00");
+
+        ledgerProjector.project();
+
+        assertThat(storedBalance(from)).isEqualByComparingTo("85.00");
+        assertThat(storedBalance(to)).isEqualByComparingTo("120.00");
+        assertThat(accountService.getBalance(from)).isEqualByComparingTo("85.00");
+        assertThat(accountService.getBalance(to)).isEqualByComparingTo("120.00");
+    }
+
+    @Test
+    void projectorSnapshotsAnAccountEveryFewPostings() {
+        String accountId = newAccount();
+        long openedThrough = snapshot(accountId).getThroughSeq();
+
+        accountService.deposit(accountId, new BigDecimal("1.00"));
+        accountService.deposit(accountId, new BigDecimal("2.00"));
+        ledgerProjector.project();
+        assertThat(snapshot(accountId).getThroughSeq()).isEqualTo(openedThrough);
+
+        accountService.deposit(accountId, new BigDecimal("3.00"));
+        ledgerProjector.project();
+
+        LedgerSnapshot snapshot = snapshot(accountId);
+        assertThat(snapshot.getThroughSeq()).isEqualTo(accountRepository.findById(accountId).orElseThrow().getLedgerSeq());
+        assertThat(snapshot.getBalance().toBigDecimal()).isEqualByComparingTo("106.00");
+    }
+
+    @Test
+    void checkerFindsAndRepairsACorruptRow() {
+        String accountId = newAccount();
+        accountService.deposit(accountId, new BigDecimal("10.00"));
+        ledgerProjector.project();
+        assertThat(mismatchesOf(ledgerConsistencyChecker.check(false), accountId)).isEmpty();
+
+        jdbcTemplate.update("UPDATE accounts SET balance = balance + 1 WHERE account_id = ?", accountId);
+
+        List<Map<String, Object>> found = mismatchesOf(ledgerConsistencyChecker.check(false), accountId);
+        assertThat(found).hasSize(1);
+        assertThat((BigDecimal) found.get(0).get("storedBalance")).isEqualByComparingTo("111.00");
+        assertThat((BigDecimal) found.get(0).get("derivedBalance")).isEqualByComparingTo("110.00");
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("111.00");
+
+        Map<String, Object> repair = ledgerConsistencyChecker.check(true);
+        assertThat(mismatchesOf(repair, accountId)).hasSize(1);
+        assertThat((Long) repair.get("repairedAccounts")).isPositive();
+
+        assertThat(storedBalance(accountId)).isEqualByComparingTo("110.00");
+        assertThat(accountService.getBalance(accountId)).isEqualByComparingTo("110.00");
+        assertThat(mismatchesOf(ledgerConsistencyChecker.check(false), accountId)).isEmpty();
+    }
+
+    private String newAccount() {
+        String accountId = "LG-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(AccountType.CHECKING, accountId, INITIAL_BALANCE);
+        return accountId;
+    }
+
+    private BigDecimal storedBalance(String accountId) {
+        return accountRepository.findById(accountId).orElseThrow().getBalance().toBigDecimal();
+    }
+
+    private LedgerSnapshot snapshot(String accountId) {
+        return ledgerSnapshotRepository.findById(accountId).orElseThrow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> mismatchesOf(Map<String, Object> report, String accountId) {
+        return ((List<Map<String, Object>>) report.get("mismatches")).stream()
+                .filter(mismatch -> accountId.equals(mismatch.get("accountId")))
+                .toList();
+    }
+}
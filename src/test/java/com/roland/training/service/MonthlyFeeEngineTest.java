@@ -0,0 +1,92 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.model.AccountType;
+import com.roland.training.model.MonthlyFeeRun;
+import com.roland.training.repository.AccountRepository;
+import com.roland.training.repository.MonthlyFeeRunRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs on a database of its own, since a run charges every account. Each test leaves only
+ * accounts that can be charged behind.
+ */
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = {
+        "jwt.secret=test-secret",
+        "spring.datasource.url=jdbc:h2:mem:feetest"})
+class MonthlyFeeEngineTest {
+    private static final YearMonth MONTH = YearMonth.of(2030, 1);
+
+    @Autowired
+    private MonthlyFeeEngine monthlyFeeEngine;
+
+    @Autowired
+    private AccountService accountService;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private MonthlyFeeRunRepository monthlyFeeRunRepository;
+
+    @Test
+    void savingsTooSmallToEarnACentAreChargedNothing() {
+        String tiny = newAccount(AccountType.SAVINGS, "0.10");
+        String regular = newAccount(AccountType.SAVINGS, "100.00");
+
+        Map<String, Object> summary = monthlyFeeEngine.run(MONTH);
+
+        assertThat(summary.get("completed")).isEqualTo(true);
+        assertThat(summary.get("failedAccounts")).isEqualTo(0L);
+        assertThat(accountService.getBalance(tiny)).isEqualByComparingTo("0.10");
+        assertThat(accountService.getBalance(regular)).isGreaterThan(new BigDecimal("100.00"));
+        assertThat(feePeriodOf(tiny)).isEqualTo("2030-01");
+        assertThat(runStatus()).isEqualTo(MonthlyFeeRun.COMPLETED);
+    }
+
+    @Test
+    void runWithUnchargedAccountsIsNotCompleted() {
+        // Past the overdraft limit once the fee is charged
+        String overdrawn = newAccount(AccountType.CHECKING, "10.00");
+        accountService.withdraw(overdrawn, new BigDecimal("100.00"));
+
+        Map<String, Object> summary = monthlyFeeEngine.run(MONTH);
+
+        assertThat(summary.get("completed")).isEqualTo(false);
+        assertThat(summary.get("failedChunks")).isEqualTo(0);
+        assertThat(summary.get("failedAccounts")).isEqualTo(1L);
+        assertThat(feePeriodOf(overdrawn)).isNotEqualTo("2030-01");
+        assertThat(runStatus()).isEqualTo(MonthlyFeeRun.RUNNING);
+
+        // The next run of the period picks the account up
+        accountService.deposit(overdrawn, new BigDecimal("50.00"));
+        summary = monthlyFeeEngine.run(MONTH);
+
+        assertThat(summary.get("completed")).isEqualTo(true);
+        assertThat(accountService.getBalance(overdrawn)).isEqualByComparingTo("-52.00");
+        assertThat(runStatus()).isEqualTo(MonthlyFeeRun.COMPLETED);
+    }
+
+    private String newAccount(AccountType type, String balance) {
+        String accountId = "MF-" + UUID.randomUUID().toString().substring(0, 8);
+        accountService.createAccount(type, accountId, new BigDecimal(balance));
+        return accountId;
+    }
+
+    private String feePeriodOf(String accountId) {
+        return accountRepository.findById(accountId).orElseThrow().getFeePeriod();
+    }
+
+    private String runStatus() {
+        return monthlyFeeRunRepository.findById("2030-01").orElseThrow().getStatus();
+    }
+}
@@ -0,0 +1,125 @@
+package com.roland.training.service;
+
+import com.roland.training.bankingsystemspringboot.BankingSystemSpringBootApplication;
+import com.roland.training.exception.BankingException;
+import com.roland.training.model.AccountType;
+import com.roland.training.util.ThreadFactories;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares the deposit/transfer paths on a bounded platform pool, sized like the default Tomcat
+ * pool, with one virtual thread per request. Run with {@code mvn test -Pload-test}; the virtual
+ * thread run is skipped below Java 21.
+ */
+@Tag("load")
+@SpringBootTest(classes = BankingSystemSpringBootApplication.class, properties = "jwt.secret=test-secret")
+class ThreadModeLoadTest {
+    private static final int ACCOUNTS = 200;
+    private static final int OPERATIONS = 20_000;
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+    private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    @Autowired
+    private AccountService accountService;
+
+    @Test
+    void platformThreads() throws Exception {
+        run("platform", Executors.newFixedThreadPool(TOMCAT_MAX_THREADS,
+                ThreadFactories.create("load-platform-", false)));
+    }
+
+    @Test
+    void virtualThreads() throws Exception {
+        assumeTrue(ThreadFactories.virtualThreadsSupported(), "Virtual threads need Java 21");
+        run("virtual", Executors.newCachedThreadPool(ThreadFactories.create("load-virtual-", true)));
+    }
+
+    private void run(String mode, ExecutorService executor) throws Exception {
+        List<String> accounts = createAccounts(mode);
+        long[] latencies = new long[OPERATIONS];
+        AtomicInteger deposits = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(OPERATIONS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            int operation = i;
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String from = accounts.get(random.nextInt(ACCOUNTS));
+                long begin = System.nanoTime();
+                try {
+                    if (random.nextBoolean()) {
+                        accountService.deposit(from, AMOUNT);
+                        deposits.incrementAndGet();
+                    } else {
+                        String to = accounts.get(random.nextInt(ACCOUNTS));
+                        if (!to.equals(from)) {
+                            accountService.transfer(from, to, AMOUNT);
+                        }
+                    }
+                } catch (BankingException e) {
+                    conflicts.incrementAndGet();
+                } finally {
+                    latencies[operation] = System.nanoTime() - begin;
+                    done.countDown();
+                }
+            });
+        }
+        assertThat(done.await(10, TimeUnit.MINUTES)).isTrue();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        logger.info("{} threads: {} ops in {} ms ({} ops/s), p50 {} us, p99 {} us, max {} us, {} conflicts",
+                mode, OPERATIONS, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                OPERATIONS * 1_000_000_000L / elapsed,
+                TimeUnit.NANOSECONDS.toMicros(latencies[OPERATIONS / 2]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[OPERATIONS * 99 / 100]),
+                TimeUnit.NANOSECONDS.toMicros(latencies[OPERATIONS - 1]),
+                conflicts.get());
+
+        // Transfers move money between the accounts, so only the deposits change the total
+        BigDecimal total = BigDecimal.ZERO;
+        for (String account : accounts) {
+            total = total.add(accountService.getBalance(account));
+        }
+        BigDecimal expected = INITIAL_BALANCE.multiply(BigDecimal.valueOf(ACCOUNTS))
+                .add(AMOUNT.multiply(BigDecimal.valueOf(deposits.get())));
+        assertThat(total).isEqualByComparingTo(expected);
+    }
+
+    private List<String> createAccounts(String mode) {
+        List<String> accounts = new ArrayList<>(ACCOUNTS);
+        String prefix = mode.substring(0, 3).toUpperCase() + UUID.randomUUID().toString().substring(0, 8);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String accountId = prefix + "-" + i;
+            accountService.createAccount(AccountType.SAVINGS, accountId, INITIAL_BALANCE);
+            accounts.add(accountId);
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,95 @@
+package com.roland.training.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalRingBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 50_000;
+
+    @Test
+    void rejectsOfferWhenFullAndReusesSlotsAfterPoll() {
+        JournalRingBuffer<Integer> ring = new JournalRingBuffer<>(3);
+        assertThat(ring.capacity()).isEqualTo(4);
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertThat(ring.offer(round * 4 + i)).isTrue();
+            }
+            assertThat(ring.offer(-1)).isFalse();
+            assertThat(ring.size()).isEqualTo(4);
+            for (int i = 0; i < 4; i++) {
+                assertThat(ring.poll()).isEqualTo(round * 4 + i);
+            }
+            assertThat(ring.poll()).isNull();
+        }
+    }
+
+    @Test
+    void concurrentProducersLoseDuplicateAndReorderNothing() throws Exception {
+        // A tiny ring, so every producer wraps around it many thousands of times
+        JournalRingBuffer<Long> ring = new JournalRingBuffer<>(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (long i = 0; i < PER_PRODUCER; i++) {
+                        Long element = producer << 32 | i;
+                        while (!ring.offer(element)) {
+                            if (stop.get()) {
+                                return;
+                            }
+                            // Yield rather than spin, so the consumer gets to run on a single core
+                            Thread.yield();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                }
+            }, "ring-producer-" + p);
+            thread.start();
+            producers.add(thread);
+        }
+
+        long[] next = new long[PRODUCERS];
+        long received = 0;
+        start.countDown();
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        try {
+            while (received < (long) PRODUCERS * PER_PRODUCER && System.nanoTime() < deadline) {
+                Long element = ring.poll();
+                if (element == null) {
+                    Thread.yield();
+                    continue;
+                }
+                int producer = (int) (element >>> 32);
+                long sequence = element & 0xFFFF_FFFFL;
+                // Each producer's elements arrive exactly once and in the order they were offered
+                assertThat(sequence).as("next element of producer %d", producer).isEqualTo(next[producer]);
+                next[producer]++;
+                received++;
+            }
+        } finally {
+            stop.set(true);
+            for (Thread producer : producers) {
+                producer.join();
+            }
+        }
+
+        assertThat(failed).isFalse();
+        assertThat(next).containsOnly(PER_PRODUCER);
+        assertThat(ring.poll()).isNull();
+        assertThat(ring.size()).isZero();
+    }
+}
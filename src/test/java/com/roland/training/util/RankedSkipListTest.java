@@ -0,0 +1,38 @@
+package com.roland.training.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RankedSkipListTest {
+
+    @Test
+    void ranksAndPositionsMatchSortedSet() {
+        RankedSkipList<Integer> list = new RankedSkipList<>(Comparator.naturalOrder());
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int value = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(list.remove(value)).isEqualTo(expected.remove(value));
+            } else {
+                assertThat(list.add(value)).isEqualTo(expected.add(value));
+            }
+        }
+
+        assertThat(list.size()).isEqualTo(expected.size());
+        List<Integer> sorted = new ArrayList<>(expected);
+        for (int i = 0; i < sorted.size(); i += 97) {
+            assertThat(list.get(i)).isEqualTo(sorted.get(i));
+            assertThat(list.countLessThan(sorted.get(i))).isEqualTo(i);
+        }
+        assertThat(list.countLessThan(2_500)).isEqualTo(expected.headSet(2_500).size());
+        assertThat(list.range(sorted.size() - 3, 10)).isEqualTo(sorted.subList(sorted.size() - 3, sorted.size()));
+    }
+}
@@ -0,0 +1,58 @@
+package com.roland.training.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsAreExactWithinCapacity() {
+        SpaceSaving summary = new SpaceSaving(8);
+        for (int i = 0; i < 100; i++) {
+            summary.offer("ACC" + (i % 5), 1);
+        }
+
+        Map<String, Long> counts = new HashMap<>();
+        summary.forEach((key, count, error) -> {
+            assertThat(error).isZero();
+            counts.put(key, count);
+        });
+        assertThat(counts).hasSize(5).containsEntry("ACC0", 20L);
+        assertThat(summary.minCount()).isZero();
+    }
+
+    @Test
+    void estimatesStayWithinErrorBound() {
+        int capacity = 32;
+        SpaceSaving summary = new SpaceSaving(capacity);
+        Map<String, Long> actual = new HashMap<>();
+        Random random = new Random(42);
+        int total = 50_000;
+        for (int i = 0; i < total; i++) {
+            // Skewed stream: a few hot accounts over a long tail
+            String key = random.nextInt(4) == 0 ? "HOT" + random.nextInt(5) : "ACC" + random.nextInt(2_000);
+            summary.offer(key, 1);
+            actual.merge(key, 1L, Long::sum);
+        }
+
+        assertThat(summary.getTotal()).isEqualTo(total);
+        summary.forEach((key, count, error) -> {
+            long trueCount = actual.get(key);
+            assertThat(count).isGreaterThanOrEqualTo(trueCount);
+            assertThat(count - error).isLessThanOrEqualTo(trueCount);
+            assertThat(error).isLessThanOrEqualTo(total / capacity);
+        });
+        actual.forEach((key, count) -> {
+            if (count > summary.minCount()) {
+                boolean[] tracked = new boolean[1];
+                summary.forEach((k, c, e) -> tracked[0] |= k.equals(key));
+                assertThat(tracked[0]).as("heavy hitter %s", key).isTrue();
+            }
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package com.roland.training.util;
+
+import com.roland.training.util.TransactionColumns.Dimension;
+import com.roland.training.util.TransactionColumns.Group;
+import com.roland.training.util.TransactionColumns.Query;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionColumnsTest {
+    private static final LocalDateTime START = LocalDateTime.of(2025, 11, 20, 0, 0);
+    private static final int ROWS = 3 * TransactionColumns.CHUNK_ROWS + 123;
+
+    private final String[] accounts = new String[ROWS];
+    private final long[] amounts = new long[ROWS];
+    private final LocalDateTime[] dates = new LocalDateTime[ROWS];
+    private final String[] types = new String[ROWS];
+
+    // Rows in random date order over several chunks; every seventh row has no type
+    private TransactionColumns seed() {
+        TransactionColumns columns = new TransactionColumns(TransactionColumnsTest::accountType, ForkJoinPool.commonPool());
+        Random random = new Random(42);
+        for (int i = 0; i < ROWS; i++) {
+            accounts[i] = "ACC" + random.nextInt(500);
+            amounts[i] = random.nextInt(20_001) - 10_000;
+            dates[i] = START.plusSeconds(random.nextInt(86_400 * 90)).plusNanos(random.nextInt(1_000) * 1_000L);
+            types[i] = i % 7 == 0 ? null : amounts[i] > 0 ? "DEPOSIT" : "WITHDRAWAL";
+            columns.append(accounts[i], amounts[i], dates[i], types[i]);
+        }
+        return columns;
+    }
+
+    private static String accountType(String accountId) {
+        return accountId.hashCode() % 2 == 0 ? "SAVINGS" : "CHECKING";
+    }
+
+    @Test
+    void filtersAndGroupsLikeAScanOfTheRows() {
+        TransactionColumns columns = seed();
+        LocalDateTime from = START.plusDays(10);
+        LocalDateTime to = START.plusDays(50);
+
+        List<Group> groups = columns.query(Query.transactions().between(from, to).transactionTypes("DEPOSIT")
+                .groupBy(Dimension.HOUR_OF_DAY, Dimension.ACCOUNT_TYPE));
+
+        Map<List<Object>, long[]> expected = new HashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            if (!dates[i].isBefore(from) && dates[i].isBefore(to) && "DEPOSIT".equals(types[i])) {
+                add(expected, Arrays.asList(dates[i].getHour(), accountType(accounts[i])), amounts[i]);
+            }
+        }
+        assertMatches(groups, expected);
+    }
+
+    @Test
+    void groupsByManyKeysAndByCalendarMonth() {
+        TransactionColumns columns = seed();
+
+        // 91 days by 500 accounts by 3 types is past the dense limit, so this takes the hash map path
+        Map<List<Object>, long[]> expected = new HashMap<>();
+        for (int i = 0; i < ROWS; i++) {
+            add(expected, Arrays.asList(dates[i].toLocalDate(), accounts[i], types[i]), amounts[i]);
+        }
+        assertMatches(columns.query(Query.transactions()
+                .groupBy(Dimension.DAY, Dimension.ACCOUNT, Dimension.TRANSACTION_TYPE)), expected);
+
+        expected.clear();
+        for (int i = 0; i < ROWS; i++) {
+            if (accounts[i].equals("ACC7")) {
+                add(expected, Arrays.asList(YearMonth.from(dates[i]), dates[i].getDayOfWeek(), types[i]), amounts[i]);
+            }
+        }
+        assertMatches(columns.query(Query.transactions().account("ACC7")
+                .groupBy(Dimension.MONTH, Dimension.DAY_OF_WEEK, Dimension.TRANSACTION_TYPE)), expected);
+    }
+
+    @Test
+    void splitsDepositsAndWithdrawals() {
+        TransactionColumns columns = new TransactionColumns(id -> null, ForkJoinPool.commonPool());
+        columns.append("ACC1", 2_500, START, "DEPOSIT");
+        columns.append("ACC1", -1_000, START.plusHours(1), "WITHDRAWAL");
+        columns.append("ACC2", 0, START.plusHours(2), null);
+
+        List<Group> groups = columns.query(Query.transactions());
+
+        assertThat(groups).hasSize(1);
+        assertThat(groups.get(0).getCount()).isEqualTo(3);
+        assertThat(groups.get(0).getDeposits()).isEqualByComparingTo(new BigDecimal("25.00"));
+        assertThat(groups.get(0).getWithdrawals()).isEqualByComparingTo(new BigDecimal("-10.00"));
+        assertThat(groups.get(0).getNet()).isEqualByComparingTo(new BigDecimal("15.00"));
+    }
+
+    @Test
+    void emptyWhenNothingCanMatch() {
+        TransactionColumns columns = seed();
+
+        assertThat(columns.query(Query.transactions().account("UNKNOWN"))).isEmpty();
+        assertThat(columns.query(Query.transactions().between(START.minusDays(9), START.minusDays(5)))).isEmpty();
+
+        columns.clear();
+        assertThat(columns.size()).isZero();
+        assertThat(columns.query(Query.transactions())).isEmpty();
+    }
+
+    private static void add(Map<List<Object>, long[]> expected, List<Object> key, long amount) {
+        long[] sums = expected.computeIfAbsent(key, k -> new long[2]);
+        sums[0]++;
+        sums[1] += amount;
+    }
+
+    private static void assertMatches(List<Group> groups, Map<List<Object>, long[]> expected) {
+        assertThat(groups).hasSize(expected.size());
+        for (Group group : groups) {
+            long[] sums = expected.get(group.getKey());
+            assertThat(sums).as("group %s", group.getKey()).isNotNull();
+            assertThat(group.getCount()).isEqualTo(sums[0]);
+            assertThat(group.getNet()).isEqualByComparingTo(BigDecimal.valueOf(sums[1], 2));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.roland.training.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionJournalTest {
+    // A day no real posting uses, so the test has the day-file to itself
+    private static final LocalDate DAY = LocalDate.of(1999, 1, 1);
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 50;
+
+    private TransactionJournal journal;
+
+    @AfterEach
+    void close() throws Exception {
+        if (journal != null) {
+            journal.close();
+        }
+        Files.deleteIfExists(FileReporter.activityLogPath(DAY));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = JournalDurability.class, names = {"SYNC", "GROUP_FSYNC"})
+    void appendReturnsOnlyOnceTheEntryIsForced(JournalDurability durability) throws Exception {
+        Files.deleteIfExists(FileReporter.activityLogPath(DAY));
+        journal = new TransactionJournal(durability, 16, 8, 5);
+        journal.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                String producer = "P" + p;
+                results.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        String line = producer + "-" + i;
+                        long fsyncsBefore = fsyncs();
+                        journal.append(DAY, line);
+                        // An fsync that started after the entry was enqueued has completed, and
+                        // the entry is in the file
+                        assertThat(fsyncs()).as("fsyncs after %s", line).isGreaterThan(fsyncsBefore);
+                        assertThat(readDayFile()).as("day-file after %s", line).contains(line);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int entries = PRODUCERS * PER_PRODUCER;
+        assertThat(journal.getMetrics()).containsEntry("writeErrors", 0L);
+        if (durability == JournalDurability.SYNC) {
+            assertThat(fsyncs()).isGreaterThanOrEqualTo(entries);
+        }
+        assertThat(readDayFile()).hasSize(entries);
+    }
+
+    private long fsyncs() {
+        return (Long) journal.getMetrics().get("fsyncs");
+    }
+
+    private static List<String> readDayFile() throws Exception {
+        Path path = FileReporter.activityLogPath(DAY);
+        return Files.exists(path) ? Files.readAllLines(path, StandardCharsets.UTF_8) : List.of();
+    }
+}